@@ -0,0 +1,172 @@
+package org.dplevine.patterns.pipeline;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The AnnotationIndex class holds the pipeline annotations (@StageBuilderDefinition and @PipelineStepsDefinition) found on a set of
+ * classes, keyed by class name so the classes themselves never have to be loaded.  An index is either generated at compile time by the
+ * PipelineAnnotationProcessor (and written as a resource, see RESOURCE) or built at runtime by scanning the classpath.  The compile time
+ * index only covers the classpath entry it is in, every other entry holding the package is still scanned (see ClasspathScanner).
+ *
+ * Index resource layout (UTF-8, one entry per line, tab separated, tabs/newlines/backslashes in values are backslash escaped):
+ *     S <className> <stage id>
+ *     P <className> <pipelineRootId> <parallelId> <step>*
+ */
+final class AnnotationIndex {
+
+    static final String RESOURCE = "META-INF/org.dplevine.patterns.pipeline/annotations.idx";
+    private static final String STAGE_BUILDER = "S";
+    private static final String PIPELINE_STEPS = "P";
+
+    static final class StageBuilderEntry {
+        private final String className;
+        private final String id;
+
+        StageBuilderEntry(String className, String id) {
+            this.className = className;
+            this.id = id;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        String getId() {
+            return id;
+        }
+    }
+
+    static final class PipelineStepsEntry {
+        private final String className;
+        private final String pipelineRootId;
+        private final String parallelId;
+        private final String[] steps;
+
+        PipelineStepsEntry(String className, String pipelineRootId, String parallelId, String[] steps) {
+            this.className = className;
+            this.pipelineRootId = pipelineRootId;
+            this.parallelId = parallelId;
+            this.steps = steps;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        String getPipelineRootId() {
+            return pipelineRootId;
+        }
+
+        String getParallelId() {
+            return parallelId;
+        }
+
+        String[] getSteps() {
+            return steps;
+        }
+    }
+
+    private final List<StageBuilderEntry> stageBuilders = new ArrayList<>();
+    private final List<PipelineStepsEntry> pipelineSteps = new ArrayList<>();
+
+    AnnotationIndex() {
+    }
+
+    List<StageBuilderEntry> getStageBuilders() {
+        return stageBuilders;
+    }
+
+    List<PipelineStepsEntry> getPipelineSteps() {
+        return pipelineSteps;
+    }
+
+    boolean isEmpty() {
+        return stageBuilders.isEmpty() && pipelineSteps.isEmpty();
+    }
+
+    void addStageBuilder(String className, String id) {
+        stageBuilders.add(new StageBuilderEntry(className, id));
+    }
+
+    void addPipelineSteps(String className, String pipelineRootId, String parallelId, String[] steps) {
+        pipelineSteps.add(new PipelineStepsEntry(className, pipelineRootId, parallelId, steps));
+    }
+
+    void addAll(AnnotationIndex index) {
+        stageBuilders.addAll(index.stageBuilders);
+        pipelineSteps.addAll(index.pipelineSteps);
+    }
+
+    // the part of this index that belongs to a package (or one of its sub-packages)
+    AnnotationIndex forPackage(String packageName) {
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        AnnotationIndex index = new AnnotationIndex();
+        stageBuilders.stream().filter(entry -> entry.getClassName().startsWith(prefix)).forEach(index.stageBuilders::add);
+        pipelineSteps.stream().filter(entry -> entry.getClassName().startsWith(prefix)).forEach(index.pipelineSteps::add);
+        return index;
+    }
+
+    // reads the compile time index of a classpath entry and returns the part that belongs to the package
+    static AnnotationIndex load(InputStream inputStream, String packageName) throws IOException {
+        return read(new InputStreamReader(inputStream, StandardCharsets.UTF_8)).forPackage(packageName);
+    }
+
+    // writer and reader
+    void write(Writer writer) throws IOException {
+        for (StageBuilderEntry entry : stageBuilders) {
+            writer.write(STAGE_BUILDER + "\t" + escape(entry.getClassName()) + "\t" + escape(entry.getId()) + "\n");
+        }
+        for (PipelineStepsEntry entry : pipelineSteps) {
+            StringBuilder line = new StringBuilder(PIPELINE_STEPS);
+            line.append('\t').append(escape(entry.getClassName())).append('\t').append(escape(entry.getPipelineRootId())).append('\t').append(escape(entry.getParallelId()));
+            for (String step : entry.getSteps()) {
+                line.append('\t').append(escape(step));
+            }
+            writer.write(line.append('\n').toString());
+        }
+        writer.flush();
+    }
+
+    static AnnotationIndex read(Reader reader) throws IOException {
+        AnnotationIndex index = new AnnotationIndex();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            if (fields[0].equals(STAGE_BUILDER) && fields.length == 3) {
+                index.addStageBuilder(unescape(fields[1]), unescape(fields[2]));
+            } else if (fields[0].equals(PIPELINE_STEPS) && fields.length >= 4) {
+                String[] steps = new String[fields.length - 4];
+                for (int i = 0; i < steps.length; i++) {
+                    steps[i] = unescape(fields[i + 4]);
+                }
+                index.addPipelineSteps(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]), steps);
+            }
+            // anything else is from a newer format (or blank) and is ignored
+        }
+        return index;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
@@ -12,6 +12,10 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 
+/**
+ * The AnnotationScanner class finds the classes of a package that carry an annotation.  Classes are loaded without being initialized.
+ * The pipeline builder itself reads annotations through the ClasspathScanner (which does not load classes at all).
+ */
 public class AnnotationScanner {
     public static List<Class<?>> scanClassesWithAnnotation(String packageName, Class<? extends Annotation> annotation) throws IOException, ClassNotFoundException {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
@@ -23,18 +27,18 @@ public class AnnotationScanner {
             URL resource = resources.nextElement();
             if (resource.getProtocol().equals("file")) {
                 String filePath = resource.getFile();
-                classes.addAll(getClassesWithAnnotationInDirectory(packageName, filePath, annotation));
+                classes.addAll(getClassesWithAnnotationInDirectory(packageName, filePath, annotation, classLoader));
             } else if (resource.getProtocol().equals("jar")) {
                 JarURLConnection jarURLConnection = (JarURLConnection) resource.openConnection();
                 JarFile jarFile = jarURLConnection.getJarFile();
-                classes.addAll(getClassesWithAnnotationInJar(packageName, jarFile, annotation));
+                classes.addAll(getClassesWithAnnotationInJar(packageName, jarFile, annotation, classLoader));
             }
         }
 
         return classes;
     }
 
-    private static List<Class<?>> getClassesWithAnnotationInDirectory(String packageName, String filePath, Class<? extends Annotation> annotation) throws ClassNotFoundException {
+    private static List<Class<?>> getClassesWithAnnotationInDirectory(String packageName, String filePath, Class<? extends Annotation> annotation, ClassLoader classLoader) throws ClassNotFoundException {
         List<Class<?>> classes = new Vector<>();
         File directory = new File(filePath);
         if (directory.exists()) {
@@ -42,10 +46,10 @@ public class AnnotationScanner {
             if (files != null) {
                 for (File file : files) {
                     if (file.isDirectory()) {
-                        classes.addAll(getClassesWithAnnotationInDirectory(packageName + "." + file.getName(), file.getAbsolutePath(), annotation));
+                        classes.addAll(getClassesWithAnnotationInDirectory(packageName + "." + file.getName(), file.getAbsolutePath(), annotation, classLoader));
                     } else if (file.getName().endsWith(".class")) {
                         String className = packageName + '.' + file.getName().substring(0, file.getName().length() - 6);
-                        Class<?> clazz = Class.forName(className);
+                        Class<?> clazz = Class.forName(className, false, classLoader);
                         if (clazz.isAnnotationPresent(annotation)) {
                             classes.add(clazz);
                         }
@@ -56,7 +60,7 @@ public class AnnotationScanner {
         return classes;
     }
 
-    private static List<Class<?>> getClassesWithAnnotationInJar(String packageName, JarFile jarFile, Class<? extends Annotation> annotation) throws IOException, ClassNotFoundException {
+    private static List<Class<?>> getClassesWithAnnotationInJar(String packageName, JarFile jarFile, Class<? extends Annotation> annotation, ClassLoader classLoader) throws IOException, ClassNotFoundException {
         List<Class<?>> classes = new Vector<>();
         Enumeration<JarEntry> entries = jarFile.entries();
         while (entries.hasMoreElements()) {
@@ -64,7 +68,7 @@ public class AnnotationScanner {
             if (entry.getName().endsWith(".class")) {
                 String className = entry.getName().replace('/', '.').substring(0, entry.getName().length() - 6);
                 if (className.startsWith(packageName)) {
-                    Class<?> clazz = Class.forName(className);
+                    Class<?> clazz = Class.forName(className, false, classLoader);
                     if (clazz.isAnnotationPresent(annotation)) {
                         classes.add(clazz);
                     }
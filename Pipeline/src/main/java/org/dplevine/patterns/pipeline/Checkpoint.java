@@ -0,0 +1,71 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Checkpoint class captures the progress of a pipeline run: the ids of the stages (including sub-pipelines and parallels) that
+ * completed successfully and a snapshot of the context objects registered with the checkpoint's serializer.  Checkpoints are keyed
+ * by the pipeline id and the run id (see ExecutionContext.getRunId()), so concurrent runs of a pipeline each keep their own.
+ *
+ * A checkpoint is written to a CheckpointStore after every successful stage and can be handed to Pipeline.resume(checkpoint) to
+ * restart a failed run from where it left off, skipping every stage that already completed.
+ */
+public final class Checkpoint {
+    private final String pipelineId;
+    private final UUID runId;
+    private final Set<String> completedStages = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> objects = Collections.synchronizedMap(new HashMap<>());
+
+    // ctors
+    public Checkpoint(String pipelineId, UUID runId) {
+        this.pipelineId = pipelineId;
+        this.runId = runId;
+    }
+
+    Checkpoint(String pipelineId, UUID runId, Set<String> completedStages, Map<String, Object> objects) {
+        this(pipelineId, runId);
+        this.completedStages.addAll(completedStages);
+        this.objects.putAll(objects);
+    }
+
+    // getters
+    public String getPipelineId() {
+        return pipelineId;
+    }
+
+    public UUID getRunId() {
+        return runId;
+    }
+
+    public Set<String> getCompletedStages() {
+        return Collections.unmodifiableSet(completedStages);
+    }
+
+    public boolean isCompleted(String stageId) {
+        return completedStages.contains(stageId);
+    }
+
+    public Map<String, Object> getObjects() {
+        return Collections.unmodifiableMap(objects);
+    }
+
+    void markCompleted(String stageId) {
+        completedStages.add(stageId);
+    }
+
+    Map<String, Object> objects() {
+        return objects;
+    }
+
+    // an independent copy (used by the stores so that the live checkpoint can keep changing)
+    Checkpoint copy() {
+        synchronized (objects) {
+            return new Checkpoint(pipelineId, runId, completedStages, objects);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The CheckpointStore interface is the pluggable persistence mechanism for pipeline checkpoints.  Checkpoints are keyed by the id of
+ * the (root) pipeline they belong to and by the id of the run that saved them, so concurrent runs of a pipeline never overwrite each
+ * other's checkpoint.
+ */
+public interface CheckpointStore {
+
+    void save(Checkpoint checkpoint) throws Exception;
+
+    // returns null if no checkpoint exists for the run of the pipeline
+    Checkpoint load(String pipelineId, UUID runId) throws Exception;
+
+    // the runs of the pipeline that have a checkpoint (i.e., that can be resumed)
+    List<UUID> getRunIds(String pipelineId) throws Exception;
+
+    void delete(String pipelineId, UUID runId) throws Exception;
+}
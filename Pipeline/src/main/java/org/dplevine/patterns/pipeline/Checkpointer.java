@@ -0,0 +1,93 @@
+package org.dplevine.patterns.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * The Checkpointer class is carried by the ExecutionContext of a checkpointed (or resumed) run.  The StageRunner asks it which stages
+ * can be skipped and notifies it after every successful stage so it can update and save the checkpoint.  This is not exposed outside
+ * of the framework.
+ */
+final class Checkpointer {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpointer.class);
+
+    private final Checkpoint checkpoint;
+    private final CheckpointStore store;  // may be null (i.e., resuming without persisting any further progress)
+    private final ExecutionContextSerializer serializer;  // decides which context objects are part of the checkpoint
+
+    Checkpointer(Checkpoint checkpoint, CheckpointStore store, ExecutionContextSerializer serializer) {
+        this.checkpoint = checkpoint;
+        this.store = store;
+        this.serializer = serializer;
+    }
+
+    Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    private boolean isRoot(StageWrapper stageWrapper) {
+        return stageWrapper.getId().equals(checkpoint.getPipelineId());
+    }
+
+    boolean isCompleted(StageWrapper stageWrapper) {
+        return !isRoot(stageWrapper) && checkpoint.isCompleted(stageWrapper.getId());
+    }
+
+    // copy the checkpointed objects into the context of the resumed run
+    void restore(ExecutionContext context) {
+        context.getObjects().putAll(checkpoint.objects());
+    }
+
+    // a sub-pipeline or parallel only counts as completed if everything inside of it completed (i.e., with fastFail == false
+    // a sub-pipeline runs to the end even if one of its stages failed)
+    private boolean isFullyCompleted(StageWrapper stageWrapper) {
+        if (stageWrapper instanceof Pipeline) {
+            return ((Pipeline) stageWrapper).getStages().stream().allMatch(stage -> checkpoint.isCompleted(stage.getId()));
+        } else if (stageWrapper instanceof Parallel) {
+            return ((Parallel) stageWrapper).getParallelPipelines().stream().allMatch(pipeline -> checkpoint.isCompleted(pipeline.getId()));
+        }
+        return true;
+    }
+
+    void stageCompleted(StageWrapper stageWrapper, ExecutionContext context) {
+        if (isRoot(stageWrapper) || !isFullyCompleted(stageWrapper)) {
+            return;
+        }
+
+        synchronized (this) {  // stages of parallel pipelines complete concurrently
+            checkpoint.markCompleted(stageWrapper.getId());
+            if (serializer != null) {
+                Map<String, Object> objects = context.getObjects();
+                synchronized (objects) {
+                    objects.forEach((key, value) -> {
+                        if (value != null && serializer.isRegistered(key)) {
+                            checkpoint.objects().put(key, value);
+                        }
+                    });
+                }
+            }
+
+            if (store != null) {
+                try {
+                    store.save(checkpoint);
+                } catch (Exception e) {
+                    // checkpointing is best effort, a failed save must not fail the run itself
+                    logger.error("Could not save the checkpoint for pipeline: " + checkpoint.getPipelineId() + ", error: " + e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    // the run completed, if every stage succeeded there is nothing left to resume
+    void pipelineCompleted(Pipeline root) {
+        if (store != null && isFullyCompleted(root)) {
+            try {
+                store.delete(checkpoint.getPipelineId(), checkpoint.getRunId());
+            } catch (Exception e) {
+                logger.error("Could not delete the checkpoint for pipeline: " + checkpoint.getPipelineId() + ", error: " + e.getLocalizedMessage());
+            }
+        }
+    }
+}
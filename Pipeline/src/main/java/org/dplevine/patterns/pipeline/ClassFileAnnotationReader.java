@@ -0,0 +1,215 @@
+package org.dplevine.patterns.pipeline;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ClassFileAnnotationReader class reads the pipeline annotations (@StageBuilderDefinition, @PipelineStepsDefinition and their
+ * repeated containers) straight from the bytes of a class file (i.e., the RuntimeVisibleAnnotations attribute), so a class can be
+ * inspected without being loaded, linked or initialized.
+ *
+ * Only what is needed is decoded: the constant pool, then fields and methods are skipped over to reach the class attributes.
+ */
+final class ClassFileAnnotationReader {
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String STAGE_BUILDER = descriptor(StageBuilderDefinition.class);
+    private static final String STAGE_BUILDERS = descriptor(StageBuilderDefinitions.class);
+    private static final String PIPELINE_STEPS = descriptor(PipelineStepsDefinition.class);
+    private static final String PIPELINE_STEPS_CONTAINER = descriptor(PipelineStepsDefinitions.class);
+    private static final byte[] PACKAGE_BYTES = StageBuilderDefinition.class.getPackageName().replace('.', '/').getBytes(StandardCharsets.UTF_8);
+
+    private ClassFileAnnotationReader() {
+    }
+
+    private static String descriptor(Class<?> annotation) {
+        return "L" + annotation.getName().replace('.', '/') + ";";
+    }
+
+    // a parsed annotation (element values are a String, a String[] or a nested Annotation, everything else is skipped)
+    private static final class Annotation {
+        private final String type;
+        private final List<String> names = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+
+        Annotation(String type) {
+            this.type = type;
+        }
+
+        Object get(String name) {
+            int index = names.indexOf(name);
+            return (index < 0) ? null : values.get(index);
+        }
+
+        String getString(String name, String defaultValue) {
+            Object value = get(name);
+            return (value instanceof String) ? (String) value : defaultValue;
+        }
+
+        Object[] getArray(String name) {
+            Object value = get(name);
+            return (value instanceof Object[]) ? (Object[]) value : new Object[0];
+        }
+    }
+
+    // adds the pipeline annotations of the class to the index, returns false if the class has none (or is not a class file)
+    static boolean read(byte[] classFile, AnnotationIndex index) {
+        if (!mayReferencePipelineAnnotations(classFile)) {
+            return false;
+        }
+        try {
+            return read(ByteBuffer.wrap(classFile), index);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | ClassCastException e) {
+            return false;  // truncated or malformed class file
+        }
+    }
+
+    // cheap pre-check: a class annotated with a pipeline annotation has the annotation's package in its constant pool
+    private static boolean mayReferencePipelineAnnotations(byte[] classFile) {
+        outer:
+        for (int i = 0; i <= classFile.length - PACKAGE_BYTES.length; i++) {
+            for (int j = 0; j < PACKAGE_BYTES.length; j++) {
+                if (classFile[i + j] != PACKAGE_BYTES[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean read(ByteBuffer buffer, AnnotationIndex index) {
+        if (buffer.getInt() != CLASS_MAGIC) {
+            return false;
+        }
+        buffer.getShort();  // minor version
+        buffer.getShort();  // major version
+
+        // constant pool: only the UTF8 entries (by index) and the class entries (name index) are kept
+        int constantPoolCount = buffer.getShort() & 0xFFFF;
+        Object[] constantPool = new Object[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = buffer.get() & 0xFF;
+            switch (tag) {
+                case 1:  // Utf8
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    constantPool[i] = new String(bytes, StandardCharsets.UTF_8);  // modified UTF-8, identical for the names and ids we read
+                    break;
+                case 7:  // Class
+                    constantPool[i] = buffer.getShort() & 0xFFFF;
+                    break;
+                case 8: case 16: case 19: case 20:  // String, MethodType, Module, Package
+                    buffer.position(buffer.position() + 2);
+                    break;
+                case 15:  // MethodHandle
+                    buffer.position(buffer.position() + 3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:  // Integer, Float, refs, NameAndType, Dynamic, InvokeDynamic
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case 5: case 6:  // Long, Double (take two entries)
+                    buffer.position(buffer.position() + 8);
+                    i++;
+                    break;
+                default:
+                    return false;  // unknown constant, newer class file format
+            }
+        }
+
+        buffer.getShort();  // access flags
+        String className = ((String) constantPool[(Integer) constantPool[buffer.getShort() & 0xFFFF]]).replace('/', '.');
+        buffer.getShort();  // super class
+        int interfaceCount = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + 2 * interfaceCount);  // interfaces
+        skipMembers(buffer);  // fields
+        skipMembers(buffer);  // methods
+
+        boolean found = false;
+        int attributeCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = (String) constantPool[buffer.getShort() & 0xFFFF];
+            int length = buffer.getInt();
+            int end = buffer.position() + length;
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)) {
+                int annotationCount = buffer.getShort() & 0xFFFF;
+                for (int j = 0; j < annotationCount; j++) {
+                    found |= addAnnotation(className, readAnnotation(buffer, constantPool), index);
+                }
+            }
+            buffer.position(end);
+        }
+        return found;
+    }
+
+    private static void skipMembers(ByteBuffer buffer) {
+        int memberCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < memberCount; i++) {
+            buffer.position(buffer.position() + 6);  // access flags, name, descriptor
+            int attributeCount = buffer.getShort() & 0xFFFF;
+            for (int j = 0; j < attributeCount; j++) {
+                buffer.getShort();
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + length);
+            }
+        }
+    }
+
+    private static Annotation readAnnotation(ByteBuffer buffer, Object[] constantPool) {
+        Annotation annotation = new Annotation((String) constantPool[buffer.getShort() & 0xFFFF]);
+        int pairCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < pairCount; i++) {
+            annotation.names.add((String) constantPool[buffer.getShort() & 0xFFFF]);
+            annotation.values.add(readElementValue(buffer, constantPool));
+        }
+        return annotation;
+    }
+
+    private static Object readElementValue(ByteBuffer buffer, Object[] constantPool) {
+        char tag = (char) (buffer.get() & 0xFF);
+        switch (tag) {
+            case 's':
+                return constantPool[buffer.getShort() & 0xFFFF];
+            case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 'c':
+                buffer.getShort();
+                return null;
+            case 'e':
+                buffer.getInt();
+                return null;
+            case '@':
+                return readAnnotation(buffer, constantPool);
+            case '[':
+                Object[] values = new Object[buffer.getShort() & 0xFFFF];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readElementValue(buffer, constantPool);
+                }
+                return values;
+            default:
+                throw new IndexOutOfBoundsException("Unknown annotation element tag: " + tag);
+        }
+    }
+
+    private static boolean addAnnotation(String className, Annotation annotation, AnnotationIndex index) {
+        if (STAGE_BUILDER.equals(annotation.type)) {
+            index.addStageBuilder(className, annotation.getString("id", null));
+        } else if (PIPELINE_STEPS.equals(annotation.type)) {
+            Object[] steps = annotation.getArray("steps");
+            String[] stepIds = new String[steps.length];
+            for (int i = 0; i < steps.length; i++) {
+                stepIds[i] = (String) steps[i];
+            }
+            index.addPipelineSteps(className, annotation.getString("pipelineRootId", null), annotation.getString("parallelId", ""), stepIds);
+        } else if (STAGE_BUILDERS.equals(annotation.type) || PIPELINE_STEPS_CONTAINER.equals(annotation.type)) {
+            for (Object repeated : annotation.getArray("value")) {
+                addAnnotation(className, (Annotation) repeated, index);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package org.dplevine.patterns.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The ClasspathScanner class finds the pipeline annotations of a package without loading any of its classes: every class file of the
+ * package is read as bytes and parsed by the ClassFileAnnotationReader.  The classpath entries (directories and jars) that hold the
+ * package are scanned in parallel, as are the class files within them.  An entry with a compile time index (see AnnotationIndex.RESOURCE
+ * and PipelineAnnotationProcessor) is not scanned, the part of its index that belongs to the package is read instead.
+ *
+ * Results are cached per classpath entry and package (for the life of the class loader that loaded this class), so building several
+ * PipelineBuilders over the same packages scans them only once.  A jar's cache entry is keyed on its size and modification time, and a
+ * directory's on the number of class files and the latest modification time of anything under it (walking a directory is much cheaper
+ * than reading its class files), so recompiled classes are scanned again.
+ */
+final class ClasspathScanner {
+
+    private static final Map<String, AnnotationIndex> cache = new ConcurrentHashMap<>();
+
+    private ClasspathScanner() {
+    }
+
+    static AnnotationIndex scan(ClassLoader classLoader, String packageName) throws IOException {
+        String path = packageName.replace('.', '/');
+        List<URL> roots = Collections.list(classLoader.getResources(path));
+
+        try {
+            List<AnnotationIndex> indexes = roots.parallelStream().map(root -> {
+                try {
+                    return scanRoot(root, packageName, path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());  // in classpath order
+            return merge(indexes);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void clearCache() {
+        cache.clear();
+    }
+
+    private static AnnotationIndex scanRoot(URL root, String packageName, String path) throws IOException {
+        if (root.getProtocol().equals("file")) {
+            Path directory;
+            try {
+                directory = Paths.get(root.toURI());
+            } catch (URISyntaxException e) {
+                directory = Paths.get(root.getFile());
+            }
+            Path entryDirectory = directory;  // the classpath entry holding the package directory
+            for (int i = 0; i < (path.isEmpty() ? 0 : path.split("/").length) && entryDirectory != null; i++) {
+                entryDirectory = entryDirectory.getParent();
+            }
+            Path indexFile = (entryDirectory == null) ? null : entryDirectory.resolve(AnnotationIndex.RESOURCE);
+            if (indexFile != null && Files.isRegularFile(indexFile)) {
+                try (InputStream inputStream = Files.newInputStream(indexFile)) {
+                    return AnnotationIndex.load(inputStream, packageName);
+                }
+            }
+            List<Path> classFiles = new ArrayList<>();
+            long lastModified = 0;
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) paths::iterator) {
+                    lastModified = Math.max(lastModified, Files.getLastModifiedTime(file).toMillis());  // a deletion touches the parent directory
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        classFiles.add(file);
+                    }
+                }
+            }
+            Collections.sort(classFiles);
+            return cached(directory.toString(), classFiles.size() + ":" + lastModified, () -> scanDirectory(classFiles));
+        } else if (root.getProtocol().equals("jar")) {
+            JarURLConnection jarURLConnection = (JarURLConnection) root.openConnection();
+            Path jarPath;
+            try {
+                jarPath = Paths.get(jarURLConnection.getJarFileURL().toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new IOException("Unsupported jar location: " + root, e);
+            }
+            return cached(jarPath + "!" + path, Files.size(jarPath) + ":" + Files.getLastModifiedTime(jarPath).toMillis(), () -> scanJar(jarPath, packageName, path));
+        }
+        return new AnnotationIndex();  // unsupported protocol
+    }
+
+    // scans outside of the map (i.e., not in computeIfAbsent) so a long scan never blocks lookups of other entries, a new stamp of the
+    // entry replaces the cached scans of its previous stamps
+    private static AnnotationIndex cached(String entry, String stamp, Supplier<AnnotationIndex> scanner) {
+        String key = entry + "@" + stamp;
+        AnnotationIndex index = cache.get(key);
+        if (index == null) {
+            index = scanner.get();
+            cache.keySet().removeIf(cachedKey -> cachedKey.startsWith(entry + "@"));
+            AnnotationIndex existing = cache.putIfAbsent(key, index);
+            index = (existing == null) ? index : existing;
+        }
+        return index;
+    }
+
+    private static AnnotationIndex scanDirectory(List<Path> classFiles) {
+        return merge(classFiles.parallelStream().map(classFile -> {
+            try {
+                return readClass(Files.readAllBytes(classFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList()));
+    }
+
+    private static AnnotationIndex scanJar(Path jarPath, String packageName, String path) {
+        try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+            JarEntry indexEntry = jarFile.getJarEntry(AnnotationIndex.RESOURCE);
+            if (indexEntry != null) {
+                try (InputStream inputStream = jarFile.getInputStream(indexEntry)) {
+                    return AnnotationIndex.load(inputStream, packageName);
+                }
+            }
+
+            List<JarEntry> entries = jarFile.stream()
+                    .filter(entry -> entry.getName().startsWith(path + "/") && entry.getName().endsWith(".class"))
+                    .collect(Collectors.toList());
+
+            return merge(entries.parallelStream().map(entry -> {
+                try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                    return readClass(inputStream.readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static AnnotationIndex readClass(byte[] classFile) {
+        AnnotationIndex index = new AnnotationIndex();
+        ClassFileAnnotationReader.read(classFile, index);
+        return index;
+    }
+
+    private static AnnotationIndex merge(List<AnnotationIndex> indexes) {
+        AnnotationIndex index = new AnnotationIndex();
+        indexes.forEach(index::addAll);
+        return index;
+    }
+}
@@ -0,0 +1,261 @@
+package org.dplevine.patterns.pipeline;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The CompiledPipelineSpec class reads and writes the compact binary (.pspec) pipeline specification format.  A compiled spec is
+ * produced at build time (see main()) from a JSON or YAML spec that has already been validated, checked for cycles and whose stage
+ * classes have been resolved, so loading it at runtime is a memory-mapped read with no parsing and no re-validation.
+ *
+ * All the ids and class names are written once into a string table and referenced by index everywhere else, so every reference to
+ * the same id shares a single String instance once loaded.
+ *
+ * Layout: int magic | byte version | int stringCount | strings (int length + UTF-8) | int specId |
+ *         int stageCount | (int id, int className, int compensation (-1 if none))* | int parallelCount | (int id, int pipelineCount | (int stepCount | int step*)*)* |
+ *         int stepCount | int step*                                              (all ids and class names are string table indexes)
+ */
+public final class CompiledPipelineSpec {
+
+    public static final String SUFFIX = ".pspec";
+    private static final int MAGIC = 0x50535043;  // "PSPC"
+    private static final byte FORMAT_VERSION = 2;  // 2: stage compensations
+
+    private CompiledPipelineSpec() {
+    }
+
+    public static boolean isCompiledSpec(String pathname) {
+        return pathname.toLowerCase().endsWith(SUFFIX);
+    }
+
+    // the compiled spec that sits next to a JSON/YAML spec (i.e., same name, .pspec suffix), null if there is none or it is stale
+    static Path findCompiledSpec(String pathname) {
+        int suffixIndex = pathname.lastIndexOf('.');
+        if (suffixIndex < 0) {
+            return null;
+        }
+        Path source = Paths.get(pathname);
+        Path compiled = Paths.get(pathname.substring(0, suffixIndex) + SUFFIX);
+        try {
+            if (Files.exists(compiled) && Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+                return compiled;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+
+    // validates, links and writes the specification (i.e., the build time part)
+    public static void compile(PipelineSpecification spec, Path output) throws Exception {
+        SpecValidationResult result = PipelineSpecValidator.validate(spec);
+        if (!result.isValid()) {
+            throw new SpecValidationException(result);
+        }
+        if (PipelineGenerator.isPipelineAcyclic(spec)) {
+            throw new PipelineBuilderException("Pipeline specification is not acyclic, please correct and try again");
+        }
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        for (PipelineSpecification.StageDefinition stageDef : spec.getStages()) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(stageDef.getClassName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new PipelineBuilderException("Could not resolve the StageBuilder class: " + stageDef.getClassName());
+            }
+            if (!StageBuilder.class.isAssignableFrom(clazz)) {
+                throw new PipelineBuilderException("The class " + stageDef.getClassName() + " (stage " + stageDef.getId() + ") is not a StageBuilder");
+            }
+        }
+
+        // written next to the output and moved into place, so a reader never maps a partially written specification
+        Path directory = output.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                write(spec, out);
+            }
+            Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void write(PipelineSpecification spec, DataOutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        StringTable table = new StringTable(strings);
+
+        // intern everything first so the string table can be written up front
+        table.index(spec.getId());
+        spec.getStages().forEach(stageDef -> {
+            table.index(stageDef.getId());
+            table.index(stageDef.getClassName());
+            if (stageDef.getCompensation() != null) {
+                table.index(stageDef.getCompensation());
+            }
+        });
+        spec.getParallels().forEach(parallelDef -> {
+            table.index(parallelDef.getId());
+            parallelDef.getParallelPipelines().forEach(pipelineDef -> pipelineDef.getSteps().forEach(table::index));
+        });
+        spec.getSteps().forEach(table::index);
+
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(table.index(spec.getId()));
+        out.writeInt(spec.getStages().size());
+        for (PipelineSpecification.StageDefinition stageDef : spec.getStages()) {
+            out.writeInt(table.index(stageDef.getId()));
+            out.writeInt(table.index(stageDef.getClassName()));
+            out.writeInt((stageDef.getCompensation() == null) ? -1 : table.index(stageDef.getCompensation()));
+        }
+        out.writeInt(spec.getParallels().size());
+        for (PipelineSpecification.ParallelDefinition parallelDef : spec.getParallels()) {
+            out.writeInt(table.index(parallelDef.getId()));
+            out.writeInt(parallelDef.getParallelPipelines().size());
+            for (PipelineSpecification.PipelineDefinition pipelineDef : parallelDef.getParallelPipelines()) {
+                writeSteps(pipelineDef.getSteps(), table, out);
+            }
+        }
+        writeSteps(spec.getSteps(), table, out);
+    }
+
+    private static final class StringTable {
+        private final Map<String, Integer> strings;
+
+        StringTable(Map<String, Integer> strings) {
+            this.strings = strings;
+        }
+
+        int index(String string) {
+            return strings.computeIfAbsent(string, key -> strings.size());
+        }
+    }
+
+    private static void writeSteps(List<String> steps, StringTable table, DataOutputStream out) throws IOException {
+        out.writeInt(steps.size());
+        for (String step : steps) {
+            out.writeInt(table.index(step));
+        }
+    }
+
+    // loads a compiled specification, the returned specification is flagged as pre-validated
+    public static PipelineSpecification load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // a corrupt specification (e.g., an index or a length out of bounds) is reported as an IOException rather than a runtime exception
+    static PipelineSpecification read(ByteBuffer buffer) throws IOException {
+        try {
+            return readSpecification(buffer);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt compiled pipeline specification: " + e, e);
+        }
+    }
+
+    private static PipelineSpecification readSpecification(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a compiled pipeline specification");
+        }
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported compiled pipeline specification version: " + version + ", please recompile the specification");
+        }
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt compiled pipeline specification, string length: " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        PipelineSpecification spec = new PipelineSpecification(strings[buffer.getInt()]);
+        int stageCount = buffer.getInt();
+        List<PipelineSpecification.StageDefinition> stages = new Vector<>(stageCount);
+        for (int i = 0; i < stageCount; i++) {
+            String id = strings[buffer.getInt()];
+            String className = strings[buffer.getInt()];
+            int compensation = buffer.getInt();
+            stages.add(new PipelineSpecification.StageDefinition(id, className, (compensation < 0) ? null : strings[compensation]));
+        }
+        spec.setStages(stages);
+
+        int parallelCount = buffer.getInt();
+        List<PipelineSpecification.ParallelDefinition> parallels = new Vector<>(parallelCount);
+        for (int i = 0; i < parallelCount; i++) {
+            String id = strings[buffer.getInt()];
+            int pipelineCount = buffer.getInt();
+            List<PipelineSpecification.PipelineDefinition> parallelPipelines = new Vector<>(pipelineCount);
+            for (int j = 0; j < pipelineCount; j++) {
+                PipelineSpecification.PipelineDefinition pipelineDef = new PipelineSpecification.PipelineDefinition();
+                pipelineDef.setSteps(readSteps(buffer, strings));
+                parallelPipelines.add(pipelineDef);
+            }
+            parallels.add(new PipelineSpecification.ParallelDefinition(id, parallelPipelines));
+        }
+        spec.setParallels(parallels);
+        spec.setSteps(readSteps(buffer, strings));
+
+        spec.setPrevalidated(true);
+        return spec;
+    }
+
+    private static List<String> readSteps(ByteBuffer buffer, String[] strings) {
+        int stepCount = buffer.getInt();
+        List<String> steps = new Vector<>(stepCount);
+        for (int i = 0; i < stepCount; i++) {
+            steps.add(strings[buffer.getInt()]);
+        }
+        return steps;
+    }
+
+    /**
+     * Build time tool: compiles each JSON/YAML specification given on the command line into a .pspec file next to it
+     * (or into the output directory given with -d <directory>).
+     */
+    public static void main(String[] args) throws Exception {
+        Path outputDirectory = null;
+        List<String> pathnames = new Vector<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                outputDirectory = Files.createDirectories(Paths.get(args[++i]));
+            } else {
+                pathnames.add(args[i]);
+            }
+        }
+        if (pathnames.isEmpty()) {
+            System.err.println("usage: CompiledPipelineSpec [-d <output directory>] <spec.json|spec.yaml>...");
+            System.exit(1);
+        }
+
+        for (String pathname : pathnames) {
+            Path source = Paths.get(pathname);
+            String fileName = source.getFileName().toString();
+            String compiledName = fileName.substring(0, Math.max(0, fileName.lastIndexOf('.'))) + SUFFIX;
+            Path output = (outputDirectory == null) ? source.resolveSibling(compiledName) : outputDirectory.resolve(compiledName);
+            compile(PipelineSpecReader.read(source), output);
+            System.out.println("compiled " + source + " -> " + output);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.dplevine.patterns.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The EventJournal class is an EventSink that durably records pipeline events in an append-only journal made of memory-mapped
+ * segment files.  Events are written as binary records with a fixed layout header (record length, run id, time) followed by the
+ * length prefixed id, event type and details, so appending an event is little more than a copy into the mapped segment.
+ *
+ * Records are flushed to disk in groups by a background flusher (every flushIntervalMillis) rather than one at a time, and a new
+ * segment is started whenever the current one is full (if a new segment can not be started the journal closes itself, and events
+ * are dropped rather than failing the stages appending them).  The Reader iterates over the records of every segment and can reconstruct
+ * the event log of any run.  Every record carries a CRC32 of its contents, and the Reader ends a segment at the first record whose
+ * checksum does not match (i.e., a record that was torn by a crash before it was flushed).
+ *
+ * Record layout:  int length (of what follows, 0 marks the end of a segment) | int crc32 (of what follows) | long run id (msb) |
+ *                 long run id (lsb) | long time | int idLength | id | int eventTypeLength | eventType | int detailsLength | details
+ *                 (string lengths are -1 for null, version 1 segments have no crc32)
+ */
+public final class EventJournal implements EventSink, AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    private static final int SEGMENT_MAGIC = 0x504a524e;  // "PJRN"
+    private static final int SEGMENT_VERSION = 2;  // version 2 added the record crc32
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ScheduledExecutorService flusher;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    private boolean dirty = false;
+    private boolean closed = false;
+
+    // ctors
+    private EventJournal(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.segmentNumber = segmentPaths(directory).stream().mapToLong(EventJournal::segmentNumber).max().orElse(-1);  // never append to an old segment
+        openSegment();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EventJournal flusher: " + directory);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static EventJournal open(Path directory) throws IOException {
+        return new EventJournal(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public static EventJournal open(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + 16) {
+            throw new IllegalArgumentException("The journal segment size is too small: " + segmentSize);
+        }
+        return new EventJournal(directory, segmentSize, flushIntervalMillis);
+    }
+
+    private static List<Path> segmentPaths(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingLong(EventJournal::segmentNumber))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // must be called holding the lock (or from the ctor)
+    private void openSegment() throws IOException {
+        segmentNumber++;
+        Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+        FileChannel newChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            segment = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException | RuntimeException e) {
+            newChannel.close();
+            throw e;
+        }
+        channel = newChannel;
+        segment.putInt(SEGMENT_MAGIC);
+        segment.putInt(SEGMENT_VERSION);
+    }
+
+    // must be called holding the lock
+    private void closeSegment() throws IOException {
+        segment.force();
+        channel.close();  // the mapping stays valid until the buffer is garbage collected
+        dirty = false;
+    }
+
+    private static byte[] encode(String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int encodedLength(byte[] bytes) {
+        return 4 + ((bytes == null) ? 0 : bytes.length);
+    }
+
+    private static void put(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    @Override
+    //EventSink
+    public void append(UUID runId, ExecutionContext.Event event) {
+        // encode outside of the lock, only the copy into the segment is serialized
+        byte[] id = encode(event.getId());
+        byte[] eventType = encode(event.getEventType());
+        byte[] details = encode(event.getDetails());
+        int maxRecordSize = segmentSize - SEGMENT_HEADER_SIZE - 4;  // leave room for the end of segment marker
+        int recordSize = RECORD_HEADER_SIZE + encodedLength(id) + encodedLength(eventType) + encodedLength(details);
+        if (recordSize > maxRecordSize && details != null) {
+            details = Arrays.copyOf(details, Math.max(0, details.length - (recordSize - maxRecordSize)));  // truncate oversized details
+            recordSize = RECORD_HEADER_SIZE + encodedLength(id) + encodedLength(eventType) + encodedLength(details);
+        }
+        if (recordSize > maxRecordSize) {
+            logger.error("Event too large for the journal segment size, dropped event for: " + event.getId());
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                logger.error("The event journal is closed, dropped event for: " + event.getId());
+                return;
+            }
+            if (segment.remaining() < recordSize + 4 && !rollOver()) {
+                logger.error("The event journal is closed, dropped event for: " + event.getId());
+                return;
+            }
+            int start = segment.position();
+            segment.putInt(recordSize - 4);
+            segment.putInt(0);  // the crc32, once the record has been written
+            segment.putLong(runId.getMostSignificantBits());
+            segment.putLong(runId.getLeastSignificantBits());
+            segment.putLong(event.getTime());
+            put(segment, id);
+            put(segment, eventType);
+            put(segment, details);
+            segment.putInt(start + 4, checksum(segment, start + 8, segment.position()));
+            dirty = true;
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(to).position(from));
+        return (int) crc.getValue();
+    }
+
+    // must be called holding the lock, a journal that can not start a new segment is closed (the full segment must not be written to)
+    private boolean rollOver() {
+        try {
+            closeSegment();
+            openSegment();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not roll over the event journal segment, closing the journal: " + e.getLocalizedMessage());
+            closed = true;
+            flusher.shutdown();
+            return false;
+        }
+    }
+
+    // forces every record appended so far to disk (i.e., the group flush)
+    public void flush() {
+        MappedByteBuffer toFlush;
+        synchronized (this) {
+            if (!dirty || closed) {
+                return;
+            }
+            dirty = false;
+            toFlush = segment;
+        }
+        toFlush.force();
+    }
+
+    @Override
+    //AutoCloseable
+    public void close() throws IOException {
+        flusher.shutdown();
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                closeSegment();
+            }
+        }
+    }
+
+    // A record read back from the journal
+    public static final class Record {
+        private final UUID runId;
+        private final ExecutionContext.Event event;
+
+        Record(UUID runId, ExecutionContext.Event event) {
+            this.runId = runId;
+            this.event = event;
+        }
+
+        public UUID getRunId() {
+            return runId;
+        }
+
+        public ExecutionContext.Event getEvent() {
+            return event;
+        }
+    }
+
+    // Iterates over every record of every segment in the journal directory, in the order they were appended
+    public static final class Reader implements Iterator<Record> {
+        private final Iterator<Path> segments;
+        private ByteBuffer segment = null;
+        private boolean checksummed = false;  // whether the records of the current segment carry a crc32
+        private Record next = null;
+
+        public Reader(Path directory) throws IOException {
+            segments = segmentPaths(directory).iterator();
+        }
+
+        // reads a string of the given record, whose length must lie within the record
+        private static String get(ByteBuffer buffer) throws IOException {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > buffer.remaining()) {
+                throw new IOException("Corrupt event journal record, string length: " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer nextSegment() throws IOException {
+            while (segments.hasNext()) {
+                try (FileChannel channel = FileChannel.open(segments.next(), StandardOpenOption.READ)) {
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != SEGMENT_MAGIC) {
+                        continue;
+                    }
+                    int version = buffer.getInt();
+                    if (version == 1 || version == SEGMENT_VERSION) {
+                        checksummed = (version >= 2);
+                        return buffer;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Record readNext() throws IOException {
+            while (true) {
+                if (segment == null && (segment = nextSegment()) == null) {
+                    return null;
+                }
+                int length = (segment.remaining() >= 4) ? segment.getInt() : 0;
+                int headerSize = RECORD_HEADER_SIZE - (checksummed ? 4 : 8);
+                if (length < headerSize || length > segment.remaining()) {  // end of this segment (or a record torn by a crash)
+                    segment = null;
+                    continue;
+                }
+                ByteBuffer record = segment.slice().limit(length);
+                segment.position(segment.position() + length);
+                if (checksummed && record.getInt() != checksum(record, 4, length)) {  // a record torn by a crash
+                    segment = null;
+                    continue;
+                }
+                UUID runId = new UUID(record.getLong(), record.getLong());
+                long time = record.getLong();
+                return new Record(runId, new ExecutionContext.Event(time, get(record), get(record), get(record)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = readNext();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read the event journal", e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record record = next;
+            next = null;
+            return record;
+        }
+    }
+
+    // reconstructs the event log of a run
+    public static List<ExecutionContext.Event> readEventLog(Path directory, UUID runId) throws IOException {
+        List<ExecutionContext.Event> eventLog = new Vector<>();
+        Reader reader = new Reader(directory);
+        while (reader.hasNext()) {
+            Record record = reader.next();
+            if (record.getRunId().equals(runId)) {
+                eventLog.add(record.getEvent());
+            }
+        }
+        return eventLog;
+    }
+}
@@ -0,0 +1,12 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.UUID;
+
+/**
+ * The EventSink interface receives every event created while a pipeline runs (e.g., to make the event log durable for audit and
+ * post-mortem purposes).  Implementations are called from the threads running the stages and must be thread safe and fast.
+ */
+public interface EventSink {
+
+    void append(UUID runId, ExecutionContext.Event event);
+}
@@ -2,11 +2,14 @@ package org.dplevine.patterns.pipeline;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Primary data structure (a DTO) that is passed from one stage to another when invoking a pipeline.  This data structure contains
  * event log which is used exclusively by the framework itself for capturing key events during the invocation of a pipeline.
@@ -27,6 +30,16 @@ public class ExecutionContext {
     @JsonIgnore
     private boolean fastFail = true; // true by default
     private boolean failNow = false; // set to true if a stage fails AND fastFail == true
+    @JsonIgnore
+    private ExecutionContextPool.Lease lease = null; // only set when leased from a pool running in debug mode
+    @JsonIgnore
+    private Checkpointer checkpointer = null; // only set when the pipeline is checkpointed or resumed
+    @JsonIgnore
+    private EventSink eventSink = null; // only set when the pipeline's events are journaled
+    @JsonIgnore
+    private RunStatus runStatus = null; // the live status of the run using this context
+    @JsonIgnore
+    private UUID runId = nextRunId();
 
     public enum Status {
         SUCCESS,
@@ -42,11 +55,15 @@ public class ExecutionContext {
         String SUCCESS = "PIPELINE_SUCCEEDED";
         String FAILURE = "PIPELINE_FAILED";
         String EXCEPTION = "STAGE CALLED => EXCEPTION";
+        String RESTORED_STAGE = "STAGE_RESTORED => SUCCEEDED";
     }
 
+    @JsonPropertyOrder({"timestamp", "id", "eventType", "details"})
     public static class Event {
-        @JsonProperty(required = true)
-        private final String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
+        private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+        @JsonIgnore
+        private final long time;  // epoch millis, the timestamp string is only formatted when asked for
         @JsonProperty(required = true)
         private final String id;
         @JsonProperty(required = true)
@@ -55,13 +72,24 @@ public class ExecutionContext {
         private final String details;
 
         Event(String id, String eventType, String details) {
+            this(System.currentTimeMillis(), id, eventType, details);
+        }
+
+        Event(long time, String id, String eventType, String details) {
+            this.time = time;
             this.id = id;
             this.eventType = eventType;
             this.details = details;
         }
 
+        @JsonProperty(value = "timestamp", required = true)
         public String getTimestamp() {
-            return timestamp;
+            return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(time));
+        }
+
+        @JsonIgnore
+        public long getTime() {
+            return time;
         }
 
         public String getId() { return id;}
@@ -85,7 +113,7 @@ public class ExecutionContext {
         @Override
         public String toString() {
             try {
-                return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(this);
+                return ExecutionContextSerializer.PRETTY_JSON_WRITER.writeValueAsString(this);
             } catch (JsonProcessingException e) {
                 e.printStackTrace();
             }
@@ -94,7 +122,11 @@ public class ExecutionContext {
     }
 
     ExecutionContext createEvent(StageWrapper stage, String eventType, String details) {
-        eventLog.add(new Event(stage.getId(), eventType, details));
+        Event event = new Event(stage.getId(), eventType, details);
+        eventLog.add(event);
+        if (eventSink != null) {
+            eventSink.append(runId, event);
+        }
         return this;
     }
 
@@ -102,10 +134,31 @@ public class ExecutionContext {
         return eventLog;
     }
 
+    void addEvent(Event event) {
+        eventLog.add(event);
+    }
+
     // default constructor
     public ExecutionContext() {
     }
 
+    // run ids are unique per process (random high bits) and cheap to generate (a counter in the low bits), unlike UUID.randomUUID()
+    private static final long RUN_ID_PREFIX = new Random().nextLong();
+    private static final AtomicLong runIdCounter = new AtomicLong();
+
+    private static UUID nextRunId() {
+        return new UUID(RUN_ID_PREFIX, runIdCounter.incrementAndGet());
+    }
+
+    // identifies one use of this context (i.e., one pipeline run), a new id is assigned whenever the context is reset
+    public UUID getRunId() {
+        return runId;
+    }
+
+    void setRunId(UUID runId) {
+        this.runId = runId;
+    }
+
     public void addObject(String key, Object object) {
         objects.put(key, object);
     }
@@ -118,6 +171,11 @@ public class ExecutionContext {
         return objects.get(key);
     }
 
+    // the (synchronized) objects map, callers iterating over it must synchronize on the map
+    Map<String, Object> getObjects() {
+        return objects;
+    }
+
     public boolean isUndefined() {
         return status == Status.UNDEFINED;
     }
@@ -142,6 +200,10 @@ public class ExecutionContext {
 
     void setInProgress() { status = Status.IN_PROGRESS; }
 
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -166,6 +228,54 @@ public class ExecutionContext {
         }
     }
 
+    // resets this context to the state of a newly constructed context (used when recycling contexts via the ExecutionContextPool)
+    void reset() {
+        synchronized (this) {
+            status = Status.UNDEFINED;
+            failNow = false;
+            fastFail = true;
+        }
+        objects.clear();
+        eventLog.clear();
+        checkpointer = null;
+        eventSink = null;
+        runStatus = null;
+        runId = nextRunId();
+    }
+
+    ExecutionContextPool.Lease getLease() {
+        return lease;
+    }
+
+    void setLease(ExecutionContextPool.Lease lease) {
+        this.lease = lease;
+    }
+
+    Checkpointer getCheckpointer() {
+        return checkpointer;
+    }
+
+    void setCheckpointer(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    // the live status of the run using this context (set when the run starts), null if it was never run
+    public RunStatus getRunStatus() {
+        return runStatus;
+    }
+
+    void setRunStatus(RunStatus runStatus) {
+        this.runStatus = runStatus;
+    }
+
+    boolean isReleased() {
+        return lease != null && lease.isReleased();
+    }
+
     public List<Event> getExceptionEvents() {
         List<Event> filteredEvents = new Vector<>();
         eventLog.stream().filter(event -> event.getEventType().equals(EventType.EXCEPTION)).forEach(event -> filteredEvents.add(event));
@@ -194,7 +304,7 @@ public class ExecutionContext {
     @Override
     public String toString() {
         try {
-            return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(this);
+            return ExecutionContextSerializer.PRETTY_JSON_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,144 @@
+package org.dplevine.patterns.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The ExecutionContextPool class is an opt-in pool of recycled ExecutionContext instances for applications running pipelines at high
+ * request rates.  Contexts are acquired from the pool, passed to Pipeline.run(context) (or runDetached(context)), and released back
+ * to the pool once the application is done reading the results.  A released context is reset (status, failNow, fastFail, objects and
+ * event log) before it is handed out again.
+ *
+ * Each thread keeps a small cache of contexts of its own so that the common acquire/release cycle on the same thread never touches
+ * the shared (bounded) pool.  In debug mode the pool also detects contexts that are released twice, run after being released, or
+ * garbage collected without ever being released (i.e., leaked).
+ *
+ * @param <T> the type of ExecutionContext managed by this pool
+ */
+public final class ExecutionContextPool<T extends ExecutionContext> {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final int THREAD_LOCAL_CAPACITY = 4;
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionContextPool.class);
+
+    private final Supplier<T> factory;
+    private final boolean debug;
+    private final BlockingQueue<T> sharedPool;
+    private final ThreadLocal<ArrayDeque<T>> threadLocalPool = ThreadLocal.withInitial(() -> new ArrayDeque<>(THREAD_LOCAL_CAPACITY));
+
+    // debug mode only: outstanding leases (keeps the lease references reachable) and the queue they are enqueued on once collected
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<ExecutionContext> collectedContexts = new ReferenceQueue<>();
+
+    // handle on a leased context, only used in debug mode
+    static final class Lease extends WeakReference<ExecutionContext> {
+        private final Throwable acquiredAt = new Throwable("ExecutionContext acquired here");
+        private volatile boolean released = false;
+
+        Lease(ExecutionContext context, ReferenceQueue<ExecutionContext> queue) {
+            super(context, queue);
+        }
+
+        boolean isReleased() {
+            return released;
+        }
+
+        Throwable getAcquiredAt() {
+            return acquiredAt;
+        }
+    }
+
+    // ctors
+    private ExecutionContextPool(Supplier<T> factory, int capacity, boolean debug) {
+        this.factory = factory;
+        this.sharedPool = new ArrayBlockingQueue<>(capacity);
+        this.debug = debug;
+    }
+
+    public static ExecutionContextPool<ExecutionContext> createPool() {
+        return new ExecutionContextPool<>(ExecutionContext::new, DEFAULT_CAPACITY, false);
+    }
+
+    public static <T extends ExecutionContext> ExecutionContextPool<T> createPool(Supplier<T> factory) {
+        return new ExecutionContextPool<>(factory, DEFAULT_CAPACITY, false);
+    }
+
+    public static <T extends ExecutionContext> ExecutionContextPool<T> createPool(Supplier<T> factory, int capacity, boolean debug) {
+        return new ExecutionContextPool<>(factory, capacity, debug);
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public T acquire() {
+        T context = threadLocalPool.get().pollFirst();
+        if (context == null) {
+            context = sharedPool.poll();
+        }
+        if (context == null) {
+            context = factory.get();
+        }
+
+        if (debug) {
+            reportLeaks();
+            Lease lease = new Lease(context, collectedContexts);
+            leases.add(lease);
+            context.setLease(lease);
+        }
+        return context;
+    }
+
+    public void release(T context) throws PipelineExecutionException {
+        if (context == null) {
+            return;
+        }
+
+        if (debug) {
+            Lease lease = context.getLease();
+            if (lease == null || lease.isReleased()) {
+                throw new PipelineExecutionException("ExecutionContext released more than once (or was never acquired from this pool)");
+            }
+            if (context.isInProgress()) {
+                throw new PipelineExecutionException("ExecutionContext released while a pipeline is still running with it");
+            }
+            lease.released = true;
+            leases.remove(lease);
+            lease.clear();
+        }
+
+        context.reset();
+
+        ArrayDeque<T> localPool = threadLocalPool.get();
+        if (localPool.size() < THREAD_LOCAL_CAPACITY) {
+            localPool.addFirst(context);
+        } else {
+            sharedPool.offer(context);  // if the shared pool is full, the context is simply dropped (i.e., garbage collected)
+        }
+    }
+
+    // debug mode only: the number of contexts currently leased and not yet released
+    public int getOutstandingLeases() {
+        reportLeaks();
+        return leases.size();
+    }
+
+    // debug mode only: log (and forget) every context that was garbage collected without having been released
+    private void reportLeaks() {
+        Lease lease;
+        while ((lease = (Lease) collectedContexts.poll()) != null) {
+            if (leases.remove(lease)) {
+                logger.error("ExecutionContext leaked: it was garbage collected without being released to the pool", lease.getAcquiredAt());
+            }
+        }
+    }
+}
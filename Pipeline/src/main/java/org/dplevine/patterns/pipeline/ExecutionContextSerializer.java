@@ -0,0 +1,414 @@
+package org.dplevine.patterns.pipeline;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ExecutionContextSerializer class writes and reads a compact, schema based binary representation of an ExecutionContext
+ * (i.e., its status, its event log and the objects that were registered with the serializer) so that contexts can be cheaply
+ * snapshotted, shipped to another process, or persisted.
+ *
+ * Only objects whose keys were registered (along with a ValueCodec) are serialized, all other objects are left out of the snapshot.
+ * Every value is length prefixed, so a reader that does not know about a key simply skips over it. Lengths read back are
+ * bounded by MAX_LENGTH, and a context is only updated once its whole serialized form has been decoded.
+ *
+ * This class also holds the shared (thread safe) JSON writers used by the framework, rather than creating an ObjectMapper per call.
+ */
+public final class ExecutionContextSerializer {
+
+    static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
+    static final ObjectWriter PRETTY_JSON_WRITER = JSON_WRITER.withDefaultPrettyPrinter();
+
+    private static final int MAGIC = 0x50435458;  // "PCTX"
+    private static final byte FORMAT_VERSION = 2;  // version 2 added the run id
+    private static final byte FAST_FAIL_FLAG = 0x01;
+    private static final byte FAIL_NOW_FLAG = 0x02;
+    private static final ExecutionContext.Status[] STATUSES = ExecutionContext.Status.values();
+    static final int MAX_LENGTH = 16 * 1024 * 1024;  // the largest string or value that is read back
+    static final int MAX_SCRATCH_SIZE = 64 * 1024;  // scratch buffers that grew past this size are not kept by their thread
+
+    // codec used to write and read the value of a registered object
+    public interface ValueCodec<T> {
+        void write(T value, DataOutput out) throws IOException;
+        T read(DataInput in) throws IOException;
+    }
+
+    public static final ValueCodec<String> STRING = new ValueCodec<>() {
+        public void write(String value, DataOutput out) throws IOException { writeString(value, out); }
+        public String read(DataInput in) throws IOException { return readString(in); }
+    };
+
+    public static final ValueCodec<Integer> INTEGER = new ValueCodec<>() {
+        public void write(Integer value, DataOutput out) throws IOException { out.writeInt(value); }
+        public Integer read(DataInput in) throws IOException { return in.readInt(); }
+    };
+
+    public static final ValueCodec<Long> LONG = new ValueCodec<>() {
+        public void write(Long value, DataOutput out) throws IOException { out.writeLong(value); }
+        public Long read(DataInput in) throws IOException { return in.readLong(); }
+    };
+
+    public static final ValueCodec<Double> DOUBLE = new ValueCodec<>() {
+        public void write(Double value, DataOutput out) throws IOException { out.writeDouble(value); }
+        public Double read(DataInput in) throws IOException { return in.readDouble(); }
+    };
+
+    public static final ValueCodec<Boolean> BOOLEAN = new ValueCodec<>() {
+        public void write(Boolean value, DataOutput out) throws IOException { out.writeBoolean(value); }
+        public Boolean read(DataInput in) throws IOException { return in.readBoolean(); }
+    };
+
+    public static final ValueCodec<byte[]> BYTES = new ValueCodec<>() {
+        public void write(byte[] value, DataOutput out) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+        public byte[] read(DataInput in) throws IOException {
+            byte[] value = new byte[readLength(in, "byte array")];
+            in.readFully(value);
+            return value;
+        }
+    };
+
+    // a ByteArrayOutputStream that exposes its internal buffer (avoids the copy made by toByteArray())
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private static final ThreadLocal<Buffer> scratchBuffer = ThreadLocal.withInitial(() -> new Buffer(4096));
+    private final Map<String, ValueCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    // ctors
+    public ExecutionContextSerializer() {
+    }
+
+    public ExecutionContextSerializer registerObject(String key, ValueCodec<?> codec) {
+        codecs.put(key, codec);
+        return this;
+    }
+
+    boolean isRegistered(String key) {
+        return codecs.containsKey(key);
+    }
+
+    // shared JSON helpers
+    public static String toJson(Object value) throws JsonProcessingException {
+        return JSON_WRITER.writeValueAsString(value);
+    }
+
+    static String eventLogToJson(List<ExecutionContext.Event> eventLog) {
+        try {
+            synchronized (eventLog) {  // the event log is a Vector
+                return JSON_WRITER.writeValueAsString(eventLog);
+            }
+        } catch (JsonProcessingException e) {
+            return "[]";
+        }
+    }
+
+    // binary writers
+    public void write(ExecutionContext context, OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        write(context, (DataOutput) out);
+        out.flush();
+    }
+
+    // writes the context at the buffer's current position, throws a BufferOverflowException if the buffer is too small
+    public void write(ExecutionContext context, ByteBuffer byteBuffer) throws IOException {
+        Buffer buffer = scratchBuffer.get();
+        buffer.reset();
+        try {
+            write(context, (DataOutput) new DataOutputStream(buffer));
+            byteBuffer.put(buffer.getBuffer(), 0, buffer.size());
+        } finally {
+            trimScratchBuffer();
+        }
+    }
+
+    public byte[] toBytes(ExecutionContext context) throws IOException {
+        Buffer buffer = scratchBuffer.get();
+        buffer.reset();
+        try {
+            write(context, (DataOutput) new DataOutputStream(buffer));
+            return buffer.toByteArray();
+        } finally {
+            trimScratchBuffer();
+        }
+    }
+
+    // drops this thread's scratch buffer if a large context grew it past MAX_SCRATCH_SIZE (the next write starts over with a small one)
+    private static void trimScratchBuffer() {
+        if (scratchBuffer.get().getBuffer().length > MAX_SCRATCH_SIZE) {
+            scratchBuffer.remove();
+        }
+    }
+
+    // the size of this thread's scratch buffer
+    static int scratchBufferSize() {
+        return scratchBuffer.get().getBuffer().length;
+    }
+
+    void write(ExecutionContext context, DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(context.getStatus().ordinal());
+        out.writeByte((context.getFastFail() ? FAST_FAIL_FLAG : 0) | (context.getFailNow() ? FAIL_NOW_FLAG : 0));
+        out.writeLong(context.getRunId().getMostSignificantBits());
+        out.writeLong(context.getRunId().getLeastSignificantBits());
+
+        List<ExecutionContext.Event> eventLog = context.getEventLog();
+        synchronized (eventLog) {  // the event log is a Vector
+            out.writeInt(eventLog.size());
+            for (ExecutionContext.Event event : eventLog) {
+                out.writeLong(event.getTime());
+                writeString(event.getId(), out);
+                writeString(event.getEventType(), out);
+                writeString(event.getDetails(), out);
+            }
+        }
+        writeObjects(context.getObjects(), out);
+    }
+
+    void writeObjects(Map<String, Object> objects, DataOutput out) throws IOException {
+        ByteArrayOutputStream valueBuffer = new ByteArrayOutputStream(64);
+        DataOutputStream valueOut = new DataOutputStream(valueBuffer);
+        int count = 0;
+
+        synchronized (objects) {
+            for (String key : objects.keySet()) {
+                if (codecs.containsKey(key) && objects.get(key) != null) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Object> entry : objects.entrySet()) {
+                @SuppressWarnings("unchecked")
+                ValueCodec<Object> codec = (ValueCodec<Object>) codecs.get(entry.getKey());
+                if (codec == null || entry.getValue() == null) {
+                    continue;
+                }
+                valueBuffer.reset();
+                codec.write(entry.getValue(), valueOut);
+                valueOut.flush();
+
+                writeString(entry.getKey(), out);
+                out.writeInt(valueBuffer.size());
+                valueBuffer.writeTo(asOutputStream(out));
+            }
+        }
+    }
+
+    // binary readers
+    public ExecutionContext read(InputStream inputStream) throws IOException {
+        return read(inputStream, new ExecutionContext());
+    }
+
+    public <T extends ExecutionContext> T read(InputStream inputStream, T context) throws IOException {
+        return read((DataInput) new DataInputStream(inputStream), context);
+    }
+
+    public ExecutionContext read(ByteBuffer byteBuffer) throws IOException {
+        return read(byteBuffer, new ExecutionContext());
+    }
+
+    // reads a context starting at the buffer's current position, the position is advanced past the context
+    public <T extends ExecutionContext> T read(ByteBuffer byteBuffer, T context) throws IOException {
+        if (byteBuffer.hasArray()) {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+            int available = inputStream.available();
+            read(inputStream, context);
+            byteBuffer.position(byteBuffer.position() + available - inputStream.available());
+        } else {
+            ByteBufferInputStream inputStream = new ByteBufferInputStream(byteBuffer.duplicate());  // reads the direct buffer in place
+            read(inputStream, context);
+            byteBuffer.position(inputStream.position());
+        }
+        return context;
+    }
+
+    // the input is decoded into a new context first, so the given context is left untouched if the input turns out to be invalid
+    <T extends ExecutionContext> T read(DataInput in, T context) throws IOException {
+        ExecutionContext decoded = decode(in);
+        context.reset();
+        context.setStatus(decoded.getStatus());
+        context.setFastFail(decoded.getFastFail());
+        context.setFailNow(decoded.getFailNow());
+        context.setRunId(decoded.getRunId());
+        for (ExecutionContext.Event event : decoded.getEventLog()) {
+            context.addEvent(event);
+        }
+        context.getObjects().putAll(decoded.getObjects());
+        return context;
+    }
+
+    private ExecutionContext decode(DataInput in) throws IOException {
+        ExecutionContext context = new ExecutionContext();
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a serialized ExecutionContext");
+        }
+        byte version = in.readByte();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported ExecutionContext format version: " + version);
+        }
+
+        byte status = in.readByte();
+        if (status < 0 || status >= STATUSES.length) {
+            throw new IOException("Invalid ExecutionContext status: " + status);
+        }
+        context.setStatus(STATUSES[status]);
+        byte flags = in.readByte();
+        context.setFastFail((flags & FAST_FAIL_FLAG) != 0);
+        context.setFailNow((flags & FAIL_NOW_FLAG) != 0);
+        if (version >= 2) {
+            context.setRunId(new UUID(in.readLong(), in.readLong()));
+        }
+
+        int eventCount = in.readInt();
+        if (eventCount < 0) {
+            throw new IOException("Invalid ExecutionContext event count: " + eventCount);
+        }
+        for (int i = 0; i < eventCount; i++) {
+            long time = in.readLong();
+            context.addEvent(new ExecutionContext.Event(time, readString(in), readString(in), readString(in)));
+        }
+        readObjects(context.getObjects(), in);
+        return context;
+    }
+
+    void readObjects(Map<String, Object> objects, DataInput in) throws IOException {
+        int objectCount = in.readInt();
+        if (objectCount < 0) {
+            throw new IOException("Invalid object count: " + objectCount);
+        }
+        for (int i = 0; i < objectCount; i++) {
+            String key = readString(in);
+            int length = readLength(in, "object " + key);
+            ValueCodec<?> codec = codecs.get(key);
+            if (codec == null) {
+                if (in.skipBytes(length) != length) {  // unknown to this reader
+                    throw new EOFException("Truncated object " + key);
+                }
+                continue;
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            ByteArrayInputStream valueIn = new ByteArrayInputStream(value);
+            try {
+                objects.put(key, codec.read(new DataInputStream(valueIn)));
+            } catch (RuntimeException e) {
+                throw new IOException("Could not read object " + key + ": " + e, e);
+            }
+            if (valueIn.available() != 0) {
+                throw new IOException("The codec of object " + key + " read " + (length - valueIn.available()) + " of its " + length + " bytes");
+            }
+        }
+    }
+
+    // strings are written as a length (-1 for null) followed by the UTF-8 bytes (i.e., no 64K limit as with writeUTF)
+    static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_LENGTH) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // reads a length prefix, rejecting lengths that are negative or larger than MAX_LENGTH before anything is allocated for them
+    static int readLength(DataInput in, String what) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException("Invalid length of " + what + ": " + length);
+        }
+        return length;
+    }
+
+    // an InputStream over a ByteBuffer (e.g., a direct buffer, which has no array to wrap)
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer byteBuffer;
+
+        ByteBufferInputStream(ByteBuffer byteBuffer) {
+            this.byteBuffer = byteBuffer;
+        }
+
+        int position() {
+            return byteBuffer.position();
+        }
+
+        @Override
+        public int read() {
+            return byteBuffer.hasRemaining() ? (byteBuffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!byteBuffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, byteBuffer.remaining());
+            byteBuffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, byteBuffer.remaining()));
+            byteBuffer.position(byteBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return byteBuffer.remaining();
+        }
+    }
+
+    private static OutputStream asOutputStream(DataOutput out) {
+        if (out instanceof OutputStream) {
+            return (OutputStream) out;
+        }
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package org.dplevine.patterns.pipeline;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * The FileCheckpointStore class persists one checkpoint file per pipeline run in a directory.  Checkpoints are written in a compact binary
+ * format (the context objects are written by the given ExecutionContextSerializer) to a temporary file which then atomically replaces
+ * the previous checkpoint, so a crash never leaves a partially written checkpoint behind.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+    private static final int MAGIC = 0x50434b50;  // "PCKP"
+    private static final byte FORMAT_VERSION = 2;  // version 2 added the run id
+    private static final String SUFFIX = ".checkpoint";
+
+    private final Path directory;
+    private final ExecutionContextSerializer serializer;
+
+    public FileCheckpointStore(Path directory, ExecutionContextSerializer serializer) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.serializer = serializer;
+    }
+
+    // pipeline ids are free form, so the file name starts with a hex encoding of the id (followed by the run id)
+    private static String pipelinePrefix(String pipelineId) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : pipelineId.getBytes(StandardCharsets.UTF_8)) {
+            name.append(String.format("%02x", b));
+        }
+        return name.append('.').toString();
+    }
+
+    private Path checkpointPath(String pipelineId, UUID runId) {
+        return directory.resolve(pipelinePrefix(pipelineId) + runId + SUFFIX);
+    }
+
+    @Override
+    public void save(Checkpoint checkpoint) throws IOException {
+        Path path = checkpointPath(checkpoint.getPipelineId(), checkpoint.getRunId());
+        Path tmpPath = Files.createTempFile(directory, null, SUFFIX + ".tmp");
+        Checkpoint snapshot = checkpoint.copy();
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                ExecutionContextSerializer.writeString(snapshot.getPipelineId(), out);
+                out.writeLong(snapshot.getRunId().getMostSignificantBits());
+                out.writeLong(snapshot.getRunId().getLeastSignificantBits());
+                out.writeInt(snapshot.getCompletedStages().size());
+                for (String stageId : snapshot.getCompletedStages()) {
+                    ExecutionContextSerializer.writeString(stageId, out);
+                }
+                serializer.writeObjects(snapshot.objects(), out);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);  // only left if the checkpoint could not be written (or moved)
+        }
+    }
+
+    @Override
+    public Checkpoint load(String pipelineId, UUID runId) throws IOException {
+        Path path = checkpointPath(pipelineId, runId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Not a pipeline checkpoint (or unsupported version): " + path);
+            }
+            String id = ExecutionContextSerializer.readString(in);
+            UUID run = new UUID(in.readLong(), in.readLong());
+            Set<String> completedStages = new HashSet<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                completedStages.add(ExecutionContextSerializer.readString(in));
+            }
+            Map<String, Object> objects = new HashMap<>();
+            serializer.readObjects(objects, in);
+            return new Checkpoint(id, run, completedStages, objects);
+        }
+    }
+
+    @Override
+    public List<UUID> getRunIds(String pipelineId) throws IOException {
+        String prefix = pipelinePrefix(pipelineId);
+        List<UUID> runIds = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            runIds.add(UUID.fromString(name.substring(prefix.length(), name.length() - SUFFIX.length())));
+                        } catch (IllegalArgumentException e) {
+                            // not a checkpoint of this store
+                        }
+                    });
+        }
+        return runIds;
+    }
+
+    @Override
+    public void delete(String pipelineId, UUID runId) throws IOException {
+        Files.deleteIfExists(checkpointPath(pipelineId, runId));
+    }
+}
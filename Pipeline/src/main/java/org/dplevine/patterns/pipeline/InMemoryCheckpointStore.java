@@ -0,0 +1,42 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The InMemoryCheckpointStore class keeps checkpoints on the heap.  It is useful for tests and for resuming a pipeline within the
+ * lifetime of the process (e.g., retrying a failed run without re-running its completed stages).
+ */
+public final class InMemoryCheckpointStore implements CheckpointStore {
+    private final Map<String, Map<UUID, Checkpoint>> checkpoints = new ConcurrentHashMap<>();  // pipeline id -> run id -> checkpoint
+
+    public InMemoryCheckpointStore() {
+    }
+
+    @Override
+    public void save(Checkpoint checkpoint) {
+        checkpoints.computeIfAbsent(checkpoint.getPipelineId(), id -> new ConcurrentHashMap<>()).put(checkpoint.getRunId(), checkpoint.copy());
+    }
+
+    @Override
+    public Checkpoint load(String pipelineId, UUID runId) {
+        Checkpoint checkpoint = checkpoints.getOrDefault(pipelineId, Map.of()).get(runId);
+        return (checkpoint == null) ? null : checkpoint.copy();
+    }
+
+    @Override
+    public List<UUID> getRunIds(String pipelineId) {
+        return new ArrayList<>(checkpoints.getOrDefault(pipelineId, Map.of()).keySet());
+    }
+
+    @Override
+    public void delete(String pipelineId, UUID runId) {
+        Map<UUID, Checkpoint> runs = checkpoints.get(pipelineId);
+        if (runs != null) {
+            runs.remove(runId);
+        }
+    }
+}
@@ -26,6 +26,7 @@ final class Parallel extends StageWrapper { // will change visibility once the b
     private ExecutorService executorService;
     private List<Future<ExecutionContext>> futures;
     private final List<Pipeline> parallelPipelines = new Vector<>();
+    private volatile long topologyVersion = 0;  // incremented whenever a parallel pipeline is added
 
     //ctors
     Parallel(String id) {
@@ -34,15 +35,26 @@ final class Parallel extends StageWrapper { // will change visibility once the b
 
     Parallel addParallelPipeline(Pipeline parallelPipeline) {
         parallelPipelines.add(parallelPipeline);
+        topologyVersion++;
         return this;
     }
 
     // or we can add lists stages
     Parallel addParallelPipelines(List<Pipeline> parallelPipelines) {
         this.parallelPipelines.addAll(parallelPipelines);
+        topologyVersion++;
         return this;
     }
 
+    @Override
+    long getTopologyVersion() {
+        long version = topologyVersion;
+        for (Pipeline parallelPipeline : parallelPipelines) {
+            version += parallelPipeline.getTopologyVersion();
+        }
+        return version;
+    }
+
     List<Pipeline> getParallelPipelines() {
         return parallelPipelines;
     }
@@ -1,12 +1,7 @@
 package org.dplevine.patterns.pipeline;
 
-import com.mxgraph.layout.mxCompactTreeLayout;
-import com.mxgraph.layout.mxIGraphLayout;
-import com.mxgraph.model.mxICell;
-import com.mxgraph.util.*;
 import org.jgrapht.Graph;
 import org.jgrapht.alg.cycle.CycleDetector;
-import org.jgrapht.ext.JGraphXAdapter;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DirectedMultigraph;
 import org.jgrapht.traverse.TopologicalOrderIterator;
@@ -14,12 +9,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Function;
 
 
 /**
@@ -30,13 +25,19 @@ import java.util.concurrent.*;
  */
 public final class Pipeline extends StageWrapper implements Callable<ExecutionContext> {
 
-    private static final String PIPELINE_START_TAG  = " - <Pipeline>";
-    private static final String PIPELINE_END_TAG = " - </Pipeline>";
+    static final String PIPELINE_START_TAG  = " - <Pipeline>";
+    static final String PIPELINE_END_TAG = " - </Pipeline>";
     private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
 
     private final List<StageWrapper> stageWrappers = new Vector<>();
     private ExecutionContext context;
     private ExecutorService executorService = null;  // used when running this pipeline (root) runs as a detached process (i.e., pipeline.runDetached(...))
+    private CheckpointStore checkpointStore = null;  // when set, progress is checkpointed after every stage
+    private ExecutionContextSerializer checkpointSerializer = null;  // decides which context objects are checkpointed
+    private EventSink eventSink = null;  // when set, every event of a run is also appended to the sink
+    private PipelineRenderer renderer = null;  // created on the first render, caches the layout
+    private volatile RunStatus runStatus = null;  // the live status of the latest run (every run's own is on its context)
+    private volatile long topologyVersion = 0;  // incremented whenever a stage is added to this pipeline
 
     // ctors
     Pipeline(String id) {
@@ -73,9 +74,20 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
     // we can incrementally add stages as well
     Pipeline addStage(StageWrapper stageWrapper) {
         stageWrappers.add(stageWrapper);
+        topologyVersion++;
         return this;
     }
 
+    // the sum of the versions of this pipeline and of every pipeline and parallel below it, so any addition changes it
+    @Override
+    long getTopologyVersion() {
+        long version = topologyVersion;
+        for (StageWrapper stageWrapper : stageWrappers) {
+            version += stageWrapper.getTopologyVersion();
+        }
+        return version;
+    }
+
     List<StageWrapper> getStages() {
         return stageWrappers;
     }
@@ -115,9 +127,15 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
             if (lastEvent == null || !lastEvent.getEventType().equals(ExecutionContext.EventType.EXCEPTION)) {
                 context.setSuccess();
                 context.createEvent(root, ExecutionContext.EventType.SUCCESS, root.getClass().getCanonicalName() + ".run()");
+                if (context.getCheckpointer() != null) {
+                    context.getCheckpointer().pipelineCompleted(root);
+                }
             } else {
                 context.setFailure();
                 context.createEvent(root, ExecutionContext.EventType.FAILURE, root.getClass().getCanonicalName() + ".run()");
+                if (context.getRunStatus() != null) {
+                    context.getRunStatus().failed(root);
+                }
             }
         }
     }
@@ -202,6 +220,85 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
     }
 
     public final ExecutionContext run(ExecutionContext context) throws Exception {
+        prepareContext(context, newCheckpointer(context));
+        return runRoot(context);
+    }
+
+    // per run set up of the context (i.e., checkpointing and event journaling) before the root pipeline runs
+    private void prepareContext(ExecutionContext context, Checkpointer checkpointer) throws PipelineExecutionException {
+        if (context.isReleased()) {
+            throw new PipelineExecutionException("The execution context was released to its pool and can not be reused until it is acquired again.");
+        }
+        context.setCheckpointer(checkpointer);
+        context.setEventSink(eventSink);
+        runStatus = new RunStatus(this);
+        context.setRunStatus(runStatus);
+    }
+
+    // the live status of the run of this pipeline that started last, null if it never ran.  A Pipeline runs one run at a time (see
+    // PipelineRegistry for concurrent runs), the status of a given run is on its context (see ExecutionContext.getRunStatus())
+    public final RunStatus getRunStatus() {
+        return runStatus;
+    }
+
+    private Checkpointer newCheckpointer(ExecutionContext context) {
+        return (checkpointStore == null) ? null : new Checkpointer(new Checkpoint(getId(), context.getRunId()), checkpointStore, checkpointSerializer);
+    }
+
+    // events created while running this pipeline are also appended to the sink (e.g., an EventJournal), null to disable
+    public final void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    // Methods for checkpointing a pipeline and resuming it from its last checkpoint
+    public final void enableCheckpointing(CheckpointStore checkpointStore, ExecutionContextSerializer checkpointSerializer) {
+        this.checkpointStore = checkpointStore;
+        this.checkpointSerializer = checkpointSerializer;
+    }
+
+    public final void disableCheckpointing() {
+        this.checkpointStore = null;
+        this.checkpointSerializer = null;
+    }
+
+    // returns the last checkpoint saved by the run (see ExecutionContext.getRunId()), or null if there is nothing to resume
+    public final Checkpoint loadCheckpoint(UUID runId) throws Exception {
+        if (checkpointStore == null) {
+            throw new PipelineExecutionException("Checkpointing is not enabled for pipeline: " + getId());
+        }
+        return checkpointStore.load(getId(), runId);
+    }
+
+    // the runs of this pipeline that left a checkpoint behind (i.e., that can be resumed)
+    public final List<UUID> getCheckpointedRunIds() throws Exception {
+        if (checkpointStore == null) {
+            throw new PipelineExecutionException("Checkpointing is not enabled for pipeline: " + getId());
+        }
+        return checkpointStore.getRunIds(getId());
+    }
+
+    public final ExecutionContext resume(Checkpoint checkpoint) throws Exception {
+        return resume(checkpoint, new ExecutionContext());
+    }
+
+    // runs the pipeline skipping every stage (including those inside parallels) that completed in the checkpointed run, the resumed
+    // run keeps the run id of the checkpointed one (so it updates, and eventually deletes, the same checkpoint)
+    public final ExecutionContext resume(Checkpoint checkpoint, ExecutionContext context) throws Exception {
+        if (checkpoint == null) {
+            return run(context);
+        }
+        if (!checkpoint.getPipelineId().equals(getId())) {
+            throw new PipelineExecutionException("The checkpoint belongs to pipeline: " + checkpoint.getPipelineId() + ", not: " + getId());
+        }
+
+        Checkpointer checkpointer = new Checkpointer(checkpoint.copy(), checkpointStore, checkpointSerializer);
+        context.setRunId(checkpoint.getRunId());
+        prepareContext(context, checkpointer);
+        checkpointer.restore(context);
+        return runRoot(context);
+    }
+
+    private ExecutionContext runRoot(ExecutionContext context) throws Exception {
         setContext(context);
 
         // register callbacks that are only to be run on the root pipeline
@@ -213,7 +310,7 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
             StageRunner runner = new StageRunner(context);
             context = runner.run(this);
         } catch (Exception e) {
-            logger.error("Pipeline.run(context) failed with error: " + context.getEventLog().toString());
+            logger.error("Pipeline.run(context) failed with error: " + ExecutionContextSerializer.eventLogToJson(context.getEventLog()));
             throw e;
         }
         return context;
@@ -237,6 +334,7 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
         if (executorService != null) {
             throw new PipelineExecutionException("This pipeline was started but never shutdown; must invoke shutdownDetached() before running again.");
         }
+        prepareContext(context, newCheckpointer(context));
 
         setContext(context);  // need to set the execution context before we can do anything
 
@@ -257,6 +355,28 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
         return runner.run(this);
     }
 
+    // Methods for embedding the pipeline in a reactive (java.util.concurrent.Flow) stream
+    public final <I> PipelineProcessor<I> asProcessor(Function<? super I, ? extends ExecutionContext> contextFactory) {
+        return new PipelineProcessor<>(this, contextFactory);
+    }
+
+    public final <I> PipelineProcessor<I> asProcessor(Function<? super I, ? extends ExecutionContext> contextFactory, Executor executor, int maxBufferCapacity) {
+        return new PipelineProcessor<>(this, contextFactory, executor, maxBufferCapacity);
+    }
+
+    // wires the publisher (source) into this pipeline, the returned processor publishes the resulting execution contexts
+    public final <I> PipelineProcessor<I> subscribeTo(Flow.Publisher<? extends I> publisher, Function<? super I, ? extends ExecutionContext> contextFactory) {
+        PipelineProcessor<I> processor = asProcessor(contextFactory);
+        publisher.subscribe(processor);
+        return processor;
+    }
+
+    public final <I> PipelineProcessor<I> subscribeTo(Flow.Publisher<? extends I> publisher, Function<? super I, ? extends ExecutionContext> contextFactory, Executor executor, int maxBufferCapacity) {
+        PipelineProcessor<I> processor = asProcessor(contextFactory, executor, maxBufferCapacity);
+        publisher.subscribe(processor);
+        return processor;
+    }
+
     // method called only on the root for constructing the graph representation of the defined pipeline
     Graph<String, DefaultEdge> buildPiplineGraph() {
         Graph<String, DefaultEdge> pipelineGraph = new DirectedMultigraph<>(DefaultEdge.class);
@@ -302,96 +422,25 @@ public final class Pipeline extends StageWrapper implements Callable<ExecutionCo
     }
 
     public BufferedImage render() throws Exception {
-        final String WHITE = "#ffffff";
-        final String YELLOW = "#ffff00";
-        final String GREEN = "#65fe08";
-        final String RED = "#ff0000";
-        ExecutionContext context = (getContext() == null) ? new ExecutionContext() : getContext();
-
-        Graph<String, DefaultEdge> pipelineGraph = buildPiplineGraph();
-        JGraphXAdapter<String, DefaultEdge> graphAdapter =
-                new JGraphXAdapter<>(pipelineGraph);
-        graphAdapter.getEdgeToCellMap().forEach((edge, cell) -> cell.setValue(null));
-        mxIGraphLayout layout = new mxCompactTreeLayout(graphAdapter);
-        layout.execute(graphAdapter.getDefaultParent());
-
-        // color the nodes based on activity (white - nothing, yellow - in progress, green - completed/success, red - failure)
-        graphAdapter.getModel().beginUpdate();
-
-        Map<String, mxICell> nodeMap = graphAdapter.getVertexToCellMap();
-        Collection<mxICell> whites = nodeMap.values();
-        Collection<mxICell> reds = new Vector<>();
-        Collection<mxICell> greens = new Vector<>();
-        Collection<mxICell> yellows = new Vector<>();
-        Collection<mxICell> roots = new Vector<>();
-        Collection<mxICell> parallels = new Vector<>();
-        Collection<mxICell> pipelines = new Vector<>();
-
-        List<ExecutionContext.Event> eventLog = context.getEventLog();
-        for(String vertexId : pipelineGraph.vertexSet()) {
-            mxICell cell = nodeMap.get(vertexId);
-            String stageId;
-
-            if (vertexId.contains(PIPELINE_START_TAG)) {
-                stageId = vertexId.substring(0, vertexId.length() - PIPELINE_START_TAG.length());
-                if (stageId.equals(this.getId())) {
-                    roots.add(cell);
-                } else {
-                    pipelines.add(cell);
-                }
-            } else if (vertexId.contains(PIPELINE_END_TAG)) {
-                stageId = vertexId.substring(0, vertexId.length() - PIPELINE_END_TAG.length());
-                if (stageId.equals(this.getId())) {
-                    roots.add(cell);
-                } else {
-                    pipelines.add(cell);
-                }
-            } else if (vertexId.contains(Parallel.PARALLEL_START_TAG)) {
-                stageId = vertexId.substring(0, vertexId.length() - Parallel.PARALLEL_START_TAG.length());
-                parallels.add(cell);
-            } else if (vertexId.contains(Parallel.PARALLEL_END_TAG)) {
-                stageId = vertexId.substring(0, vertexId.length() - Parallel.PARALLEL_END_TAG.length());
-                parallels.add(cell);
-            } else {
-                stageId = vertexId;
-            }
+        return renderer().renderImage(getContext());
+    }
 
-            ExecutionContext.Event event = context.getLastStageEvent(stageId);
-            if (event != null) {
-                switch (event.getEventType()) {
-                    case ExecutionContext.EventType.CALLED_STAGE:
-                    case ExecutionContext.EventType.SUCCESS:
-                        greens.add(cell);
-                        break;
-
-                    case ExecutionContext.EventType.PIPELINE_IN_PROGRESS:
-                    case ExecutionContext.EventType.CALLING_STAGE:
-                        yellows.add(cell);
-                        break;
-
-                    case ExecutionContext.EventType.FAILURE:
-                    case ExecutionContext.EventType.EXCEPTION:
-                        reds.add(cell);
-                        break;
-                }
-            }
-        }
+    // the pipeline (and the status of its latest run) as Graphviz DOT text
+    public String renderDot() {
+        return renderer().renderDot(getContext());
+    }
 
-        try {
-            graphAdapter.setCellStyles(mxConstants.STYLE_FILLCOLOR, WHITE, whites.toArray());
-            graphAdapter.setCellStyles(mxConstants.STYLE_FILLCOLOR, YELLOW, yellows.toArray());
-            graphAdapter.setCellStyles(mxConstants.STYLE_FILLCOLOR, GREEN, greens.toArray());
-            graphAdapter.setCellStyles(mxConstants.STYLE_FILLCOLOR, RED, reds.toArray());
-
-            graphAdapter.setCellStyles(mxConstants.STYLE_FONTSTYLE, String.valueOf(mxConstants.FONT_BOLD), roots.toArray());
-            graphAdapter.setCellStyles(mxConstants.STYLE_FONTSTYLE, String.valueOf(mxConstants.FONT_ITALIC), parallels.toArray());
-            graphAdapter.setCellStyles(mxConstants.STYLE_FONTSTYLE, String.valueOf(mxConstants.FONT_ITALIC), pipelines.toArray());
-        } finally {
-            graphAdapter.getModel().endUpdate();
-        }
+    public String renderSvg() {
+        return renderer().renderSvg(getContext());
+    }
 
-        // return an image, the background color of the image is set to white
-        return mxCellRenderer.createBufferedImage(graphAdapter, null, 2, Color.WHITE, true, null);
+    private PipelineRenderer renderer() {
+        synchronized (this) {
+            if (renderer == null) {
+                renderer = new PipelineRenderer(this);
+            }
+            return renderer;
+        }
     }
 }
 
@@ -0,0 +1,126 @@
+package org.dplevine.patterns.pipeline;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The PipelineAnnotationProcessor class is a javac annotation processor that records every @StageBuilderDefinition and
+ * @PipelineStepsDefinition found at compile time in an AnnotationIndex resource (AnnotationIndex.RESOURCE) in the class output.
+ * At runtime, PipelineBuilder.createBuilder(packages) loads that index rather than scanning (and loading) every class of the packages.
+ *
+ * The processor is registered in META-INF/services, so it runs for any project that compiles against this library.  An incremental
+ * build only compiles some of the classes, so the index already in the class output is merged into the new one: its entries are kept
+ * for every class that was not compiled again.  javac only runs the processor for compilations that contain its annotations, so the
+ * entries of a class that is no longer annotated are dropped the next time an annotated class is compiled along with it.
+ */
+public final class PipelineAnnotationProcessor extends AbstractProcessor {
+
+    private static final Set<String> ANNOTATION_TYPES = Set.of(StageBuilderDefinition.class.getCanonicalName(), StageBuilderDefinitions.class.getCanonicalName(),
+            PipelineStepsDefinition.class.getCanonicalName(), PipelineStepsDefinitions.class.getCanonicalName());
+
+    private final AnnotationIndex index = new AnnotationIndex();
+    private final Set<String> processedClasses = new LinkedHashSet<>();
+    private final Set<String> compiledClasses = new HashSet<>();  // the top level classes compiled (whether annotated or not)
+
+    public PipelineAnnotationProcessor() {
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return ANNOTATION_TYPES;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            if (element instanceof TypeElement) {
+                compiledClasses.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+            }
+        }
+
+        for (TypeElement annotation : annotations) {
+            if (!ANNOTATION_TYPES.contains(annotation.getQualifiedName().toString())) {
+                continue;
+            }
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (!(element instanceof TypeElement)) {
+                    continue;
+                }
+                String className = processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+                if (!processedClasses.add(className)) {
+                    continue;  // annotated with more than one of the supported annotations (e.g., a single and a repeated form)
+                }
+                for (StageBuilderDefinition stageBuilderDefinition : element.getAnnotationsByType(StageBuilderDefinition.class)) {
+                    index.addStageBuilder(className, stageBuilderDefinition.id());
+                }
+                for (PipelineStepsDefinition pipelineStepsDefinition : element.getAnnotationsByType(PipelineStepsDefinition.class)) {
+                    index.addPipelineSteps(className, pipelineStepsDefinition.pipelineRootId(), pipelineStepsDefinition.parallelId(), pipelineStepsDefinition.steps());
+                }
+            }
+        }
+        return true;  // the annotations are claimed, they are not meant for other processors
+    }
+
+    // the entries of the index in the class output for the classes that were not compiled again, null if there is no index
+    private AnnotationIndex previousIndex() {
+        AnnotationIndex previousIndex = new AnnotationIndex();
+        try {
+            FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", AnnotationIndex.RESOURCE);
+            try (Reader reader = resource.openReader(true)) {
+                AnnotationIndex index = AnnotationIndex.read(reader);
+                index.getStageBuilders().stream().filter(entry -> !isCompiled(entry.getClassName()))
+                        .forEach(entry -> previousIndex.addStageBuilder(entry.getClassName(), entry.getId()));
+                index.getPipelineSteps().stream().filter(entry -> !isCompiled(entry.getClassName()))
+                        .forEach(entry -> previousIndex.addPipelineSteps(entry.getClassName(), entry.getPipelineRootId(), entry.getParallelId(), entry.getSteps()));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;  // no index yet (e.g., a clean build)
+        }
+        return previousIndex;
+    }
+
+    private boolean isCompiled(String className) {
+        int nested = className.indexOf('$');
+        return compiledClasses.contains((nested < 0) ? className : className.substring(0, nested));
+    }
+
+    private void writeIndex() {
+        AnnotationIndex mergedIndex = previousIndex();
+        if (mergedIndex == null && index.isEmpty()) {
+            return;
+        }
+        mergedIndex = (mergedIndex == null) ? new AnnotationIndex() : mergedIndex;
+        mergedIndex.addAll(index);  // an empty index still replaces one whose classes are no longer annotated
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", AnnotationIndex.RESOURCE);
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                mergedIndex.write(writer);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the pipeline annotation index: " + e.getLocalizedMessage());
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package org.dplevine.patterns.pipeline;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,9 +19,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class PipelineBuilder {
     private static final String SPEC_GENERATOR_JSON = "Spec_Generator_JSON";
-    private static final String JSON_SUFFIX = ".json";
     private static final String SPEC_GENERATOR_YAML = "Spec_Generator_YAML";
-    private static final String YAML_SUFFIX = ".yaml";
     private static final String SPEC_GENERATOR_ANNOTATIONS = "Spec_Generator_Annotations";
     private static final String ANNOTATED_PIPELINE = "Annotated_Pipeline";
     private static final String SCANNED_PACKAGES = "Scanned_Packages";
@@ -45,54 +45,90 @@ public final class PipelineBuilder {
         specTemplates = specTemplateBuilder.specTemplatesFromAnnotations();
     }
 
-    private final StageWrapper specFromJsonGenerator = new StageWrapper(SPEC_GENERATOR_JSON, (context) -> {
-        String pathname = (String) context.getObject(BuilderContext.SPEC_PATHNAME);
-
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            PipelineSpecification spec = mapper.readValue(new File(pathname), PipelineSpecification.class);
-            context.addObject(BuilderContext.PIPELINE_SPEC, spec);
+    // the stage reading the specification file of the builder context in the given format
+    private static StageWrapper specFromFileGenerator(PipelineSpecReader.Format format) {
+        String id = (format == PipelineSpecReader.Format.JSON) ? SPEC_GENERATOR_JSON : SPEC_GENERATOR_YAML;
+        return new StageWrapper(id, (context) -> {
+            String pathname = (String) context.getObject(BuilderContext.SPEC_PATHNAME);
+
+            try {
+                PipelineSpecification spec = PipelineSpecReader.read(Paths.get(pathname), format);
+                context.addObject(BuilderContext.PIPELINE_SPEC, spec);
+
+            } catch (Exception e) {
+                logger.error("stack trace:" + e.getLocalizedMessage());
+                logger.error("pipeline event log:" + ExecutionContextSerializer.eventLogToJson(context.getEventLog()));
+                throw new PipelineBuilderException(e);
+            }
+            return context;
+        });
+    }
 
-        } catch (Exception e) {
-            logger.error("stack trace:" + e.getLocalizedMessage());
-            logger.error("pipeline event log:" + context.getEventLog().toString());
-            throw new PipelineBuilderException(e);
+    // builds from a compiled specification (.pspec) when given one, or when a compiled specification at least as new sits next to the JSON/YAML file
+    public Pipeline buildFromPathName(String pathname) throws Exception {
+        Path compiledSpec = CompiledPipelineSpec.isCompiledSpec(pathname) ? Paths.get(pathname) : CompiledPipelineSpec.findCompiledSpec(pathname);
+        if (compiledSpec != null) {
+            return buildFromCompiledSpec(compiledSpec);
         }
-        return context;
-    });
 
-    private final StageWrapper specFromYamlGenerator = new StageWrapper(SPEC_GENERATOR_YAML, (context) -> {
-        String pathname = (String) context.getObject(BuilderContext.SPEC_PATHNAME);
+        StageWrapper fileReaderStage = specFromFileGenerator(PipelineSpecReader.Format.fromPathName(pathname));  // rejects other suffixes
 
+        ExecutionContext context = new ExecutionContext();
+        context.addObject(BuilderContext.SPEC_PATHNAME, pathname);
+
+        Pipeline builderPipeline = new Pipeline(PIPELINE_BOOTSTRAPPER);
+        builderPipeline.addStage(fileReaderStage).addStage(new StageWrapper(SPEC_VALIDATOR, new PipelineSpecValidator())).addStage(new StageWrapper(PIPELINE_GENERATOR, new PipelineGenerator()));
+        Pipeline pipeline = (Pipeline) builderPipeline.run(context).getObject(BuilderContext.PIPELINE);
+        if (pipeline == null) {
+            throw new PipelineBuilderException("Pipeline could not be generated");
+        }
+        return pipeline;
+    }
+
+    public Pipeline buildFromCompiledSpec(Path path) throws Exception {
+        PipelineSpecification spec;
         try {
-            ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-            //mapper.findAndRegisterModules();
-            PipelineSpecification spec = mapper.readValue(new File(pathname), PipelineSpecification.class);
-            context.addObject(BuilderContext.PIPELINE_SPEC, spec);
-
-        } catch (Exception e) {
-            logger.error("stack trace:" + e.getLocalizedMessage());
-            logger.error("pipeline event log:" + context.getEventLog().toString());
+            spec = CompiledPipelineSpec.load(path);
+        } catch (IOException e) {
             throw new PipelineBuilderException(e);
         }
-        return context;
-    });
+        return buildFromValidatedSpecification(spec);  // already validated when it was compiled
+    }
 
-    public Pipeline buildFromPathName(String pathname) throws Exception {
-        StageWrapper fileReaderStage;
-        if (pathname.contains(JSON_SUFFIX)) {
-            fileReaderStage = specFromJsonGenerator;
-        } else if (pathname.contains(YAML_SUFFIX)) {
-            fileReaderStage = specFromYamlGenerator;
-        } else {
-            throw new PipelineBuilderException("Unrecognized file suffix.  Supported types are .json and .yaml.");
+    // reads and validates the specification buildFromPathName() would build from, so more pipelines can be built from it without reading
+    // and validating it again (see buildFromValidatedSpecification())
+    PipelineSpecification readValidatedSpecification(String pathname) throws Exception {
+        Path compiledSpec = CompiledPipelineSpec.isCompiledSpec(pathname) ? Paths.get(pathname) : CompiledPipelineSpec.findCompiledSpec(pathname);
+        if (compiledSpec != null) {
+            try {
+                return CompiledPipelineSpec.load(compiledSpec);
+            } catch (IOException e) {
+                throw new PipelineBuilderException(e);
+            }
         }
+        StageWrapper fileReaderStage = specFromFileGenerator(PipelineSpecReader.Format.fromPathName(pathname));
 
         ExecutionContext context = new ExecutionContext();
         context.addObject(BuilderContext.SPEC_PATHNAME, pathname);
 
         Pipeline builderPipeline = new Pipeline(PIPELINE_BOOTSTRAPPER);
-        builderPipeline.addStage(fileReaderStage).addStage(new StageWrapper(SPEC_VALIDATOR, new PipelineSpecValidator())).addStage(new StageWrapper(PIPELINE_GENERATOR, new PipelineGenerator()));
+        builderPipeline.addStage(fileReaderStage).addStage(new StageWrapper(SPEC_VALIDATOR, new PipelineSpecValidator()));
+        builderPipeline.run(context);
+        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
+        if (!context.isSuccess() || spec == null) {
+            throw new PipelineBuilderException("Pipeline specification could not be validated: " + pathname);
+        }
+        spec.setPrevalidated(true);
+        return spec;
+    }
+
+    // builds a pipeline from a specification that was validated already (e.g., by readValidatedSpecification()), straight to the generator
+    Pipeline buildFromValidatedSpecification(PipelineSpecification spec) throws Exception {
+        ExecutionContext context = new ExecutionContext();
+        context.addObject(BuilderContext.PIPELINE_SPEC, spec);
+
+        Pipeline builderPipeline = new Pipeline(PIPELINE_BOOTSTRAPPER);
+        builderPipeline.addStage(new StageWrapper(PIPELINE_GENERATOR, new PipelineGenerator()));
         Pipeline pipeline = (Pipeline) builderPipeline.run(context).getObject(BuilderContext.PIPELINE);
         if (pipeline == null) {
             throw new PipelineBuilderException("Pipeline could not be generated");
@@ -100,6 +136,23 @@ public final class PipelineBuilder {
         return pipeline;
     }
 
+    public Pipeline buildFromInputStream(InputStream inputStream, PipelineSpecReader.Format format) throws Exception {
+        return buildFromPipelineSpecification(PipelineSpecReader.read(inputStream, format));
+    }
+
+    public Pipeline buildFromReader(Reader reader, PipelineSpecReader.Format format) throws Exception {
+        return buildFromPipelineSpecification(PipelineSpecReader.read(reader, format));
+    }
+
+    public Pipeline buildFromBytes(byte[] bytes, PipelineSpecReader.Format format) throws Exception {
+        return buildFromPipelineSpecification(PipelineSpecReader.read(bytes, format));
+    }
+
+    // builds a pipeline from a specification on the classpath (e.g., "/helloWorld.json")
+    public Pipeline buildFromResource(String resourceName) throws Exception {
+        return buildFromPipelineSpecification(PipelineSpecReader.readResource(resourceName));
+    }
+
     public Pipeline buildFromPipelineSpecification(PipelineSpecification spec) throws Exception {
         ExecutionContext context = new ExecutionContext();
         context.addObject(BuilderContext.PIPELINE_SPEC, spec);
@@ -113,6 +166,11 @@ public final class PipelineBuilder {
         return pipeline;
     }
 
+    // the specification assembled from the annotations of the scanned packages (e.g., to define a saga), null if there is none
+    public PipelineSpecification getAnnotatedPipelineSpecification(String pipelineId) {
+        return specTemplates.get(pipelineId);
+    }
+
     public Pipeline buildFromAnnotations(String pipelineId) throws Exception {
         if (!specTemplates.containsKey(pipelineId)) {
             throw new PipelineBuilderException("Pipeline could not be generated - unknown pipline");
@@ -12,7 +12,7 @@ import java.util.*;
  */
 final class PipelineGenerator implements Stage {
 
-    private Boolean isPipelineAcyclic(PipelineSpecification spec) {
+    static Boolean isPipelineAcyclic(PipelineSpecification spec) {
         // no steps in the pipeline --> no cycles
         if (spec.getSteps().size() == 0) {
             return false;
@@ -58,19 +58,18 @@ final class PipelineGenerator implements Stage {
 
         SimpleStageBuilder(String className) throws Exception {
             try {
-                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-                Class<?> clazz = classLoader.loadClass(className);
-                this.stageBuilder = (StageBuilder) clazz.getDeclaredConstructor().newInstance();  // will throw if class loaded is not an instanceOf(StageBuilder)
+                this.stageBuilder = StageFactoryRegistry.newStageBuilder(className);  // resolved once per class, then a direct call
             } catch (Exception e) {
                 throw new PipelineBuilderException("Could not construct a StageBuilder for class: " + className);
             }
         }
 
+        // the stage is built the first time it runs
         StageWrapper newStage(String id) throws Exception {
             if (stageBuilder == null) {
                 throw new PipelineBuilderException("No StageBuilder found for: " + id);
             }
-            return new StageWrapper(id, stageBuilder.buildStage());
+            return StageWrapper.deferred(id, stageBuilder::buildStage);
         }
 
         // getters
@@ -79,15 +78,45 @@ final class PipelineGenerator implements Stage {
         }
     }
 
+    // the ids of every stage, parallel and parallel pipeline reachable from the pipeline's steps (i.e., everything else is pruned)
+    static Set<String> referencedIds(PipelineSpecification spec) {
+        Map<String, PipelineSpecification.ParallelDefinition> parallelDefs = new HashMap<>();
+        spec.getParallels().forEach(parallelDef -> parallelDefs.put(parallelDef.getId(), parallelDef));
+
+        Set<String> referenced = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(spec.getSteps());
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.pop();
+            if (!referenced.add(id)) {
+                continue;
+            }
+            PipelineSpecification.ParallelDefinition parallelDef = parallelDefs.get(id);
+            if (parallelDef != null) {
+                for (PipelineSpecification.PipelineDefinition pipelineDef : parallelDef.getParallelPipelines()) {
+                    referenced.add(pipelineDef.getId());
+                    toVisit.addAll(pipelineDef.getSteps());
+                }
+            }
+        }
+        return referenced;
+    }
+
     private Map<String, StageWrapper> generateVertices(PipelineSpecification spec) throws Exception {
         Map<String, StageWrapper> vertices = new HashMap<>();
+        Set<String> referenced = referencedIds(spec);
 
+        // the StageBuilder classes are resolved now (so bad class names fail the build), the stages themselves are built on first run
         for (PipelineSpecification.StageDefinition stageDef : spec.getStages()) {
-            vertices.put(stageDef.getId(), new StageWrapper(stageDef.getId(), new SimpleStageBuilder(stageDef.getClassName()).newStage(stageDef.getId())));
+            if (referenced.contains(stageDef.getId())) {
+                vertices.put(stageDef.getId(), new SimpleStageBuilder(stageDef.getClassName()).newStage(stageDef.getId()));
+            }
         }
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
+        List<PipelineSpecification.ParallelDefinition> parallels = new ArrayList<>();
+        spec.getParallels().stream().filter(parallelDef -> referenced.contains(parallelDef.getId())).forEach(parallels::add);
+        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = new ArrayList<>();
+        parallels.forEach(parallelDef -> allParallelPipelines.addAll(parallelDef.getParallelPipelines()));
         allParallelPipelines.forEach(pipelineDef -> vertices.put(pipelineDef.getId(),  new Pipeline(pipelineDef.getId())));
-        spec.getParallels().forEach(parallelDef -> vertices.put(parallelDef.getId(), new Parallel(parallelDef.getId())));
+        parallels.forEach(parallelDef -> vertices.put(parallelDef.getId(), new Parallel(parallelDef.getId())));
 
         // add the stages to the sub-pipelines
         for(PipelineSpecification.PipelineDefinition pipelineDef : allParallelPipelines) {
@@ -96,7 +125,7 @@ final class PipelineGenerator implements Stage {
         }
 
         // add the sub-pipelines to the parallels
-        for(PipelineSpecification.ParallelDefinition parallelDef : spec.getParallels()) {
+        for(PipelineSpecification.ParallelDefinition parallelDef : parallels) {
             Parallel parallel = (Parallel) vertices.get(parallelDef.getId());
             parallelDef.getParallelPipelines().forEach(parallelPipelineDef -> parallel.addParallelPipeline((Pipeline) vertices.get(parallelPipelineDef.getId())));
         }
@@ -113,8 +142,8 @@ final class PipelineGenerator implements Stage {
         Pipeline pipeline = new Pipeline(spec.getId());
 
 
-        // 1. verify that it is acyclic
-        if (isPipelineAcyclic(spec)) {
+        // 1. verify that it is acyclic (compiled specifications were verified when they were compiled)
+        if (!spec.isPrevalidated() && isPipelineAcyclic(spec)) {
             throw new PipelineBuilderException("Pipeline specification is not acyclic, please correct and try again");
         }
 
@@ -0,0 +1,92 @@
+package org.dplevine.patterns.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+
+/**
+ * The PipelineProcessor class adapts a Pipeline to the java.util.concurrent.Flow (reactive streams) API.  Each item received from the
+ * upstream publisher is mapped to an ExecutionContext, the pipeline is run with that context, and the resulting context is published
+ * to the downstream subscribers.
+ *
+ * Backpressure is demand driven: the processor requests one item at a time from upstream and only requests the next item once the
+ * previous result has been accepted by the (bounded) downstream buffer.  No work is ever queued on an unbounded executor queue.
+ *
+ * @param <I> the type of the items received from the upstream publisher
+ */
+public final class PipelineProcessor<I> extends SubmissionPublisher<ExecutionContext> implements Flow.Processor<I, ExecutionContext> {
+
+    public static final int DEFAULT_BUFFER_CAPACITY = Flow.defaultBufferSize();
+    private static final Logger logger = LoggerFactory.getLogger(PipelineProcessor.class);
+
+    private final Pipeline pipeline;
+    private final Function<? super I, ? extends ExecutionContext> contextFactory;
+    private Flow.Subscription subscription;
+
+    // ctors
+    PipelineProcessor(Pipeline pipeline, Function<? super I, ? extends ExecutionContext> contextFactory) {
+        this(pipeline, contextFactory, ForkJoinPool.commonPool(), DEFAULT_BUFFER_CAPACITY);
+    }
+
+    PipelineProcessor(Pipeline pipeline, Function<? super I, ? extends ExecutionContext> contextFactory, Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        this.pipeline = pipeline;
+        this.contextFactory = contextFactory;
+    }
+
+    Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    @Override
+    //Flow.Subscriber
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();  // only one upstream publisher per processor
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    //Flow.Subscriber
+    public void onNext(I item) {
+        ExecutionContext context;
+        try {
+            context = contextFactory.apply(item);
+        } catch (RuntimeException e) {
+            // onNext() must not throw: the stream can not go on without a context, so it ends with the failure
+            logger.error("PipelineProcessor.onNext(item) could not create an execution context: " + e.getLocalizedMessage());
+            subscription.cancel();
+            closeExceptionally(e);
+            return;
+        }
+        try {
+            pipeline.run(context);
+        } catch (Exception e) {
+            // the failure has already been recorded in the context's event log, pass it downstream so the stream keeps flowing
+            logger.error("PipelineProcessor.onNext(item) failed with error: " + e.getLocalizedMessage());
+        }
+
+        submit(context);  // blocks while the downstream buffers are full (i.e., backpressure)
+        subscription.request(1);
+    }
+
+    @Override
+    //Flow.Subscriber
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    //Flow.Subscriber
+    public void onComplete() {
+        close();
+    }
+}
@@ -0,0 +1,284 @@
+package org.dplevine.patterns.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * The PipelineRegistry class holds named pipelines built from specification files and reloads them when the files change (i.e., hot
+ * reload).  The directories of the registered files are watched (WatchService), a changed specification is rebuilt and validated on a
+ * background thread, and the new Pipeline version is swapped in atomically.
+ *
+ * Runs always go through the registry (run()), which pins the version that was current when the run started: in-flight runs finish
+ * on the version they started on, new runs pick up the new version, and there is no pause while swapping.  A retired version is
+ * drained once its last in-flight run completes.  A specification that fails to build (or validate) is rejected and logged, and
+ * the current version keeps serving.
+ *
+ * A Pipeline keeps the state of the run it is running, so concurrent runs never share one: a version keeps its validated specification
+ * and a pool of the pipelines built from it, and every run borrows an idle pipeline (or builds a new one) for the time of the run.
+ */
+public final class PipelineRegistry implements AutoCloseable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;  // editors and deploy tools often write a file in several steps
+    private static final Logger logger = LoggerFactory.getLogger(PipelineRegistry.class);
+
+    // notified of every reload attempt, error is null if the new version was swapped in
+    public interface ReloadListener {
+        void onReload(String name, long version, Exception error);
+    }
+
+    // an immutable version of a registered pipeline along with the number of runs still using it
+    private static final class PipelineVersion {
+        private final PipelineSpecification spec;  // validated
+        private final Pipeline pipeline;  // built when the version was loaded (see getPipeline()), never run by the registry
+        private final long version;
+        private final Queue<Pipeline> idlePipelines = new ConcurrentLinkedQueue<>();  // at most one per concurrent run
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean retired = false;
+
+        PipelineVersion(PipelineSpecification spec, Pipeline pipeline, long version) {
+            this.spec = spec;
+            this.pipeline = pipeline;
+            this.version = version;
+        }
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final Path specPath;
+        private final Consumer<Pipeline> configurer;
+        private final AtomicReference<PipelineVersion> current = new AtomicReference<>();
+
+        Entry(String name, Path specPath, Consumer<Pipeline> configurer) {
+            this.name = name;
+            this.specPath = specPath;
+            this.configurer = configurer;
+        }
+    }
+
+    private final PipelineBuilder builder;
+    private final long debounceMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Path, Set<String>> namesByPath = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingReloads = ConcurrentHashMap.newKeySet();
+    private final List<ReloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService reloader;
+    private final WatchService watchService;
+    private final Thread watcher;
+    private volatile boolean closed = false;
+
+    // ctors
+    private PipelineRegistry(PipelineBuilder builder, long debounceMillis) throws IOException {
+        this.builder = builder;
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PipelineRegistry reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watcher = new Thread(this::watch, "PipelineRegistry watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    public static PipelineRegistry create(PipelineBuilder builder) throws IOException {
+        return new PipelineRegistry(builder, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public static PipelineRegistry create(PipelineBuilder builder, long debounceMillis) throws IOException {
+        return new PipelineRegistry(builder, debounceMillis);
+    }
+
+    public void addReloadListener(ReloadListener listener) {
+        listeners.add(listener);
+    }
+
+    // builds the pipeline now (throwing if the spec is invalid) and reloads it whenever the file changes
+    public PipelineRegistry register(String name, Path specPath) throws Exception {
+        return register(name, specPath, pipeline -> {});
+    }
+
+    // the configurer is applied to every version before it is made current (e.g., to register callbacks or an event sink)
+    public PipelineRegistry register(String name, Path specPath, Consumer<Pipeline> configurer) throws Exception {
+        if (closed) {
+            throw new PipelineBuilderException("The pipeline registry is closed");
+        }
+        Path absolutePath = specPath.toAbsolutePath().normalize();
+        Entry entry = new Entry(name, absolutePath, configurer);
+        entry.current.set(build(entry, 1));
+        if (entries.putIfAbsent(name, entry) != null) {
+            throw new PipelineBuilderException("A pipeline is already registered as: " + name);
+        }
+
+        namesByPath.computeIfAbsent(absolutePath, path -> ConcurrentHashMap.newKeySet()).add(name);
+        Path directory = absolutePath.getParent();
+        if (watchedDirectories.add(directory)) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        return this;
+    }
+
+    public void unregister(String name) {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            namesByPath.getOrDefault(entry.specPath, Collections.emptySet()).remove(name);
+        }
+    }
+
+    private PipelineVersion build(Entry entry, long version) throws Exception {
+        PipelineSpecification spec = builder.readValidatedSpecification(entry.specPath.toString());
+        return new PipelineVersion(spec, newPipeline(entry, spec), version);
+    }
+
+    private Pipeline newPipeline(Entry entry, PipelineSpecification spec) throws Exception {
+        Pipeline pipeline = builder.buildFromValidatedSpecification(spec);
+        entry.configurer.accept(pipeline);
+        return pipeline;
+    }
+
+    private Entry entry(String name) throws PipelineExecutionException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new PipelineExecutionException("No pipeline registered as: " + name);
+        }
+        return entry;
+    }
+
+    public ExecutionContext run(String name, ExecutionContext context, boolean fastFail) throws Exception {
+        context.setFastFail(fastFail);
+        return run(name, context);
+    }
+
+    // runs the current version of the pipeline (like Pipeline.run(context)), the run finishes on that version even if a new one is
+    // swapped in meanwhile
+    public ExecutionContext run(String name, ExecutionContext context) throws Exception {
+        Entry entry = entry(name);
+        PipelineVersion version;
+        while (true) {
+            version = entry.current.get();
+            version.inFlight.incrementAndGet();
+            if (!version.retired) {
+                break;
+            }
+            release(entry, version);  // lost the race with a swap, pin the new version instead
+        }
+        Pipeline pipeline = version.idlePipelines.poll();
+        try {
+            if (pipeline == null) {
+                pipeline = newPipeline(entry, version.spec);
+            }
+            return pipeline.run(context);
+        } finally {
+            if (pipeline != null && !version.retired) {
+                version.idlePipelines.offer(pipeline);
+            }
+            release(entry, version);
+        }
+    }
+
+    private void release(Entry entry, PipelineVersion version) {
+        if (version.inFlight.decrementAndGet() == 0 && version.retired) {
+            version.idlePipelines.clear();
+            logger.info("Drained pipeline " + entry.name + " version " + version.version);
+        }
+    }
+
+    // the pipeline built when the current version was loaded (e.g., to render it), runs go through run() and use pipelines of their own
+    public Pipeline getPipeline(String name) throws PipelineExecutionException {
+        return entry(name).current.get().pipeline;
+    }
+
+    public long getVersion(String name) throws PipelineExecutionException {
+        return entry(name).current.get().version;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    // rebuilds the pipeline from its specification file and swaps it in, returns false (keeping the current version) if the build fails
+    public boolean reload(String name) throws PipelineExecutionException {
+        Entry entry = entry(name);
+        PipelineVersion current = entry.current.get();
+        PipelineVersion next;
+        try {
+            next = build(entry, current.version + 1);
+        } catch (Exception e) {
+            logger.error("Rejected the new specification of pipeline " + name + " (" + entry.specPath + "): " + e.getLocalizedMessage());
+            listeners.forEach(listener -> listener.onReload(name, current.version, e));
+            return false;
+        }
+
+        if (!entry.current.compareAndSet(current, next)) {
+            return false;  // reloaded concurrently, that (newer) build wins
+        }
+        current.retired = true;
+        current.idlePipelines.clear();
+        if (current.inFlight.get() == 0) {
+            logger.info("Drained pipeline " + name + " version " + current.version);
+        }
+        logger.info("Reloaded pipeline " + name + " version " + next.version + " from " + entry.specPath);
+        listeners.forEach(listener -> listener.onReload(name, next.version, null));
+        return true;
+    }
+
+    // the number of runs still in progress on the current version (older versions drain on their own)
+    public int getInFlightRuns(String name) throws PipelineExecutionException {
+        return entry(name).current.get().inFlight.get();
+    }
+
+    private void watch() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    entries.keySet().forEach(this::scheduleReload);  // events were lost, reload everything
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context()).normalize();
+                namesByPath.getOrDefault(changed, Collections.emptySet()).forEach(this::scheduleReload);
+            }
+            key.reset();
+        }
+    }
+
+    // coalesces the events of a burst of writes into a single reload
+    private void scheduleReload(String name) {
+        if (!closed && pendingReloads.add(name)) {
+            reloader.schedule(() -> {
+                pendingReloads.remove(name);
+                try {
+                    if (entries.containsKey(name)) {
+                        reload(name);
+                    }
+                } catch (Exception e) {
+                    logger.error("Could not reload pipeline " + name + ": " + e.getLocalizedMessage());
+                }
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    //AutoCloseable
+    public void close() throws IOException {
+        closed = true;
+        reloader.shutdownNow();
+        watchService.close();
+        watcher.interrupt();
+    }
+}
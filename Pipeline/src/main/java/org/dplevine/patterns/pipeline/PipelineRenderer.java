@@ -0,0 +1,248 @@
+package org.dplevine.patterns.pipeline;
+
+import com.mxgraph.layout.mxCompactTreeLayout;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxICell;
+import com.mxgraph.util.mxCellRenderer;
+import com.mxgraph.util.mxConstants;
+import com.mxgraph.util.mxRectangle;
+import org.jgrapht.Graph;
+import org.jgrapht.ext.JGraphXAdapter;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+
+/**
+ * The PipelineRenderer class renders a root pipeline and the status of its latest run as a raster image, SVG or DOT text.
+ *
+ * The graph, its JGraphX model and its layout only depend on the topology of the pipeline, so they are built once and cached until
+ * the topology of its root pipeline changes (i.e., a stage or parallel pipeline is added anywhere below the root, see
+ * StageWrapper.getTopologyVersion()), so building or changing other pipelines never invalidates it.  Each frame then reads the state of every node from a
+ * snapshot of the run's RunStatus (so the event log is neither scanned nor locked), and only the nodes whose color changed since the last
+ * frame are restyled.
+ */
+final class PipelineRenderer {
+
+    static final String WHITE = "#ffffff";
+    static final String YELLOW = "#ffff00";
+    static final String GREEN = "#65fe08";
+    static final String RED = "#ff0000";
+
+    private enum Kind {
+        ROOT,
+        PIPELINE,
+        PARALLEL,
+        STAGE
+    }
+
+    private static final class Node {
+        private final String vertexId;
+        private final String stageId;
+        private final Kind kind;
+        private mxICell cell = null;
+        private String color = WHITE;
+        private String appliedColor = null;  // the color last applied to the cell
+
+        Node(String vertexId, String stageId, Kind kind) {
+            this.vertexId = vertexId;
+            this.stageId = stageId;
+            this.kind = kind;
+        }
+    }
+
+    private final Pipeline root;
+    private long renderedTopologyVersion = -1;
+    private Graph<String, DefaultEdge> pipelineGraph;
+    private List<Node> nodes;
+    private JGraphXAdapter<String, DefaultEdge> graphAdapter = null;  // only built for raster and SVG output (i.e., when a layout is needed)
+
+    PipelineRenderer(Pipeline root) {
+        this.root = root;
+    }
+
+    private void updateTopology() {
+        long currentVersion = root.getTopologyVersion();
+        if (currentVersion == renderedTopologyVersion && pipelineGraph != null) {
+            return;
+        }
+        renderedTopologyVersion = currentVersion;
+        pipelineGraph = root.buildPiplineGraph();
+        graphAdapter = null;
+        nodes = new ArrayList<>(pipelineGraph.vertexSet().size());
+        for (String vertexId : pipelineGraph.vertexSet()) {
+            nodes.add(newNode(vertexId));
+        }
+    }
+
+    private Node newNode(String vertexId) {
+        String[] pipelineTags = {Pipeline.PIPELINE_START_TAG, Pipeline.PIPELINE_END_TAG};
+        for (String tag : pipelineTags) {
+            if (vertexId.endsWith(tag)) {
+                String stageId = vertexId.substring(0, vertexId.length() - tag.length());
+                return new Node(vertexId, stageId, stageId.equals(root.getId()) ? Kind.ROOT : Kind.PIPELINE);
+            }
+        }
+        String[] parallelTags = {Parallel.PARALLEL_START_TAG, Parallel.PARALLEL_END_TAG};
+        for (String tag : parallelTags) {
+            if (vertexId.endsWith(tag)) {
+                return new Node(vertexId, vertexId.substring(0, vertexId.length() - tag.length()), Kind.PARALLEL);
+            }
+        }
+        return new Node(vertexId, vertexId, Kind.STAGE);
+    }
+
+    private void updateLayout() {
+        if (graphAdapter != null) {
+            return;
+        }
+        graphAdapter = new JGraphXAdapter<>(pipelineGraph);
+        graphAdapter.getEdgeToCellMap().forEach((edge, cell) -> cell.setValue(null));
+        new mxCompactTreeLayout(graphAdapter).execute(graphAdapter.getDefaultParent());
+
+        Map<String, mxICell> cells = graphAdapter.getVertexToCellMap();
+        List<Object> bold = new ArrayList<>();
+        List<Object> italic = new ArrayList<>();
+        for (Node node : nodes) {
+            node.cell = cells.get(node.vertexId);
+            node.appliedColor = null;
+            if (node.kind == Kind.ROOT) {
+                bold.add(node.cell);
+            } else if (node.kind != Kind.STAGE) {
+                italic.add(node.cell);
+            }
+        }
+        graphAdapter.setCellStyles(mxConstants.STYLE_FONTSTYLE, String.valueOf(mxConstants.FONT_BOLD), bold.toArray());
+        graphAdapter.setCellStyles(mxConstants.STYLE_FONTSTYLE, String.valueOf(mxConstants.FONT_ITALIC), italic.toArray());
+    }
+
+    // white - nothing, yellow - in progress, green - completed/success, red - failure
+    static String color(RunStatus.State state) {
+        if (state == null) {
+            return WHITE;
+        }
+        switch (state) {
+            case SUCCEEDED:
+                return GREEN;
+            case RUNNING:
+                return YELLOW;
+            case FAILED:
+                return RED;
+            default:
+                return WHITE;
+        }
+    }
+
+    // the state of every node of the context's run, empty if it was never run
+    private static Map<String, RunStatus.State> states(ExecutionContext context) {
+        Map<String, RunStatus.State> states = new HashMap<>();
+        RunStatus runStatus = (context == null) ? null : context.getRunStatus();
+        if (runStatus != null) {
+            for (RunStatus.NodeStatus node : runStatus.snapshot().getNodes()) {
+                states.put(node.getId(), node.getState());
+            }
+        }
+        return states;
+    }
+
+    private void updateColors(ExecutionContext context) {
+        Map<String, RunStatus.State> states = states(context);
+        for (Node node : nodes) {
+            node.color = color(states.get(node.stageId));
+        }
+    }
+
+    // restyles only the cells whose color changed since they were last styled
+    private void applyColors() {
+        Map<String, List<Object>> changed = new HashMap<>();
+        for (Node node : nodes) {
+            if (!node.color.equals(node.appliedColor)) {
+                changed.computeIfAbsent(node.color, color -> new ArrayList<>()).add(node.cell);
+                node.appliedColor = node.color;
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        graphAdapter.getModel().beginUpdate();
+        try {
+            changed.forEach((color, cells) -> graphAdapter.setCellStyles(mxConstants.STYLE_FILLCOLOR, color, cells.toArray()));
+        } finally {
+            graphAdapter.getModel().endUpdate();
+        }
+    }
+
+    synchronized BufferedImage renderImage(ExecutionContext context) {
+        updateTopology();
+        updateLayout();
+        updateColors(context);
+        applyColors();
+
+        // the background color of the image is set to white
+        return mxCellRenderer.createBufferedImage(graphAdapter, null, 2, Color.WHITE, true, null);
+    }
+
+    synchronized String renderDot(ExecutionContext context) {
+        updateTopology();
+        updateColors(context);
+
+        StringBuilder dot = new StringBuilder(64 * nodes.size());
+        dot.append("digraph ").append(quote(root.getId())).append(" {\n");
+        dot.append("  node [shape=box, style=filled, fontname=\"Helvetica\"];\n");
+        for (Node node : nodes) {
+            dot.append("  ").append(quote(node.vertexId)).append(" [fillcolor=").append(quote(node.color));
+            if (node.kind == Kind.ROOT) {
+                dot.append(", fontname=\"Helvetica-Bold\"");
+            } else if (node.kind != Kind.STAGE) {
+                dot.append(", fontname=\"Helvetica-Oblique\"");
+            }
+            dot.append("];\n");
+        }
+        for (DefaultEdge edge : pipelineGraph.edgeSet()) {
+            dot.append("  ").append(quote(pipelineGraph.getEdgeSource(edge))).append(" -> ").append(quote(pipelineGraph.getEdgeTarget(edge))).append(";\n");
+        }
+        return dot.append("}\n").toString();
+    }
+
+    synchronized String renderSvg(ExecutionContext context) {
+        updateTopology();
+        updateLayout();
+        updateColors(context);
+
+        mxRectangle bounds = graphAdapter.getGraphBounds();
+        double offsetX = 2 - bounds.getX();
+        double offsetY = 2 - bounds.getY();
+        Map<String, mxGeometry> geometries = new HashMap<>();
+        nodes.forEach(node -> geometries.put(node.vertexId, node.cell.getGeometry()));
+
+        StringBuilder svg = new StringBuilder(160 * nodes.size());
+        svg.append(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%.0f\" height=\"%.0f\" font-family=\"sans-serif\" font-size=\"11\">%n",
+                bounds.getWidth() + 4, bounds.getHeight() + 4));
+        svg.append("<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+        for (DefaultEdge edge : pipelineGraph.edgeSet()) {  // edges first so the nodes are drawn over them
+            mxGeometry source = geometries.get(pipelineGraph.getEdgeSource(edge));
+            mxGeometry target = geometries.get(pipelineGraph.getEdgeTarget(edge));
+            svg.append(String.format(Locale.ROOT, "<line x1=\"%.1f\" y1=\"%.1f\" x2=\"%.1f\" y2=\"%.1f\" stroke=\"#6482b9\"/>%n",
+                    source.getCenterX() + offsetX, source.getCenterY() + offsetY, target.getCenterX() + offsetX, target.getCenterY() + offsetY));
+        }
+        for (Node node : nodes) {
+            mxGeometry geometry = node.cell.getGeometry();
+            String fontStyle = (node.kind == Kind.ROOT) ? " font-weight=\"bold\"" : (node.kind != Kind.STAGE) ? " font-style=\"italic\"" : "";
+            svg.append(String.format(Locale.ROOT, "<rect x=\"%.1f\" y=\"%.1f\" width=\"%.1f\" height=\"%.1f\" fill=\"%s\" stroke=\"#6482b9\"/>%n",
+                    geometry.getX() + offsetX, geometry.getY() + offsetY, geometry.getWidth(), geometry.getHeight(), node.color));
+            svg.append(String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%.1f\" text-anchor=\"middle\" dominant-baseline=\"middle\"%s>%s</text>%n",
+                    geometry.getCenterX() + offsetX, geometry.getCenterY() + offsetY, fontStyle, escapeXml(node.vertexId)));
+        }
+        return svg.append("</svg>\n").toString();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,247 @@
+package org.dplevine.patterns.pipeline;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * The PipelineSpecReader class is a streaming reader of JSON and YAML pipeline specifications.  It walks the Jackson token stream and
+ * builds the PipelineSpecification directly (i.e., no intermediate tree or data binding), using shared, thread-safe parser factories
+ * rather than creating an ObjectMapper per specification.
+ *
+ * Specifications can be read from an InputStream, a Reader, a byte[], a file or a classpath resource.
+ */
+public final class PipelineSpecReader {
+
+    public enum Format {
+        JSON,
+        YAML;
+
+        // the format implied by the suffix of a file or resource name
+        public static Format fromPathName(String pathname) throws PipelineBuilderException {
+            String lowerCasePathname = pathname.toLowerCase();
+            if (lowerCasePathname.endsWith(".json")) {
+                return JSON;
+            } else if (lowerCasePathname.endsWith(".yaml") || lowerCasePathname.endsWith(".yml")) {
+                return YAML;
+            }
+            throw new PipelineBuilderException("Unrecognized file suffix.  Supported types are .json and .yaml.");
+        }
+    }
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final YAMLFactory YAML_FACTORY = new YAMLFactory();
+
+    private PipelineSpecReader() {
+    }
+
+    private static JsonFactory factory(Format format) {
+        return (format == Format.JSON) ? JSON_FACTORY : YAML_FACTORY;
+    }
+
+    public static PipelineSpecification read(InputStream inputStream, Format format) throws PipelineBuilderException {
+        try (JsonParser parser = factory(format).createParser(inputStream)) {
+            return readSpecification(parser);
+        } catch (IOException e) {
+            throw new PipelineBuilderException(e);
+        }
+    }
+
+    public static PipelineSpecification read(Reader reader, Format format) throws PipelineBuilderException {
+        try (JsonParser parser = factory(format).createParser(reader)) {
+            return readSpecification(parser);
+        } catch (IOException e) {
+            throw new PipelineBuilderException(e);
+        }
+    }
+
+    public static PipelineSpecification read(byte[] bytes, Format format) throws PipelineBuilderException {
+        try (JsonParser parser = factory(format).createParser(bytes)) {
+            return readSpecification(parser);
+        } catch (IOException e) {
+            throw new PipelineBuilderException(e);
+        }
+    }
+
+    public static PipelineSpecification read(Path path) throws PipelineBuilderException {
+        return read(path, Format.fromPathName(path.getFileName().toString()));
+    }
+
+    public static PipelineSpecification read(Path path, Format format) throws PipelineBuilderException {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return read(inputStream, format);
+        } catch (IOException e) {
+            throw new PipelineBuilderException(e);
+        }
+    }
+
+    // reads a specification from the classpath (using the thread's context class loader)
+    public static PipelineSpecification readResource(String resourceName) throws PipelineBuilderException {
+        Format format = Format.fromPathName(resourceName);
+        String name = resourceName.startsWith("/") ? resourceName.substring(1) : resourceName;
+        try (InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(name)) {
+            if (inputStream == null) {
+                throw new PipelineBuilderException("Pipeline specification resource not found: " + resourceName);
+            }
+            return read(inputStream, format);
+        } catch (IOException e) {
+            throw new PipelineBuilderException(e);
+        }
+    }
+
+    // token stream helpers
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws PipelineBuilderException {
+        if (actual != expected) {
+            throw new PipelineBuilderException("Malformed pipeline specification, expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    private static PipelineBuilderException unrecognizedField(JsonParser parser, String field, String element) throws IOException {
+        return new PipelineBuilderException("Unrecognized field \"" + field + "\" in " + element + " at " + parser.getCurrentLocation());
+    }
+
+    private static String readString(JsonParser parser) throws PipelineBuilderException, IOException {
+        if (parser.currentToken().isStructStart()) {
+            throw new PipelineBuilderException("Malformed pipeline specification, expected a value but found " + parser.currentToken() + " at " + parser.getCurrentLocation());
+        }
+        return parser.getValueAsString();
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException, PipelineBuilderException {
+        List<String> strings = new Vector<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return strings;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            strings.add(readString(parser));
+        }
+        return strings;
+    }
+
+    static PipelineSpecification readSpecification(JsonParser parser) throws IOException, PipelineBuilderException {
+        PipelineSpecification spec = new PipelineSpecification();
+
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    spec.setId(readString(parser));
+                    break;
+                case "stages":
+                    spec.setStages(readStages(parser));
+                    break;
+                case "parallels":
+                    spec.setParallels(readParallels(parser));
+                    break;
+                case "steps":
+                    spec.setSteps(readStrings(parser));
+                    break;
+                default:
+                    throw unrecognizedField(parser, field, "pipeline specification");
+            }
+        }
+        expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+        return spec;
+    }
+
+    private static List<PipelineSpecification.StageDefinition> readStages(JsonParser parser) throws IOException, PipelineBuilderException {
+        List<PipelineSpecification.StageDefinition> stages = new Vector<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return stages;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+            PipelineSpecification.StageDefinition stageDef = new PipelineSpecification.StageDefinition();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        stageDef.setId(readString(parser));
+                        break;
+                    case "className":
+                        stageDef.setClassName(readString(parser));
+                        break;
+                    case "compensation":
+                        stageDef.setCompensation(readString(parser));
+                        break;
+                    default:
+                        throw unrecognizedField(parser, field, "stage definition");
+                }
+            }
+            stages.add(stageDef);
+        }
+        return stages;
+    }
+
+    private static List<PipelineSpecification.ParallelDefinition> readParallels(JsonParser parser) throws IOException, PipelineBuilderException {
+        List<PipelineSpecification.ParallelDefinition> parallels = new Vector<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return parallels;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+            String id = null;
+            List<PipelineSpecification.PipelineDefinition> parallelPipelines = new Vector<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = readString(parser);
+                        break;
+                    case "parallelPipelines":
+                        parallelPipelines = readParallelPipelines(parser);
+                        break;
+                    default:
+                        throw unrecognizedField(parser, field, "parallel definition");
+                }
+            }
+            // the parallel pipeline ids are derived from the parallel's id, so the parallel is only created once its id is known
+            parallels.add(new PipelineSpecification.ParallelDefinition(id, parallelPipelines));
+        }
+        return parallels;
+    }
+
+    private static List<PipelineSpecification.PipelineDefinition> readParallelPipelines(JsonParser parser) throws IOException, PipelineBuilderException {
+        List<PipelineSpecification.PipelineDefinition> parallelPipelines = new Vector<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return parallelPipelines;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+            PipelineSpecification.PipelineDefinition pipelineDef = new PipelineSpecification.PipelineDefinition();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        readString(parser);  // assigned by the enclosing parallel definition
+                        break;
+                    case "steps":
+                        pipelineDef.setSteps(readStrings(parser));
+                        break;
+                    default:
+                        throw unrecognizedField(parser, field, "pipeline definition");
+                }
+            }
+            parallelPipelines.add(pipelineDef);
+        }
+        return parallelPipelines;
+    }
+}
@@ -1,15 +1,17 @@
 package org.dplevine.patterns.pipeline;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.Vector;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * The PipelineSpecValidator class is responsible for validating a PipelineSpecification to ensure that it adheres to certain rules
  * and is well-formed.  This class applies several validation rules to the PipelineSpecification.
  * These rules cover various aspects, including checking for null IDs, unique IDs, well-formed stages, pipelines, parallels, and steps.
  *
+ * The specification is indexed once (a symbol table of every id in the spec) and the rules all run against that index.  The rules
+ * are independent of one another, so for large specifications they run concurrently.  Every error found is reported in one
+ * SpecValidationResult rather than failing on the first one.
  */
 final class PipelineSpecValidator implements Stage {
     private static final String VALIDATE_NULL_IDS = "validate null IDs";
@@ -18,147 +20,133 @@ final class PipelineSpecValidator implements Stage {
     private static final String VALIDATE_PIPELINE_DEFS = "validate pipeline definitions";
     private static final String VALIDATE_PARALLEL_DEFS = "validate parallel definitions";
     private static final String VALIDATE_STEPS = "validate spec steps";
-
-    // make sure all ids are non-null
-    private final StageWrapper validateNullIDs = new StageWrapper(VALIDATE_NULL_IDS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-
-
-        if (spec.getId() == null || spec.getId().equals("")) {
-            throw new PipelineBuilderException("The pipeline specification has a null identifier");
+    private static final int CONCURRENT_THRESHOLD = 2048;  // below this number of nodes, running the rules concurrently costs more than it saves
+
+    // the symbol table of a specification, built in a single pass and shared (read only) by all the rules
+    private static final class SpecIndex {
+        private final PipelineSpecification spec;
+        private final List<PipelineSpecification.PipelineDefinition> allParallelPipelines = new ArrayList<>();
+        private final Set<String> ids = new HashSet<>();
+        private final Set<String> duplicateIds = new LinkedHashSet<>();
+        private int nodeCount = 0;
+
+        SpecIndex(PipelineSpecification spec) {
+            this.spec = spec;
+            spec.getStages().forEach(stageDef -> addId(stageDef.getId()));
+            for (PipelineSpecification.ParallelDefinition parallelDef : spec.getParallels()) {
+                addId(parallelDef.getId());
+                allParallelPipelines.addAll(parallelDef.getParallelPipelines());
+            }
+            allParallelPipelines.forEach(pipelineDef -> addId(pipelineDef.getId()));
         }
 
-        if (spec.getStages().stream().anyMatch(stageDef -> stageDef.getId() == null || stageDef.getId().equals(""))) {
-            throw new PipelineBuilderException("At least one stage definition has a null identifier");
+        private void addId(String id) {
+            nodeCount++;
+            if (!ids.add(id)) {
+                duplicateIds.add(id);
+            }
         }
 
-        if (spec.getParallels().stream().anyMatch(parallelDef -> parallelDef.getId() == null || parallelDef.getId().equals(""))) {
-            throw new PipelineBuilderException("At least one parallel definition has a null identifier");
+        boolean resolves(String id) {
+            return id != null && ids.contains(id);
         }
+    }
 
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
-        if (allParallelPipelines.stream().anyMatch(pipelineDef -> pipelineDef.getId() == null || pipelineDef.getId().equals(""))) {
-            throw new PipelineBuilderException("At least one pipeline definition has a null identifier");
-        }
+    private static boolean isNullId(String id) {
+        return id == null || id.equals("");
+    }
 
-        if (spec.getSteps().stream().anyMatch(stepDef -> stepDef == null || stepDef.equals(""))) {
-            throw new PipelineBuilderException("At least one step definition has a null identifier");
-        }
+    // make sure all ids are non-null
+    private static List<SpecValidationResult.Error> validateNullIDs(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        PipelineSpecification spec = index.spec;
 
-        return context;
-    });
+        if (isNullId(spec.getId())) {
+            errors.add(new SpecValidationResult.Error(VALIDATE_NULL_IDS, null, "The pipeline specification has a null identifier"));
+        }
+        spec.getStages().stream().filter(stageDef -> isNullId(stageDef.getId()))
+                .forEach(stageDef -> errors.add(new SpecValidationResult.Error(VALIDATE_NULL_IDS, null, "A stage definition (className = " + stageDef.getClassName() + ") has a null identifier")));
+        spec.getParallels().stream().filter(parallelDef -> isNullId(parallelDef.getId()))
+                .forEach(parallelDef -> errors.add(new SpecValidationResult.Error(VALIDATE_NULL_IDS, null, "A parallel definition has a null identifier")));
+        index.allParallelPipelines.stream().filter(pipelineDef -> isNullId(pipelineDef.getId()))
+                .forEach(pipelineDef -> errors.add(new SpecValidationResult.Error(VALIDATE_NULL_IDS, null, "A pipeline definition has a null identifier")));
+        spec.getSteps().stream().filter(PipelineSpecValidator::isNullId)
+                .forEach(stepDef -> errors.add(new SpecValidationResult.Error(VALIDATE_NULL_IDS, null, "A step definition has a null identifier")));
+        return errors;
+    }
 
     // make sure all the ids are unique from one another
-    private final StageWrapper validateUniqueIDs = new StageWrapper(VALIDATE_UNIQUE_IDS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Set<String> duplicateIds = new HashSet<>();
-        Set<String> ids = new HashSet<>();
-
-        spec.getStages().stream().filter(stageDef -> !ids.add(stageDef.getId())).forEach(stageDef -> duplicateIds.add(stageDef.getId()));
-        spec.getParallels().stream().filter(parallelDef -> !ids.add(parallelDef.getId())).forEach(parallelDef -> duplicateIds.add(parallelDef.getId()));
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
-        allParallelPipelines.stream().filter(pipelineDef -> !ids.add(pipelineDef.getId())).forEach(pipelineDef -> duplicateIds.add(pipelineDef.getId()));
-
-        if (!duplicateIds.isEmpty()) {
-            throw new PipelineBuilderException("The following Ids are duplicated:" + duplicateIds);
-        }
-        return context;
-    });
+    private static List<SpecValidationResult.Error> validateUniqueIDs(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        index.duplicateIds.forEach(id -> errors.add(new SpecValidationResult.Error(VALIDATE_UNIQUE_IDS, id, "The following Id is duplicated: " + id)));
+        return errors;
+    }
 
     // make sure stages are well formed (i.e., references are valid)
-    private final StageWrapper validateStageDefs = new StageWrapper(VALIDATE_STAGE_DEFS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Set<String> malformedStages = new HashSet<>();
-
-        spec.getStages().stream().filter(stageDef -> stageDef.getClassName() == null || stageDef.getClassName().equals("")).forEach(stageDef -> malformedStages.add(stageDef.getId()));
-
-        if (!malformedStages.isEmpty()) {
-            throw new PipelineBuilderException("The following stage definitions are malformed:" + malformedStages);
-        }
-
-        return context;
-    });
+    private static List<SpecValidationResult.Error> validateStageDefs(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        index.spec.getStages().stream().filter(stageDef -> stageDef.getClassName() == null || stageDef.getClassName().equals(""))
+                .forEach(stageDef -> errors.add(new SpecValidationResult.Error(VALIDATE_STAGE_DEFS, stageDef.getId(), "The following stage definition is malformed (no className): " + stageDef.getId())));
+        return errors;
+    }
 
     // make sure piplines are well formed (i.e., references are valid)
-    private final StageWrapper validatePipelineDefs = new StageWrapper(VALIDATE_PIPELINE_DEFS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Set<String> malformedPipelines = new HashSet<>();
-        Set<String> ids = new HashSet<>();
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
-
-        spec.getStages().forEach( stageDef -> ids.add(stageDef.getId()));
-        allParallelPipelines.forEach(pipelineDef -> ids.add(pipelineDef.getId()));
-        spec.getParallels().forEach(parallelDef -> ids.add(parallelDef.getId()));
-
-        for (PipelineSpecification.PipelineDefinition pipelineDef : allParallelPipelines) {
-            pipelineDef.getSteps().stream().filter(pipelineStepDef -> !ids.contains(pipelineStepDef)).forEach(pipelineStepDef -> malformedPipelines.add(pipelineDef.getId()));
+    private static List<SpecValidationResult.Error> validatePipelineDefs(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        for (PipelineSpecification.PipelineDefinition pipelineDef : index.allParallelPipelines) {
+            pipelineDef.getSteps().stream().filter(stepDef -> !index.resolves(stepDef))
+                    .forEach(stepDef -> errors.add(new SpecValidationResult.Error(VALIDATE_PIPELINE_DEFS, pipelineDef.getId(), "The pipeline " + pipelineDef.getId() + " contains an unresolved reference: " + stepDef)));
         }
-
-        if (!malformedPipelines.isEmpty()) {
-            throw new PipelineBuilderException("The following pipelines contain unresolved references:" + malformedPipelines);
-        }
-
-        return context;
-    });
+        return errors;
+    }
 
     // make sure parallels are well formed (i.e., references are valid)
-    private final StageWrapper validateParallelDefs = new StageWrapper(VALIDATE_PARALLEL_DEFS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Set<String> malformedParallels = new HashSet<>();
-        Set<String> ids = new HashSet<>();
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
-
-        spec.getStages().forEach( stageDef -> ids.add(stageDef.getId()));
-        allParallelPipelines.forEach(pipelineDef -> ids.add(pipelineDef.getId()));
-        spec.getParallels().forEach(parallelDef -> ids.add(parallelDef.getId()));
-
-        for (PipelineSpecification.ParallelDefinition parallelDef : spec.getParallels()) {
-            parallelDef.getParallelPipelines().stream().filter(parallelPipeline -> !ids.contains(parallelPipeline.getId())).forEach(parallelPipeline -> malformedParallels.add(parallelDef.getId()));
-        }
-
-        if (!malformedParallels.isEmpty()) {
-            throw new PipelineBuilderException("The following parallels contain unresolved references:" + malformedParallels);
+    private static List<SpecValidationResult.Error> validateParallelDefs(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        for (PipelineSpecification.ParallelDefinition parallelDef : index.spec.getParallels()) {
+            parallelDef.getParallelPipelines().stream().filter(parallelPipeline -> !index.resolves(parallelPipeline.getId()))
+                    .forEach(parallelPipeline -> errors.add(new SpecValidationResult.Error(VALIDATE_PARALLEL_DEFS, parallelDef.getId(), "The parallel " + parallelDef.getId() + " contains an unresolved reference: " + parallelPipeline.getId())));
         }
-
-        return context;
-    });
+        return errors;
+    }
 
     // make sure steps are well formed (i.e., references are valid)
-    private final StageWrapper validateSteps = new StageWrapper(VALIDATE_STEPS, (context) -> {
-        PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Set<String> malformedSteps = new HashSet<>();
-        Set<String> ids = new HashSet<>();
-        List<PipelineSpecification.PipelineDefinition> allParallelPipelines = spec.getAllParallelPipelines();
-
-        spec.getStages().forEach( stageDef -> ids.add(stageDef.getId()));
-        allParallelPipelines.forEach(pipelineDef -> ids.add(pipelineDef.getId()));
-        spec.getParallels().forEach(parallelDef -> ids.add(parallelDef.getId()));
-
-        spec.getSteps().stream().filter(stepDef -> !ids.contains(stepDef)).forEach(stepDef -> malformedSteps.add(stepDef));
+    private static List<SpecValidationResult.Error> validateSteps(SpecIndex index) {
+        List<SpecValidationResult.Error> errors = new ArrayList<>();
+        index.spec.getSteps().stream().filter(stepDef -> !isNullId(stepDef) && !index.resolves(stepDef))
+                .forEach(stepDef -> errors.add(new SpecValidationResult.Error(VALIDATE_STEPS, stepDef, "The following step definition is unresolved: " + stepDef)));
+        return errors;
+    }
 
-        if (!malformedSteps.isEmpty()) {
-            throw new PipelineBuilderException("The following steps definitions are unresolved:" + malformedSteps);
+    private static final List<Function<SpecIndex, List<SpecValidationResult.Error>>> RULES = List.of(
+            PipelineSpecValidator::validateNullIDs,
+            PipelineSpecValidator::validateUniqueIDs,
+            PipelineSpecValidator::validateStageDefs,
+            PipelineSpecValidator::validatePipelineDefs,
+            PipelineSpecValidator::validateParallelDefs,
+            PipelineSpecValidator::validateSteps);
+
+    static SpecValidationResult validate(PipelineSpecification spec) {
+        SpecIndex index = new SpecIndex(spec);
+        SpecValidationResult result = new SpecValidationResult();
+
+        if (index.nodeCount < CONCURRENT_THRESHOLD) {
+            RULES.forEach(rule -> result.addErrors(rule.apply(index)));
+        } else {
+            List<CompletableFuture<List<SpecValidationResult.Error>>> futures = new ArrayList<>();
+            RULES.forEach(rule -> futures.add(CompletableFuture.supplyAsync(() -> rule.apply(index))));
+            futures.forEach(future -> result.addErrors(future.join()));  // joined in rule order so the result is deterministic
         }
-
-        return context;
-    });
+        return result;
+    }
 
     @Override
     public ExecutionContext doWork(ExecutionContext context) throws Exception {
         PipelineSpecification spec = (PipelineSpecification) context.getObject(BuilderContext.PIPELINE_SPEC);
-        Pipeline validateSpecPipeline = new Pipeline("validate: " + spec.getId());
-
-        validateSpecPipeline.addStage(validateNullIDs);
-        validateSpecPipeline.addStage(validateUniqueIDs);
-        validateSpecPipeline.addStage(validateStageDefs);
-        validateSpecPipeline.addStage(validatePipelineDefs);
-        validateSpecPipeline.addStage(validateParallelDefs);
-        validateSpecPipeline.addStage(validateSteps);
-
-        context = validateSpecPipeline.run(context);
 
-        if (context.isFailure()) {
-            throw new PipelineBuilderException ("The pipeline specification is malformed, please correct: " + context.getEventLog().toString());
+        SpecValidationResult result = validate(spec);
+        if (!result.isValid()) {
+            throw new SpecValidationException(result);
         }
 
         return context;
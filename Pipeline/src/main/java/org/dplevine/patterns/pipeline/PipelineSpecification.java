@@ -12,7 +12,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  *
  * It models the structure of a pipeline using various inner classes:
  * OptionDefinition to define options with a name, type, and value.
- * StageDefinition to define stages with an identifier and class name.
+ * StageDefinition to define stages with an identifier and class name (and, when the specification defines a saga, a compensation).
  * ParallelDefinition to define parallel sections containing a list of parallel pipelines.
  * PipelineDefinition to define a pipeline with an identifier and a list of steps.
  */
@@ -25,6 +25,8 @@ public final class PipelineSpecification {
     private List<ParallelDefinition> parallels = new Vector<>();
     @JsonProperty(required = true)
     private List<String> steps = new Vector<>();
+    @JsonIgnore
+    private boolean prevalidated = false;  // set when loaded from a compiled (already validated) specification
 
     public PipelineSpecification() {
     }
@@ -38,6 +40,8 @@ public final class PipelineSpecification {
         private String id;
         @JsonProperty(required = true)
         private String className;
+        @JsonProperty
+        private String compensation;  // only used by saga definitions: the saga transaction that undoes the stage (null if none)
 
         public StageDefinition() {
         }
@@ -47,6 +51,11 @@ public final class PipelineSpecification {
             this.className = className;
         }
 
+        public StageDefinition(String id, String className, String compensation) {
+            this(id, className);
+            this.compensation = compensation;
+        }
+
         public void setId(String id) {
             this.id = id;
         }
@@ -62,6 +71,14 @@ public final class PipelineSpecification {
         public String getClassName() {
             return className;
         }
+
+        public void setCompensation(String compensation) {
+            this.compensation = compensation;
+        }
+
+        public String getCompensation() {
+            return compensation;
+        }
     }
 
     public static class ParallelDefinition {
@@ -174,4 +191,17 @@ public final class PipelineSpecification {
     public void setSteps(List<String> steps) {
         this.steps = steps;
     }
+
+    // every error PipelineSpecValidator finds in the specification (e.g., for specifications that are not built into a pipeline)
+    public SpecValidationResult validate() {
+        return PipelineSpecValidator.validate(this);
+    }
+
+    boolean isPrevalidated() {
+        return prevalidated;
+    }
+
+    void setPrevalidated(boolean prevalidated) {
+        this.prevalidated = prevalidated;
+    }
 }
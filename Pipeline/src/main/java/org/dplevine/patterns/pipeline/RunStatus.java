@@ -0,0 +1,157 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The RunStatus class is the live status of a pipeline run: the state, start time and end time of every node (i.e., the root pipeline,
+ * its stages, parallels and parallel pipelines).  It is updated incrementally by the StageRunner as stages start and finish, and can be
+ * read at any moment (e.g., by a monitoring dashboard) as a consistent Snapshot without copying or scanning the event log.  Every run has
+ * its own, held by its ExecutionContext (see ExecutionContext.getRunStatus()).
+ *
+ * Nothing is locked: the node index is immutable, every node's status is an immutable NodeStatus swapped into an AtomicReferenceArray,
+ * and a snapshot re-reads the nodes if any of them changed while it was being taken (so the executing stages never wait on a reader).
+ */
+public final class RunStatus {
+
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 8;
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    public static final class NodeStatus {
+        private final String id;
+        private final State state;
+        private final long startTime;  // epoch millis, 0 if not started
+        private final long endTime;  // epoch millis, 0 if not ended
+
+        NodeStatus(String id, State state, long startTime, long endTime) {
+            this.id = id;
+            this.state = state;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+    }
+
+    public static final class Snapshot {
+        private final List<NodeStatus> nodes;
+        private final int[] counts = new int[State.values().length];
+
+        Snapshot(List<NodeStatus> nodes) {
+            this.nodes = Collections.unmodifiableList(nodes);
+            nodes.forEach(node -> counts[node.getState().ordinal()]++);
+        }
+
+        public List<NodeStatus> getNodes() {
+            return nodes;
+        }
+
+        public int getCount(State state) {
+            return counts[state.ordinal()];
+        }
+
+        public NodeStatus getNode(String id) {
+            return nodes.stream().filter(node -> node.getId().equals(id)).findFirst().orElse(null);
+        }
+    }
+
+    private final Map<String, Integer> index;  // immutable once built
+    private final AtomicReferenceArray<NodeStatus> nodes;
+    private final AtomicLong updates = new AtomicLong();
+
+    // ctors
+    RunStatus(Pipeline root) {
+        List<String> ids = new ArrayList<>();
+        collectIds(root, ids);
+
+        Map<String, Integer> index = new HashMap<>();
+        nodes = new AtomicReferenceArray<>(ids.size());
+        for (String id : ids) {
+            if (!index.containsKey(id)) {
+                index.put(id, index.size());
+                nodes.set(index.get(id), new NodeStatus(id, State.PENDING, 0, 0));
+            }
+        }
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    private static void collectIds(StageWrapper stageWrapper, List<String> ids) {
+        if (stageWrapper.getId() != null) {
+            ids.add(stageWrapper.getId());
+        }
+        if (stageWrapper instanceof Pipeline) {
+            ((Pipeline) stageWrapper).getStages().forEach(stage -> collectIds(stage, ids));
+        } else if (stageWrapper instanceof Parallel) {
+            ((Parallel) stageWrapper).getParallelPipelines().forEach(pipeline -> collectIds(pipeline, ids));
+        }
+    }
+
+    // updates made by the StageRunner
+    void started(StageWrapper stageWrapper) {
+        update(stageWrapper, State.RUNNING);
+    }
+
+    void succeeded(StageWrapper stageWrapper) {
+        update(stageWrapper, State.SUCCEEDED);
+    }
+
+    void failed(StageWrapper stageWrapper) {
+        update(stageWrapper, State.FAILED);
+    }
+
+    private void update(StageWrapper stageWrapper, State state) {
+        Integer i = (stageWrapper.getId() == null) ? null : index.get(stageWrapper.getId());
+        if (i == null) {
+            return;  // not part of this run's pipeline
+        }
+        long now = System.currentTimeMillis();
+        NodeStatus current = nodes.get(i);
+        NodeStatus next = (state == State.RUNNING)
+                ? new NodeStatus(current.getId(), state, now, 0)
+                : new NodeStatus(current.getId(), state, (current.getStartTime() == 0) ? now : current.getStartTime(), now);
+        nodes.set(i, next);  // each node is only ever updated by the thread running it
+        updates.incrementAndGet();
+    }
+
+    // a consistent view of every node (retried while nodes change underneath, then best effort so a reader never starves)
+    public Snapshot snapshot() {
+        List<NodeStatus> statuses = new ArrayList<>(nodes.length());
+        for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++) {
+            long before = updates.get();
+            statuses.clear();
+            for (int i = 0; i < nodes.length(); i++) {
+                statuses.add(nodes.get(i));
+            }
+            if (updates.get() == before) {
+                break;
+            }
+        }
+        return new Snapshot(statuses);
+    }
+
+    public NodeStatus getNode(String id) {
+        Integer i = index.get(id);
+        return (i == null) ? null : nodes.get(i);
+    }
+}
@@ -1,6 +1,5 @@
 package org.dplevine.patterns.pipeline;
 
-import java.lang.annotation.Annotation;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -62,44 +61,46 @@ public final class SpecTemplateBuilder {
         }
     }
 
-    private interface ScannerFunc {
-        void doWork(Class<?> clazz) throws Exception ;
+    // the compile time index of every classpath entry holding the package that has one (see PipelineAnnotationProcessor), merged with
+    // a scan of every other entry
+    private AnnotationIndex packageIndex(String packageName) throws Exception {
+        return ClasspathScanner.scan(Thread.currentThread().getContextClassLoader(), packageName);
     }
 
-    private void packageScaner(String packageName, ScannerFunc func, Class<? extends Annotation> annotation) throws Exception {
-        for (Class<?> clazz : AnnotationScanner.scanClassesWithAnnotation(packageName, annotation)) {
-            func.doWork(clazz);
-        }
-    }
-
-    private final ScannerFunc scanForStageBuilders = (clazz) -> {
-        for (StageBuilderDefinition stageBuilderDefinition : clazz.getAnnotation(StageBuilderDefinitions.class).value()) {
-            StageBuilderDef stageBuilderDef = new StageBuilderDef(stageBuilderDefinition.id(), clazz.getName());
+    private void addStageBuilders(AnnotationIndex index) {
+        for (AnnotationIndex.StageBuilderEntry entry : index.getStageBuilders()) {
+            StageBuilderDef stageBuilderDef = new StageBuilderDef(entry.getId(), entry.getClassName());
             stageBuilderDefs.put(stageBuilderDef.getId(), stageBuilderDef);
         }
-    };
+    }
 
-    private final ScannerFunc scanForPipelineSteps = (clazz) -> {
+    private void addPipelineSteps(AnnotationIndex index) throws PipelineBuilderException {
         int parallelIndex = 0;
-        for (PipelineStepsDefinition pipelineSteps : clazz.getAnnotation(PipelineStepsDefinitions.class).value()) {
-            if (pipelineSteps.parallelId().equals("") && pipelineStepsDefs.containsKey(pipelineSteps.pipelineRootId())) {
-                throw new PipelineBuilderException("Scanned packages contain more than one PipelineSteps root definition for pipelineRootId = " + pipelineSteps.pipelineRootId());
+        String className = null;
+        for (AnnotationIndex.PipelineStepsEntry pipelineSteps : index.getPipelineSteps()) {
+            if (!pipelineSteps.getClassName().equals(className)) {  // the parallel index is per annotated class
+                className = pipelineSteps.getClassName();
+                parallelIndex = 0;
+            }
+            if (pipelineSteps.getParallelId().equals("") && pipelineStepsDefs.containsKey(pipelineSteps.getPipelineRootId())) {
+                throw new PipelineBuilderException("Scanned packages contain more than one PipelineSteps root definition for pipelineRootId = " + pipelineSteps.getPipelineRootId());
             }
-            String key = (pipelineSteps.parallelId().equals("")) ? pipelineSteps.pipelineRootId() : pipelineSteps.pipelineRootId() + parallelIndex++;
-            PipelineStepsDef pipelineStepsDef = new PipelineStepsDef(pipelineSteps.pipelineRootId(), pipelineSteps.parallelId(), pipelineSteps.steps());
+            String key = (pipelineSteps.getParallelId().equals("")) ? pipelineSteps.getPipelineRootId() : pipelineSteps.getPipelineRootId() + parallelIndex++;
+            PipelineStepsDef pipelineStepsDef = new PipelineStepsDef(pipelineSteps.getPipelineRootId(), pipelineSteps.getParallelId(), pipelineSteps.getSteps());
             pipelineStepsDefs.put(key, pipelineStepsDef);
         }
-    };
+    }
 
     Map<String, PipelineSpecification> specTemplatesFromAnnotations() throws Exception {
         Map<String, PipelineSpecification> specTemplates = new ConcurrentHashMap<>();
 
         // scan each package for pipeline related annotations
         for (String packageName : packages) {
-            // scan for StageBuilderDefinitions annotations and construct StageBuilderDefs
-            packageScaner(packageName, scanForStageBuilders, StageBuilderDefinitions.class);
+            AnnotationIndex index = packageIndex(packageName);
 
-            packageScaner(packageName, scanForPipelineSteps, PipelineStepsDefinitions.class);
+            // construct StageBuilderDefs and PipelineStepsDefs from the StageBuilderDefinition and PipelineStepsDefinition annotations
+            addStageBuilders(index);
+            addPipelineSteps(index);
         }
 
 
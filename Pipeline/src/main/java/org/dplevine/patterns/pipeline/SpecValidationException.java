@@ -0,0 +1,19 @@
+package org.dplevine.patterns.pipeline;
+
+/**
+ * The SpecValidationException class is a specific type of PipelineBuilderException thrown when a pipeline specification is malformed.
+ * It carries the full validation result (i.e., every error found in the specification).
+ */
+public class SpecValidationException extends PipelineBuilderException {
+
+    private final SpecValidationResult result;
+
+    public SpecValidationException(SpecValidationResult result) {
+        super("The pipeline specification is malformed, please correct: " + result);
+        this.result = result;
+    }
+
+    public SpecValidationResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package org.dplevine.patterns.pipeline;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * The SpecValidationResult class is the structured outcome of validating a PipelineSpecification: every rule violation found in the
+ * specification (rather than only the first one), each with the rule that was violated, the offending id(s) and a description.
+ */
+public final class SpecValidationResult {
+    private final List<Error> errors = new Vector<>();
+
+    public static final class Error {
+        private final String rule;
+        private final String id;
+        private final String message;
+
+        Error(String rule, String id, String message) {
+            this.rule = rule;
+            this.id = id;
+            this.message = message;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return rule + ": " + message;
+        }
+    }
+
+    SpecValidationResult() {
+    }
+
+    void addErrors(List<Error> errors) {
+        this.errors.addAll(errors);
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    public List<Error> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    @Override
+    public String toString() {
+        return errors.toString();
+    }
+}
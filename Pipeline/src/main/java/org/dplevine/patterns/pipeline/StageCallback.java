@@ -2,7 +2,8 @@ package org.dplevine.patterns.pipeline;
 
 /**
  * The StageCallback interface defines a contract for callback objects that can be used to execute custom logic at specific points
- * during the execution of a stage in a pipeline (i.e., before and after the execution of a stage)
+ * during the execution of a stage in a pipeline (i.e., before and after the execution of a stage).  The stage passed to a callback is the
+ * application's stage itself (the one built by its StageBuilder), or null if it could not be created.
  */
 public interface StageCallback {
 
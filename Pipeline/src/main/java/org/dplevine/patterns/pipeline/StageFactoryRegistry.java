@@ -0,0 +1,165 @@
+package org.dplevine.patterns.pipeline;
+
+import java.lang.invoke.*;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The StageFactoryRegistry class is the global registry of StageBuilder factories, keyed by StageBuilder class name.  Each class named in
+ * a pipeline specification is resolved once and its factory cached, so building pipelines does not go through reflection every time.
+ * Classes are resolved through the thread context class loader, so the same name can be a different class in another loader: resolved
+ * classes are cached per class loader (weakly, so a discarded loader can be collected) and their factories per class (a ClassValue).
+ *
+ * Factories are (in order of preference):
+ *     1. registered explicitly with register() (i.e., no reflection at all, e.g., for builders used on hot paths)
+ *     2. generated with LambdaMetafactory (i.e., a Supplier that calls the public no-arg constructor directly)
+ *     3. a constructor MethodHandle (when the class is not visible to this library's class loader)
+ *     4. reflection (when the class or its constructor is not public)
+ */
+public final class StageFactoryRegistry {
+
+    private static final Map<String, Supplier<? extends StageBuilder>> factories = new ConcurrentHashMap<>();  // registered explicitly
+    private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> classes = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ClassValue<Supplier<? extends StageBuilder>> resolvedFactories = new ClassValue<>() {
+        @Override
+        protected Supplier<? extends StageBuilder> computeValue(Class<?> clazz) {
+            try {
+                return resolve(clazz);
+            } catch (PipelineBuilderException e) {
+                return null;  // resolved again (and thrown) by newStageBuilder()
+            }
+        }
+    };
+    private static final MethodType SUPPLIER_FACTORY = MethodType.methodType(Supplier.class);
+    private static final MethodType SUPPLIER_GET = MethodType.methodType(Object.class);
+    private static final MethodType NO_ARG_CONSTRUCTOR = MethodType.methodType(void.class);
+
+    private StageFactoryRegistry() {
+    }
+
+    public static void register(String className, Supplier<? extends StageBuilder> factory) {
+        factories.put(className, factory);
+    }
+
+    public static <T extends StageBuilder> void register(Class<T> clazz, Supplier<T> factory) {
+        register(clazz.getName(), factory);
+    }
+
+    public static void unregister(String className) {
+        factories.remove(className);
+    }
+
+    public static boolean isRegistered(String className) {
+        return factories.containsKey(className);
+    }
+
+    // creates a new StageBuilder of the class, resolving (and caching) its factory on first use
+    public static StageBuilder newStageBuilder(String className) throws PipelineBuilderException {
+        Supplier<? extends StageBuilder> factory = factories.get(className);
+        if (factory == null) {
+            Class<?> clazz = loadClass(className, Thread.currentThread().getContextClassLoader());
+            factory = resolvedFactories.get(clazz);
+            if (factory == null) {
+                factory = resolve(clazz);  // throws why the class has no factory
+            }
+        }
+        return factory.get();
+    }
+
+    // the class of that name in the class loader (cached, a class loader keeps its classes, so the weak reference holds while the loader does)
+    private static Class<?> loadClass(String className, ClassLoader classLoader) throws PipelineBuilderException {
+        Map<String, WeakReference<Class<?>>> loaderClasses = classes.computeIfAbsent(classLoader, loader -> new ConcurrentHashMap<>());
+        WeakReference<Class<?>> reference = loaderClasses.get(className);
+        Class<?> clazz = (reference == null) ? null : reference.get();
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new PipelineBuilderException("Could not construct a StageBuilder for class: " + className);
+            }
+            loaderClasses.put(className, new WeakReference<>(clazz));
+        }
+        return clazz;
+    }
+
+    static Supplier<? extends StageBuilder> resolve(String className, ClassLoader classLoader) throws PipelineBuilderException {
+        return resolve(loadClass(className, classLoader));
+    }
+
+    private static Supplier<? extends StageBuilder> resolve(Class<?> clazz) throws PipelineBuilderException {
+        String className = clazz.getName();
+        if (!StageBuilder.class.isAssignableFrom(clazz)) {
+            throw new PipelineBuilderException("Could not construct a StageBuilder for class: " + className + " (not a StageBuilder)");
+        }
+
+        MethodHandle constructor = null;
+        if (Modifier.isPublic(clazz.getModifiers())) {
+            try {
+                constructor = MethodHandles.publicLookup().findConstructor(clazz, NO_ARG_CONSTRUCTOR);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // not public, use reflection below
+            }
+        }
+
+        if (constructor != null && isVisible(clazz)) {
+            try {
+                return lambdaFactory(clazz, constructor);
+            } catch (Throwable e) {
+                // fall through to the method handle
+            }
+        }
+        if (constructor != null) {
+            return methodHandleFactory(className, constructor);
+        }
+        return reflectiveFactory(className, clazz);
+    }
+
+    // the generated lambda class is defined in this library, so it can only link against classes its class loader can see
+    private static boolean isVisible(Class<?> clazz) {
+        try {
+            return Class.forName(clazz.getName(), false, StageFactoryRegistry.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<? extends StageBuilder> lambdaFactory(Class<?> clazz, MethodHandle constructor) throws Throwable {
+        CallSite callSite = LambdaMetafactory.metafactory(MethodHandles.lookup(), "get", SUPPLIER_FACTORY, SUPPLIER_GET, constructor, MethodType.methodType(clazz));
+        return (Supplier<? extends StageBuilder>) callSite.getTarget().invokeExact();
+    }
+
+    private static Supplier<? extends StageBuilder> methodHandleFactory(String className, MethodHandle constructor) {
+        MethodHandle factory = constructor.asType(MethodType.methodType(StageBuilder.class));
+        return () -> {
+            try {
+                return (StageBuilder) factory.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not construct a StageBuilder for class: " + className, e);
+            }
+        };
+    }
+
+    private static Supplier<? extends StageBuilder> reflectiveFactory(String className, Class<?> clazz) throws PipelineBuilderException {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            return () -> {
+                try {
+                    return (StageBuilder) constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Could not construct a StageBuilder for class: " + className, e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            throw new PipelineBuilderException("Could not construct a StageBuilder for class: " + className + " (no no-arg constructor)");
+        }
+    }
+}
@@ -16,19 +16,44 @@ final class  StageRunner {
     }
 
     ExecutionContext run(StageWrapper stageWrapper) throws Exception {
+        // skip stages that already completed in the run being resumed
+        Checkpointer checkpointer = context.getCheckpointer();
+        RunStatus runStatus = context.getRunStatus();
+        if (checkpointer != null && checkpointer.isCompleted(stageWrapper)) {
+            context.createEvent(stageWrapper, ExecutionContext.EventType.RESTORED_STAGE, "restored from checkpoint");
+            if (runStatus != null) {
+                runStatus.succeeded(stageWrapper);
+            }
+            return context;
+        }
+
         StageCallback.StageEvent event = StageCallback.StageEvent.PostStageCallbackSuccess;
         try {
-            // call the wrapper init first
+            // create a deferred stage first, so a failure to create it is a failure of the stage
+            stageWrapper.getStage();
+            // call the wrapper init
             stageWrapper.init(context);
             // invoke any application registered pre-stage callbacks
             stageWrapper.doPreStageCallbacks(context, StageCallback.StageEvent.PreStageCallback);
-            context.createEvent(stageWrapper, ExecutionContext.EventType.CALLING_STAGE, stageWrapper.getStage().getClass().getCanonicalName() + ".doWork()");
+            if (runStatus != null) {
+                runStatus.started(stageWrapper);
+            }
+            context.createEvent(stageWrapper, ExecutionContext.EventType.CALLING_STAGE, stageWrapper.getStageName() + ".doWork()");
             // invoke the stage (indirectly via the wrapper)
             stageWrapper.doWork(context);
-            context.createEvent(stageWrapper, ExecutionContext.EventType.CALLED_STAGE, stageWrapper.getStage().getClass().getCanonicalName() + ".doWork()");
+            context.createEvent(stageWrapper, ExecutionContext.EventType.CALLED_STAGE, stageWrapper.getStageName() + ".doWork()");
+            if (runStatus != null) {
+                runStatus.succeeded(stageWrapper);
+            }
             event = StageCallback.StageEvent.PostStageCallbackSuccess;
+            if (checkpointer != null) {
+                checkpointer.stageCompleted(stageWrapper, context);
+            }
         } catch (Exception e) {
-            context.createEvent(stageWrapper, ExecutionContext.EventType.EXCEPTION, stageWrapper.getStage().getClass().getCanonicalName() + ": " + e.getLocalizedMessage());
+            context.createEvent(stageWrapper, ExecutionContext.EventType.EXCEPTION, stageWrapper.getStageName() + ": " + e.getLocalizedMessage());  // the stage may have failed to be created
+            if (runStatus != null) {
+                runStatus.failed(stageWrapper);
+            }
             event = StageCallback.StageEvent.PostStageCallbackError;
             if (context.getFastFail()) {
                 context.setFailNow(true);
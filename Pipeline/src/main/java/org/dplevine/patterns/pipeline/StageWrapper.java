@@ -5,16 +5,21 @@ import org.jgrapht.graph.DefaultEdge;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Supplier;
 
 /**
  * The StageWrapper class is an essential part of the pipeline framework, serving as a wrapper for individual stages.
  * It provides a way to execute externally defined stages and manage initialization and cleanup routines, acting as a bridge
  * between the framework and user-defined stages.
+ *
+ * The wrapped stage can be deferred (see deferred()), in which case it is only created the first time it is needed (i.e., when the
+ * stage first runs), so stages that never run are never built.
  */
 class StageWrapper implements Stage {
 
     private String id;
-    private Stage stage;
+    private volatile Stage stage;
+    private Supplier<? extends Stage> stageFactory = null;  // set until a deferred stage is created
 
     private final List<StageWrapperCallback> initCallbacks = new Vector<>();
     private final List<StageWrapperCallback> closeCallbacks = new Vector<>();
@@ -34,6 +39,13 @@ class StageWrapper implements Stage {
         this.stage = stage;
     }
 
+    // a wrapper whose stage is created on first use
+    static StageWrapper deferred(String id, Supplier<? extends Stage> stageFactory) {
+        StageWrapper stageWrapper = new StageWrapper(id);
+        stageWrapper.stageFactory = stageFactory;
+        return stageWrapper;
+    }
+
     //setters and getters
     void setId(String id) {
         this.id = id;
@@ -43,14 +55,37 @@ class StageWrapper implements Stage {
         return id;
     }
 
-    void setStage(Stage stage) {
+    synchronized void setStage(Stage stage) {
         this.stage = stage;
+        this.stageFactory = null;
     }
 
+    // creates a deferred stage if it has not been created yet
     Stage getStage() {
+        Stage stage = this.stage;
+        if (stage == null) {
+            synchronized (this) {
+                if (this.stage == null && stageFactory != null) {
+                    this.stage = stageFactory.get();
+                    stageFactory = null;
+                }
+                stage = this.stage;
+            }
+        }
         return stage;
     }
 
+    // the class name of the stage, or the id when there is no stage (i.e., it was not created yet or its builder returned null),
+    // without creating a deferred stage
+    String getStageName() {
+        Stage stage = this.stage;
+        return (stage != null) ? stage.getClass().getCanonicalName() : id;
+    }
+
+    synchronized boolean isDeferred() {
+        return stage == null && stageFactory != null;
+    }
+
     // hook to allow the pipeline to do some initialization
     ExecutionContext init(ExecutionContext context) throws Exception {
         for(StageWrapperCallback callback : initCallbacks) {
@@ -67,11 +102,15 @@ class StageWrapper implements Stage {
 
     void doPreStageCallbacks(ExecutionContext context, StageCallback.StageEvent event) {
         for (StageCallback callback : preStageCallbacks) {
-            callback.onEvent(id, stage, event, context);
+            callback.onEvent(id, getStage(), event, context);
         }
     }
 
     void doPostStageCallbacks(ExecutionContext context, StageCallback.StageEvent event) {
+        if (postStageCallbacks.isEmpty()) {
+            return;
+        }
+        Stage stage = this.stage;  // not created here, a deferred stage that was not created is null (e.g., its creation failed the stage)
         for (StageCallback callback : postStageCallbacks) {
             callback.onEvent(id, stage, event, context);
         }
@@ -79,6 +118,7 @@ class StageWrapper implements Stage {
 
     @Override
     public ExecutionContext doWork(ExecutionContext context) throws Exception {
+        Stage stage = getStage();
         if (stage != null) {  // treat a null stage like a no-op
             return stage.doWork(context);
         }
@@ -113,6 +153,11 @@ class StageWrapper implements Stage {
         }
     }
 
+    // changes whenever a stage or parallel pipeline is added anywhere below this wrapper (see PipelineRenderer), a stage has no topology
+    long getTopologyVersion() {
+        return 0;
+    }
+
     // method for constructing the StageWrapper vertex and inbound edge as part of the overall pipeline graph
     String buildGraph(String root, Graph<String, DefaultEdge> pipelineGraph) {
         pipelineGraph.addVertex(id);
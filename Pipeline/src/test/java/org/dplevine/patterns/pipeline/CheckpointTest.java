@@ -0,0 +1,129 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CheckpointTest {
+    private static final String TRACE = "trace";
+    private static final AtomicInteger stepCount = new AtomicInteger();
+    private static final AtomicInteger flakyCount = new AtomicInteger();
+    private static volatile boolean failFlaky = true;
+
+    public static class Step implements Stage, StageBuilder {
+        public Step() {}
+
+        @Override
+        public ExecutionContext doWork(ExecutionContext context) throws Exception {
+            stepCount.incrementAndGet();
+            context.addObject(TRACE, "step");
+            return context;
+        }
+
+        @Override
+        public Stage buildStage() {
+            return new Step();
+        }
+    }
+
+    public static class Flaky implements Stage, StageBuilder {
+        public Flaky() {}
+
+        @Override
+        public ExecutionContext doWork(ExecutionContext context) throws Exception {
+            flakyCount.incrementAndGet();
+            if (failFlaky) {
+                throw new Exception("simulated failure");
+            }
+            return context;
+        }
+
+        @Override
+        public Stage buildStage() {
+            return new Flaky();
+        }
+    }
+
+    private Pipeline pipeline;
+    private ExecutionContextSerializer serializer;
+
+    @Before
+    public void setUp() throws Exception {
+        stepCount.set(0);
+        flakyCount.set(0);
+        failFlaky = true;
+
+        PipelineSpecification spec = new PipelineSpecification("checkpointed");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 1", Step.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 2", Step.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 3", Flaky.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 4", Step.class.getName()));
+        PipelineSpecification.ParallelDefinition parallel = new PipelineSpecification.ParallelDefinition();
+        parallel.setId("parallel 1");
+        parallel.addParallelPipeline(List.of("stage 2"));
+        parallel.addParallelPipeline(List.of("stage 3"));
+        spec.getParallels().add(parallel);
+        spec.setSteps(Arrays.asList("stage 1", "parallel 1", "stage 4"));
+
+        pipeline = PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec);
+        serializer = new ExecutionContextSerializer().registerObject(TRACE, ExecutionContextSerializer.STRING);
+    }
+
+    private void runAndResume(CheckpointStore store) throws Exception {
+        pipeline.enableCheckpointing(store, serializer);
+        ExecutionContext failed = pipeline.run(false);  // no fast fail, so every stage other than the flaky one completes
+        assertEquals(3, stepCount.get());
+        assertEquals(1, flakyCount.get());
+
+        assertEquals(List.of(failed.getRunId()), pipeline.getCheckpointedRunIds());
+        Checkpoint checkpoint = pipeline.loadCheckpoint(failed.getRunId());
+        assertNotNull(checkpoint);
+        assertTrue(checkpoint.isCompleted("stage 1"));
+        assertTrue(checkpoint.isCompleted("parallel 1[0]"));
+        assertFalse(checkpoint.isCompleted("parallel 1[1]"));
+        assertFalse(checkpoint.isCompleted("parallel 1"));
+        assertTrue(checkpoint.isCompleted("stage 4"));
+        assertEquals("step", checkpoint.getObjects().get(TRACE));
+
+        failFlaky = false;
+        ExecutionContext context = new ExecutionContext();
+        pipeline.resume(checkpoint, context);
+
+        assertTrue(context.isSuccess());
+        assertEquals(3, stepCount.get());  // only the flaky stage ran again
+        assertEquals(2, flakyCount.get());
+        assertEquals(ExecutionContext.EventType.RESTORED_STAGE, context.getLastStageEvent("stage 1").getEventType());
+        assertEquals(failed.getRunId(), context.getRunId());
+        assertNull(pipeline.loadCheckpoint(failed.getRunId()));  // nothing left to resume
+        assertTrue(pipeline.getCheckpointedRunIds().isEmpty());
+    }
+
+    @Test
+    public void testRunsKeepTheirOwnCheckpoints() throws Exception {
+        pipeline.enableCheckpointing(new InMemoryCheckpointStore(), serializer);
+        ExecutionContext first = pipeline.run(false);
+        ExecutionContext second = pipeline.run(false);
+
+        assertNotEquals(first.getRunId(), second.getRunId());
+        assertEquals(2, pipeline.getCheckpointedRunIds().size());
+        assertEquals(first.getRunId(), pipeline.loadCheckpoint(first.getRunId()).getRunId());
+        assertEquals(second.getRunId(), pipeline.loadCheckpoint(second.getRunId()).getRunId());
+    }
+
+    @Test
+    public void testResumeFromInMemoryStore() throws Exception {
+        runAndResume(new InMemoryCheckpointStore());
+    }
+
+    @Test
+    public void testResumeFromFileStore() throws Exception {
+        Path directory = Files.createTempDirectory("checkpoints");
+        runAndResume(new FileCheckpointStore(directory, serializer));
+    }
+}
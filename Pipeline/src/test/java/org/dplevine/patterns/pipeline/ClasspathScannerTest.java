@@ -0,0 +1,77 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class ClasspathScannerTest {
+
+    @StageBuilderDefinition(id = "single")
+    @PipelineStepsDefinition(pipelineRootId = "root", steps = {"single"})
+    static class SingleAnnotations {
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws Exception {
+        try (InputStream inputStream = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testScanMatchesReflection() throws Exception {
+        String packageName = "org.dplevine.patterns.pipeline.examples.graph";
+        Class<?> timerStage = Class.forName(packageName + ".PipelineGraph$TimerStage");
+        AnnotationIndex index = ClasspathScanner.scan(Thread.currentThread().getContextClassLoader(), packageName);
+
+        StageBuilderDefinition[] stageBuilders = timerStage.getAnnotationsByType(StageBuilderDefinition.class);
+        assertEquals(stageBuilders.length, index.getStageBuilders().size());
+        for (int i = 0; i < stageBuilders.length; i++) {
+            assertEquals(timerStage.getName(), index.getStageBuilders().get(i).getClassName());
+            assertEquals(stageBuilders[i].id(), index.getStageBuilders().get(i).getId());
+        }
+
+        PipelineStepsDefinition[] pipelineSteps = timerStage.getAnnotationsByType(PipelineStepsDefinition.class);
+        assertEquals(pipelineSteps.length, index.getPipelineSteps().size());
+        for (int i = 0; i < pipelineSteps.length; i++) {
+            assertEquals(pipelineSteps[i].pipelineRootId(), index.getPipelineSteps().get(i).getPipelineRootId());
+            assertEquals(pipelineSteps[i].parallelId(), index.getPipelineSteps().get(i).getParallelId());
+            assertArrayEquals(pipelineSteps[i].steps(), index.getPipelineSteps().get(i).getSteps());
+        }
+
+        // cached per classpath entry
+        assertSame(index.getStageBuilders().get(0), ClasspathScanner.scan(Thread.currentThread().getContextClassLoader(), packageName).getStageBuilders().get(0));
+    }
+
+    @Test
+    public void testChangedDirectoryIsScannedAgain() throws Exception {
+        Path root = Files.createTempDirectory("scanner");
+        Path packageDirectory = Files.createDirectories(root.resolve(SingleAnnotations.class.getPackageName().replace('.', '/')));
+        Path classFile = packageDirectory.resolve("SingleAnnotations.class");
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{root.toUri().toURL()}, null)) {
+            assertTrue(ClasspathScanner.scan(classLoader, SingleAnnotations.class.getPackageName()).isEmpty());
+
+            Files.write(classFile, classBytes(SingleAnnotations.class));
+            Files.setLastModifiedTime(classFile, FileTime.fromMillis(System.currentTimeMillis() + 10_000));  // whatever the file system's time resolution
+            assertEquals("single", ClasspathScanner.scan(classLoader, SingleAnnotations.class.getPackageName()).getStageBuilders().get(0).getId());
+        }
+    }
+
+    @Test
+    public void testReadSingleAnnotations() throws Exception {
+        AnnotationIndex index = new AnnotationIndex();
+        assertTrue(ClassFileAnnotationReader.read(classBytes(SingleAnnotations.class), index));
+        assertEquals("single", index.getStageBuilders().get(0).getId());
+        assertEquals(SingleAnnotations.class.getName(), index.getStageBuilders().get(0).getClassName());
+        assertEquals("", index.getPipelineSteps().get(0).getParallelId());
+        assertArrayEquals(new String[]{"single"}, index.getPipelineSteps().get(0).getSteps());
+
+        assertFalse(ClassFileAnnotationReader.read(classBytes(ClasspathScannerTest.class), new AnnotationIndex()));
+        assertFalse(ClassFileAnnotationReader.read(new byte[]{1, 2, 3}, new AnnotationIndex()));
+    }
+}
@@ -0,0 +1,74 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class CompiledPipelineSpecTest {
+
+    @Test
+    public void testCompileAndLoad() throws Exception {
+        PipelineSpecification spec = PipelineSpecReader.readResource("/pipelineGraph.json");
+        Path compiled = Files.createTempDirectory("pspec").resolve("pipelineGraph" + CompiledPipelineSpec.SUFFIX);
+        CompiledPipelineSpec.compile(spec, compiled);
+
+        PipelineSpecification loaded = CompiledPipelineSpec.load(compiled);
+        assertTrue(loaded.isPrevalidated());
+        assertEquals(spec.getId(), loaded.getId());
+        assertEquals(spec.getStages().size(), loaded.getStages().size());
+        assertEquals(spec.getStages().get(3).getClassName(), loaded.getStages().get(3).getClassName());
+        assertEquals(spec.getParallels().get(0).getParallelPipelines().get(1).getId(), loaded.getParallels().get(0).getParallelPipelines().get(1).getId());
+        assertEquals(spec.getParallels().get(1).getParallelPipelines().get(1).getSteps(), loaded.getParallels().get(1).getParallelPipelines().get(1).getSteps());
+        assertEquals(spec.getSteps(), loaded.getSteps());
+
+        Pipeline pipeline = PipelineBuilder.createBuilder().buildFromPathName(compiled.toString());
+        assertEquals(spec.getId(), pipeline.getId());
+        try (Stream<Path> paths = Files.list(compiled.getParent())) {
+            assertEquals(1, paths.count());  // no temporary file is left behind
+        }
+    }
+
+    @Test
+    public void testCorruptSpecIsRejected() throws Exception {
+        PipelineSpecification spec = PipelineSpecReader.readResource("/pipelineGraph.json");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompiledPipelineSpec.write(spec, new DataOutputStream(bytes));
+        Path compiled = Files.createTempDirectory("pspec").resolve("pipelineGraph" + CompiledPipelineSpec.SUFFIX);
+        Files.write(compiled, Arrays.copyOf(bytes.toByteArray(), bytes.size() - 8));  // truncated
+
+        assertThrows(PipelineBuilderException.class, () -> PipelineBuilder.createBuilder().buildFromCompiledSpec(compiled));
+    }
+
+    @Test
+    public void testCompensationsRoundTrip() throws Exception {
+        String className = PipelineRendererTest.OkBuilder.class.getName();
+        PipelineSpecification spec = new PipelineSpecification("saga");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("reserve", className, "release"));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("notify", className));
+        spec.getSteps().addAll(List.of("reserve", "notify"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompiledPipelineSpec.write(spec, new DataOutputStream(bytes));
+        PipelineSpecification loaded = CompiledPipelineSpec.read(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals("release", loaded.getStages().get(0).getCompensation());
+        assertNull(loaded.getStages().get(1).getCompensation());
+    }
+
+    @Test
+    public void testCompileRejectsUnresolvedClass() throws Exception {
+        PipelineSpecification spec = new PipelineSpecification("p");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("a", "org.dplevine.NoSuchStage"));
+        spec.getSteps().add("a");
+        Path compiled = Files.createTempDirectory("pspec").resolve("p" + CompiledPipelineSpec.SUFFIX);
+        assertThrows(PipelineBuilderException.class, () -> CompiledPipelineSpec.compile(spec, compiled));
+        assertFalse(Files.exists(compiled));
+    }
+}
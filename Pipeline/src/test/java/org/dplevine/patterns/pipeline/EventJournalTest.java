@@ -0,0 +1,118 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class EventJournalTest {
+
+    @Test
+    public void testPipelineEventsAreJournaled() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        Pipeline pipeline = new Pipeline("journaled");
+        pipeline.addStage(new StageWrapper("stage 1", context -> context));
+
+        ExecutionContext first = new ExecutionContext();
+        ExecutionContext second = new ExecutionContext();
+        try (EventJournal journal = EventJournal.open(directory)) {
+            pipeline.setEventSink(journal);
+            pipeline.run(first);
+            pipeline.run(second);
+        }
+
+        List<ExecutionContext.Event> eventLog = EventJournal.readEventLog(directory, first.getRunId());
+        assertEquals(first.getEventLog().size(), eventLog.size());
+        for (int i = 0; i < eventLog.size(); i++) {
+            assertEquals(first.getEventLog().get(i).getTime(), eventLog.get(i).getTime());
+            assertEquals(first.getEventLog().get(i).getId(), eventLog.get(i).getId());
+            assertEquals(first.getEventLog().get(i).getEventType(), eventLog.get(i).getEventType());
+            assertEquals(first.getEventLog().get(i).getDetails(), eventLog.get(i).getDetails());
+        }
+        assertEquals(second.getEventLog().size(), EventJournal.readEventLog(directory, second.getRunId()).size());
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        ExecutionContext context = new ExecutionContext();
+        StageWrapper stage = new StageWrapper("stage");
+
+        try (EventJournal journal = EventJournal.open(directory, 256, 1)) {
+            context.setEventSink(journal);
+            for (int i = 0; i < 100; i++) {
+                context.createEvent(stage, ExecutionContext.EventType.CALLING_STAGE, "event " + i);
+            }
+        }
+
+        try (EventJournal journal = EventJournal.open(directory, 256, 1)) {  // re-opening starts a new segment
+            journal.append(context.getRunId(), new ExecutionContext.Event("stage", ExecutionContext.EventType.CALLED_STAGE, "last"));
+        }
+
+        assertTrue(Files.list(directory).count() > 2);
+        List<ExecutionContext.Event> eventLog = EventJournal.readEventLog(directory, context.getRunId());
+        assertEquals(101, eventLog.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("event " + i, eventLog.get(i).getDetails());
+        }
+        assertEquals("last", eventLog.get(100).getDetails());
+    }
+
+    @Test
+    public void testFailedRolloverDropsEvents() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        ExecutionContext context = new ExecutionContext();
+        StageWrapper stage = new StageWrapper("stage");
+
+        try (EventJournal journal = EventJournal.open(directory, 256, 1)) {
+            context.setEventSink(journal);
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);  // the next segment can not be created
+            for (int i = 0; i < 100; i++) {
+                context.createEvent(stage, ExecutionContext.EventType.CALLING_STAGE, "event " + i);  // never throws into the stage
+            }
+
+            Files.createDirectories(directory);
+            context.createEvent(stage, ExecutionContext.EventType.CALLED_STAGE, "after the failure");
+            try (Stream<Path> paths = Files.list(directory)) {
+                assertEquals(0, paths.count());  // the journal closed itself rather than writing to the full segment
+            }
+        }
+        assertEquals(101, context.getEventLog().size());
+    }
+
+    @Test
+    public void testTornRecordEndsTheSegment() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        ExecutionContext context = new ExecutionContext();
+        StageWrapper stage = new StageWrapper("stage");
+        try (EventJournal journal = EventJournal.open(directory, 4096, 1)) {
+            context.setEventSink(journal);
+            for (int i = 0; i < 3; i++) {
+                context.createEvent(stage, ExecutionContext.EventType.CALLING_STAGE, "event " + i);
+            }
+        }
+
+        Path segment;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segment = paths.findFirst().orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        int second = 8 + 4 + ByteBuffer.wrap(bytes).getInt(8);  // after the segment header and the first record
+        bytes[second + 4 + ByteBuffer.wrap(bytes).getInt(second) - 1] ^= 1;  // the last byte of the second record's details
+        Files.write(segment, bytes);
+
+        List<ExecutionContext.Event> eventLog = EventJournal.readEventLog(directory, context.getRunId());
+        assertEquals(1, eventLog.size());
+        assertEquals("event 0", eventLog.get(0).getDetails());
+    }
+}
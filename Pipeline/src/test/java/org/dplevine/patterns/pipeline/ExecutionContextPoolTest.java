@@ -0,0 +1,49 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExecutionContextPoolTest {
+
+    @Test
+    public void testReleaseResetsContext() throws Exception {
+        ExecutionContextPool<ExecutionContext> pool = ExecutionContextPool.createPool();
+        ExecutionContext context = pool.acquire();
+        context.addObject("key", "value");
+        context.setFastFail(false);
+        context.setFailNow(true);
+        context.setFailure();
+        context.createEvent(new StageWrapper("stage"), ExecutionContext.EventType.CALLING_STAGE, "details");
+
+        pool.release(context);
+        ExecutionContext recycled = pool.acquire();
+
+        assertSame(context, recycled);
+        assertTrue(recycled.isUndefined());
+        assertTrue(recycled.getFastFail());
+        assertFalse(recycled.getFailNow());
+        assertNull(recycled.getObject("key"));
+        assertTrue(recycled.getEventLog().isEmpty());
+    }
+
+    @Test
+    public void testDebugModeDetectsDoubleRelease() throws Exception {
+        ExecutionContextPool<ExecutionContext> pool = ExecutionContextPool.createPool(ExecutionContext::new, 8, true);
+        ExecutionContext context = pool.acquire();
+        assertEquals(1, pool.getOutstandingLeases());
+
+        pool.release(context);
+        assertEquals(0, pool.getOutstandingLeases());
+        assertThrows(PipelineExecutionException.class, () -> pool.release(context));
+    }
+
+    @Test
+    public void testDebugModeDetectsReuseAfterRelease() throws Exception {
+        ExecutionContextPool<ExecutionContext> pool = ExecutionContextPool.createPool(ExecutionContext::new, 8, true);
+        ExecutionContext context = pool.acquire();
+        pool.release(context);
+
+        Pipeline pipeline = new Pipeline("pooled");
+        assertThrows(PipelineExecutionException.class, () -> pipeline.run(context));
+    }
+}
@@ -0,0 +1,117 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class ExecutionContextSerializerTest {
+    private ExecutionContextSerializer serializer;
+    private ExecutionContext context;
+
+    @Before
+    public void setUp() {
+        serializer = new ExecutionContextSerializer()
+                .registerObject("name", ExecutionContextSerializer.STRING)
+                .registerObject("count", ExecutionContextSerializer.LONG);
+
+        context = new ExecutionContext();
+        context.setFastFail(false);
+        context.setSuccess();
+        context.addObject("name", "snapshot");
+        context.addObject("count", 42L);
+        context.addObject("unregistered", new Object());
+        context.createEvent(new StageWrapper("stage 1"), ExecutionContext.EventType.CALLING_STAGE, "stage 1.doWork()");
+        context.createEvent(new StageWrapper("stage 1"), ExecutionContext.EventType.CALLED_STAGE, "stage 1.doWork()");
+    }
+
+    private void assertSnapshot(ExecutionContext copy) {
+        assertTrue(copy.isSuccess());
+        assertFalse(copy.getFastFail());
+        assertEquals("snapshot", copy.getObject("name"));
+        assertEquals(42L, copy.getObject("count"));
+        assertNull(copy.getObject("unregistered"));
+        assertEquals(2, copy.getEventLog().size());
+        for (int i = 0; i < 2; i++) {
+            ExecutionContext.Event expected = context.getEventLog().get(i);
+            ExecutionContext.Event actual = copy.getEventLog().get(i);
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getEventType(), actual.getEventType());
+            assertEquals(expected.getDetails(), actual.getDetails());
+        }
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(context, out);
+        assertSnapshot(serializer.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void testByteBufferRoundTrip() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        serializer.write(context, buffer);
+        serializer.write(context, buffer);
+        buffer.flip();
+
+        assertSnapshot(serializer.read(buffer));
+        assertSnapshot(serializer.read(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testUnknownObjectsAreSkipped() throws Exception {
+        byte[] bytes = serializer.toBytes(context);
+        ExecutionContext copy = new ExecutionContextSerializer().registerObject("count", ExecutionContextSerializer.LONG).read(ByteBuffer.wrap(bytes));
+        assertNull(copy.getObject("name"));
+        assertEquals(42L, copy.getObject("count"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptStatusIsRejected() throws Exception {
+        byte[] bytes = serializer.toBytes(context);
+        bytes[5] = 127;  // after the magic and the version
+        serializer.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCodecMustReadTheWholeValue() throws Exception {
+        byte[] bytes = serializer.toBytes(context);
+        new ExecutionContextSerializer().registerObject("count", ExecutionContextSerializer.INTEGER).read(ByteBuffer.wrap(bytes));  // 4 of the 8 bytes
+    }
+
+    @Test(expected = IOException.class)
+    public void testOversizedLengthIsRejected() throws Exception {
+        byte[] bytes = serializer.toBytes(context);
+        ByteBuffer.wrap(bytes).putInt(35, Integer.MAX_VALUE);  // the length of the first event's id
+        serializer.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testFailedReadLeavesTheContextUntouched() throws Exception {
+        byte[] bytes = serializer.toBytes(context);
+        bytes[5] = 127;
+        try {
+            serializer.read(ByteBuffer.wrap(bytes), context);
+            fail("the corrupt status was not rejected");
+        } catch (IOException e) {
+            assertTrue(context.isSuccess());
+            assertEquals("snapshot", context.getObject("name"));
+            assertNotNull(context.getObject("unregistered"));
+            assertEquals(2, context.getEventLog().size());
+        }
+    }
+
+    @Test
+    public void testScratchBufferIsTrimmed() throws Exception {
+        context.addObject("name", "x".repeat(2 * ExecutionContextSerializer.MAX_SCRATCH_SIZE));
+        assertTrue(serializer.toBytes(context).length > ExecutionContextSerializer.MAX_SCRATCH_SIZE);
+        assertTrue(ExecutionContextSerializer.scratchBufferSize() <= ExecutionContextSerializer.MAX_SCRATCH_SIZE);
+    }
+}
@@ -0,0 +1,119 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class PipelineAnnotationProcessorTest {
+
+    private static final String SOURCE = "package indexed.stages;\n" +
+            "import org.dplevine.patterns.pipeline.*;\n" +
+            "@PipelineStepsDefinition(pipelineRootId = \"root\", steps = {\"a\", \"parallel\"})\n" +
+            "@PipelineStepsDefinition(pipelineRootId = \"root\", parallelId = \"parallel\", steps = {\"b\"})\n" +
+            "public class Stages {\n" +
+            "    @StageBuilderDefinition(id = \"a\")\n" +
+            "    @StageBuilderDefinition(id = \"b\")\n" +
+            "    public static class Builder {}\n" +
+            "    @StageBuilderDefinition(id = \"c\")\n" +
+            "    public static class Single {}\n" +
+            "}\n";
+
+    private static final String OTHER_SOURCE = "package indexed.other;\n" +
+            "import org.dplevine.patterns.pipeline.*;\n" +
+            "@StageBuilderDefinition(id = \"d\")\n" +
+            "public class Other {}\n";
+
+    private static Path write(Path sourceDir, String packagePath, String className, String source) throws Exception {
+        Path sourceFile = Files.createDirectories(sourceDir.resolve(packagePath)).resolve(className + ".java");
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+        return sourceFile;
+    }
+
+    private static void compile(Path outputDir, boolean process, Path... sources) throws Exception {
+        String classpath = Paths.get(StageBuilderDefinition.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            List<String> options = new ArrayList<>(List.of("-classpath", classpath, "-d", outputDir.toString()));
+            if (!process) {
+                options.add("-proc:none");
+            }
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjects(sources));
+            task.setProcessors(List.of(new PipelineAnnotationProcessor()));
+            assertTrue(task.call());
+        }
+    }
+
+    private static AnnotationIndex readIndex(Path outputDir) throws Exception {
+        try (Reader reader = Files.newBufferedReader(outputDir.resolve(AnnotationIndex.RESOURCE), StandardCharsets.UTF_8)) {
+            return AnnotationIndex.read(reader);
+        }
+    }
+
+    @Test
+    public void testProcessorGeneratesIndex() throws Exception {
+        Path sourceDir = Files.createTempDirectory("processor-src");
+        Path outputDir = Files.createTempDirectory("processor-out");
+        compile(outputDir, true, write(sourceDir, "indexed/stages", "Stages", SOURCE));
+        assertTrue(Files.exists(outputDir.resolve(AnnotationIndex.RESOURCE)));
+        Files.delete(outputDir.resolve("indexed/stages/Stages$Single.class"));  // the index is read rather than the class files
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{outputDir.toUri().toURL()}, null)) {
+            AnnotationIndex index = ClasspathScanner.scan(classLoader, "indexed");
+            assertEquals(3, index.getStageBuilders().size());
+            Map<String, String> stageBuilders = index.getStageBuilders().stream().collect(Collectors.toMap(AnnotationIndex.StageBuilderEntry::getId, AnnotationIndex.StageBuilderEntry::getClassName));
+            assertEquals("indexed.stages.Stages$Builder", stageBuilders.get("b"));
+            assertEquals("indexed.stages.Stages$Single", stageBuilders.get("c"));
+            assertEquals(2, index.getPipelineSteps().size());
+            assertEquals("parallel", index.getPipelineSteps().get(1).getParallelId());
+            assertArrayEquals(new String[]{"a", "parallel"}, index.getPipelineSteps().get(0).getSteps());
+
+            assertTrue(ClasspathScanner.scan(classLoader, "other.stages").isEmpty());
+        }
+    }
+
+    @Test
+    public void testUnindexedEntriesAreScanned() throws Exception {
+        Path sourceDir = Files.createTempDirectory("processor-src");
+        Path indexedDir = Files.createTempDirectory("processor-out");
+        Path unindexedDir = Files.createTempDirectory("processor-out");
+        compile(indexedDir, true, write(sourceDir, "indexed/stages", "Stages", SOURCE));
+        compile(unindexedDir, false, write(sourceDir, "indexed/other", "Other", OTHER_SOURCE));
+        assertFalse(Files.exists(unindexedDir.resolve(AnnotationIndex.RESOURCE)));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{indexedDir.toUri().toURL(), unindexedDir.toUri().toURL()}, null)) {
+            AnnotationIndex index = ClasspathScanner.scan(classLoader, "indexed");
+            assertEquals(List.of("a", "b", "c", "d"), index.getStageBuilders().stream().map(AnnotationIndex.StageBuilderEntry::getId).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testIncrementalBuildMergesIndex() throws Exception {
+        Path sourceDir = Files.createTempDirectory("processor-src");
+        Path outputDir = Files.createTempDirectory("processor-out");
+        Path stages = write(sourceDir, "indexed/stages", "Stages", SOURCE);
+        compile(outputDir, true, stages);
+        compile(outputDir, true, write(sourceDir, "indexed/other", "Other", OTHER_SOURCE));  // only Other is compiled again
+
+        AnnotationIndex index = readIndex(outputDir);
+        assertEquals(List.of("a", "b", "c", "d"), index.getStageBuilders().stream().map(AnnotationIndex.StageBuilderEntry::getId).sorted().collect(Collectors.toList()));
+        assertEquals(2, index.getPipelineSteps().size());
+
+        // no longer annotated, the processor only runs when an annotated class is compiled along with it
+        compile(outputDir, true, stages, write(sourceDir, "indexed/other", "Other", "package indexed.other;\npublic class Other {}\n"));
+        assertEquals(List.of("a", "b", "c"), readIndex(outputDir).getStageBuilders().stream().map(AnnotationIndex.StageBuilderEntry::getId).sorted().collect(Collectors.toList()));
+    }
+}
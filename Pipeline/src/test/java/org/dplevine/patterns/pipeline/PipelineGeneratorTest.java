@@ -0,0 +1,56 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineGeneratorTest {
+
+    static final AtomicInteger built = new AtomicInteger();
+
+    public static class CountingBuilder implements StageBuilder {
+        public CountingBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            built.incrementAndGet();
+            return context -> context;
+        }
+    }
+
+    private static PipelineSpecification spec() {
+        String builder = CountingBuilder.class.getName();
+        PipelineSpecification spec = new PipelineSpecification("lazy");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("a", builder));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("b", builder));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("unused", builder));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("unused in parallel", builder));
+        spec.getParallels().add(new PipelineSpecification.ParallelDefinition("parallel", List.of(new PipelineSpecification.PipelineDefinition("parallel[0]", List.of("b")))));
+        spec.getParallels().add(new PipelineSpecification.ParallelDefinition("unused parallel", List.of(new PipelineSpecification.PipelineDefinition("unused parallel[0]", List.of("unused in parallel")))));
+        spec.getSteps().addAll(List.of("a", "parallel"));
+        return spec;
+    }
+
+    @Test
+    public void testReferencedIds() {
+        assertEquals(Set.of("a", "b", "parallel", "parallel[0]"), PipelineGenerator.referencedIds(spec()));
+    }
+
+    @Test
+    public void testStagesBuiltOnFirstRun() throws Exception {
+        built.set(0);
+        Pipeline pipeline = PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec());
+        assertEquals(0, built.get());
+
+        ExecutionContext context = pipeline.run(new ExecutionContext());
+        assertEquals(ExecutionContext.Status.SUCCESS, context.getStatus());
+        assertEquals(2, built.get());
+
+        pipeline.run(new ExecutionContext());
+        assertEquals(2, built.get());
+    }
+}
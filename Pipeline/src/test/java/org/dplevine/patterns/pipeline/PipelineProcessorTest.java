@@ -0,0 +1,145 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+public class PipelineProcessorTest {
+    private static final String VALUE = "value";
+    private Pipeline pipeline;
+
+    public static class Doubler implements Stage, StageBuilder {
+        public Doubler() {}
+
+        @Override
+        public ExecutionContext doWork(ExecutionContext context) throws Exception {
+            context.addObject(VALUE, (Integer) context.getObject(VALUE) * 2);
+            return context;
+        }
+
+        @Override
+        public Stage buildStage() {
+            return new Doubler();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PipelineSpecification spec = new PipelineSpecification("processorPipeline");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("double", Doubler.class.getName()));
+        spec.getSteps().add("double");
+        pipeline = PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec);
+    }
+
+    @Test
+    public void testSubscribeTo() throws Exception {
+        List<ExecutionContext> results = new Vector<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            PipelineProcessor<Integer> processor = pipeline.subscribeTo(publisher, item -> {
+                ExecutionContext context = new ExecutionContext();
+                context.addObject(VALUE, item);
+                return context;
+            });
+
+            processor.subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ExecutionContext context) {
+                    results.add(context);
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+
+            for (int i = 1; i <= 10; i++) {
+                publisher.submit(i);
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals((i + 1) * 2, results.get(i).getObject(VALUE));
+        }
+    }
+
+    @Test
+    public void testFailingContextFactoryEndsTheStream() throws Exception {
+        List<ExecutionContext> results = new Vector<>();
+        List<Throwable> errors = new Vector<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            PipelineProcessor<Integer> processor = pipeline.subscribeTo(publisher, item -> {
+                if (item == 3) {
+                    throw new IllegalArgumentException("bad item");
+                }
+                ExecutionContext context = new ExecutionContext();
+                context.addObject(VALUE, item);
+                return context;
+            });
+
+            processor.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ExecutionContext context) {
+                    results.add(context);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    errors.add(throwable);
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+
+            for (int i = 1; i <= 5; i++) {
+                publisher.submit(i);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 100 && publisher.getNumberOfSubscribers() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, publisher.getNumberOfSubscribers());  // the processor cancelled its subscription
+        }
+
+        assertTrue(results.size() <= 2);  // an error is signalled without waiting for the buffered results to be delivered
+        assertEquals(1, errors.size());
+        assertEquals("bad item", errors.get(0).getMessage());
+    }
+}
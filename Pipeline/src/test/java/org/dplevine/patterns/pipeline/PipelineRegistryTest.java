@@ -0,0 +1,135 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+public class PipelineRegistryTest {
+
+    static volatile CountDownLatch started = new CountDownLatch(0);
+    static volatile CountDownLatch release = new CountDownLatch(0);
+
+    public static class BlockingBuilder implements StageBuilder {
+        public BlockingBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return context;
+            };
+        }
+    }
+
+    private static String spec(String id) {
+        return "{\"id\":\"" + id + "\",\"stages\":[{\"id\":\"block\",\"className\":\"" + BlockingBuilder.class.getName() + "\"}],\"steps\":[\"block\"]}";
+    }
+
+    private static String parallelSpec(String id) {
+        String className = BlockingBuilder.class.getName();
+        return "{\"id\":\"" + id + "\",\"stages\":[{\"id\":\"block a\",\"className\":\"" + className + "\"},{\"id\":\"block b\",\"className\":\"" + className + "\"}]," +
+                "\"parallels\":[{\"id\":\"parallel\",\"parallelPipelines\":[{\"steps\":[\"block a\"]},{\"steps\":[\"block b\"]}]}],\"steps\":[\"parallel\"]}";
+    }
+
+    private static void write(Path path, String content) throws Exception {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReloadSwapsVersionAndDrainsInFlightRuns() throws Exception {
+        Path specPath = Files.createTempDirectory("registry").resolve("pipeline.json");
+        write(specPath, spec("version 1"));
+
+        try (PipelineRegistry registry = PipelineRegistry.create(PipelineBuilder.createBuilder())) {
+            registry.register("p", specPath);
+            assertEquals(1, registry.getVersion("p"));
+
+            // a run in flight on version 1
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            FutureTask<ExecutionContext> inFlight = new FutureTask<>(() -> registry.run("p", new ExecutionContext()));
+            new Thread(inFlight).start();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Pipeline oldPipeline = registry.getPipeline("p");
+
+            write(specPath, spec("version 2"));
+            assertTrue(registry.reload("p"));
+            assertEquals(2, registry.getVersion("p"));
+            assertEquals("version 2", registry.getPipeline("p").getId());
+            assertEquals(0, registry.getInFlightRuns("p"));  // the in-flight run is pinned to version 1
+
+            release.countDown();
+            assertEquals(ExecutionContext.Status.SUCCESS, inFlight.get(10, TimeUnit.SECONDS).getStatus());
+            assertNotSame(oldPipeline, registry.getPipeline("p"));
+
+            // a broken spec is rejected and version 2 keeps serving
+            write(specPath, "{\"id\":\"broken\",\"steps\":[\"missing\"]}");
+            assertFalse(registry.reload("p"));
+            assertEquals(2, registry.getVersion("p"));
+            assertEquals(ExecutionContext.Status.SUCCESS, registry.run("p", new ExecutionContext()).getStatus());
+        }
+    }
+
+    @Test
+    public void testWatchedFileIsReloaded() throws Exception {
+        Path specPath = Files.createTempDirectory("registry").resolve("pipeline.json");
+        write(specPath, spec("version 1"));
+
+        try (PipelineRegistry registry = PipelineRegistry.create(PipelineBuilder.createBuilder(), 10)) {
+            CountDownLatch reloaded = new CountDownLatch(1);
+            registry.addReloadListener((name, version, error) -> {
+                if (error == null) {
+                    reloaded.countDown();
+                }
+            });
+            registry.register("p", specPath);
+
+            write(specPath, spec("version 2"));
+            assertTrue(reloaded.await(30, TimeUnit.SECONDS));
+            assertEquals("version 2", registry.getPipeline("p").getId());
+        }
+    }
+
+    @Test
+    public void testConcurrentRunsUsePipelinesOfTheirOwn() throws Exception {
+        Path specPath = Files.createTempDirectory("registry").resolve("pipeline.json");
+        write(specPath, parallelSpec("parallel runs"));
+        int runs = 16;
+
+        ExecutorService executor = Executors.newFixedThreadPool(runs);
+        try (PipelineRegistry registry = PipelineRegistry.create(PipelineBuilder.createBuilder())) {
+            registry.register("p", specPath);
+            started = new CountDownLatch(2 * runs);  // every run in flight at once
+            release = new CountDownLatch(1);
+            List<Future<ExecutionContext>> contexts = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                contexts.add(executor.submit(() -> registry.run("p", new ExecutionContext())));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(runs, registry.getInFlightRuns("p"));
+            release.countDown();
+
+            for (Future<ExecutionContext> context : contexts) {
+                assertEquals(ExecutionContext.Status.SUCCESS, context.get(10, TimeUnit.SECONDS).getStatus());
+                assertTrue(context.get().getFastFail());  // like Pipeline.run(context)
+            }
+            assertEquals(0, registry.getInFlightRuns("p"));
+            assertEquals(ExecutionContext.Status.SUCCESS, registry.run("p", new ExecutionContext()).getStatus());  // pooled pipelines run again
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+public class PipelineRendererTest {
+
+    public static class OkBuilder implements StageBuilder {
+        public OkBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> context;
+        }
+    }
+
+    public static class FailingBuilder implements StageBuilder {
+        public FailingBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> {
+                throw new Exception("failed");
+            };
+        }
+    }
+
+    private static Pipeline pipeline() throws Exception {
+        PipelineSpecification spec = new PipelineSpecification("render");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("ok", OkBuilder.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("fails", FailingBuilder.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("after", OkBuilder.class.getName()));
+        spec.getParallels().add(new PipelineSpecification.ParallelDefinition("parallel", List.of(new PipelineSpecification.PipelineDefinition("parallel[0]", List.of("fails")))));
+        spec.getSteps().addAll(List.of("ok", "parallel", "after"));
+        return PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec);
+    }
+
+    @Test
+    public void testRenderDot() throws Exception {
+        Pipeline pipeline = pipeline();
+        String dot = pipeline.renderDot();
+        assertTrue(dot.startsWith("digraph \"render\" {"));
+        assertTrue(dot.contains("\"ok\" [fillcolor=\"" + PipelineRenderer.WHITE + "\"]"));
+        assertTrue(dot.contains("\"ok\" -> \"parallel - <Parallel>\""));
+
+        pipeline.run(new ExecutionContext(), false);
+        dot = pipeline.renderDot();
+        assertTrue(dot.contains("\"ok\" [fillcolor=\"" + PipelineRenderer.GREEN + "\"]"));
+        assertTrue(dot.contains("\"fails\" [fillcolor=\"" + PipelineRenderer.RED + "\"]"));
+        assertTrue(dot.contains("\"after\" [fillcolor=\"" + PipelineRenderer.GREEN + "\"]"));
+        assertTrue(dot.contains("\"render - <Pipeline>\" [fillcolor=\"" + PipelineRenderer.GREEN + "\", fontname=\"Helvetica-Bold\"]"));  // not fast fail
+        assertTrue(dot.lines().anyMatch(line -> line.startsWith("  \"parallel - <Parallel>\" [") && line.endsWith(", fontname=\"Helvetica-Oblique\"];")));
+    }
+
+    @Test
+    public void testTopologyIsVersionedPerRoot() throws Exception {
+        Pipeline pipeline = pipeline();
+        long version = pipeline.getTopologyVersion();
+        assertFalse(pipeline.renderDot().contains("\"extra\""));
+
+        pipeline();  // building another pipeline leaves this one's cached layout alone
+        assertEquals(version, pipeline.getTopologyVersion());
+
+        ((Parallel) pipeline.getStages().get(1)).getParallelPipelines().get(0).addStage(new StageWrapper("extra", context -> context));
+        assertNotEquals(version, pipeline.getTopologyVersion());
+        assertTrue(pipeline.renderDot().contains("\"extra\""));
+    }
+
+    @Test
+    public void testRenderSvgAndImage() throws Exception {
+        Pipeline pipeline = pipeline();
+        pipeline.run(new ExecutionContext(), false);
+
+        String svg = pipeline.renderSvg();
+        assertTrue(svg.startsWith("<svg"));
+        assertTrue(svg.contains(">parallel - &lt;Parallel&gt;</text>"));
+        assertTrue(svg.contains("fill=\"" + PipelineRenderer.GREEN + "\""));
+
+        BufferedImage first = pipeline.render();
+        BufferedImage second = pipeline.render();  // cached layout
+        assertEquals(first.getWidth(), second.getWidth());
+        assertEquals(first.getHeight(), second.getHeight());
+    }
+}
@@ -0,0 +1,49 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+public class PipelineSpecReaderTest {
+
+    @Test
+    public void testReadJsonResource() throws Exception {
+        PipelineSpecification spec = PipelineSpecReader.readResource("/pipelineGraph.json");
+        assertEquals("pipeline graph pipeline", spec.getId());
+        assertEquals(7, spec.getStages().size());
+        assertEquals(2, spec.getParallels().size());
+        assertEquals("parallel 1[1]", spec.getParallels().get(0).getParallelPipelines().get(1).getId());
+        assertEquals(4, spec.getSteps().size());
+    }
+
+    @Test
+    public void testReadYamlResource() throws Exception {
+        PipelineSpecification spec = PipelineSpecReader.readResource("/pipelineGraph.yaml");
+        assertEquals("pipeline graph pipeline", spec.getId());
+        assertEquals(8, spec.getStages().size());
+        assertEquals("org.dplevine.patterns.pipeline.examples.graph.PipelineGraph$TimerStage", spec.getStages().get(7).getClassName());
+        assertEquals(2, spec.getParallels().get(1).getParallelPipelines().get(1).getSteps().size());
+    }
+
+    @Test
+    public void testParallelIdAfterPipelines() throws Exception {
+        String json = "{\"id\":\"p\",\"parallels\":[{\"parallelPipelines\":[{\"steps\":[\"a\"]}],\"id\":\"par\"}],\"steps\":[\"par\"]}";
+        PipelineSpecification spec = PipelineSpecReader.read(json.getBytes(StandardCharsets.UTF_8), PipelineSpecReader.Format.JSON);
+        assertEquals("par[0]", spec.getParallels().get(0).getParallelPipelines().get(0).getId());
+    }
+
+    @Test
+    public void testStageCompensation() throws Exception {
+        String yaml = "id: saga\nstages:\n  - id: reserve\n    compensation: release\n  - id: notify\nsteps: [reserve, notify]\n";
+        PipelineSpecification spec = PipelineSpecReader.read(yaml.getBytes(StandardCharsets.UTF_8), PipelineSpecReader.Format.YAML);
+        assertEquals("release", spec.getStages().get(0).getCompensation());
+        assertNull(spec.getStages().get(1).getCompensation());
+    }
+
+    @Test
+    public void testUnrecognizedField() {
+        String json = "{\"id\":\"p\",\"stepz\":[]}";
+        assertThrows(PipelineBuilderException.class, () -> PipelineSpecReader.read(json.getBytes(StandardCharsets.UTF_8), PipelineSpecReader.Format.JSON));
+    }
+}
@@ -0,0 +1,51 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+public class PipelineSpecValidatorTest {
+
+    @Test
+    public void testAllErrorsAreReported() {
+        PipelineSpecification spec = new PipelineSpecification("malformed");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 1", "some.StageBuilder"));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 1", "some.StageBuilder"));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("stage 2", ""));
+        PipelineSpecification.ParallelDefinition parallel = new PipelineSpecification.ParallelDefinition();
+        parallel.setId("parallel 1");
+        parallel.addParallelPipeline(List.of("stage 1", "missing stage"));
+        spec.getParallels().add(parallel);
+        spec.setSteps(List.of("stage 1", "parallel 1", "missing step"));
+
+        SpecValidationResult result = PipelineSpecValidator.validate(spec);
+        assertFalse(result.isValid());
+        assertEquals(4, result.getErrors().size());
+        assertEquals("stage 1", result.getErrors().get(0).getId());
+        assertEquals("stage 2", result.getErrors().get(1).getId());
+        assertEquals("parallel 1[0]", result.getErrors().get(2).getId());
+        assertEquals("missing step", result.getErrors().get(3).getId());
+    }
+
+    @Test
+    public void testLargeSpecification() {
+        PipelineSpecification spec = new PipelineSpecification("large");
+        for (int i = 0; i < 10000; i++) {
+            spec.getStages().add(new PipelineSpecification.StageDefinition("stage " + i, "some.StageBuilder"));
+        }
+        for (int i = 0; i < 1000; i++) {
+            PipelineSpecification.ParallelDefinition parallel = new PipelineSpecification.ParallelDefinition();
+            parallel.setId("parallel " + i);
+            parallel.addParallelPipeline(List.of("stage " + (i * 10), "stage " + (i * 10 + 1)));
+            parallel.addParallelPipeline(List.of("stage " + (i * 10 + 2)));
+            spec.getParallels().add(parallel);
+            spec.getSteps().add("parallel " + i);
+        }
+        spec.getSteps().add("unresolved");
+
+        SpecValidationResult result = PipelineSpecValidator.validate(spec);
+        assertEquals(1, result.getErrors().size());
+        assertEquals("unresolved", result.getErrors().get(0).getId());
+    }
+}
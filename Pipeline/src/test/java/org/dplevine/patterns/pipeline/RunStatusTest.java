@@ -0,0 +1,120 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RunStatusTest {
+
+    static volatile CountDownLatch started = new CountDownLatch(0);
+    static volatile CountDownLatch release = new CountDownLatch(0);
+
+    public static class OkBuilder implements StageBuilder {
+        public OkBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> context;
+        }
+    }
+
+    public static class FailingBuilder implements StageBuilder {
+        public FailingBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> {
+                throw new Exception("failed");
+            };
+        }
+    }
+
+    public static class BlockingBuilder implements StageBuilder {
+        public BlockingBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return context;
+            };
+        }
+    }
+
+    private static Pipeline pipeline(String middleClassName) throws Exception {
+        PipelineSpecification spec = new PipelineSpecification("status");
+        spec.getStages().add(new PipelineSpecification.StageDefinition("first", OkBuilder.class.getName()));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("middle", middleClassName));
+        spec.getStages().add(new PipelineSpecification.StageDefinition("last", OkBuilder.class.getName()));
+        spec.getParallels().add(new PipelineSpecification.ParallelDefinition("parallel", List.of(new PipelineSpecification.PipelineDefinition("parallel[0]", List.of("middle")))));
+        spec.getSteps().addAll(List.of("first", "parallel", "last"));
+        return PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec);
+    }
+
+    @Test
+    public void testStatusOfFailedRun() throws Exception {
+        Pipeline pipeline = pipeline(FailingBuilder.class.getName());
+        assertNull(pipeline.getRunStatus());
+
+        ExecutionContext context = pipeline.run(new ExecutionContext(), false);
+        assertSame(context.getRunStatus(), pipeline.getRunStatus());
+        RunStatus.Snapshot snapshot = context.getRunStatus().snapshot();
+        assertEquals(6, snapshot.getNodes().size());  // status, first, parallel, parallel[0], middle, last
+        assertEquals(RunStatus.State.SUCCEEDED, snapshot.getNode("first").getState());
+        assertEquals(RunStatus.State.FAILED, snapshot.getNode("middle").getState());
+        assertEquals(RunStatus.State.SUCCEEDED, snapshot.getNode("last").getState());
+        assertEquals(RunStatus.State.SUCCEEDED, snapshot.getNode("status").getState());  // not fast fail, same as the context
+        assertEquals(ExecutionContext.Status.SUCCESS, context.getStatus());
+        assertEquals(0, snapshot.getCount(RunStatus.State.PENDING));
+        assertEquals(0, snapshot.getCount(RunStatus.State.RUNNING));
+
+        ExecutionContext next = pipeline.run(new ExecutionContext(), false);  // a run of its own, the first run's status is untouched
+        assertNotSame(context.getRunStatus(), next.getRunStatus());
+        assertSame(next.getRunStatus(), pipeline.getRunStatus());
+        assertEquals(RunStatus.State.FAILED, context.getRunStatus().getNode("middle").getState());
+
+        RunStatus.NodeStatus first = snapshot.getNode("first");
+        assertTrue(first.getStartTime() > 0);
+        assertTrue(first.getEndTime() >= first.getStartTime());
+    }
+
+    @Test
+    public void testStagesSkippedByFastFailStayPending() throws Exception {
+        Pipeline pipeline = pipeline(FailingBuilder.class.getName());
+        assertThrows(Exception.class, () -> pipeline.run(new ExecutionContext()));
+
+        RunStatus.Snapshot snapshot = pipeline.getRunStatus().snapshot();
+        assertEquals(RunStatus.State.FAILED, snapshot.getNode("middle").getState());
+        assertEquals(RunStatus.State.PENDING, snapshot.getNode("last").getState());
+        assertEquals(0, snapshot.getNode("last").getStartTime());
+        assertEquals(RunStatus.State.FAILED, snapshot.getNode("status").getState());
+    }
+
+    @Test
+    public void testLiveSnapshotWhileRunning() throws Exception {
+        Pipeline pipeline = pipeline(BlockingBuilder.class.getName());
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        Future<ExecutionContext> run = pipeline.runDetached(new ExecutionContext());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        RunStatus runStatus = pipeline.getRunStatus();
+        assertEquals(RunStatus.State.SUCCEEDED, runStatus.getNode("first").getState());
+        assertEquals(RunStatus.State.RUNNING, runStatus.getNode("middle").getState());
+        assertEquals(RunStatus.State.RUNNING, runStatus.getNode("status").getState());
+        assertEquals(RunStatus.State.PENDING, runStatus.getNode("last").getState());
+
+        release.countDown();
+        assertEquals(ExecutionContext.Status.SUCCESS, run.get(10, TimeUnit.SECONDS).getStatus());
+        assertEquals(RunStatus.State.SUCCEEDED, runStatus.getNode("status").getState());
+        assertEquals(6, runStatus.snapshot().getCount(RunStatus.State.SUCCEEDED));
+    }
+}
@@ -0,0 +1,89 @@
+package org.dplevine.patterns.pipeline;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class StageFactoryRegistryTest {
+
+    public static class PublicBuilder implements StageBuilder {
+        public PublicBuilder() {
+        }
+
+        @Override
+        public Stage buildStage() {
+            return context -> context;
+        }
+    }
+
+    static class PackagePrivateBuilder extends PublicBuilder {
+    }
+
+    public static class RegisteredBuilder extends PublicBuilder {
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        Supplier<? extends StageBuilder> factory = StageFactoryRegistry.resolve(PublicBuilder.class.getName(), getClass().getClassLoader());
+        assertTrue(factory.get() instanceof PublicBuilder);
+        assertNotSame(factory.get(), factory.get());
+
+        factory = StageFactoryRegistry.resolve(PackagePrivateBuilder.class.getName(), getClass().getClassLoader());
+        assertTrue(factory.get() instanceof PackagePrivateBuilder);
+
+        assertThrows(PipelineBuilderException.class, () -> StageFactoryRegistry.resolve(String.class.getName(), getClass().getClassLoader()));
+        assertThrows(PipelineBuilderException.class, () -> StageFactoryRegistry.resolve("org.dplevine.NoSuchBuilder", getClass().getClassLoader()));
+    }
+
+    @Test
+    public void testRegisteredFactory() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        StageFactoryRegistry.register(RegisteredBuilder.class, () -> {
+            created.incrementAndGet();
+            return new RegisteredBuilder();
+        });
+        try {
+            assertTrue(StageFactoryRegistry.newStageBuilder(RegisteredBuilder.class.getName()) instanceof RegisteredBuilder);
+            assertEquals(1, created.get());
+
+            PipelineSpecification spec = new PipelineSpecification("registered");
+            spec.getStages().add(new PipelineSpecification.StageDefinition("stage", RegisteredBuilder.class.getName()));
+            spec.getSteps().add("stage");
+            PipelineBuilder.createBuilder().buildFromPipelineSpecification(spec).run(new ExecutionContext());
+            assertEquals(2, created.get());
+        } finally {
+            StageFactoryRegistry.unregister(RegisteredBuilder.class.getName());
+        }
+    }
+
+    @Test
+    public void testFactoriesArePerClassLoader() throws Exception {
+        URL classes = PublicBuilder.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader childFirst = new URLClassLoader(new URL[]{classes}, contextClassLoader) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                synchronized (getClassLoadingLock(name)) {
+                    if (!name.equals(PublicBuilder.class.getName())) {
+                        return super.loadClass(name, resolve);
+                    }
+                    Class<?> clazz = findLoadedClass(name);
+                    return (clazz == null) ? findClass(name) : clazz;  // this loader's own copy of the builder
+                }
+            }
+        }) {
+            Thread.currentThread().setContextClassLoader(childFirst);
+            StageBuilder childBuilder = StageFactoryRegistry.newStageBuilder(PublicBuilder.class.getName());
+            assertSame(childFirst, childBuilder.getClass().getClassLoader());
+
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+            assertSame(PublicBuilder.class, StageFactoryRegistry.newStageBuilder(PublicBuilder.class.getName()).getClass());
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+        }
+    }
+}
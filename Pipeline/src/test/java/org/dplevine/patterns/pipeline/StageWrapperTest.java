@@ -3,6 +3,12 @@ package org.dplevine.patterns.pipeline;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class StageWrapperTest {
     StageWrapper stageWrapper;
     ExecutionContext mContext;
@@ -37,4 +43,37 @@ public class StageWrapperTest {
             e.printStackTrace();
         }
     }
+
+    @Test
+    void deferredStagePostCallbackTest() throws Exception {
+        Stage stage = context -> context;
+        List<Stage> calledWith = new ArrayList<>();
+        stageWrapper = StageWrapper.deferred("deferred", () -> stage);
+        stageWrapper.registerPostStageCallback("deferred", (stageId, callbackStage, event, context) -> calledWith.add(callbackStage));
+
+        new StageRunner(new ExecutionContext()).run(stageWrapper);
+        assertEquals(List.of(stage), calledWith);
+    }
+
+    @Test
+    void failedStageCreationTest() throws Exception {
+        List<StageCallback.StageEvent> events = new ArrayList<>();
+        stageWrapper = StageWrapper.deferred("deferred", () -> { throw new IllegalStateException("no stage"); });
+        stageWrapper.registerPostStageCallback("deferred", (stageId, callbackStage, event, context) -> events.add(event));
+
+        ExecutionContext context = new ExecutionContext();
+        context.setFastFail(false);
+        new StageRunner(context).run(stageWrapper);
+        assertEquals(List.of(StageCallback.StageEvent.PostStageCallbackError), events);
+        assertEquals("deferred: no stage", context.getExceptionEvents().get(0).getDetails());
+    }
+
+    @Test
+    void nullStageTest() throws Exception {
+        stageWrapper = StageWrapper.deferred("deferred", () -> null);  // e.g., a StageBuilder returning null
+        ExecutionContext context = new ExecutionContext();
+        new StageRunner(context).run(stageWrapper);
+        assertTrue(context.getExceptionEvents().isEmpty());
+        assertEquals("deferred.doWork()", context.getEventLog().get(0).getDetails());
+    }
 }
@@ -0,0 +1,341 @@
+package org.dplevine.patterns.saga;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The BinarySagaContextCodec class is the default SagaContextCodec: a compact, schema based binary encoding (see SagaContextSchema).
+ * Encoding goes through per-thread scratch buffers (i.e., a pool of one buffer per thread), so only the resulting bytes are allocated;
+ * a scratch buffer that a large context grew past MAX_SCRATCH_SIZE is dropped once used, so it is not kept by its thread.  A context
+ * written with a schema version the codec's schema can not read (see SagaContextSchema.readsUpTo()) is rejected.
+ *
+ * Layout:        byte magic | byte format version | byte kind (FULL, DELTA or REPLACE) | int schema version | payload
+ *   FULL:        saga id (nullable string) | int count | fields
+ *   DELTA:       int count | fields (the objects added or changed) | int count | keys (the objects removed)
+ *   REPLACE:     int count | fields (all of the objects, a delta of a context that was not decoded by this codec)
+ *   field:       key | byte type | int length | value
+ *   key:         short field id (0 for an object not declared in the schema, followed by the key as a string)
+ *
+ * A SERIALIZABLE object is only read back if the classes it is made of pass the SERIAL_FILTER_PROPERTY filter (by default, values
+ * from java.lang, java.util, java.time and java.math, and saga statuses), so a context read from the network can not instantiate arbitrary classes.
+ */
+public final class BinarySagaContextCodec implements SagaContextCodec {
+    private static final byte MAGIC = 0x53;  // "S"
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final byte REPLACE = 2;
+    private static final SagaContextSchema.Type[] TYPES = SagaContextSchema.Type.values();
+    static final int MAX_SCRATCH_SIZE = 64 * 1024;
+    private static final ObjectInputFilter SERIAL_FILTER = ObjectInputFilter.Config.createFilter(
+            System.getProperty(SagaContextCodec.SERIAL_FILTER_PROPERTY, SagaContextCodec.DEFAULT_SERIAL_FILTER));
+
+    // a ByteArrayOutputStream that exposes its internal buffer (avoids the copy made by toByteArray())
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private static final ThreadLocal<Buffer> scratchBuffer = ThreadLocal.withInitial(() -> new Buffer(4096));
+    private static final ThreadLocal<Buffer> valueBuffer = ThreadLocal.withInitial(() -> new Buffer(1024));
+    private final SagaContextSchema schema;
+
+    // ctors
+    public BinarySagaContextCodec() {
+        this(new SagaContextSchema(0));
+    }
+
+    public BinarySagaContextCodec(SagaContextSchema schema) {
+        this.schema = schema;
+    }
+
+    public SagaContextSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public byte[] encode(SagaContext sagaContext) throws SagaException {
+        Buffer buffer = scratchBuffer.get();
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            writeHeader(FULL, out);
+            out.writeBoolean(sagaContext.getSagaId() != null);
+            if (sagaContext.getSagaId() != null) {
+                out.writeUTF(sagaContext.getSagaId());
+            }
+            List<Map.Entry<String, Serializable>> objects = new ArrayList<>(sagaContext.getObjects().entrySet());
+            out.writeInt(objects.size());
+            for (Map.Entry<String, Serializable> object : objects) {
+                writeKey(object.getKey(), out);
+                Buffer field = encodeField(object.getKey(), object.getValue());
+                writeField(field.getBuffer(), field.size(), out);
+            }
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new SagaException(e);
+        } finally {
+            trimScratchBuffers();
+        }
+    }
+
+    @Override
+    public SagaContext decode(byte[] bytes) throws SagaException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        SagaContext sagaContext = new SagaContext();
+        Map<String, byte[]> baseline = new HashMap<>();
+        try {
+            if (readHeader(in) != FULL) {
+                throw new SagaException("Not an encoded saga context (a delta).");
+            }
+            if (in.readBoolean()) {
+                sagaContext.setSagaId(in.readUTF());
+            }
+            readFields(sagaContext, baseline, in);
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+        sagaContext.setBaseline(baseline);
+        return sagaContext;
+    }
+
+    @Override
+    public byte[] encodeDelta(SagaContext sagaContext) throws SagaException {
+        Map<String, byte[]> baseline = sagaContext.getBaseline();
+        Buffer buffer = scratchBuffer.get();
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            writeHeader((baseline == null) ? REPLACE : DELTA, out);
+            Map<String, byte[]> changed = new LinkedHashMap<>();  // the objects whose encoding differs from the baseline
+            for (Map.Entry<String, Serializable> object : sagaContext.getObjects().entrySet()) {
+                Buffer field = encodeField(object.getKey(), object.getValue());
+                byte[] base = (baseline == null) ? null : baseline.get(object.getKey());
+                if (base == null || !Arrays.equals(base, 0, base.length, field.getBuffer(), 0, field.size())) {
+                    changed.put(object.getKey(), field.toByteArray());
+                }
+            }
+            out.writeInt(changed.size());
+            for (Map.Entry<String, byte[]> field : changed.entrySet()) {
+                writeKey(field.getKey(), out);
+                writeField(field.getValue(), field.getValue().length, out);
+            }
+            if (baseline != null) {
+                List<String> removed = new ArrayList<>();
+                baseline.keySet().forEach(key -> {
+                    if (sagaContext.getObject(key) == null) {
+                        removed.add(key);
+                    }
+                });
+                out.writeInt(removed.size());
+                for (String key : removed) {
+                    writeKey(key, out);
+                }
+            }
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new SagaException(e);
+        } finally {
+            trimScratchBuffers();
+        }
+    }
+
+    // drops this thread's scratch buffers if they grew past MAX_SCRATCH_SIZE (the next encoding starts over with small ones)
+    private static void trimScratchBuffers() {
+        if (scratchBuffer.get().getBuffer().length > MAX_SCRATCH_SIZE) {
+            scratchBuffer.remove();
+        }
+        if (valueBuffer.get().getBuffer().length > MAX_SCRATCH_SIZE) {
+            valueBuffer.remove();
+        }
+    }
+
+    // the sizes of this thread's scratch buffers
+    static int[] scratchBufferSizes() {
+        return new int[]{scratchBuffer.get().getBuffer().length, valueBuffer.get().getBuffer().length};
+    }
+
+    @Override
+    public void applyDelta(SagaContext sagaContext, byte[] delta) throws SagaException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        try {
+            byte kind = readHeader(in);
+            if (kind == FULL) {
+                throw new SagaException("Not an encoded saga context delta.");
+            }
+            SagaContext changes = new SagaContext();
+            readFields(changes, null, in);
+            if (kind == REPLACE) {
+                sagaContext.getObjects().keySet().retainAll(changes.getObjects().keySet());
+            } else {
+                for (int count = in.readInt(); count > 0; count--) {
+                    String key = readKey(in);
+                    if (key != null) {
+                        sagaContext.removeObject(key);
+                    }
+                }
+            }
+            sagaContext.getObjects().putAll(changes.getObjects());
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+    }
+
+    private void writeHeader(byte kind, DataOutputStream out) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(kind);
+        out.writeInt(schema.getVersion());
+    }
+
+    private byte readHeader(DataInputStream in) throws IOException, SagaException {
+        if (in.readByte() != MAGIC || in.readByte() != FORMAT_VERSION) {
+            throw new SagaException("Not an encoded saga context (or of an unsupported format version).");
+        }
+        byte kind = in.readByte();
+        int version = in.readInt();  // the writer's schema version
+        if (!schema.canRead(version)) {
+            throw new SagaException("Saga context written with an unknown schema version: " + version + " (this schema is version " + schema.getVersion() + ")");
+        }
+        return kind;
+    }
+
+    private void writeKey(String key, DataOutputStream out) throws IOException {
+        SagaContextSchema.Field field = schema.getField(key);
+        out.writeShort((field == null) ? 0 : field.getId());
+        if (field == null) {
+            out.writeUTF(key);
+        }
+    }
+
+    // null if the field id is not in this schema (i.e., written with a later version of the schema)
+    private String readKey(DataInputStream in) throws IOException {
+        int id = in.readShort();
+        if (id == 0) {
+            return in.readUTF();
+        }
+        SagaContextSchema.Field field = schema.getField(id);
+        return (field == null) ? null : field.getKey();
+    }
+
+    private static void writeField(byte[] field, int length, DataOutputStream out) throws IOException {
+        out.writeByte(field[0]);
+        out.writeInt(length - 1);
+        out.write(field, 1, length - 1);
+    }
+
+    // the type followed by the value, in this thread's value buffer (valid until the next call)
+    private Buffer encodeField(String key, Serializable value) throws SagaException {
+        SagaContextSchema.Field field = schema.getField(key);
+        SagaContextSchema.Type type = SagaContextSchema.Type.of(value);
+        if (field != null && field.getType() != type && field.getType() != SagaContextSchema.Type.SERIALIZABLE) {
+            throw new SagaException("Saga context object " + key + " is a " + type + ", its schema declares a " + field.getType());
+        }
+        type = (field == null) ? type : field.getType();
+
+        Buffer buffer = valueBuffer.get();
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeByte(type.ordinal());
+            switch (type) {
+                case STRING:
+                    out.write(((String) value).getBytes(StandardCharsets.UTF_8));
+                    break;
+                case INTEGER:
+                    out.writeInt((Integer) value);
+                    break;
+                case LONG:
+                    out.writeLong((Long) value);
+                    break;
+                case DOUBLE:
+                    out.writeDouble((Double) value);
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean((Boolean) value);
+                    break;
+                case BYTES:
+                    out.write((byte[]) value);
+                    break;
+                default:
+                    out.write(serialize(value));
+            }
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+        return buffer;
+    }
+
+    private void readFields(SagaContext sagaContext, Map<String, byte[]> baseline, DataInputStream in) throws IOException, SagaException {
+        for (int count = in.readInt(); count > 0; count--) {
+            String key = readKey(in);
+            int type = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {  // the whole encoding is in memory
+                throw new SagaException("Invalid saga context object length: " + length);
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            if (key == null) {
+                continue;  // not in this version of the schema
+            }
+            if (type < 0 || type >= TYPES.length) {
+                throw new SagaException("Saga context object " + key + " has an unknown type: " + type);
+            }
+            SagaContextSchema.Field field = schema.getField(key);
+            if (field != null && field.getType() != TYPES[type]) {
+                throw new SagaException("Incompatible saga context schema: object " + key + " was written as a " + TYPES[type] + ", the schema declares a " + field.getType());
+            }
+            sagaContext.addObject(key, decodeValue(TYPES[type], value));
+            if (baseline != null) {
+                byte[] encoded = new byte[value.length + 1];
+                encoded[0] = (byte) type;
+                System.arraycopy(value, 0, encoded, 1, value.length);
+                baseline.put(key, encoded);
+            }
+        }
+    }
+
+    private static Serializable decodeValue(SagaContextSchema.Type type, byte[] value) throws IOException, SagaException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        switch (type) {
+            case STRING:
+                return new String(value, StandardCharsets.UTF_8);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTES:
+                return value;
+            default:
+                return deserialize(value);
+        }
+    }
+
+    static byte[] serialize(Serializable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Serializable deserialize(byte[] bytes) throws SagaException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(SERIAL_FILTER);  // rejects any class not allowed, before it is instantiated
+            return (Serializable) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SagaException(e);
+        }
+    }
+}
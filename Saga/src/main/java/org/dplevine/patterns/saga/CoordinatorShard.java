@@ -0,0 +1,103 @@
+package org.dplevine.patterns.saga;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The CoordinatorShard class is one partition of the saga coordinator: the sagas whose id hashes to it, the segment of the saga log
+ * they are written to, and the single-threaded event loop advancing them.  Every continuation of a saga (i.e., once its state is
+ * durable, once its group of steps completed, once its deadline expired) is a task of its shard's loop, so the state of a saga is only
+ * ever touched by one thread and the shards share nothing but the transport.
+ *
+ * Tasks are handed to the loop through a lock-free queue; an idle loop spins briefly and then parks until a task is executed.
+ */
+final class CoordinatorShard implements Executor, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CoordinatorShard.class);
+    private static final int SPINS = 128;
+
+    private final int index;  // the shard's index (and the segment of the saga log it writes to)
+    private final PersistenceSidecar persistenceSidecar;
+    private final Map<String, Saga> sagas = new ConcurrentHashMap<>();  // the sagas in flight
+    private final Map<String, List<SagaLogRecord>> recoveredSagas = new ConcurrentHashMap<>();  // definition name -> sagas to resume
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread loop;
+    private volatile boolean idle = false;
+    private volatile boolean closed = false;
+
+    // ctors
+    CoordinatorShard(int index) throws SagaException {
+        this.index = index;
+        persistenceSidecar = new PersistenceSidecar(index);
+        for (SagaLogRecord record : persistenceSidecar.recover()) {
+            recoveredSagas.computeIfAbsent(record.getDefinitionName(), name -> new Vector<>()).add(record);
+        }
+        loop = new Thread(this::run, "saga-coordinator-shard-" + index);
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    PersistenceSidecar getPersistenceSidecar() {
+        return persistenceSidecar;
+    }
+
+    Map<String, Saga> getSagas() {
+        return sagas;
+    }
+
+    Map<String, List<SagaLogRecord>> getRecoveredSagas() {
+        return recoveredSagas;
+    }
+
+    // runs the task on the shard's event loop
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (idle) {
+            LockSupport.unpark(loop);
+        }
+    }
+
+    private void run() {
+        int spins = 0;
+        while (!closed) {
+            Runnable task = tasks.poll();
+            if (task != null) {
+                spins = 0;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Saga coordinator shard " + index + " task failed: " + e.getLocalizedMessage(), e);
+                }
+            } else if (spins++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                idle = true;
+                if (tasks.isEmpty()) {  // no task executed since the last poll, the next one will unpark the loop
+                    LockSupport.park(this);
+                }
+                idle = false;
+                spins = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SagaException {
+        closed = true;
+        LockSupport.unpark(loop);
+        persistenceSidecar.close();
+    }
+}
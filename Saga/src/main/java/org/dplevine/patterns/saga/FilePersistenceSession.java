@@ -0,0 +1,316 @@
+package org.dplevine.patterns.saga;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * The FilePersistenceSession class is a saga log made of an append-only write-ahead log file and a snapshot file in a directory.
+ *
+ * Records are appended by a single writer thread which drains every record appended since its last write, writes them with one
+ * write and forces them to disk with one fsync (i.e., group commit), so the cost of an fsync is shared by all the sagas that moved on
+ * in the meantime.  Once the log grows past the snapshot threshold, the last record of every saga in flight is written to a new
+ * snapshot which atomically replaces the previous one, and the log is truncated (i.e., compaction).
+ *
+ * On open, the snapshot and then the log are replayed; a record torn by a crash ends the log (it is truncated there), whereas a file
+ * that is not a saga log of this version fails the open (it is never truncated).  A batch that could not be written (or forced) is cut
+ * off the log as well, so the records appended after it are not written behind a torn one, and the writer goes on with the next batch.
+ *
+ * Every segment of the saga log (one per coordinator shard) is a session of its own, in a directory of its own, so the shards commit
+ * independently, each with its own writer thread.
+ *
+ * File layout:    int magic | int version | records...
+ * Record layout:  int length (of the record) | int crc32 (of the record) | record (see SagaLogRecord.write())
+ */
+public final class FilePersistenceSession extends PersistenceSession {
+
+    public static final String DIRECTORY_PROPERTY = "org.dplevine.patterns.saga.persistence.directory";
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD = 64L * 1024 * 1024;
+    private static final int LOG_MAGIC = 0x5357414c;  // "SWAL"
+    private static final int SNAPSHOT_MAGIC = 0x53534e50;  // "SSNP"
+    private static final int FORMAT_VERSION = 3;  // 2: groups of parallel steps, 3: saga deadlines
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final String LOG_FILE = "saga.log";
+    private static final String SNAPSHOT_FILE = "saga.snapshot";
+    private static final Logger logger = LoggerFactory.getLogger(FilePersistenceSession.class);
+
+    private static final class Append {
+        private final SagaLogRecord record;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        Append(SagaLogRecord record) {
+            this.record = record;
+        }
+    }
+
+    private static final Append CLOSE = new Append(null);
+
+    private final Path directory;
+    private final long snapshotThreshold;
+    private final Map<String, SagaLogRecord> records = new ConcurrentHashMap<>();  // the last record of every saga in flight
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+    private final FileChannel log;
+    private long end;  // where the durable records of the log end (the writer thread's)
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    // ctors
+    public FilePersistenceSession() throws IOException {
+        this(Paths.get(System.getProperty(DIRECTORY_PROPERTY, "saga-log")), DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    // a segment of the saga log: the first one is in DIRECTORY_PROPERTY, the others next to it (e.g., saga-log-1, saga-log-2, ...)
+    public FilePersistenceSession(int segment) throws IOException {
+        this(segmentDirectory(System.getProperty(DIRECTORY_PROPERTY, "saga-log"), segment), DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    public FilePersistenceSession(Path directory) throws IOException {
+        this(directory, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    public FilePersistenceSession(Path directory, long snapshotThreshold) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotThreshold = snapshotThreshold;
+
+        replay(directory.resolve(SNAPSHOT_FILE), SNAPSHOT_MAGIC);
+        long end = replay(directory.resolve(LOG_FILE), LOG_MAGIC);
+        log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (end < FILE_HEADER_SIZE) {
+            log.truncate(0);
+            log.write(header(LOG_MAGIC), 0);
+            end = FILE_HEADER_SIZE;
+        }
+        log.truncate(end);  // drop a record torn by a crash
+        log.position(end);
+        this.end = end;
+
+        writer = new Thread(this::write, "FilePersistenceSession writer: " + directory);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static Path segmentDirectory(String directory, int segment) {
+        return (segment == 0) ? Paths.get(directory) : Paths.get(directory + "-" + segment);
+    }
+
+    private static ByteBuffer header(int magic) {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(magic).putInt(FORMAT_VERSION).flip();
+        return header;
+    }
+
+    // applies every valid record of the file, returns where the valid records end (0 if the file is missing or its header is torn),
+    // throws if the file is not a saga log of this version rather than letting the log be truncated
+    private long replay(Path path, int magic) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long size = Files.size(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int fileMagic = in.readInt();
+            int version = in.readInt();
+            if (fileMagic != magic) {
+                throw new IOException(path + " is not a saga log, it is left as is");
+            }
+            if (version != FORMAT_VERSION) {
+                throw new IOException(path + " is a saga log of an unsupported version (" + version + ", expected " + FORMAT_VERSION + "), it is left as is");
+            }
+            long end = FILE_HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            while (true) {
+                if (end + RECORD_HEADER_SIZE > size) {
+                    return end;
+                }
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || end + RECORD_HEADER_SIZE + length > size) {
+                    return end;  // a record torn by a crash
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    logger.warn("Torn record in " + path + " at offset " + end + ", the saga log ends there");
+                    return end;
+                }
+                apply(SagaLogRecord.read(new DataInputStream(new ByteArrayInputStream(record))));
+                end += RECORD_HEADER_SIZE + record.length;
+            }
+        } catch (EOFException e) {
+            return 0;  // not even a header
+        }
+    }
+
+    private void apply(SagaLogRecord record) {
+        if (record.isTerminal()) {
+            records.remove(record.getSagaId());
+        } else {
+            records.put(record.getSagaId(), record);
+        }
+    }
+
+    private static void encode(SagaLogRecord record, ByteArrayOutputStream bytes) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+        record.write(new DataOutputStream(recordBytes));
+        CRC32 crc = new CRC32();
+        crc.update(recordBytes.toByteArray());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(recordBytes.size());
+        out.writeInt((int) crc.getValue());
+        recordBytes.writeTo(out);
+    }
+
+    @Override
+    public CompletableFuture<Void> append(SagaLogRecord record) {
+        Append append = new Append(record);
+        if (closed) {
+            append.durable.completeExceptionally(new SagaException("The saga log is closed: " + directory));
+        } else {
+            appends.add(append);
+        }
+        return append.durable;
+    }
+
+    // the writer thread: one write and one fsync for every batch of records appended in the meantime
+    private void write() {
+        List<Append> batch = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        while (true) {
+            try {
+                batch.add(appends.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            appends.drainTo(batch, MAX_BATCH_SIZE - 1);
+            boolean close = batch.remove(CLOSE);
+
+            boolean broken;  // the log could not be cut back after a failed batch
+            try {
+                broken = !write(batch, bytes);
+            } catch (RuntimeException e) {  // fails the batch rather than the writer (the appends still pending would never complete)
+                logger.error("Could not write the saga log: " + e);
+                batch.forEach(append -> append.durable.completeExceptionally(e));  // a no-op for the appends that completed already
+                broken = !discard();
+            }
+            batch.clear();
+            if (close || broken) {
+                closed = true;
+                break;
+            }
+        }
+        appends.forEach(append -> append.durable.completeExceptionally(new SagaException("The saga log is closed: " + directory)));  // raced with close()
+    }
+
+    // writes and forces a batch, then snapshots the log if it grew past the threshold, false if the log could not be cut back after
+    // the batch failed
+    private boolean write(List<Append> batch, ByteArrayOutputStream bytes) {
+        bytes.reset();
+        List<Append> written = new ArrayList<>(batch.size());
+        for (Append append : batch) {
+            try {
+                encode(append.record, bytes);
+                written.add(append);
+            } catch (IOException | RuntimeException e) {
+                append.durable.completeExceptionally(e);
+            }
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+            end = log.position();
+            written.forEach(append -> apply(append.record));
+            written.forEach(append -> append.durable.complete(null));
+        } catch (IOException e) {
+            logger.error("Could not write the saga log: " + e.getLocalizedMessage());
+            written.forEach(append -> append.durable.completeExceptionally(e));
+            return discard();
+        }
+        try {
+            if (log.size() > snapshotThreshold) {
+                snapshot();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not snapshot the saga log: " + e);
+        }
+        return true;
+    }
+
+    // cuts the log back to the end of the durable records (i.e., drops what was written of a failed batch), false if it could not be
+    private boolean discard() {
+        try {
+            log.truncate(end);
+            log.position(end);
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not discard a failed batch from the saga log, closing it: " + directory + ": " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    // writes the last record of every saga in flight to a new snapshot, then truncates the log (called by the writer thread only)
+    private void snapshot() throws IOException {
+        Path tmpPath = Files.createTempFile(directory, null, SNAPSHOT_FILE);
+        try (FileChannel snapshot = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+            bytes.write(header(SNAPSHOT_MAGIC).array());
+            for (SagaLogRecord record : records.values()) {
+                encode(record, bytes);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                snapshot.write(buffer);
+            }
+            snapshot.force(true);
+        }
+        Files.move(tmpPath, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();  // the new snapshot must survive a crash before the log it replaces is truncated
+
+        // replaying the log on top of the new snapshot would give the same records, so a crash before the truncation is harmless
+        log.truncate(FILE_HEADER_SIZE);
+        log.position(FILE_HEADER_SIZE);
+        log.force(true);
+        end = FILE_HEADER_SIZE;
+    }
+
+    // makes the entries of the directory (i.e., a renamed file) durable
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported by the platform (e.g., directories can not be opened on Windows)
+        }
+    }
+
+    @Override
+    public Collection<SagaLogRecord> recover() {
+        return new ArrayList<>(records.values());
+    }
+
+    @Override
+    public void close() throws SagaException {
+        if (!log.isOpen()) {
+            return;
+        }
+        closed = true;  // the writer may have closed the log already (see discard())
+        appends.add(CLOSE);
+        try {
+            writer.join();
+            log.close();
+        } catch (InterruptedException | IOException e) {
+            throw new SagaException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.dplevine.patterns.saga;
+
+/**
+ * The IdempotencyStore class is the pluggable memory of the saga transactions a participant already ran: the result of every saga
+ * transaction, keyed by the id of the request that dispatched it (i.e., the saga id, the step and the saga transaction, the same for
+ * every attempt).
+ * A request received again with the same id (e.g., redelivered by a transport, or dispatched again by a coordinator resuming a saga)
+ * is answered with the recorded result, so the saga transaction itself is never run twice.
+ *
+ * The store is shared by the participants of a process.  Implementations must have a public no-arg constructor to be created from
+ * IDEMPOTENCY_STORE_PROPERTY (the InMemoryIdempotencyStore by default).
+ */
+public abstract class IdempotencyStore implements AutoCloseable {
+
+    public static final String IDEMPOTENCY_STORE_PROPERTY = "org.dplevine.patterns.saga.idempotency.store";
+    private static volatile IdempotencyStore idempotencyStore = null;
+
+    // the result recorded for the request (the SagaContext encoded by the SagaContextCodec), null if there is none
+    public abstract byte[] get(String requestId);
+
+    // records the result of the request, returns once the result would be found by get() (e.g., once it is durable)
+    public abstract void put(String requestId, byte[] result) throws SagaException;
+
+    @Override
+    public void close() throws SagaException {
+    }
+
+    public static IdempotencyStore getIdempotencyStore() throws SagaException {
+        IdempotencyStore store = idempotencyStore;
+        if (store == null) {
+            synchronized (IdempotencyStore.class) {
+                if (idempotencyStore == null) {
+                    idempotencyStore = createIdempotencyStore();
+                }
+                store = idempotencyStore;
+            }
+        }
+        return store;
+    }
+
+    public static void setIdempotencyStore(IdempotencyStore store) {
+        idempotencyStore = store;
+    }
+
+    private static IdempotencyStore createIdempotencyStore() throws SagaException {
+        // the fully qualified class name should be specified in an application property
+        String className = System.getProperty(IDEMPOTENCY_STORE_PROPERTY, InMemoryIdempotencyStore.class.getName());
+        try {
+            Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            if (!IdempotencyStore.class.isAssignableFrom(clazz)) {
+                throw new SagaException("Idempotency store class " + className + " does not extend IdempotencyStore.");
+            }
+            return clazz.asSubclass(IdempotencyStore.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SagaException("Could not create an idempotency store of class " + className + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.dplevine.patterns.saga;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The InMemoryIdempotencyStore class keeps the results of the latest requests in memory, bounded both in number and in time: a result
+ * is forgotten once it is older than the time to live, or once it is the oldest and the store is full (nothing survives a restart).
+ * It is the default idempotency store.
+ *
+ * Lookups are a single hash map read.  As every entry lives for the same time, insertion order is expiry order, so expired and
+ * excess entries are always at the head of a queue and are evicted by the threads recording results, without a sweeper thread.
+ */
+public final class InMemoryIdempotencyStore extends IdempotencyStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final class Entry {
+        private final String requestId;
+        private final byte[] result;
+        private final long expiresAt;  // System.nanoTime()
+
+        Entry(String requestId, byte[] result, long expiresAt) {
+            this.requestId = requestId;
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final Consumer<String> evictionListener;
+
+    // ctors
+    public InMemoryIdempotencyStore() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    public InMemoryIdempotencyStore(int maxEntries, long timeToLiveMillis) {
+        this(maxEntries, timeToLiveMillis, requestId -> {});
+    }
+
+    InMemoryIdempotencyStore(int maxEntries, long timeToLiveMillis, Consumer<String> evictionListener) {
+        if (maxEntries < 1 || timeToLiveMillis < 1) {
+            throw new IllegalArgumentException("An idempotency store must hold at least one entry for at least one millisecond.");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    public byte[] get(String requestId) {
+        Entry entry = entries.get(requestId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            if (entries.remove(requestId, entry)) {
+                evictionListener.accept(requestId);
+            }
+            return null;
+        }
+        return entry.result;
+    }
+
+    @Override
+    public void put(String requestId, byte[] result) {
+        long now = System.nanoTime();
+        Entry entry = new Entry(requestId, result, now + timeToLiveNanos);
+        entries.put(requestId, entry);
+        insertionOrder.add(entry);
+        evict(now);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // the expired entries, then the oldest ones while the store is over capacity
+    private void evict(long now) {
+        for (Entry head = insertionOrder.peek(); head != null && (head.expiresAt - now <= 0 || entries.size() > maxEntries); head = insertionOrder.peek()) {
+            Entry evicted = insertionOrder.poll();
+            if (evicted != null && entries.remove(evicted.requestId, evicted)) {  // not a result recorded again since
+                evictionListener.accept(evicted.requestId);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.dplevine.patterns.saga;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The InMemoryPersistenceSession class keeps the last record of every saga in flight in memory (i.e., nothing survives a restart).
+ * It is the default persistence session, and is meant for tests and for sagas that need not be recovered.
+ */
+public final class InMemoryPersistenceSession extends PersistenceSession {
+
+    private final Map<String, SagaLogRecord> records = new ConcurrentHashMap<>();
+
+    public InMemoryPersistenceSession() {
+    }
+
+    public InMemoryPersistenceSession(int segment) {
+    }
+
+    @Override
+    public CompletableFuture<Void> append(SagaLogRecord record) {
+        if (record.isTerminal()) {
+            records.remove(record.getSagaId());
+        } else {
+            records.put(record.getSagaId(), record);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Collection<SagaLogRecord> recover() {
+        return new ArrayList<>(records.values());
+    }
+}
@@ -0,0 +1,147 @@
+package org.dplevine.patterns.saga;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The InProcessTransportSession class is the default transport, between a coordinator and participants running in the same JVM.
+ *
+ * Every participant session has an inbox: a RingBuffer of requests drained by a few worker threads that invoke the participant and
+ * complete the request's future with the reply.  Nothing is serialized on the way: the participant gets a copy of the SagaContext
+ * sharing its objects (see SagaContext.copy()), so it never touches the context of the saga itself, which only the coordinator's shard
+ * updates from the reply.  Idle workers spin briefly and then park until a request is offered, so a busy inbox is served without any
+ * hand-off latency.
+ */
+public final class InProcessTransportSession extends TransportSession {
+
+    public static final int DEFAULT_INBOX_CAPACITY = 16 * 1024;
+    private static final int WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int SPINS = 128;
+    private static final Map<String, InProcessTransportSession> routes = new ConcurrentHashMap<>();  // saga transaction name -> serving session
+
+    private static final class Request {
+        private final String sagaTransactionName;
+        private final String requestId;
+        private final SagaContext sagaContext;
+        private final CompletableFuture<SagaContext> reply = new CompletableFuture<>();
+
+        Request(String sagaTransactionName, String requestId, SagaContext sagaContext) {
+            this.sagaTransactionName = sagaTransactionName;
+            this.requestId = requestId;
+            this.sagaContext = sagaContext;
+        }
+    }
+
+    private final RingBuffer<Request> inbox = new RingBuffer<>(DEFAULT_INBOX_CAPACITY);
+    private final Queue<Thread> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final Map<String, RequestHandler> handlers = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    private boolean workersStarted = false;
+
+    public InProcessTransportSession() {
+    }
+
+    @Override
+    public void serve(Collection<String> sagaTransactionNames, RequestHandler handler) {
+        startWorkers();
+        for (String sagaTransactionName : sagaTransactionNames) {
+            handlers.put(sagaTransactionName, handler);
+            routes.put(sagaTransactionName, this);
+        }
+    }
+
+    private synchronized void startWorkers() {
+        if (workersStarted) {
+            return;
+        }
+        workersStarted = true;
+        for (int i = 0; i < WORKERS; i++) {
+            Thread worker = new Thread(this::work, "saga-in-process-transport-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<SagaContext> request(String sagaTransactionName, String requestId, SagaContext sagaContext) {
+        InProcessTransportSession session = routes.get(sagaTransactionName);
+        if (session == null) {
+            return CompletableFuture.failedFuture(new SagaException("No saga participant serves sagaTransactionName(" + sagaTransactionName + ")."));
+        }
+        Request request = new Request(sagaTransactionName, requestId, sagaContext.copy());
+        session.enqueue(request);
+        return request.reply;
+    }
+
+    private void enqueue(Request request) {
+        while (!inbox.offer(request)) {
+            if (closed) {
+                request.reply.completeExceptionally(new SagaException("The saga participant is closed."));
+                return;
+            }
+            Thread.yield();  // the inbox is full, the participant is saturated
+        }
+        Thread idleWorker = idleWorkers.poll();
+        if (idleWorker != null) {
+            LockSupport.unpark(idleWorker);
+        }
+    }
+
+    private void work() {
+        int idle = 0;
+        while (!closed) {
+            Request request = inbox.poll();
+            if (request != null) {
+                idle = 0;
+                handle(request);
+            } else if (idle++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                idleWorkers.add(Thread.currentThread());
+                if (inbox.isEmpty() && !closed) {  // no request offered since the last poll, the producer (or close()) will unpark this worker
+                    LockSupport.park(this);
+                }
+                idleWorkers.remove(Thread.currentThread());
+                idle = 0;
+            }
+        }
+    }
+
+    private void handle(Request request) {
+        RequestHandler handler = handlers.get(request.sagaTransactionName);
+        try {
+            if (handler == null) {
+                throw new SagaException("sagaTransactionName(" + request.sagaTransactionName + ") is not served by this participant.");
+            }
+            handler.handle(request.sagaTransactionName, request.requestId, request.sagaContext).whenComplete((sagaContext, e) -> {
+                if (e == null) {
+                    request.reply.complete(sagaContext);
+                } else {
+                    request.reply.completeExceptionally((e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+                }
+            });
+        } catch (Exception e) {
+            request.reply.completeExceptionally(e);
+        } catch (Error e) {
+            request.reply.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        idleWorkers.forEach(LockSupport::unpark);
+        routes.values().removeIf(session -> session == this);
+        Request request;
+        while ((request = inbox.poll()) != null) {
+            request.reply.completeExceptionally(new SagaException("The saga participant is closed."));
+        }
+    }
+}
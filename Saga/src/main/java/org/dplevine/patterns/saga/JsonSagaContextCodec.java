@@ -0,0 +1,218 @@
+package org.dplevine.patterns.saga;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The JsonSagaContextCodec class is a human readable SagaContextCodec, for debugging (e.g., reading the saga log or tracing a transport).
+ * It is larger and slower than the BinarySagaContextCodec; objects that are neither strings, numbers nor booleans are written in base64.
+ *
+ * Layout: {"kind": "FULL" | "DELTA" | "REPLACE", "schemaVersion": n, "sagaId": "...", "objects": {key: {"type": "...", "value": ...}}, "removed": [key, ...]}
+ */
+public final class JsonSagaContextCodec implements SagaContextCodec {
+    private static final String FULL = "FULL";
+    private static final String DELTA = "DELTA";
+    private static final String REPLACE = "REPLACE";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SagaContextSchema schema;
+
+    // ctors
+    public JsonSagaContextCodec() {
+        this(new SagaContextSchema(0));
+    }
+
+    public JsonSagaContextCodec(SagaContextSchema schema) {
+        this.schema = schema;
+    }
+
+    public SagaContextSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public byte[] encode(SagaContext sagaContext) throws SagaException {
+        ObjectNode root = header(FULL);
+        root.put("sagaId", sagaContext.getSagaId());
+        ObjectNode objects = root.putObject("objects");
+        for (Map.Entry<String, Serializable> object : sagaContext.getObjects().entrySet()) {
+            objects.set(object.getKey(), encodeField(object.getKey(), object.getValue()));
+        }
+        return write(root);
+    }
+
+    @Override
+    public SagaContext decode(byte[] bytes) throws SagaException {
+        JsonNode root = read(bytes);
+        if (!FULL.equals(root.path("kind").asText())) {
+            throw new SagaException("Not an encoded saga context (a delta).");
+        }
+        SagaContext sagaContext = new SagaContext();
+        if (root.hasNonNull("sagaId")) {
+            sagaContext.setSagaId(root.get("sagaId").asText());
+        }
+        Map<String, byte[]> baseline = new HashMap<>();
+        readFields(sagaContext, baseline, root.path("objects"));
+        sagaContext.setBaseline(baseline);
+        return sagaContext;
+    }
+
+    @Override
+    public byte[] encodeDelta(SagaContext sagaContext) throws SagaException {
+        Map<String, byte[]> baseline = sagaContext.getBaseline();
+        ObjectNode root = header((baseline == null) ? REPLACE : DELTA);
+        ObjectNode objects = root.putObject("objects");
+        for (Map.Entry<String, Serializable> object : sagaContext.getObjects().entrySet()) {
+            ObjectNode field = encodeField(object.getKey(), object.getValue());
+            byte[] base = (baseline == null) ? null : baseline.get(object.getKey());
+            if (base == null || !Arrays.equals(base, write(field))) {
+                objects.set(object.getKey(), field);
+            }
+        }
+        if (baseline != null) {
+            ArrayNode removed = root.putArray("removed");
+            baseline.keySet().forEach(key -> {
+                if (sagaContext.getObject(key) == null) {
+                    removed.add(key);
+                }
+            });
+        }
+        return write(root);
+    }
+
+    @Override
+    public void applyDelta(SagaContext sagaContext, byte[] delta) throws SagaException {
+        JsonNode root = read(delta);
+        String kind = root.path("kind").asText();
+        if (!DELTA.equals(kind) && !REPLACE.equals(kind)) {
+            throw new SagaException("Not an encoded saga context delta.");
+        }
+        SagaContext changes = new SagaContext();
+        readFields(changes, null, root.path("objects"));
+        if (REPLACE.equals(kind)) {
+            sagaContext.getObjects().keySet().retainAll(changes.getObjects().keySet());
+        } else {
+            root.path("removed").forEach(key -> sagaContext.removeObject(key.asText()));
+        }
+        sagaContext.getObjects().putAll(changes.getObjects());
+    }
+
+    private ObjectNode header(String kind) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("kind", kind);
+        root.put("schemaVersion", schema.getVersion());
+        return root;
+    }
+
+    private ObjectNode encodeField(String key, Serializable value) throws SagaException {
+        SagaContextSchema.Field declared = schema.getField(key);
+        SagaContextSchema.Type type = SagaContextSchema.Type.of(value);
+        if (declared != null && declared.getType() != type && declared.getType() != SagaContextSchema.Type.SERIALIZABLE) {
+            throw new SagaException("Saga context object " + key + " is a " + type + ", its schema declares a " + declared.getType());
+        }
+        type = (declared == null) ? type : declared.getType();
+
+        ObjectNode field = mapper.createObjectNode();
+        field.put("type", type.name());
+        switch (type) {
+            case STRING:
+                field.put("value", (String) value);
+                break;
+            case INTEGER:
+                field.put("value", (Integer) value);
+                break;
+            case LONG:
+                field.put("value", (Long) value);
+                break;
+            case DOUBLE:
+                field.put("value", (Double) value);
+                break;
+            case BOOLEAN:
+                field.put("value", (Boolean) value);
+                break;
+            case BYTES:
+                field.put("value", (byte[]) value);  // base64
+                break;
+            default:
+                try {
+                    field.put("value", BinarySagaContextCodec.serialize(value));
+                } catch (IOException e) {
+                    throw new SagaException(e);
+                }
+        }
+        return field;
+    }
+
+    private void readFields(SagaContext sagaContext, Map<String, byte[]> baseline, JsonNode objects) throws SagaException {
+        Iterator<Map.Entry<String, JsonNode>> fields = objects.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String key = field.getKey();
+            SagaContextSchema.Type type;
+            try {
+                type = SagaContextSchema.Type.valueOf(field.getValue().path("type").asText());
+            } catch (IllegalArgumentException e) {
+                throw new SagaException("Saga context object " + key + " has an unknown type: " + field.getValue().path("type").asText());
+            }
+            SagaContextSchema.Field declared = schema.getField(key);
+            if (declared != null && declared.getType() != type) {
+                throw new SagaException("Incompatible saga context schema: object " + key + " was written as a " + type + ", the schema declares a " + declared.getType());
+            }
+            sagaContext.addObject(key, decodeValue(type, field.getValue().path("value")));
+            if (baseline != null) {
+                baseline.put(key, write(field.getValue()));
+            }
+        }
+    }
+
+    private static Serializable decodeValue(SagaContextSchema.Type type, JsonNode value) throws SagaException {
+        try {
+            switch (type) {
+                case STRING:
+                    return value.asText();
+                case INTEGER:
+                    return value.asInt();
+                case LONG:
+                    return value.asLong();
+                case DOUBLE:
+                    return value.asDouble();
+                case BOOLEAN:
+                    return value.asBoolean();
+                case BYTES:
+                    return value.binaryValue();
+                default:
+                    return BinarySagaContextCodec.deserialize(value.binaryValue());
+            }
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+    }
+
+    private byte[] write(JsonNode node) throws SagaException {
+        try {
+            return mapper.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+    }
+
+    private JsonNode read(byte[] bytes) throws SagaException {
+        JsonNode root;
+        try {
+            root = mapper.readTree(bytes);
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+        int version = root.path("schemaVersion").asInt(-1);  // the writer's schema version
+        if (!schema.canRead(version)) {
+            throw new SagaException("Saga context written with an unknown schema version: " + version + " (this schema is version " + schema.getVersion() + ")");
+        }
+        return root;
+    }
+}
@@ -1,14 +1,44 @@
 package org.dplevine.patterns.saga;
 
 final class PersistenceFactory {
+    static final String PERSISTENCE_SESSION_PROPERTY = "org.dplevine.patterns.saga.persistence.session";
 
-    PersistenceFactory() {
+    private final Class<? extends PersistenceSession> persistenceSessionClass;
+
+    PersistenceFactory() throws SagaException {
         // load the class associated with the configured persistence method - the fully qualified class name should be specified in an application property
+        String className = System.getProperty(PERSISTENCE_SESSION_PROPERTY, InMemoryPersistenceSession.class.getName());
+        try {
+            Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            if (!PersistenceSession.class.isAssignableFrom(clazz)) {
+                throw new SagaException("Persistence session class " + className + " does not extend PersistenceSession.");
+            }
+            persistenceSessionClass = clazz.asSubclass(PersistenceSession.class);
+        } catch (ClassNotFoundException e) {
+            throw new SagaException("Could not load the persistence session class: " + className);
+        }
     }
 
-    PersistenceSession createSession() {
+    PersistenceSession createSession() throws SagaException {
         // using the loaded persistence factory, ask it to create and return a new persistence session
+        try {
+            return persistenceSessionClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SagaException("Could not create a persistence session of class " + persistenceSessionClass.getName() + ": " + e);
+        }
+    }
 
-        return null;
+    PersistenceSession createSession(int segment) throws SagaException {
+        // a session of one segment of the saga log (one per coordinator shard), the first segment may be a plain session
+        try {
+            return persistenceSessionClass.getConstructor(int.class).newInstance(segment);
+        } catch (NoSuchMethodException e) {
+            if (segment == 0) {
+                return createSession();
+            }
+            throw new SagaException("Persistence session class " + persistenceSessionClass.getName() + " has no public constructor taking a segment (required by more than one coordinator shard).");
+        } catch (ReflectiveOperationException e) {
+            throw new SagaException("Could not create a persistence session of class " + persistenceSessionClass.getName() + " for segment " + segment + ": " + e);
+        }
     }
 }
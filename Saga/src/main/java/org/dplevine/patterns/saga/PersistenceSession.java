@@ -1,4 +1,25 @@
 package org.dplevine.patterns.saga;
 
-abstract class PersistenceSession {
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The PersistenceSession class is the pluggable persistence mechanism of the saga coordinator: the saga log.  The coordinator appends
+ * a SagaLogRecord for every state transition of every saga and waits for the record to be durable before moving the saga on.
+ *
+ * The saga log is segmented: every coordinator shard (see SagaCoordinator) appends to and recovers from a segment of its own, so the
+ * shards never share a session.  Implementations must have a public no-arg constructor to be created by the PersistenceFactory (see
+ * PERSISTENCE_SESSION_PROPERTY) and, to serve more than one shard, a public constructor taking the segment (the shard's index).
+ */
+public abstract class PersistenceSession implements AutoCloseable {
+
+    // completes once the record is durable (implementations are expected to batch records appended concurrently)
+    public abstract CompletableFuture<Void> append(SagaLogRecord record);
+
+    // the last record of every saga that had not ended when the log was last written (i.e., the sagas to resume)
+    public abstract Collection<SagaLogRecord> recover() throws SagaException;
+
+    @Override
+    public void close() throws SagaException {
+    }
 }
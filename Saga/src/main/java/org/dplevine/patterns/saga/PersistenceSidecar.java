@@ -1,10 +1,38 @@
 package org.dplevine.patterns.saga;
 
-final class PersistenceSidecar {
-    private final PersistenceFactory persistenceFactory = new PersistenceFactory();
-    private final PersistenceSession persistenceSession = persistenceFactory.createSession();
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
-    PersistenceSidecar() {
+final class PersistenceSidecar implements AutoCloseable {
+    private final PersistenceFactory persistenceFactory;
+    private final PersistenceSession persistenceSession;
 
+    PersistenceSidecar() throws SagaException {
+        persistenceFactory = new PersistenceFactory();
+        persistenceSession = persistenceFactory.createSession();
+    }
+
+    // the sidecar of one segment of the saga log
+    PersistenceSidecar(int segment) throws SagaException {
+        persistenceFactory = new PersistenceFactory();
+        persistenceSession = persistenceFactory.createSession(segment);
+    }
+
+    // logs the current state of the saga, completes once it is durable
+    CompletableFuture<Void> logSaga(Saga saga) {
+        try {
+            return persistenceSession.append(SagaLogRecord.of(saga));
+        } catch (SagaException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    Collection<SagaLogRecord> recover() throws SagaException {
+        return persistenceSession.recover();
+    }
+
+    @Override
+    public void close() throws SagaException {
+        persistenceSession.close();
     }
 }
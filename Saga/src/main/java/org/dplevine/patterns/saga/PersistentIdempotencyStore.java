@@ -0,0 +1,71 @@
+package org.dplevine.patterns.saga;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * The PersistentIdempotencyStore class is an idempotency store that survives restarts.  Its results are held by an
+ * InMemoryIdempotencyStore (so lookups never touch the disk) and written through to a PersistenceSession of its own, i.e., the
+ * saga persistence layer: every result is a record of the session, and a result evicted from memory is ended in the session so it
+ * is dropped when the session compacts.  A result is only returned to the coordinator once it is durable.
+ *
+ * The session must not be the coordinator's saga log.  By default it is a FilePersistenceSession in DIRECTORY_PROPERTY.  Results
+ * recovered on startup live for a full time to live from then.
+ */
+public final class PersistentIdempotencyStore extends IdempotencyStore {
+
+    public static final String DIRECTORY_PROPERTY = "org.dplevine.patterns.saga.idempotency.directory";
+    static final String RESULT_RECORD = "<idempotency store result>";  // the definition name of the records of this store
+
+    private final PersistenceSession persistenceSession;
+    private final InMemoryIdempotencyStore results;
+
+    // ctors
+    public PersistentIdempotencyStore() throws IOException, SagaException {
+        this(new FilePersistenceSession(Paths.get(System.getProperty(DIRECTORY_PROPERTY, "saga-idempotency"))));
+    }
+
+    public PersistentIdempotencyStore(PersistenceSession persistenceSession) throws SagaException {
+        this(persistenceSession, InMemoryIdempotencyStore.DEFAULT_MAX_ENTRIES, InMemoryIdempotencyStore.DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    public PersistentIdempotencyStore(PersistenceSession persistenceSession, int maxEntries, long timeToLiveMillis) throws SagaException {
+        this.persistenceSession = persistenceSession;
+        this.results = new InMemoryIdempotencyStore(maxEntries, timeToLiveMillis, this::forget);
+        for (SagaLogRecord record : persistenceSession.recover()) {
+            if (RESULT_RECORD.equals(record.getDefinitionName())) {
+                results.put(record.getSagaId(), record.getContext());
+            }
+        }
+    }
+
+    @Override
+    public byte[] get(String requestId) {
+        return results.get(requestId);
+    }
+
+    @Override
+    public void put(String requestId, byte[] result) throws SagaException {
+        try {
+            persistenceSession.append(record(requestId, Saga.Status.RUNNING, result)).join();  // a running record is kept by the session
+        } catch (RuntimeException e) {
+            throw new SagaException("Could not record the result of request " + requestId + ": " + e.getLocalizedMessage());
+        }
+        results.put(requestId, result);
+    }
+
+    // an ended record is dropped by the session (no need to wait, a result recovered after its eviction is merely kept longer)
+    private void forget(String requestId) {
+        persistenceSession.append(record(requestId, Saga.Status.COMPLETED, new byte[0]));
+    }
+
+    private static SagaLogRecord record(String requestId, Saga.Status status, byte[] result) {
+        return new SagaLogRecord(requestId, RESULT_RECORD, status, 0, new BitSet(), 0, null, result);
+    }
+
+    @Override
+    public void close() throws SagaException {
+        persistenceSession.close();
+    }
+}
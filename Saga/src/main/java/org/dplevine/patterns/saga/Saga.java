@@ -1,4 +1,202 @@
 package org.dplevine.patterns.saga;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The Saga class is a single running instance of a SagaDefinition: its id, its context and where it is in its state machine.
+ *
+ * A saga runs its groups of steps forward, one group at a time, until all of them succeeded (COMPLETED) or one of them failed, in
+ * which case the steps that actually succeeded are compensated group by group in reverse order (COMPENSATING, then COMPENSATED).  A
+ * compensation that fails is retried until it succeeds, so the saga stays COMPENSATING meanwhile (FAILED is only found in the saga logs
+ * of earlier versions, which gave up on compensations).  A saga is only ever advanced once all the steps of its previous
+ * group completed, and only by the event loop of its coordinator shard, so its state is never updated concurrently and no thread
+ * waits on it.
+ */
 public final class Saga {
+
+    public enum Status {
+        RUNNING,
+        COMPENSATING,
+        COMPLETED,
+        COMPENSATED,
+        FAILED
+    }
+
+    private final String sagaId;
+    private final SagaDefinition sagaDefinition;
+    private final SagaContext sagaContext;
+    private final CompletableFuture<Saga> completion = new CompletableFuture<>();
+    private final BitSet completedSteps = new BitSet();  // the (indexes of the) steps to compensate
+    private volatile Status status = Status.RUNNING;
+    private volatile int nextGroup = 0;
+    private volatile long deadline = 0;  // epoch millis, 0 if the saga has no timeout
+    private volatile boolean deadlineExpired = false;
+    private volatile TimerWheel.Timeout deadlineTimeout = null;
+    private volatile CoordinatorShard shard = null;  // the coordinator shard running the saga (null if another process runs it)
+    private volatile Exception failure = null;
+
+    // ctors
+    Saga(String sagaId, SagaDefinition sagaDefinition, SagaContext sagaContext) {
+        this.sagaId = sagaId;
+        this.sagaDefinition = sagaDefinition;
+        this.sagaContext = sagaContext;
+        sagaContext.setSagaId(sagaId);
+    }
+
+    public String getSagaId() {
+        return sagaId;
+    }
+
+    public SagaDefinition getSagaDefinition() {
+        return sagaDefinition;
+    }
+
+    public SagaContext getSagaContext() {
+        return sagaContext;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isDone() {
+        return status == Status.COMPLETED || status == Status.COMPENSATED || status == Status.FAILED;
+    }
+
+    // the failure that made the saga compensate (or fail), null otherwise
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public List<String> getCompletedStepIds() {
+        List<SagaDefinition.Step> steps = sagaDefinition.getSteps();
+        synchronized (completedSteps) {
+            List<String> ids = new ArrayList<>(completedSteps.cardinality());
+            completedSteps.stream().forEach(i -> ids.add(steps.get(i).getId()));
+            return ids;
+        }
+    }
+
+    CompletableFuture<Saga> getCompletion() {
+        return completion;
+    }
+
+    int getNextGroupIndex() {
+        return nextGroup;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    boolean isDeadlineExpired() {
+        return deadlineExpired;
+    }
+
+    void deadlineExpired() {
+        deadlineExpired = true;
+    }
+
+    // the pending timeout of the deadline (cancelled once the saga ends)
+    TimerWheel.Timeout getDeadlineTimeout() {
+        return deadlineTimeout;
+    }
+
+    void setDeadlineTimeout(TimerWheel.Timeout deadlineTimeout) {
+        this.deadlineTimeout = deadlineTimeout;
+    }
+
+    CoordinatorShard getShard() {
+        return shard;
+    }
+
+    void setShard(CoordinatorShard shard) {
+        this.shard = shard;
+    }
+
+    BitSet getCompletedSteps() {
+        synchronized (completedSteps) {
+            return (BitSet) completedSteps.clone();
+        }
+    }
+
+    // restores the state of a saga read back from the saga log
+    void restore(Status status, int nextGroupIndex, BitSet completedSteps, long deadline, Exception failure) {
+        synchronized (this.completedSteps) {
+            this.completedSteps.clear();
+            this.completedSteps.or(completedSteps);
+        }
+        this.nextGroup = nextGroupIndex;
+        this.deadline = deadline;
+        this.failure = failure;
+        this.status = status;
+    }
+
+    // state transitions (made by the SagaCoordinator)
+    List<SagaDefinition.Step> nextSteps() {
+        List<List<SagaDefinition.Step>> groups = sagaDefinition.getStepGroups();
+        return (nextGroup < groups.size()) ? groups.get(nextGroup) : null;
+    }
+
+    void stepCompleted(SagaDefinition.Step step) {
+        synchronized (completedSteps) {
+            completedSteps.set(step.getIndex());
+        }
+    }
+
+    void groupCompleted() {
+        nextGroup++;
+    }
+
+    void stepFailed(Exception e) {
+        failure = e;
+        status = Status.COMPENSATING;
+    }
+
+    // the completed steps of the latest group with any, they were independent so they are compensated concurrently (null once none is left)
+    List<SagaDefinition.Step> nextCompensations() {
+        List<SagaDefinition.Step> steps = sagaDefinition.getSteps();
+        synchronized (completedSteps) {
+            for (int last = completedSteps.previousSetBit(steps.size() - 1); last >= 0; last = completedSteps.previousSetBit(steps.size() - 1)) {
+                int group = steps.get(last).getGroup();
+                List<SagaDefinition.Step> compensations = new ArrayList<>();
+                for (int i = last; i >= 0 && steps.get(i).getGroup() == group; i = completedSteps.previousSetBit(i - 1)) {
+                    if (steps.get(i).hasCompensation()) {
+                        compensations.add(steps.get(i));
+                    } else {
+                        completedSteps.clear(i);  // nothing to undo
+                    }
+                }
+                if (!compensations.isEmpty()) {
+                    return compensations;
+                }
+            }
+            return null;
+        }
+    }
+
+    void compensationCompleted(SagaDefinition.Step step) {
+        synchronized (completedSteps) {
+            completedSteps.clear(step.getIndex());
+        }
+    }
+
+    void end(Status status) {
+        this.status = status;
+    }
+
+    // completes the future returned when the saga was started (once the saga ended and its end was logged)
+    void complete() {
+        completion.complete(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Saga{sagaId=" + sagaId + ", definition=" + sagaDefinition.getName() + ", status=" + status + "}";
+    }
 }
@@ -1,7 +1,108 @@
 package org.dplevine.patterns.saga;
 
 import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The SagaContext class carries the state of a saga from one saga transaction to the next (i.e., the objects the transactions
+ * of a saga share).  Every saga transaction (and compensation) receives the context and returns it, possibly updated.
+ */
 public class SagaContext implements Serializable {
+    private static final long serialVersionUID = 1L;
 
+    private String sagaId;
+    private final Map<String, Serializable> objects = new ConcurrentHashMap<>();
+    private transient Map<String, byte[]> baseline = null;  // the encoded objects, when decoded by a SagaContextCodec
+    private static volatile SagaContextCodec codec = defaultCodec();
+
+    public SagaContext() {
+    }
+
+    public String getSagaId() {
+        return sagaId;
+    }
+
+    void setSagaId(String sagaId) {
+        this.sagaId = sagaId;
+    }
+
+    public void addObject(String key, Serializable object) {
+        objects.put(key, object);
+    }
+
+    public Serializable getObject(String key) {
+        return objects.get(key);
+    }
+
+    public Serializable removeObject(String key) {
+        return objects.remove(key);
+    }
+
+    public void clearAllObjects() {
+        objects.clear();
+    }
+
+    Map<String, Serializable> getObjects() {
+        return objects;
+    }
+
+    // a context of the same saga with the same objects, which the copy can add, replace or remove without touching this context
+    SagaContext copy() {
+        SagaContext copy = new SagaContext();
+        copy.sagaId = sagaId;
+        copy.objects.putAll(objects);
+        return copy;
+    }
+
+    // takes over the objects of the context returned by a saga transaction (a no-op when the transaction returned this context)
+    void update(SagaContext sagaContext) {
+        if (sagaContext == null || sagaContext == this) {
+            return;
+        }
+        objects.keySet().retainAll(sagaContext.getObjects().keySet());
+        objects.putAll(sagaContext.getObjects());
+    }
+
+    // adds (or replaces) the objects of the context returned by one of several concurrent steps (which can not remove the others' objects)
+    void merge(SagaContext sagaContext) {
+        if (sagaContext == null || sagaContext == this) {
+            return;
+        }
+        objects.putAll(sagaContext.getObjects());
+    }
+
+    Map<String, byte[]> getBaseline() {
+        return baseline;
+    }
+
+    void setBaseline(Map<String, byte[]> baseline) {
+        this.baseline = baseline;
+    }
+
+    // the codec used by the saga log and by transports (must be the same in every process taking part in a saga)
+    public static SagaContextCodec getCodec() {
+        return codec;
+    }
+
+    public static void setCodec(SagaContextCodec sagaContextCodec) {
+        codec = sagaContextCodec;
+    }
+
+    private static SagaContextCodec defaultCodec() {
+        String className = System.getProperty(SagaContextCodec.CODEC_PROPERTY);
+        if (className != null) {
+            try {
+                return (SagaContextCodec) Class.forName(className, true, Thread.currentThread().getContextClassLoader()).getConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Could not create the saga context codec: " + className, e);
+            }
+        }
+        return new BinarySagaContextCodec();
+    }
+
+    @Override
+    public String toString() {
+        return "SagaContext{sagaId=" + sagaId + ", objects=" + objects + "}";
+    }
 }
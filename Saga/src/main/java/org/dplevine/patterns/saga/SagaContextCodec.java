@@ -0,0 +1,24 @@
+package org.dplevine.patterns.saga;
+
+/**
+ * The SagaContextCodec interface is the pluggable encoding of a SagaContext, used by the saga log and by transports that leave the JVM.
+ *
+ * Besides complete contexts, a codec encodes deltas: a context decoded by the codec remembers what it was decoded from (its baseline),
+ * so a participant replying to a request only sends back the objects its saga transaction added, changed or removed.
+ */
+public interface SagaContextCodec {
+
+    String CODEC_PROPERTY = "org.dplevine.patterns.saga.context.codec";
+    // the classes a SERIALIZABLE object may be made of (a java.io.ObjectInputFilter pattern), contexts are also read from the network
+    String SERIAL_FILTER_PROPERTY = "org.dplevine.patterns.saga.context.serialFilter";
+    String DEFAULT_SERIAL_FILTER = "maxdepth=32;maxrefs=100000;maxbytes=16777216;java.lang.*;java.util.*;java.util.concurrent.*;java.time.*;java.math.*;org.dplevine.patterns.saga.Saga$Status;!*";
+
+    byte[] encode(SagaContext sagaContext) throws SagaException;
+
+    SagaContext decode(byte[] bytes) throws SagaException;
+
+    // the changes made to the context since it was decoded (the whole context if it was not decoded by this codec)
+    byte[] encodeDelta(SagaContext sagaContext) throws SagaException;
+
+    void applyDelta(SagaContext sagaContext, byte[] delta) throws SagaException;
+}
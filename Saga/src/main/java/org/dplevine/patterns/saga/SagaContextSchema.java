@@ -0,0 +1,143 @@
+package org.dplevine.patterns.saga;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The SagaContextSchema class declares the objects of a SagaContext: every object key gets a stable field id and a type, so the binary
+ * codec writes a small id rather than the key, and the value in its own compact form rather than with Java serialization.  Objects
+ * whose key is not declared are still encoded (by key, with their type inferred from their value).
+ *
+ * Schemas evolve like this: fields may be added (with new ids) and removed, but a field id must never change key or type.  Readers skip
+ * the fields they do not know, and checkCompatibility() lists the changes that would break readers of an earlier version of the schema.
+ * A schema reads contexts written with its own or an earlier version; it only reads contexts written with a later version once that
+ * version was declared readable (see readsUpTo()), i.e., once it is known to be compatible.
+ */
+public final class SagaContextSchema {
+
+    public enum Type {
+        STRING,
+        INTEGER,
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        BYTES,
+        SERIALIZABLE;
+
+        static Type of(Serializable value) {
+            if (value instanceof String) {
+                return STRING;
+            } else if (value instanceof Integer) {
+                return INTEGER;
+            } else if (value instanceof Long) {
+                return LONG;
+            } else if (value instanceof Double) {
+                return DOUBLE;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            } else if (value instanceof byte[]) {
+                return BYTES;
+            }
+            return SERIALIZABLE;
+        }
+    }
+
+    public static final class Field {
+        private final int id;
+        private final String key;
+        private final Type type;
+
+        Field(int id, String key, Type type) {
+            this.id = id;
+            this.key = key;
+            this.type = type;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Type getType() {
+            return type;
+        }
+    }
+
+    static final int MAX_FIELD_ID = Short.MAX_VALUE;
+
+    private final int version;
+    private int latestReadableVersion;
+    private final Map<String, Field> fieldsByKey = new HashMap<>();
+    private final Map<Integer, Field> fieldsById = new HashMap<>();
+
+    // ctors
+    public SagaContextSchema(int version) {
+        this.version = version;
+        this.latestReadableVersion = version;
+    }
+
+    public SagaContextSchema field(int id, String key, Type type) {
+        if (id < 1 || id > MAX_FIELD_ID) {
+            throw new IllegalArgumentException("Saga context field ids must be between 1 and " + MAX_FIELD_ID + ": " + id);
+        }
+        if (fieldsById.containsKey(id) || fieldsByKey.containsKey(key)) {
+            throw new IllegalArgumentException("Saga context field id (" + id + ") and key (" + key + ") must be unique in a schema.");
+        }
+        Field field = new Field(id, key, type);
+        fieldsById.put(id, field);
+        fieldsByKey.put(key, field);
+        return this;
+    }
+
+    // declares that contexts written with the later versions of the schema, up to the given one, are compatible with this one
+    public SagaContextSchema readsUpTo(int latestReadableVersion) {
+        this.latestReadableVersion = Math.max(version, latestReadableVersion);
+        return this;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    boolean canRead(int version) {
+        return version >= 0 && version <= latestReadableVersion;
+    }
+
+    public Collection<Field> getFields() {
+        return Collections.unmodifiableCollection(fieldsById.values());
+    }
+
+    Field getField(String key) {
+        return fieldsByKey.get(key);
+    }
+
+    Field getField(int id) {
+        return fieldsById.get(id);
+    }
+
+    // the reasons this schema can not read contexts written with the other schema (empty if it can)
+    public List<String> checkCompatibility(SagaContextSchema other) {
+        List<String> problems = new ArrayList<>();
+        for (Field field : other.fieldsById.values()) {
+            Field mine = fieldsById.get(field.getId());
+            if (mine != null && !mine.getKey().equals(field.getKey())) {
+                problems.add("field " + field.getId() + " changed key from " + field.getKey() + " to " + mine.getKey());
+            }
+            if (mine != null && mine.getType() != field.getType()) {
+                problems.add("field " + field.getId() + " (" + field.getKey() + ") changed type from " + field.getType() + " to " + mine.getType());
+            }
+            Field sameKey = fieldsByKey.get(field.getKey());
+            if (sameKey != null && sameKey.getId() != field.getId()) {
+                problems.add("key " + field.getKey() + " changed field id from " + field.getId() + " to " + sameKey.getId());
+            }
+        }
+        return problems;
+    }
+
+    public boolean isCompatibleWith(SagaContextSchema other) {
+        return checkCompatibility(other).isEmpty();
+    }
+}
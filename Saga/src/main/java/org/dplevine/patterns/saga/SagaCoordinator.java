@@ -1,17 +1,64 @@
 package org.dplevine.patterns.saga;
 
+import org.dplevine.patterns.pipeline.PipelineSpecification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The SagaCoordinator class runs sagas: it starts a Saga for a SagaDefinition, dispatches its saga transactions to the participants
+ * registering them and, when a transaction fails, dispatches the compensations of the steps that already succeeded in reverse order.
+ * The steps of a group of parallel steps are dispatched concurrently (fan-out) and the saga moves on once all of them completed
+ * (fan-in), so a group takes as long as its slowest step; their compensations are dispatched concurrently as well.
+ *
+ * Sagas are driven by an asynchronous state machine: dispatching a step returns a CompletableFuture and the saga is advanced by the
+ * completion of that future.  No thread is dedicated to (or waits on) a saga, so the number of concurrent sagas is only bounded by
+ * memory.  Saga transactions are dispatched through the transport (see TransportSession), in process or to other processes.
+ *
+ * Every state transition of a saga is written to the saga log (see PersistenceSession) before the saga moves on.  On startup the log
+ * is replayed, and the sagas that were in flight resume as soon as their definition is registered again (registerSagaDefinition()).
+ * A step that was dispatched but not logged as completed is dispatched again, with the same request id, so a participant that already
+ * ran it answers from its idempotency store (see IdempotencyStore) rather than running the saga transaction twice.
+ *
+ * Step timeouts and saga deadlines are tracked by one TimerWheel, so any number of them can be pending without a scheduled task each,
+ * and a reply cancels its timeout in O(1).  Saga deadlines are logged with the saga and scheduled again when it resumes; the timeouts
+ * of the steps in flight start over, as those steps are dispatched again.
+ *
+ * The coordinator is sharded: sagas are partitioned by the hash of their id across SHARDS_PROPERTY shards (see CoordinatorShard),
+ * each with its own single-threaded event loop, its own sagas and its own segment of the saga log, so shards never contend with each
+ * other.  A recovered saga is resumed by the shard whose segment logged it, so the number of shards may grow between restarts (but
+ * must not shrink while sagas are in flight).  The shards may also be spread over several coordinator processes on one host, with a
+ * static shard map (see SHARD_MAP_PROPERTY and ShardMap): a saga of another process's shard is forwarded to that process.
+ */
 public final class SagaCoordinator extends SagaParticipant {
+    public static final String SHARDS_PROPERTY = "org.dplevine.patterns.saga.coordinator.shards";  // the shards of a process
+    public static final String SHARD_MAP_PROPERTY = "org.dplevine.patterns.saga.coordinator.shardMap";  // the coordinator processes
+    public static final String PROCESS_PROPERTY = "org.dplevine.patterns.saga.coordinator.process";  // this process in the shard map
+    private static final Logger logger = LoggerFactory.getLogger(SagaCoordinator.class);
+    private static final int DEFAULT_SHARDS = Runtime.getRuntime().availableProcessors();
+    private static final String SAGA_STATUS = "<saga status>";  // the outcome of a forwarded saga, added to the context it is answered with
+    private static final String SAGA_FAILURE = "<saga failure>";
+    private static final long MAX_COMPENSATION_RETRY_MILLIS = 30_000;  // compensations are retried until they succeed, at most this far apart
+    private static final int MAX_STEP_DISPATCHES = 3;  // a step that times out is dispatched again (with the same request id)
+    private static final int MAX_LOG_ATTEMPTS = 5;  // a saga whose state can not be logged is parked (see logThen())
+    private static final long LOG_RETRY_MILLIS = 100;  // the delay before logging again, times the attempts so far
     private static SagaCoordinator sagaCoordinator;
     static {
         try {
             sagaCoordinator = new SagaCoordinator(); // singleton
         } catch (Exception e) {
-
+            logger.error("Could not create the saga coordinator: " + e.getLocalizedMessage());
         }
     }
-    private TransportSidecar transportSidecar;
-    private PersistenceSidecar persistenceSidecar = new PersistenceSidecar();
-    private final SagaDefinitionRepo sagaDefinitionRepo = new SagaDefinitionRepo(persistenceSidecar);
+    private final SagaDefinitionRepo sagaDefinitionRepo = new SagaDefinitionRepo();
+    private final TimerWheel timerWheel = new TimerWheel(Runnable::run);  // expired timeouts are handed over to their saga's shard
+    private final CoordinatorShard[] shards;  // the shards of this process
+    private final ShardMap shardMap;  // null unless the shards are spread over several processes
+    private final Map<String, CompletableFuture<SagaContext>> forwardedSagas = new ConcurrentHashMap<>();  // request id -> answer, until recorded
 
     public static SagaCoordinator getSagaCoordinator() {
         return sagaCoordinator;
@@ -19,6 +66,431 @@ public final class SagaCoordinator extends SagaParticipant {
 
     private SagaCoordinator() throws Exception {
         super();
-        this.transportSidecar = new TransportSidecar(this);
+        int shardCount = Integer.getInteger(SHARDS_PROPERTY, DEFAULT_SHARDS);
+        if (shardCount < 1) {
+            throw new SagaException(SHARDS_PROPERTY + " must be at least 1: " + shardCount);
+        }
+        shardMap = ShardMap.fromProperties(shardCount);
+        int firstShard = (shardMap == null) ? 0 : shardMap.getFirstLocalShard();
+        shards = new CoordinatorShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new CoordinatorShard(firstShard + i);  // every shard replays its segment of the saga log
+        }
+        if (getRecoveredSagaCount() > 0) {
+            logger.info("Recovered " + getRecoveredSagaCount() + " sagas in flight, resumed once their definitions are registered.");
+        }
+        if (shardMap != null) {
+            shardMap.serve(this::runForwardedSaga);
+        }
+        start();  // the transport, once the coordinator is fully constructed
+    }
+
+    // makes the definition known to the coordinator and resumes the recovered sagas of that definition
+    public void registerSagaDefinition(SagaDefinition sagaDefinition) throws SagaException {
+        sagaDefinitionRepo.putSagaDefinition(sagaDefinition);
+        for (CoordinatorShard shard : shards) {
+            List<SagaLogRecord> records = shard.getRecoveredSagas().remove(sagaDefinition.getName());
+            if (records != null) {
+                for (SagaLogRecord record : records) {
+                    Saga saga = record.restore(sagaDefinition);
+                    saga.setShard(shard);  // the shard whose segment logged the saga
+                    resumeSaga(saga);
+                }
+            }
+        }
+    }
+
+    // registers the saga definition of a JSON or YAML pipeline specification (see SagaDefinitionRepo)
+    public SagaDefinition registerSagaDefinition(Path path) throws SagaException {
+        SagaDefinition sagaDefinition = sagaDefinitionRepo.loadSagaDefinition(path);
+        registerSagaDefinition(sagaDefinition);
+        return sagaDefinition;
+    }
+
+    // registers the saga definition of a JSON or YAML pipeline specification on the classpath (e.g., "/orderSaga.yaml")
+    public SagaDefinition registerSagaDefinitionResource(String resourceName) throws SagaException {
+        SagaDefinition sagaDefinition = sagaDefinitionRepo.loadSagaDefinitionResource(resourceName);
+        registerSagaDefinition(sagaDefinition);
+        return sagaDefinition;
+    }
+
+    // registers the saga definition of a pipeline specification (e.g., built from annotations by a PipelineBuilder)
+    public SagaDefinition registerSagaDefinition(PipelineSpecification spec) throws SagaException {
+        SagaDefinition sagaDefinition = sagaDefinitionRepo.loadSagaDefinition(spec);
+        registerSagaDefinition(sagaDefinition);
+        return sagaDefinition;
+    }
+
+    // the registered definition of that name, null if there is none
+    public SagaDefinition getSagaDefinition(String name) {
+        return sagaDefinitionRepo.getSagaDefinition(name);
+    }
+
+    // the number of recovered sagas waiting for their definition to be registered
+    public int getRecoveredSagaCount() {
+        int count = 0;
+        for (CoordinatorShard shard : shards) {
+            count += shard.getRecoveredSagas().values().stream().mapToInt(List::size).sum();
+        }
+        return count;
+    }
+
+    // the number of shards of this process
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // starts a saga, the returned future completes (normally) once the saga is COMPLETED or COMPENSATED
+    // (on the saga's shard: dependent actions that may block must be async), or exceptionally if it could not be forwarded or was
+    // parked (see logThen())
+    public CompletableFuture<Saga> startSaga(SagaDefinition sagaDefinition, SagaContext sagaContext) throws SagaException {
+        if (sagaDefinitionRepo.getSagaDefinition(sagaDefinition.getName()) != sagaDefinition) {
+            registerSagaDefinition(sagaDefinition);
+        }
+        Saga saga = new Saga(UUID.randomUUID().toString(), sagaDefinition, sagaContext);
+        int shard = shardOf(saga.getSagaId());
+        CoordinatorShard localShard = localShard(shard);
+        if (localShard == null) {
+            return forwardSaga(saga, shard);
+        }
+        localShard.getSagas().put(saga.getSagaId(), saga);
+        runSaga(saga, localShard);
+        return saga.getCompletion();
+    }
+
+    private void runSaga(Saga saga, CoordinatorShard shard) {
+        saga.setShard(shard);
+        if (saga.getSagaDefinition().getTimeoutMillis() > 0) {
+            saga.setDeadline(System.currentTimeMillis() + saga.getSagaDefinition().getTimeoutMillis());
+            scheduleDeadline(saga);
+        }
+        logThen(saga, () -> runNextStep(saga));
+    }
+
+    // starts a saga of a registered definition
+    public CompletableFuture<Saga> startSaga(String definitionName, SagaContext sagaContext) throws SagaException {
+        SagaDefinition sagaDefinition = sagaDefinitionRepo.getSagaDefinition(definitionName);
+        if (sagaDefinition == null) {
+            throw new SagaException("No saga definition is registered as " + definitionName);
+        }
+        return startSaga(sagaDefinition, sagaContext);
+    }
+
+    private void resumeSaga(Saga saga) {
+        logger.info("Resuming " + saga);
+        saga.getShard().getSagas().put(saga.getSagaId(), saga);
+        if (saga.getStatus() == Saga.Status.COMPENSATING) {
+            saga.getShard().execute(() -> compensateNextSteps(saga, 1));
+        } else {
+            if (saga.getDeadline() > 0) {
+                scheduleDeadline(saga);
+            }
+            saga.getShard().execute(() -> runNextStep(saga));
+        }
+    }
+
+    // the (global) shard of a saga
+    private int shardOf(String sagaId) {
+        return Math.floorMod(sagaId.hashCode(), (shardMap == null) ? shards.length : shardMap.getShardCount());
+    }
+
+    // the shard if this process runs it, null otherwise
+    private CoordinatorShard localShard(int shard) {
+        int local = shard - shards[0].getIndex();
+        return (local >= 0 && local < shards.length) ? shards[local] : null;
+    }
+
+    // hands the saga over to the coordinator process running its shard, and ends it as it ended there
+    private CompletableFuture<Saga> forwardSaga(Saga saga, int shard) {
+        String requestId = saga.getSagaId() + "/" + saga.getSagaDefinition().getName();
+        shardMap.forward(shard, requestId, saga.getSagaContext()).whenComplete((sagaContext, e) -> {
+            if (e != null) {
+                saga.getCompletion().completeExceptionally(unwrap(e));
+                return;
+            }
+            Saga.Status status = (Saga.Status) sagaContext.removeObject(SAGA_STATUS);
+            Serializable failure = sagaContext.removeObject(SAGA_FAILURE);
+            saga.getSagaContext().update(sagaContext);  // the saga is not running in this process, nothing else updates its context
+            saga.restore(status, 0, new BitSet(), 0, (failure == null) ? null : new SagaException(failure.toString()));
+            saga.complete();
+        });
+        return saga.getCompletion();
+    }
+
+    // the sagas forwarded by the other coordinator processes (the request id is the saga id and the definition name), answered once
+    // the saga ended (without holding up the transport's thread meanwhile); a saga forwarded again while it is running is joined, and
+    // one forwarded again once it ended is answered from the idempotency store (where its answer is kept for the store's time to live)
+    CompletableFuture<SagaContext> runForwardedSaga(String shardTransactionName, String requestId, SagaContext sagaContext) throws SagaException {
+        int separator = (requestId == null) ? -1 : requestId.indexOf('/');
+        if (separator < 0) {
+            throw new SagaException("Invalid forwarded saga request: " + requestId);
+        }
+        String sagaId = requestId.substring(0, separator);
+        SagaDefinition sagaDefinition = sagaDefinitionRepo.getSagaDefinition(requestId.substring(separator + 1));
+        if (sagaDefinition == null) {
+            throw new SagaException("No saga definition is registered as " + requestId.substring(separator + 1));
+        }
+        CoordinatorShard shard = localShard(shardOf(sagaId));
+        if (shard == null) {
+            throw new SagaException("Saga " + sagaId + " does not belong to the shards of this coordinator process.");
+        }
+        IdempotencyStore idempotencyStore = IdempotencyStore.getIdempotencyStore();
+        byte[] answered = idempotencyStore.get(requestId);
+        if (answered != null) {
+            return CompletableFuture.completedFuture(replay(answered, sagaContext));
+        }
+        CompletableFuture<SagaContext> answer = new CompletableFuture<>();
+        CompletableFuture<SagaContext> answering = forwardedSagas.putIfAbsent(requestId, answer);
+        if (answering != null) {
+            return answering;
+        }
+        answered = idempotencyStore.get(requestId);  // the first one may have been answered in the meantime
+        if (answered != null) {
+            forwardedSagas.remove(requestId, answer);
+            return CompletableFuture.completedFuture(replay(answered, sagaContext));
+        }
+
+        Saga saga = new Saga(sagaId, sagaDefinition, sagaContext);
+        Saga running = shard.getSagas().putIfAbsent(sagaId, saga);  // e.g., recovered and resumed when this process restarted
+        if (running != null) {
+            saga = running;
+        } else {
+            runSaga(saga, shard);
+        }
+        saga.getCompletion().whenCompleteAsync((ended, e) -> {  // off the shard, recording the answer may block
+            if (e != null) {
+                answer.completeExceptionally(e);  // not answered (e.g., parked)
+            } else {
+                SagaContext result = ended.getSagaContext();
+                result.addObject(SAGA_STATUS, ended.getStatus());
+                if (ended.getFailure() != null) {
+                    result.addObject(SAGA_FAILURE, String.valueOf(ended.getFailure().getLocalizedMessage()));
+                }
+                try {
+                    idempotencyStore.put(requestId, SagaContext.getCodec().encode(result));
+                } catch (SagaException | RuntimeException recordFailure) {
+                    logger.warn("Could not record the answer of forwarded saga " + sagaId + ": " + recordFailure.getLocalizedMessage());
+                }
+                answer.complete(result);
+            }
+            forwardedSagas.remove(requestId, answer);
+        });
+        return answer;
+    }
+
+    // a saga past its deadline is compensated once its current group of steps completed (see runNextStep())
+    private void scheduleDeadline(Saga saga) {
+        saga.setDeadlineTimeout(schedule(saga, saga.getDeadline() - System.currentTimeMillis(), () -> {
+            logger.warn("Saga " + saga.getSagaId() + " did not complete before its deadline.");
+            saga.deadlineExpired();
+        }));
+    }
+
+    // the task runs on the saga's shard once the delay elapsed
+    private TimerWheel.Timeout schedule(Saga saga, long delayMillis, Runnable task) {
+        CoordinatorShard shard = saga.getShard();
+        return timerWheel.schedule(delayMillis, () -> shard.execute(task));
+    }
+
+    private static void cancelDeadline(Saga saga) {
+        TimerWheel.Timeout deadlineTimeout = saga.getDeadlineTimeout();
+        if (deadlineTimeout != null) {
+            deadlineTimeout.cancel();
+        }
+    }
+
+    // the saga if it is still in flight in this process, null otherwise
+    public Saga getSaga(String sagaId) {
+        CoordinatorShard shard = localShard(shardOf(sagaId));
+        Saga saga = (shard == null) ? null : shard.getSagas().get(sagaId);
+        for (int i = 0; saga == null && i < shards.length; i++) {
+            saga = shards[i].getSagas().get(sagaId);  // recovered by another shard (its segment was written with fewer shards)
+        }
+        return saga;
+    }
+
+    public int getActiveSagaCount() {
+        int count = 0;
+        for (CoordinatorShard shard : shards) {
+            count += shard.getSagas().size();
+        }
+        return count;
+    }
+
+    // the transport routes the saga transaction to the participant serving it
+    private CompletableFuture<SagaContext> dispatch(String sagaTransactionName, String requestId, SagaContext sagaContext) {
+        return getTransportSidecar().dispatchSagaTransaction(sagaTransactionName, requestId, sagaContext);
+    }
+
+    // dispatches a step, and dispatches it again every time its timeout expires (a compensation is dispatched once, see compensateNextSteps())
+    private CompletableFuture<SagaContext> dispatch(Saga saga, SagaDefinition.Step step, String sagaTransactionName, String requestId, int maxDispatches) {
+        if (step.getTimeoutMillis() <= 0) {
+            return dispatch(sagaTransactionName, requestId, saga.getSagaContext());
+        }
+        CompletableFuture<SagaContext> reply = new CompletableFuture<>();
+        dispatchUntilTimeout(saga, step, sagaTransactionName, requestId, reply, 1, maxDispatches);
+        return reply;
+    }
+
+    private void dispatchUntilTimeout(Saga saga, SagaDefinition.Step step, String sagaTransactionName, String requestId, CompletableFuture<SagaContext> reply, int dispatches, int maxDispatches) {
+        CompletableFuture<SagaContext> dispatched = dispatch(sagaTransactionName, requestId, saga.getSagaContext());
+        TimerWheel.Timeout timeout = schedule(saga, step.getTimeoutMillis(), () -> {
+            if (reply.isDone() || !dispatched.cancel(false)) {  // cancelling makes the transport forget the request that timed out
+                return;  // replied meanwhile
+            }
+            if (dispatches < maxDispatches) {
+                logger.warn("Saga " + saga.getSagaId() + " step (" + step.getId() + ") timed out, dispatching " + sagaTransactionName + " again.");
+                dispatchUntilTimeout(saga, step, sagaTransactionName, requestId, reply, dispatches + 1, maxDispatches);
+            } else {
+                reply.completeExceptionally(new SagaTimeoutException("Saga " + saga.getSagaId() + " step (" + step.getId() + ") " + sagaTransactionName + " timed out."));
+            }
+        });
+        dispatched.whenComplete((sagaContext, e) -> {
+            timeout.cancel();
+            if (e instanceof CancellationException) {
+                return;  // timed out, dispatched again or failed by the timeout
+            }
+            if (e == null) {
+                reply.complete(sagaContext);
+            } else {
+                reply.completeExceptionally(unwrap(e));
+            }
+        });
+    }
+
+    // identifies a dispatch, so a participant receiving it again (e.g., once the saga resumed after a restart) does not run it twice
+    // (the same for every attempt of a step or of its compensation: a failed attempt is not recorded, one that succeeded is never rerun)
+    private static String requestId(Saga saga, SagaDefinition.Step step, String sagaTransactionName) {
+        return saga.getSagaId() + "/" + step.getId() + "/" + sagaTransactionName;
+    }
+
+    // the saga moves on once its new state is durable in its shard's segment (on its shard, so it never holds up the saga log); a
+    // saga never moves on past a state that is not durable: the state is logged again a few times, and then the saga is parked
+    private void logThen(Saga saga, Runnable next) {
+        logThen(saga, next, 1);
+    }
+
+    private void logThen(Saga saga, Runnable next, int attempt) {
+        CoordinatorShard shard = saga.getShard();
+        shard.getPersistenceSidecar().logSaga(saga).whenCompleteAsync((durable, e) -> {
+            if (e == null) {
+                next.run();
+            } else if (attempt < MAX_LOG_ATTEMPTS) {
+                logger.warn("Could not log the state of " + saga + ", retrying: " + unwrap(e).getLocalizedMessage());
+                schedule(saga, LOG_RETRY_MILLIS * attempt, () -> logThen(saga, next, attempt + 1));
+            } else {
+                park(saga, unwrap(e));
+            }
+        }, shard);
+    }
+
+    // stops a saga whose state can not be logged: it is no longer in flight in this process, and resumes from its last durable state
+    // once the coordinator is restarted (its participants answer the steps they already ran from their idempotency stores)
+    private void park(Saga saga, Exception e) {
+        logger.error("Could not log the state of " + saga + ", parking it until the coordinator restarts: " + e.getLocalizedMessage());
+        cancelDeadline(saga);
+        saga.getShard().getSagas().remove(saga.getSagaId());
+        saga.getCompletion().completeExceptionally(new SagaException("Saga " + saga.getSagaId() + " is parked, its state could not be logged: " + e.getLocalizedMessage()));
+    }
+
+    // dispatches the transactions (or compensations) of a group of steps concurrently, completes with the failures once all completed
+    private CompletableFuture<Map<SagaDefinition.Step, Exception>> dispatchAll(Saga saga, List<SagaDefinition.Step> steps, boolean compensate) {
+        Map<SagaDefinition.Step, Exception> failures = new ConcurrentHashMap<>();
+        Map<SagaDefinition.Step, SagaContext> results = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] dispatched = new CompletableFuture<?>[steps.size()];
+        for (int i = 0; i < steps.size(); i++) {
+            SagaDefinition.Step step = steps.get(i);
+            String sagaTransactionName = compensate ? step.getCompensationName() : step.getTransactionName();
+            int maxDispatches = compensate ? 1 : MAX_STEP_DISPATCHES;
+            dispatched[i] = dispatch(saga, step, sagaTransactionName, requestId(saga, step, sagaTransactionName), maxDispatches).whenComplete((sagaContext, e) -> {
+                if (e != null) {
+                    failures.put(step, unwrap(e));
+                } else if (sagaContext != null) {
+                    results.put(step, sagaContext);
+                }
+            });
+        }
+        return CompletableFuture.allOf(dispatched).handleAsync((joined, e) -> {
+            for (SagaDefinition.Step step : steps) {  // in the order of the definition, once no step is running (on the saga's shard)
+                SagaContext sagaContext = results.get(step);
+                if (steps.size() == 1) {
+                    saga.getSagaContext().update(sagaContext);
+                } else {
+                    saga.getSagaContext().merge(sagaContext);
+                }
+            }
+            return failures;
+        }, saga.getShard());
+    }
+
+    // forward: one group of steps at a time, the next group is dispatched once all the steps of the previous one completed
+    private void runNextStep(Saga saga) {
+        List<SagaDefinition.Step> steps = saga.nextSteps();
+        if (steps == null) {
+            finish(saga, Saga.Status.COMPLETED);
+            return;
+        }
+        if (saga.isDeadlineExpired()) {
+            saga.stepFailed(new SagaTimeoutException("Saga " + saga.getSagaId() + " did not complete before its deadline."));
+            logThen(saga, () -> compensateNextSteps(saga, 1));
+            return;
+        }
+        dispatchAll(saga, steps, false).thenAccept(failures -> {
+            // a step that timed out may have run, so it is compensated as well (compensations must cope with a step that did not run)
+            steps.stream().filter(step -> !failures.containsKey(step) || failures.get(step) instanceof SagaTimeoutException).forEach(saga::stepCompleted);
+            if (failures.isEmpty()) {
+                saga.groupCompleted();
+                logThen(saga, () -> runNextStep(saga));
+                return;
+            }
+            Exception failure = null;
+            for (SagaDefinition.Step step : steps) {
+                Exception e = failures.get(step);
+                if (e != null) {
+                    logger.warn("Saga " + saga.getSagaId() + " step (" + step.getId() + ") failed, compensating: " + e.getLocalizedMessage());
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            cancelDeadline(saga);
+            saga.stepFailed(failure);
+            logThen(saga, () -> compensateNextSteps(saga, 1));
+        });
+    }
+
+    // backward: only the steps that succeeded are compensated, group by group in reverse order (concurrently within a group)
+    private void compensateNextSteps(Saga saga, int attempt) {
+        List<SagaDefinition.Step> steps = saga.nextCompensations();
+        if (steps == null) {
+            finish(saga, Saga.Status.COMPENSATED);
+            return;
+        }
+        dispatchAll(saga, steps, true).thenAccept(failures -> {
+            steps.stream().filter(step -> !failures.containsKey(step)).forEach(saga::compensationCompleted);
+            if (failures.isEmpty()) {
+                logThen(saga, () -> compensateNextSteps(saga, 1));
+                return;
+            }
+            // a compensation must eventually succeed, so the saga stays COMPENSATING and the steps still to compensate are dispatched
+            // again, further and further apart (the compensations that succeeded are logged first)
+            long delayMillis = Math.min(LOG_RETRY_MILLIS * attempt, MAX_COMPENSATION_RETRY_MILLIS);
+            failures.forEach((step, e) -> logger.warn("Saga " + saga.getSagaId() + " compensation of step (" + step.getId() + ") failed (attempt " + attempt + "), retrying in " + delayMillis + "ms: " + e.getLocalizedMessage()));
+            logThen(saga, () -> schedule(saga, delayMillis, () -> compensateNextSteps(saga, attempt + 1)));
+        });
+    }
+
+    private void finish(Saga saga, Saga.Status status) {
+        cancelDeadline(saga);
+        saga.end(status);
+        saga.getShard().getSagas().remove(saga.getSagaId());
+        logThen(saga, saga::complete);
+    }
+
+    private static Exception unwrap(Throwable throwable) {
+        Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+        return (cause instanceof Exception) ? (Exception) cause : new SagaException(cause.toString());
     }
 }
@@ -1,4 +1,170 @@
 package org.dplevine.patterns.saga;
 
+import java.util.*;
+
+/**
+ * The SagaDefinition class is the ordered list of steps of a saga.  Every step names the saga transaction that moves the saga
+ * forward and, optionally, the saga transaction that compensates for it (i.e., undoes it) should a later step fail.
+ *
+ * Steps are run in groups: a step added with addStep() is a group of its own, steps added together with addParallelSteps() are
+ * independent of each other and dispatched concurrently (e.g., reserving inventory while authorizing a payment).  A group only
+ * completes once all of its steps completed, and every group depends on the groups before it.
+ *
+ * A step may have a timeout: a step that did not reply in time is dispatched again and, after a few timeouts, fails (and, as its
+ * outcome is unknown, is compensated along with the steps that succeeded).  A saga may have a timeout as well: a saga still running
+ * at its deadline is compensated once its current group of steps completed.
+ */
 public final class SagaDefinition {
+
+    public static final class Step {
+        private final String id;
+        private final String transactionName;
+        private final String compensationName;  // null if the step does not need to be compensated
+        private final long timeoutMillis;  // 0 if the step has no timeout
+        private final int index;  // the position of the step in its definition (-1 until added to one)
+        private final int group;  // the group of the step in its definition (-1 until added to one)
+
+        Step(String id, String transactionName, String compensationName, long timeoutMillis, int index, int group) {
+            this.id = id;
+            this.transactionName = transactionName;
+            this.compensationName = compensationName;
+            this.timeoutMillis = timeoutMillis;
+            this.index = index;
+            this.group = group;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTransactionName() {
+            return transactionName;
+        }
+
+        public String getCompensationName() {
+            return compensationName;
+        }
+
+        public boolean hasCompensation() {
+            return compensationName != null;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        int getGroup() {
+            return group;
+        }
+    }
+
+    private final String name;
+    private final List<Step> steps = new Vector<>();
+    private final List<List<Step>> groups = new Vector<>();
+    private volatile long timeoutMillis = 0;  // 0 if the saga has no timeout
+    private volatile boolean validated = false;  // a definition is only validated again once it changed
+
+    // ctors
+    public SagaDefinition(String name) {
+        this.name = name;
+    }
+
+    // a step for addParallelSteps()
+    public static Step step(String id, String transactionName, String compensationName, long timeoutMillis) {
+        return new Step(id, transactionName, compensationName, timeoutMillis, -1, -1);
+    }
+
+    public static Step step(String id, String transactionName, String compensationName) {
+        return step(id, transactionName, compensationName, 0);
+    }
+
+    public static Step step(String id, String transactionName) {
+        return step(id, transactionName, null);
+    }
+
+    public SagaDefinition addStep(String id, String transactionName, String compensationName, long timeoutMillis) {
+        return addParallelSteps(step(id, transactionName, compensationName, timeoutMillis));
+    }
+
+    public SagaDefinition addStep(String id, String transactionName, String compensationName) {
+        return addStep(id, transactionName, compensationName, 0);
+    }
+
+    public SagaDefinition addStep(String id, String transactionName) {
+        return addStep(id, transactionName, null);
+    }
+
+    // a group of independent steps, dispatched concurrently
+    public synchronized SagaDefinition addParallelSteps(Step... parallelSteps) {
+        List<Step> group = new ArrayList<>(parallelSteps.length);
+        for (Step step : parallelSteps) {
+            Step added = new Step(step.getId(), step.getTransactionName(), step.getCompensationName(), step.getTimeoutMillis(), steps.size(), groups.size());
+            steps.add(added);
+            group.add(added);
+        }
+        groups.add(Collections.unmodifiableList(group));
+        validated = false;
+        return this;
+    }
+
+    // the time a saga has to complete (it is compensated past it), 0 for none
+    public SagaDefinition setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        validated = false;
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public List<List<Step>> getStepGroups() {
+        return Collections.unmodifiableList(groups);
+    }
+
+    // a definition must have a name and at least one step, every group at least one step, and every step a unique id and a transaction
+    void validate() throws SagaException {
+        if (validated) {
+            return;
+        }
+        if (name == null || name.isBlank()) {
+            throw new SagaException("A saga definition must have a name.");
+        }
+        if (steps.isEmpty()) {
+            throw new SagaException("Saga definition (" + name + ") has no steps.");
+        }
+        for (List<Step> group : groups) {
+            if (group.isEmpty()) {
+                throw new SagaException("Saga definition (" + name + ") has an empty group of parallel steps.");
+            }
+        }
+        if (timeoutMillis < 0) {
+            throw new SagaException("Saga definition (" + name + ") has a negative timeout.");
+        }
+        Set<String> ids = new HashSet<>();
+        for (Step step : steps) {
+            if (step.getId() == null || !ids.add(step.getId())) {
+                throw new SagaException("Saga definition (" + name + ") has a missing or duplicate step id: " + step.getId());
+            }
+            if (step.getTransactionName() == null) {
+                throw new SagaException("Step (" + step.getId() + ") of saga definition (" + name + ") has no transaction.");
+            }
+            if (step.getTimeoutMillis() < 0) {
+                throw new SagaException("Step (" + step.getId() + ") of saga definition (" + name + ") has a negative timeout.");
+            }
+        }
+        validated = true;
+    }
 }
@@ -1,11 +1,113 @@
 package org.dplevine.patterns.saga;
 
+import org.dplevine.patterns.pipeline.PipelineSpecReader;
+import org.dplevine.patterns.pipeline.PipelineSpecification;
+import org.dplevine.patterns.pipeline.SpecValidationResult;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The SagaDefinitionRepo class holds the saga definitions known to the coordinator, indexed by name.  Every definition is validated
+ * once, when it is put in the repo, rather than every time a saga is started.
+ *
+ * Saga definitions can also be expressed as pipeline specifications (JSON, YAML or annotations, see PipelineSpecification): every
+ * stage is a step whose saga transaction is named by the stage's id and whose compensation (optional) is named by the stage's
+ * compensation, and every parallel is a group of parallel steps (one stage per parallel pipeline).  Specifications read from a file
+ * or resource are cached by their location, so a definition is only read, converted and validated once.  Every specification goes
+ * through the same path (see load()): it is validated as a pipeline specification (see PipelineSpecification.validate()) before it is
+ * converted, and the definition is validated once converted.
+ */
 final class SagaDefinitionRepo {
-    private PersistenceSidecar persistenceSidecar;
+    // reads a specification (from a file, a resource, ...)
+    private interface SpecificationSource {
+        PipelineSpecification read() throws Exception;
+    }
+
+    private final Map<String, SagaDefinition> sagaDefinitions = new ConcurrentHashMap<>();
+    private final Map<String, SagaDefinition> loadedSagaDefinitions = new ConcurrentHashMap<>();  // file or resource -> definition
+
+    SagaDefinitionRepo() {}
 
-    private SagaDefinitionRepo() {}
+    // validates the definition, replacing any definition of the same name
+    void putSagaDefinition(SagaDefinition sagaDefinition) throws SagaException {
+        sagaDefinition.validate();
+        sagaDefinitions.put(sagaDefinition.getName(), sagaDefinition);
+    }
+
+    SagaDefinition getSagaDefinition(String name) {
+        return sagaDefinitions.get(name);
+    }
+
+    // the definition of a JSON or YAML specification file (read once)
+    SagaDefinition loadSagaDefinition(Path path) throws SagaException {
+        return load("file:" + path.toAbsolutePath().normalize(), () -> PipelineSpecReader.read(path));
+    }
+
+    // the definition of a JSON or YAML specification on the classpath (read once)
+    SagaDefinition loadSagaDefinitionResource(String resourceName) throws SagaException {
+        return load("resource:" + resourceName, () -> PipelineSpecReader.readResource(resourceName));
+    }
+
+    // the definition of a specification that was read already (e.g., built from annotations), not cached
+    SagaDefinition loadSagaDefinition(PipelineSpecification spec) throws SagaException {
+        return load(null, () -> spec);
+    }
+
+    private SagaDefinition load(String location, SpecificationSource source) throws SagaException {
+        SagaDefinition sagaDefinition = (location == null) ? null : loadedSagaDefinitions.get(location);
+        if (sagaDefinition == null) {
+            PipelineSpecification spec;
+            try {
+                spec = source.read();
+            } catch (Exception e) {
+                throw new SagaException(e);
+            }
+            SpecValidationResult result = spec.validate();
+            if (!result.isValid()) {
+                throw new SagaException("Saga specification (" + spec.getId() + ") is malformed: " + result);
+            }
+            sagaDefinition = fromPipelineSpecification(spec);
+            sagaDefinition.validate();
+            if (location != null) {
+                loadedSagaDefinitions.put(location, sagaDefinition);
+            }
+        }
+        return sagaDefinition;
+    }
+
+    private static SagaDefinition fromPipelineSpecification(PipelineSpecification spec) throws SagaException {
+        Map<String, PipelineSpecification.StageDefinition> stages = new HashMap<>();
+        spec.getStages().forEach(stageDef -> stages.put(stageDef.getId(), stageDef));
+        Map<String, PipelineSpecification.ParallelDefinition> parallels = new HashMap<>();
+        spec.getParallels().forEach(parallelDef -> parallels.put(parallelDef.getId(), parallelDef));
+
+        SagaDefinition sagaDefinition = new SagaDefinition(spec.getId());
+        for (String stepId : spec.getSteps()) {
+            PipelineSpecification.ParallelDefinition parallelDef = parallels.get(stepId);
+            if (parallelDef == null) {
+                sagaDefinition.addParallelSteps(step(spec, stages, stepId));
+                continue;
+            }
+            List<SagaDefinition.Step> parallelSteps = new ArrayList<>();
+            for (PipelineSpecification.PipelineDefinition pipelineDef : parallelDef.getParallelPipelines()) {
+                if (pipelineDef.getSteps().size() != 1) {
+                    throw new SagaException("Saga specification (" + spec.getId() + ") parallel pipeline " + pipelineDef.getId() + " must have exactly one stage.");
+                }
+                parallelSteps.add(step(spec, stages, pipelineDef.getSteps().get(0)));
+            }
+            sagaDefinition.addParallelSteps(parallelSteps.toArray(new SagaDefinition.Step[0]));
+        }
+        return sagaDefinition;
+    }
 
-    SagaDefinitionRepo(PersistenceSidecar persistenceSidecar) {
-        this.persistenceSidecar = persistenceSidecar;
+    private static SagaDefinition.Step step(PipelineSpecification spec, Map<String, PipelineSpecification.StageDefinition> stages, String stepId) throws SagaException {
+        PipelineSpecification.StageDefinition stageDef = stages.get(stepId);
+        if (stageDef == null) {
+            throw new SagaException("Saga specification (" + spec.getId() + ") step " + stepId + " is not a stage (or a parallel of stages).");
+        }
+        String compensation = stageDef.getCompensation();
+        return SagaDefinition.step(stageDef.getId(), stageDef.getId(), (compensation == null || compensation.isEmpty()) ? null : compensation);
     }
 }
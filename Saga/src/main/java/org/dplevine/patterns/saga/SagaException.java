@@ -0,0 +1,22 @@
+package org.dplevine.patterns.saga;
+
+/**
+ * The SagaException class is the custom exception class of the saga framework.
+ */
+public class SagaException extends Exception {
+
+    private Exception exception;
+
+    public SagaException(String description) {
+        super(description);
+    }
+
+    public SagaException(Exception exception) {
+        super(exception.getMessage());
+        this.exception = exception;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,135 @@
+package org.dplevine.patterns.saga;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * The SagaLogRecord class is a state transition of a saga as it is written to the saga log: the complete (and small) state of the saga
+ * right after the transition, i.e., its definition, status, where it is in its definition (the next group of steps to run and the
+ * steps that completed and were not compensated), its deadline and its context.  As every record is the
+ * whole state of a saga, replaying a log only needs the last record of every saga, and a log can be compacted down to those.
+ */
+public final class SagaLogRecord {
+    private static final int MAX_FAILURE_LENGTH = 1024;
+    static final int MAX_CONTEXT_LENGTH = 64 * 1024 * 1024;  // as large as a transport frame
+
+    private final String sagaId;
+    private final String definitionName;
+    private final Saga.Status status;
+    private final int nextGroup;  // the index of the next group of steps to run (forward)
+    private final BitSet completedSteps;  // the indexes of the steps completed and not compensated (i.e., still to compensate backward)
+    private final long deadline;  // epoch millis, 0 if the saga has no timeout (rescheduled when the saga is restored)
+    private final String failure;  // null if the saga did not fail
+    private final byte[] context;  // the SagaContext (encoded by the SagaContextCodec)
+
+    SagaLogRecord(String sagaId, String definitionName, Saga.Status status, int nextGroup, BitSet completedSteps, long deadline, String failure, byte[] context) {
+        this.sagaId = sagaId;
+        this.definitionName = definitionName;
+        this.status = status;
+        this.nextGroup = nextGroup;
+        this.completedSteps = completedSteps;
+        this.deadline = deadline;
+        this.failure = (failure != null && failure.length() > MAX_FAILURE_LENGTH) ? failure.substring(0, MAX_FAILURE_LENGTH) : failure;
+        this.context = context;
+    }
+
+    static SagaLogRecord of(Saga saga) throws SagaException {
+        Exception failure = saga.getFailure();
+        return new SagaLogRecord(saga.getSagaId(), saga.getSagaDefinition().getName(), saga.getStatus(), saga.getNextGroupIndex(),
+                saga.getCompletedSteps(), saga.getDeadline(), (failure == null) ? null : String.valueOf(failure.getMessage()), SagaContext.getCodec().encode(saga.getSagaContext()));
+    }
+
+    public String getSagaId() {
+        return sagaId;
+    }
+
+    public String getDefinitionName() {
+        return definitionName;
+    }
+
+    public Saga.Status getStatus() {
+        return status;
+    }
+
+    public int getNextGroup() {
+        return nextGroup;
+    }
+
+    public BitSet getCompletedSteps() {
+        return (BitSet) completedSteps.clone();
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    byte[] getContext() {
+        return context;
+    }
+
+    // the last record of a saga that ended, a log no longer needs to remember the saga
+    public boolean isTerminal() {
+        return status == Saga.Status.COMPLETED || status == Saga.Status.COMPENSATED || status == Saga.Status.FAILED;
+    }
+
+    // rebuilds the saga from its last record
+    Saga restore(SagaDefinition sagaDefinition) throws SagaException {
+        if (nextGroup > sagaDefinition.getStepGroups().size() || completedSteps.length() > sagaDefinition.getSteps().size()) {
+            throw new SagaException("Saga " + sagaId + " can not be restored, its definition (" + definitionName + ") changed.");
+        }
+        Saga saga = new Saga(sagaId, sagaDefinition, SagaContext.getCodec().decode(context));
+        saga.restore(status, nextGroup, completedSteps, deadline, (failure == null) ? null : new SagaException(failure));
+        return saga;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(sagaId);
+        out.writeUTF(definitionName);
+        out.writeByte(status.ordinal());
+        out.writeInt(nextGroup);
+        long[] completed = completedSteps.toLongArray();
+        out.writeShort(completed.length);
+        for (long word : completed) {
+            out.writeLong(word);
+        }
+        out.writeLong(deadline);
+        out.writeBoolean(failure != null);
+        if (failure != null) {
+            out.writeUTF(failure);
+        }
+        out.writeInt(context.length);
+        out.write(context);
+    }
+
+    public static SagaLogRecord read(DataInput in) throws IOException {
+        String sagaId = in.readUTF();
+        String definitionName = in.readUTF();
+        int status = in.readByte();
+        if (status < 0 || status >= Saga.Status.values().length) {
+            throw new IOException("Invalid saga status in saga log record: " + status);
+        }
+        int nextGroup = in.readInt();
+        long[] completed = new long[in.readUnsignedShort()];
+        for (int i = 0; i < completed.length; i++) {
+            completed[i] = in.readLong();
+        }
+        long deadline = in.readLong();
+        String failure = in.readBoolean() ? in.readUTF() : null;
+        int length = in.readInt();
+        if (length < 0 || length > MAX_CONTEXT_LENGTH) {
+            throw new IOException("Invalid saga context length in saga log record: " + length);
+        }
+        byte[] context = new byte[length];
+        in.readFully(context);
+        return new SagaLogRecord(sagaId, definitionName, Saga.Status.values()[status], nextGroup, BitSet.valueOf(completed), deadline, failure, context);
+    }
+
+    @Override
+    public String toString() {
+        return "SagaLogRecord{sagaId=" + sagaId + ", definition=" + definitionName + ", status=" + status + ", nextGroup=" + nextGroup + ", completedSteps=" + completedSteps + "}";
+    }
+}
@@ -1,44 +1,143 @@
 package org.dplevine.patterns.saga;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Vector;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The SagaParticipant class serves the saga transactions of its subclass (i.e., its methods annotated with @SagaTransactionDefinition)
+ * over the transport.  A participant serves nothing until it is started (see start()), so it is never called before its subclass
+ * constructor has finished.
+ */
 public class SagaParticipant {
     private static SagaParticipant sagaPartacipant;
-    private TransportSidecar transportSidecar;
+    private volatile TransportSidecar transportSidecar;  // set once started
     private Map<String, SagaTransaction> sagaTransactionMap = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<byte[]>> requestsInFlight = new ConcurrentHashMap<>();  // request id -> result
 
     protected SagaParticipant() throws Exception {
-        sagaPartacipant = new SagaParticipant();  // singleton
-        transportSidecar = new TransportSidecar(this);
+    }
 
-        // scan targeted packages for methods annotated with @SagaTransaction and create a SagaTransaction instance for each
+    // connects this participant to the transport and serves its saga transactions (once its constructor has finished)
+    public synchronized SagaParticipant start() throws Exception {
+        if (transportSidecar != null) {
+            return this;  // already started
+        }
+        synchronized (SagaParticipant.class) {
+            if (sagaPartacipant == null) {
+                sagaPartacipant = this;  // singleton (the first participant started in this process)
+            }
+        }
+
+        // scan this participant for methods annotated with @SagaTransactionDefinition and create a SagaTransaction instance for each
+        scanSagaTransactions();
+
+        transportSidecar = new TransportSidecar(this);
 
         // register the final list of sagaTransactions with the sagaCoordinator
         registerSagaTransactions();
+        return this;
     }
 
     public SagaParticipant getSagaParticipant() {
         return sagaPartacipant;
     }
 
-    void registerSagaTransaction(String sagaTransactionName, SagaTransaction sagaTransaction) throws Exception {
+    // the participant's class and its superclasses (an overriding method is registered once, under its most specific annotation)
+    private void scanSagaTransactions() throws SagaException {
+        Set<String> signatures = new HashSet<>();
+        for (Class<?> clazz = getClass(); clazz != null && clazz != SagaParticipant.class; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                SagaTransactionDefinition definition = method.getAnnotation(SagaTransactionDefinition.class);
+                if (method.isBridge() || method.isSynthetic() || definition == null) {
+                    continue;
+                }
+                if (signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()))) {
+                    registerSagaTransaction(definition.name(), new SagaTransaction(definition.name(), this, method));  // served all at once, once scanned
+                }
+            }
+        }
+    }
+
+    // registers a method of this participant (or a static method) taking a SagaContext as the named saga transaction, it is served
+    // once the participant is started (right away if it was started already)
+    protected final synchronized void registerSagaTransaction(String sagaTransactionName, Method method) throws SagaException {
+        registerSagaTransaction(sagaTransactionName, new SagaTransaction(sagaTransactionName, this, method));
+        if (transportSidecar != null) {
+            transportSidecar.registerSagaTransactions(List.of(sagaTransactionName));
+        }
+    }
+
+    void registerSagaTransaction(String sagaTransactionName, SagaTransaction sagaTransaction) throws SagaException {
         // check to see if the sagaTransactionName is already in the keyset, throw if it is --> must be unique
-        if (this.sagaTransactionMap.containsKey(sagaTransactionName)) {
-            throw new Exception("sagaTransactionName(" + sagaTransactionName + ") can only be associated with one method.");
+        if (this.sagaTransactionMap.putIfAbsent(sagaTransactionName, sagaTransaction) != null) {
+            throw new SagaException("sagaTransactionName(" + sagaTransactionName + ") can only be associated with one method.");
         }
-        this.sagaTransactionMap.put(sagaTransactionName, sagaTransaction);
     }
 
-    void registerSagaTransactions() {
+    void registerSagaTransactions() throws SagaException {
         // using the transportSidecar, register all sagaTransactions with the SagaCoordinator
+        if (!sagaTransactionMap.isEmpty()) {
+            transportSidecar.registerSagaTransactions(new ArrayList<>(sagaTransactionMap.keySet()));
+        }
+    }
+
+    TransportSidecar getTransportSidecar() {
+        return transportSidecar;
     }
 
     // Invoked by the sagaTransportSidecar
-    SagaContext dispatchRequest(String sagaTransactionName, SagaContext sagaContext) {
-        return sagaTransactionMap.get(sagaTransactionName).dispatchSagaTransaction(sagaContext);
+    // a duplicate request (i.e., with the id of a request already run, or running) is answered with the result of the first one; a
+    // duplicate of a request still running is answered once the first one ends, without waiting for it on the transport's thread
+    CompletableFuture<SagaContext> dispatchRequest(String sagaTransactionName, String requestId, SagaContext sagaContext) throws SagaException {
+        SagaTransaction sagaTransaction = sagaTransactionMap.get(sagaTransactionName);
+        if (sagaTransaction == null) {
+            throw new SagaException("sagaTransactionName(" + sagaTransactionName + ") is not registered with this participant.");
+        }
+        if (requestId == null) {
+            return CompletableFuture.completedFuture(sagaTransaction.dispatchSagaTransaction(sagaContext));
+        }
+
+        IdempotencyStore idempotencyStore = IdempotencyStore.getIdempotencyStore();
+        byte[] recorded = idempotencyStore.get(requestId);
+        if (recorded != null) {
+            return CompletableFuture.completedFuture(replay(recorded, sagaContext));
+        }
+        CompletableFuture<byte[]> running = new CompletableFuture<>();
+        CompletableFuture<byte[]> first = requestsInFlight.putIfAbsent(requestId, running);
+        if (first != null) {
+            return first.thenApply(result -> {  // the first one is still running (and fails the duplicates if it fails)
+                try {
+                    return replay(result, sagaContext);
+                } catch (SagaException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        try {
+            recorded = idempotencyStore.get(requestId);  // the first one may have ended in the meantime
+            if (recorded != null) {
+                running.complete(recorded);
+                return CompletableFuture.completedFuture(replay(recorded, sagaContext));
+            }
+            SagaContext result = sagaTransaction.dispatchSagaTransaction(sagaContext);
+            byte[] encoded = SagaContext.getCodec().encode(result);
+            idempotencyStore.put(requestId, encoded);
+            running.complete(encoded);
+            return CompletableFuture.completedFuture(result);
+        } catch (SagaException | RuntimeException e) {
+            running.completeExceptionally(e);  // a failed request is not recorded, the duplicates running meanwhile fail with it
+            throw e;
+        } finally {
+            requestsInFlight.remove(requestId, running);
+        }
     }
-}
 
+    // the request's context, updated with the recorded result (so its changes are still relative to the request)
+    static SagaContext replay(byte[] recorded, SagaContext sagaContext) throws SagaException {
+        sagaContext.update(SagaContext.getCodec().decode(recorded));
+        return sagaContext;
+    }
+}
@@ -0,0 +1,11 @@
+package org.dplevine.patterns.saga;
+
+/**
+ * The SagaTimeoutException class is the failure of a step (or of a saga) that did not complete before its deadline.
+ */
+public class SagaTimeoutException extends SagaException {
+
+    public SagaTimeoutException(String description) {
+        super(description);
+    }
+}
@@ -1,12 +1,33 @@
 package org.dplevine.patterns.saga;
 
+import java.lang.invoke.*;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
+/**
+ * The SagaTransaction class binds a saga transaction name to the participant method implementing it.  The method takes the
+ * SagaContext and either returns it (possibly updated) or returns nothing (void), in which case the context passed in is returned.
+ *
+ * The method is bound to an Invoker once, when the transaction is registered, so dispatching does not go through reflection:
+ *     1. generated with LambdaMetafactory (i.e., a direct call, for public methods of public classes returning a SagaContext)
+ *     2. a MethodHandle bound to the participant (e.g., void or non-public methods)
+ *     3. reflection (when the method can not be unreflected)
+ */
 final class SagaTransaction {
+
+    @FunctionalInterface
+    interface Invoker {
+        SagaContext invoke(SagaContext context) throws Exception;
+    }
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(SagaContext.class, SagaContext.class);
+
     private SagaParticipant sagaParticipant;
     private String transactionName;
     private Class<?> transactionClass;
     private Method transactionMethod;
+    private Invoker invoker = context -> context;  // nothing bound to this transaction
 
 
     SagaTransaction(String transactionName, SagaParticipant sagaParticipant) {
@@ -14,7 +35,108 @@ final class SagaTransaction {
         this.sagaParticipant = sagaParticipant;
     }
 
-    SagaContext dispatchSagaTransaction(SagaContext context) {
-        return context;
+    SagaTransaction(String transactionName, SagaParticipant sagaParticipant, Method transactionMethod) throws SagaException {
+        this(transactionName, sagaParticipant);
+        Class<?>[] parameterTypes = transactionMethod.getParameterTypes();
+        if (parameterTypes.length != 1 || !parameterTypes[0].equals(SagaContext.class)) {
+            throw new SagaException("Saga transaction (" + transactionName + ") method " + transactionMethod.getName() + " must take a single SagaContext.");
+        }
+        if (!transactionMethod.getReturnType().equals(void.class) && !SagaContext.class.isAssignableFrom(transactionMethod.getReturnType())) {
+            throw new SagaException("Saga transaction (" + transactionName + ") method " + transactionMethod.getName() + " must return a SagaContext or void.");
+        }
+        if (!Modifier.isStatic(transactionMethod.getModifiers()) && !transactionMethod.getDeclaringClass().isInstance(sagaParticipant)) {
+            throw new SagaException("Saga transaction (" + transactionName + ") method " + transactionMethod.getName() + " must be static or a method of the saga participant.");
+        }
+        this.transactionMethod = transactionMethod;
+        this.transactionClass = transactionMethod.getDeclaringClass();
+        this.invoker = bind();
+    }
+
+    String getTransactionName() {
+        return transactionName;
+    }
+
+    SagaContext dispatchSagaTransaction(SagaContext context) throws SagaException {
+        try {
+            SagaContext result = invoker.invoke(context);
+            return (result == null) ? context : result;
+        } catch (SagaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SagaException(e);
+        }
+    }
+
+    private Invoker bind() throws SagaException {
+        boolean isStatic = Modifier.isStatic(transactionMethod.getModifiers());
+        MethodHandle method = null;
+        if (Modifier.isPublic(transactionMethod.getModifiers()) && Modifier.isPublic(transactionClass.getModifiers())) {
+            try {
+                method = MethodHandles.publicLookup().unreflect(transactionMethod);
+            } catch (IllegalAccessException e) {
+                // not accessible, try below
+            }
+        }
+
+        if (method != null && !transactionMethod.getReturnType().equals(void.class) && isVisible(transactionClass)) {
+            try {
+                return lambdaInvoker(method, isStatic);
+            } catch (Throwable e) {
+                // fall through to the method handle
+            }
+        }
+        if (method == null) {
+            try {
+                transactionMethod.setAccessible(true);
+                method = MethodHandles.lookup().unreflect(transactionMethod);
+            } catch (RuntimeException | IllegalAccessException e) {
+                return reflectiveInvoker(isStatic);
+            }
+        }
+        return methodHandleInvoker(method, isStatic);
+    }
+
+    // the generated lambda class is defined in this library, so it can only link against classes its class loader can see
+    private static boolean isVisible(Class<?> clazz) {
+        try {
+            return Class.forName(clazz.getName(), false, SagaTransaction.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private Invoker lambdaInvoker(MethodHandle method, boolean isStatic) throws Throwable {
+        MethodType factoryType = isStatic ? MethodType.methodType(Invoker.class) : MethodType.methodType(Invoker.class, transactionClass);
+        CallSite callSite = LambdaMetafactory.metafactory(MethodHandles.lookup(), "invoke", factoryType, INVOKER_TYPE, method, INVOKER_TYPE);
+        return isStatic ? (Invoker) callSite.getTarget().invoke() : (Invoker) callSite.getTarget().invoke(sagaParticipant);
+    }
+
+    private Invoker methodHandleInvoker(MethodHandle method, boolean isStatic) {
+        MethodHandle bound = isStatic ? method : method.bindTo(sagaParticipant);
+        if (transactionMethod.getReturnType().equals(void.class)) {
+            bound = MethodHandles.foldArguments(MethodHandles.identity(SagaContext.class), bound);  // void methods return the context passed in
+        }
+        MethodHandle invocation = bound.asType(INVOKER_TYPE);
+        return context -> {
+            try {
+                return (SagaContext) invocation.invokeExact(context);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SagaException(e.toString());
+            }
+        };
+    }
+
+    private Invoker reflectiveInvoker(boolean isStatic) {
+        Object target = isStatic ? null : sagaParticipant;
+        return context -> {
+            try {
+                return (SagaContext) transactionMethod.invoke(target, context);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw (cause instanceof Exception) ? (Exception) cause : e;
+            }
+        };
     }
 }
@@ -0,0 +1,12 @@
+package org.dplevine.patterns.saga;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SagaTransactionDefinition {
+    String name();
+}
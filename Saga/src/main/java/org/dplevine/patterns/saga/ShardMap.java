@@ -0,0 +1,125 @@
+package org.dplevine.patterns.saga;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The ShardMap class is the static map of the coordinator processes sharing the sagas (the multi-process mode of the SagaCoordinator).
+ * The shard map property lists the address of every coordinator process ("host:port,host:port,..."), the process property is the
+ * position of this process in that list, and every process runs the same number of shards: process k owns the shards k * shards to
+ * (k + 1) * shards - 1, and a saga started by a process belongs to the shard its id hashes to, wherever that shard is.
+ *
+ * A saga of another process's shard is forwarded to that process over a TcpTransportSession: every process listens on its address for
+ * the processes serving their shards, and serves its own shards to every other process as the saga transaction of each shard (see
+ * shardTransactionName()).  A forwarded request is answered once the saga ended, with its context; no thread waits for it meanwhile,
+ * so any number of forwarded sagas of one process run at once in another.  Saga definitions must be registered in every process.
+ */
+final class ShardMap implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardMap.class);
+
+    private final List<InetSocketAddress> addresses;  // the coordinator processes
+    private final int process;  // this process's position in the map
+    private final int shardsPerProcess;
+    private final TcpTransportSession forwardingSession;  // forwards sagas to the processes serving their shards
+    private final List<TcpTransportSession> servingSessions = new ArrayList<>();  // serves this process's shards to the other processes
+
+    // ctors
+    private ShardMap(List<InetSocketAddress> addresses, int process, int shardsPerProcess) throws IOException, SagaException {
+        this.addresses = addresses;
+        this.process = process;
+        this.shardsPerProcess = shardsPerProcess;
+        forwardingSession = new TcpTransportSession(addresses.get(process));
+        forwardingSession.start(true);
+    }
+
+    // the map configured by SHARD_MAP_PROPERTY and PROCESS_PROPERTY (see SagaCoordinator), null if the sagas are not shared with other processes
+    static ShardMap fromProperties(int shardsPerProcess) throws SagaException {
+        String shardMap = System.getProperty(SagaCoordinator.SHARD_MAP_PROPERTY);
+        if (shardMap == null || shardMap.isBlank()) {
+            return null;
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String address : shardMap.split(",")) {
+            int separator = address.trim().lastIndexOf(':');
+            if (separator < 1) {
+                throw new SagaException("Invalid coordinator address (host:port) in the shard map: " + address);
+            }
+            try {
+                addresses.add(new InetSocketAddress(address.trim().substring(0, separator), Integer.parseInt(address.trim().substring(separator + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new SagaException("Invalid coordinator address (host:port) in the shard map: " + address);
+            }
+        }
+        Integer process = Integer.getInteger(SagaCoordinator.PROCESS_PROPERTY);
+        if (process == null || process < 0 || process >= addresses.size()) {
+            throw new SagaException(SagaCoordinator.PROCESS_PROPERTY + " must be the position of this process in the shard map (0 to " + (addresses.size() - 1) + ").");
+        }
+        try {
+            return new ShardMap(addresses, process, shardsPerProcess);
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+    }
+
+    // the saga transaction of a shard, served by the process owning the shard
+    static String shardTransactionName(int shard) {
+        return "<saga coordinator shard " + shard + ">";
+    }
+
+    int getShardCount() {
+        return addresses.size() * shardsPerProcess;
+    }
+
+    int getFirstLocalShard() {
+        return process * shardsPerProcess;
+    }
+
+    // serves this process's shards to every other process (in the background, as the other processes may not be started yet)
+    void serve(TransportSession.RequestHandler handler) throws SagaException {
+        List<String> shardTransactionNames = new ArrayList<>();
+        for (int shard = getFirstLocalShard(); shard < getFirstLocalShard() + shardsPerProcess; shard++) {
+            shardTransactionNames.add(shardTransactionName(shard));
+        }
+        for (int peer = 0; peer < addresses.size(); peer++) {
+            if (peer == process) {
+                continue;
+            }
+            InetSocketAddress address = addresses.get(peer);
+            try {
+                TcpTransportSession servingSession = new TcpTransportSession(address);
+                servingSession.start(false);
+                servingSessions.add(servingSession);
+                Thread thread = new Thread(() -> {
+                    try {
+                        servingSession.serve(shardTransactionNames, handler);
+                    } catch (SagaException e) {
+                        logger.error("Could not serve the saga coordinator shards to " + address + ": " + e.getLocalizedMessage());
+                    }
+                }, "saga-shard-map-connect: " + address);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                throw new SagaException(e);
+            }
+        }
+    }
+
+    // sends the saga to the process owning its shard, completes with the context of the saga once it ended there
+    CompletableFuture<SagaContext> forward(int shard, String requestId, SagaContext sagaContext) {
+        return forwardingSession.request(shardTransactionName(shard), requestId, sagaContext);
+    }
+
+    @Override
+    public void close() throws SagaException {
+        forwardingSession.close();
+        for (TcpTransportSession servingSession : servingSessions) {
+            servingSession.close();
+        }
+    }
+}
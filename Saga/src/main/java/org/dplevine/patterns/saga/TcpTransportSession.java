@@ -0,0 +1,512 @@
+package org.dplevine.patterns.saga;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TcpTransportSession class is a transport between a coordinator and participants running in different processes on one host.
+ * The coordinator listens on a local port; every participant opens one connection to it and registers the saga transactions it serves.
+ *
+ * Requests and replies are frames tagged with a correlation id, so one connection carries any number of concurrent requests (i.e.,
+ * they are pipelined) and replies may come back in any order.  Channels are non-blocking: frames are written by the thread sending
+ * them (frames queued meanwhile are written together with one gathering write) and one selector thread per session reads frames and
+ * finishes writes the socket could not take at once.  Participants invoke saga transactions on a separate pool so a slow transaction
+ * never holds up the connection.
+ *
+ * A request carries a copy of the saga's context, and its reply is applied to that copy (never to the saga's own context), so the saga's
+ * context is only updated by its coordinator shard.  The coordinator only accepts connections from the hosts in PEERS_PROPERTY (the
+ * loopback addresses by default), and a frame that can not be read closes its connection.
+ *
+ * Frame layout:  int length (of what follows) | byte type | long correlation id | payload
+ *     REGISTER:  int count | the saga transaction names
+ *     REQUEST:   saga transaction name | request id (empty if none) | int length | the SagaContext (encoded by the SagaContextCodec)
+ *     REPLY:     int length | the changes the saga transaction made to the SagaContext (a SagaContextCodec delta)
+ *     ERROR:     the error message
+ */
+public final class TcpTransportSession extends TransportSession {
+
+    public static final String HOST_PROPERTY = "org.dplevine.patterns.saga.transport.host";
+    public static final String PORT_PROPERTY = "org.dplevine.patterns.saga.transport.port";
+    public static final String PEERS_PROPERTY = "org.dplevine.patterns.saga.transport.peers";  // the participant hosts, comma separated
+    public static final int DEFAULT_PORT = 7500;
+    private static final byte REGISTER = 1;
+    private static final byte REQUEST = 2;
+    private static final byte REPLY = 3;
+    private static final byte ERROR = 4;
+    private static final int FRAME_HEADER_SIZE = 1 + 8;
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final int CONNECT_ATTEMPTS = 50;
+    private static final long CONNECT_RETRY_MILLIS = 200;
+    private static final int HANDLER_THREADPOOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final Logger logger = LoggerFactory.getLogger(TcpTransportSession.class);
+
+    // a request waiting for its reply, which is applied to the context of the request (i.e., a copy of the saga's context)
+    private static final class PendingRequest {
+        private final SagaContext sagaContext;
+        private final CompletableFuture<SagaContext> reply = new CompletableFuture<>();
+
+        PendingRequest(SagaContext sagaContext) {
+            this.sagaContext = sagaContext;
+        }
+    }
+
+    // a connection between the coordinator and one participant
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>();  // coordinator side
+        private final Set<String> sagaTransactionNames = ConcurrentHashMap.newKeySet();  // coordinator side
+        private ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        private volatile SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(ByteBuffer frame) {
+            outbound.add(frame);
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (key != null) {
+                    flush(this);  // write on the sending thread, the selector only takes over when the socket is full
+                } else {
+                    onSelector(() -> flush(this));  // not registered with the selector yet
+                }
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Set<InetAddress> peers;  // coordinator side: the hosts participants may connect from (empty for the loopback addresses)
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService handlerExecutor = Executors.newFixedThreadPool(HANDLER_THREADPOOL_SIZE, runnable -> {
+        Thread thread = new Thread(runnable, "saga-tcp-transport-handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong correlationIds = new AtomicLong();
+    private final Map<String, RequestHandler> handlers = new ConcurrentHashMap<>();  // the saga transactions served by this session
+    private final Map<String, Connection> routes = new ConcurrentHashMap<>();  // coordinator side: saga transaction name -> participant
+    private boolean coordinator = false;
+    private ServerSocketChannel server = null;  // coordinator side
+    private Connection coordinatorConnection = null;  // participant side
+    private volatile boolean closed = false;
+
+    // ctors
+    public TcpTransportSession() throws IOException {
+        this(new InetSocketAddress(System.getProperty(HOST_PROPERTY, "127.0.0.1"), Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT)));
+    }
+
+    public TcpTransportSession(InetSocketAddress address) throws IOException {
+        this.address = address;
+        this.peers = peers(System.getProperty(PEERS_PROPERTY, ""));
+        selector = Selector.open();
+        selectorThread = new Thread(this::select, "saga-tcp-transport-selector: " + address);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    private static Set<InetAddress> peers(String hosts) throws IOException {
+        Set<InetAddress> peers = new HashSet<>();
+        for (String host : hosts.split(",")) {
+            if (!host.isBlank()) {
+                peers.addAll(Arrays.asList(InetAddress.getAllByName(host.trim())));
+            }
+        }
+        return peers;
+    }
+
+    private boolean isKnownPeer(InetAddress peer) {
+        return peer.isLoopbackAddress() || peers.contains(peer);
+    }
+
+    // the requests waiting for their replies, on every connection
+    int getPendingRequestCount() {
+        int count = 0;
+        for (Connection connection : new HashSet<>(routes.values())) {
+            count += connection.pending.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void start(boolean coordinator) throws SagaException {
+        this.coordinator = coordinator;
+        if (coordinator) {
+            try {
+                server = ServerSocketChannel.open();
+                server.bind(address);
+                server.configureBlocking(false);
+            } catch (IOException e) {
+                throw new SagaException(e);
+            }
+            onSelector(() -> register(server, SelectionKey.OP_ACCEPT, null));
+        }
+    }
+
+    @Override
+    public void serve(Collection<String> sagaTransactionNames, RequestHandler handler) throws SagaException {
+        sagaTransactionNames.forEach(sagaTransactionName -> handlers.put(sagaTransactionName, handler));
+        if (coordinator) {
+            return;  // the coordinator serves its own saga transactions locally
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(sagaTransactionNames.size());
+            for (String sagaTransactionName : sagaTransactionNames) {
+                out.writeUTF(sagaTransactionName);
+            }
+            connectToCoordinator().send(frame(REGISTER, 0, bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new SagaException(e);
+        }
+    }
+
+    private synchronized Connection connectToCoordinator() throws IOException {
+        if (coordinatorConnection == null) {
+            SocketChannel channel = connect();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            onSelector(() -> connection.key = register(channel, SelectionKey.OP_READ, connection));
+            coordinatorConnection = connection;
+        }
+        return coordinatorConnection;
+    }
+
+    // the participant may be started before the coordinator, so connecting is retried for a while
+    private SocketChannel connect() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return SocketChannel.open(address);
+            } catch (ConnectException e) {
+                if (attempt == CONNECT_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<SagaContext> request(String sagaTransactionName, String requestId, SagaContext sagaContext) {
+        Connection connection = routes.get(sagaTransactionName);
+        if (connection == null) {
+            RequestHandler handler = handlers.get(sagaTransactionName);
+            if (handler == null) {
+                return CompletableFuture.failedFuture(new SagaException("No saga participant serves sagaTransactionName(" + sagaTransactionName + ")."));
+            }
+            SagaContext requestContext = sagaContext.copy();  // the handler never touches the saga's own context
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return handler.handle(sagaTransactionName, requestId, requestContext);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, handlerExecutor).thenCompose(reply -> reply);
+        }
+
+        long correlationId = correlationIds.incrementAndGet();
+        PendingRequest request = new PendingRequest(sagaContext.copy());  // the reply is applied to the copy (on the selector thread)
+        request.reply.whenComplete((reply, e) -> connection.pending.remove(correlationId, request));  // replied, cancelled or timed out
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(sagaTransactionName);
+            out.writeUTF((requestId == null) ? "" : requestId);
+            writeContext(SagaContext.getCodec().encode(request.sagaContext), out);  // the whole context, participants keep nothing between requests
+            connection.pending.put(correlationId, request);
+            if (request.reply.isDone()) {
+                connection.pending.remove(correlationId);  // cancelled meanwhile
+                return request.reply;
+            }
+            connection.send(frame(REQUEST, correlationId, bytes.toByteArray()));
+        } catch (IOException | SagaException e) {
+            request.reply.completeExceptionally(e);
+        }
+        return request.reply;
+    }
+
+    private static void writeContext(byte[] context, DataOutputStream out) throws IOException {
+        out.writeInt(context.length);
+        out.write(context);
+    }
+
+    private static byte[] readContext(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {  // the payload of a frame is all in memory
+            throw new IOException("Invalid saga context length: " + length);
+        }
+        byte[] context = new byte[length];
+        in.readFully(context);
+        return context;
+    }
+
+    private static ByteBuffer frame(byte type, long correlationId, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(FRAME_HEADER_SIZE + payload.length).put(type).putLong(correlationId).put(payload).flip();
+        return frame;
+    }
+
+    // the selector thread
+    private void onSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private SelectionKey register(SelectableChannel channel, int ops, Connection connection) {
+        try {
+            return channel.register(selector, ops, connection);
+        } catch (ClosedChannelException e) {
+            logger.error("Could not register a closed channel with the transport selector");
+            return null;
+        }
+    }
+
+    private void select() {
+        while (!closed) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Saga transport selector failure: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null && !isKnownPeer(((InetSocketAddress) channel.getRemoteAddress()).getAddress())) {
+            logger.warn("Refused a saga transport connection from an unknown peer: " + channel.getRemoteAddress());
+            channel.close();
+        } else if (channel != null) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = register(channel, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    // writes every frame waiting to be sent (gathering write), waits for the channel to be writable again if it could not take them all
+    private void flush(Connection connection) {
+        try {
+            while (true) {
+                List<ByteBuffer> frames = new ArrayList<>();
+                for (ByteBuffer frame : connection.outbound) {
+                    frames.add(frame);
+                }
+                if (frames.isEmpty()) {
+                    connection.flushScheduled.set(false);
+                    if (connection.outbound.isEmpty() || !connection.flushScheduled.compareAndSet(false, true)) {
+                        if ((connection.key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                            connection.key.interestOps(SelectionKey.OP_READ);
+                        }
+                        return;
+                    }
+                    continue;  // a frame was queued while the flush was being unscheduled
+                }
+                connection.channel.write(frames.toArray(new ByteBuffer[0]));
+                for (ByteBuffer frame : frames) {
+                    if (frame.hasRemaining()) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    connection.outbound.poll();
+                }
+            }
+        } catch (IOException | CancelledKeyException e) {
+            close(connection, e);
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.readBuffer) < 0) {
+                close(connection, new EOFException("connection closed"));
+                return;
+            }
+            ByteBuffer buffer = connection.readBuffer;
+            buffer.flip();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length < FRAME_HEADER_SIZE || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (buffer.remaining() < 4 + length) {
+                    if (buffer.capacity() < 4 + length) {  // make room for the whole frame
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(buffer);
+                        larger.flip();
+                        buffer = larger;
+                    }
+                    break;
+                }
+                buffer.getInt();
+                byte type = buffer.get();
+                long correlationId = buffer.getLong();
+                byte[] payload = new byte[length - FRAME_HEADER_SIZE];
+                buffer.get(payload);
+                receive(connection, type, correlationId, new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+            buffer.compact();
+            connection.readBuffer = buffer;
+        } catch (IOException | SagaException | RuntimeException e) {  // e.g., a malformed frame
+            close(connection, e);
+        }
+    }
+
+    private void receive(Connection connection, byte type, long correlationId, DataInputStream in) throws IOException, SagaException {
+        switch (type) {
+            case REGISTER:
+                if (!coordinator) {
+                    throw new IOException("Only the coordinator accepts registrations");
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    String sagaTransactionName = in.readUTF();
+                    connection.sagaTransactionNames.add(sagaTransactionName);
+                    routes.put(sagaTransactionName, connection);
+                }
+                break;
+            case REQUEST:
+                String sagaTransactionName = in.readUTF();
+                String requestId = in.readUTF();
+                SagaContext sagaContext = SagaContext.getCodec().decode(readContext(in));
+                handlerExecutor.execute(() -> handle(connection, correlationId, sagaTransactionName, requestId.isEmpty() ? null : requestId, sagaContext));
+                break;
+            case REPLY:
+                PendingRequest request = connection.pending.remove(correlationId);
+                if (request != null) {
+                    try {
+                        SagaContext.getCodec().applyDelta(request.sagaContext, readContext(in));
+                        request.reply.complete(request.sagaContext);
+                    } catch (SagaException e) {
+                        request.reply.completeExceptionally(e);
+                    }
+                }
+                break;
+            case ERROR:
+                PendingRequest failed = connection.pending.remove(correlationId);
+                if (failed != null) {
+                    failed.reply.completeExceptionally(new SagaException(in.readUTF()));
+                }
+                break;
+            default:
+                throw new IOException("Invalid frame type: " + type);
+        }
+    }
+
+    // participant side: invokes the saga transaction and sends back the reply (or the error) once the handler's future completes
+    private void handle(Connection connection, long correlationId, String sagaTransactionName, String requestId, SagaContext sagaContext) {
+        CompletableFuture<SagaContext> reply;
+        try {
+            RequestHandler handler = handlers.get(sagaTransactionName);
+            if (handler == null) {
+                throw new SagaException("sagaTransactionName(" + sagaTransactionName + ") is not served by this participant.");
+            }
+            reply = handler.handle(sagaTransactionName, requestId, sagaContext);
+        } catch (Exception e) {
+            reply = CompletableFuture.failedFuture(e);
+        }
+        reply.whenComplete((result, e) -> reply(connection, correlationId, sagaContext, result, e));
+    }
+
+    private void reply(Connection connection, long correlationId, SagaContext sagaContext, SagaContext result, Throwable failure) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte type = REPLY;
+        try {
+            if (failure != null) {
+                throw (failure instanceof CompletionException && failure.getCause() != null) ? failure.getCause() : failure;
+            }
+            writeContext(SagaContext.getCodec().encodeDelta((result == null) ? sagaContext : result), out);  // only what the transaction changed
+        } catch (Throwable e) {
+            type = ERROR;
+            bytes.reset();
+            try {
+                out.writeUTF(String.valueOf(e.getMessage()));
+            } catch (IOException ignored) {
+                // cannot happen when writing to memory
+            }
+        }
+        connection.send(frame(type, correlationId, bytes.toByteArray()));
+    }
+
+    private void close(Connection connection, Exception cause) {
+        logger.warn("Saga transport connection closed: " + cause.getLocalizedMessage());
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        connection.sagaTransactionNames.forEach(sagaTransactionName -> routes.remove(sagaTransactionName, connection));
+        connection.pending.values().forEach(request -> request.reply.completeExceptionally(new SagaException("The saga participant connection was closed.")));
+        connection.pending.clear();
+        synchronized (this) {
+            if (coordinatorConnection == connection) {
+                coordinatorConnection = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SagaException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (InterruptedException | IOException e) {
+            throw new SagaException(e);
+        } finally {
+            handlerExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.dplevine.patterns.saga;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The TimerWheel class is a hierarchical timing wheel: the deadlines of the saga coordinator (e.g., step timeouts), of which there can
+ * be millions pending at once, without a scheduled task (or a heap entry) per deadline.
+ *
+ * Time advances in ticks.  Level 0 has one bucket per tick for the next WHEEL_SIZE ticks, level 1 one bucket per WHEEL_SIZE ticks for the
+ * next WHEEL_SIZE^2 ticks, and so on; when a level's bucket comes due its timeouts cascade down to the finer levels, and the timeouts of
+ * a level 0 bucket expire.  Every timeout is in a doubly linked bucket, so scheduling and cancelling are O(1), and a tick only touches
+ * the timeouts that are due (or cascade).
+ *
+ * Only the ticker thread touches the wheel: schedule() and cancel() hand their timeout to it through lock-free queues, and expired
+ * tasks are run on the given executor so a slow task never delays the ticks.
+ */
+final class TimerWheel implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;  // buckets per level
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 5;  // WHEEL_SIZE^LEVELS ticks ahead (later deadlines wait at the last level and cascade again)
+    static final long DEFAULT_TICK_MILLIS = 10;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    static final class Timeout {
+        private final TimerWheel timerWheel;
+        private final long deadline;  // the tick it expires at
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private Timeout previous;  // in its bucket (ticker thread only)
+        private Timeout next;
+        private Timeout[] bucketHeads;  // the level holding it, null if not in the wheel (ticker thread only)
+        private int bucket;
+
+        Timeout(TimerWheel timerWheel, long deadline, Runnable task) {
+            this.timerWheel = timerWheel;
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        // false if the timeout already expired (or was cancelled)
+        boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            timerWheel.cancelled.add(this);  // unlinked from its bucket by the ticker
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    private final long tickNanos;
+    private final long startTime = System.nanoTime();
+    private final Executor executor;
+    private final Timeout[][] levels = new Timeout[LEVELS][WHEEL_SIZE];
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread ticker;
+    private volatile boolean closed = false;
+    private long currentTick = 0;  // the last tick processed (ticker thread only)
+
+    // ctors
+    TimerWheel(Executor executor) {
+        this(executor, DEFAULT_TICK_MILLIS);
+    }
+
+    TimerWheel(Executor executor, long tickMillis) {
+        this.executor = executor;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        ticker = new Thread(this::tick, "saga-timer-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    // runs the task on the executor once the delay elapsed (rounded up to the next tick), unless the timeout is cancelled first
+    Timeout schedule(long delayMillis, Runnable task) {
+        long deadline = (System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)) + tickNanos - 1) / tickNanos;
+        Timeout timeout = new Timeout(this, deadline, task);
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    // the number of timeouts neither expired nor cancelled
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    private void tick() {
+        while (!closed) {
+            long now = (System.nanoTime() - startTime) / tickNanos;
+            while (currentTick < now) {
+                currentTick++;
+                addScheduled();
+                removeCancelled();
+                for (int level = LEVELS - 1; level > 0; level--) {  // coarsest first, so cascaded timeouts can cascade again below
+                    if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                        cascade(level, (int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                    }
+                }
+                expire(levels[0], (int) currentTick & WHEEL_MASK);
+            }
+            addScheduled();  // timeouts due now expire at once rather than one tick later
+            removeCancelled();
+            LockSupport.parkNanos(startTime + (currentTick + 1) * tickNanos - System.nanoTime());
+        }
+    }
+
+    private void addScheduled() {
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (!timeout.isCancelled()) {
+                add(timeout);
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+            if (timeout.bucketHeads != null) {
+                unlink(timeout);
+            }
+            pending.decrementAndGet();
+        }
+    }
+
+    // the level is the finest one whose buckets reach the deadline, the bucket is the deadline's position in that level
+    private void add(Timeout timeout) {
+        long ticks = timeout.deadline - currentTick;
+        if (ticks <= 0) {
+            expire(timeout);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && ticks >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        long position = (level == LEVELS - 1 && ticks >= (1L << (WHEEL_BITS * LEVELS))) ? currentTick - 1 : timeout.deadline;  // too far: the last bucket to come due
+        int bucket = (int) (position >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        Timeout[] bucketHeads = levels[level];
+        timeout.bucketHeads = bucketHeads;
+        timeout.bucket = bucket;
+        timeout.previous = null;
+        timeout.next = bucketHeads[bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        bucketHeads[bucket] = timeout;
+    }
+
+    private static void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            timeout.bucketHeads[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.bucketHeads = null;
+        timeout.previous = null;
+        timeout.next = null;
+    }
+
+    private void cascade(int level, int bucket) {
+        Timeout timeout = levels[level][bucket];
+        levels[level][bucket] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.bucketHeads = null;
+            timeout.previous = null;
+            timeout.next = null;
+            add(timeout);
+            timeout = next;
+        }
+    }
+
+    private void expire(Timeout[] bucketHeads, int bucket) {
+        Timeout timeout = bucketHeads[bucket];
+        bucketHeads[bucket] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.bucketHeads = null;
+            timeout.previous = null;
+            timeout.next = null;
+            expire(timeout);
+            timeout = next;
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+            pending.decrementAndGet();
+            try {
+                executor.execute(timeout.task);
+            } catch (RuntimeException e) {
+                logger.error("Could not run an expired timeout: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+}
@@ -1,13 +1,30 @@
 package org.dplevine.patterns.saga;
 
 final class TransportFactory {
+    static final String TRANSPORT_SESSION_PROPERTY = "org.dplevine.patterns.saga.transport.session";
+
+    private final Class<? extends TransportSession> transportSessionClass;
 
     TransportFactory() throws Exception {
         // load the class associated with the configured transport - the fully qualified class name should be specified in an application property
+        String className = System.getProperty(TRANSPORT_SESSION_PROPERTY, InProcessTransportSession.class.getName());
+        try {
+            Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            if (!TransportSession.class.isAssignableFrom(clazz)) {
+                throw new SagaException("Transport session class " + className + " does not extend TransportSession.");
+            }
+            transportSessionClass = clazz.asSubclass(TransportSession.class);
+        } catch (ClassNotFoundException e) {
+            throw new SagaException("Could not load the transport session class: " + className);
+        }
     }
 
-    TransportSession createSession() {
+    TransportSession createSession() throws SagaException {
         // using the loaded transport factory, ask it to create and return a new transport session
-        return null;
+        try {
+            return transportSessionClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SagaException("Could not create a transport session of class " + transportSessionClass.getName() + ": " + e);
+        }
     }
 }
@@ -1,4 +1,36 @@
 package org.dplevine.patterns.saga;
 
-abstract class TransportSession {
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The TransportSession class is the pluggable request/reply transport between the saga coordinator and the saga participants.
+ * Participants serve the saga transactions they implement, and the coordinator sends requests for saga transactions, which the
+ * transport routes to the participant serving them.  Requests are asynchronous, so many of them can be in flight at once.
+ *
+ * Implementations must have a public no-arg constructor to be created by the TransportFactory (see TRANSPORT_SESSION_PROPERTY).
+ */
+public abstract class TransportSession implements AutoCloseable {
+
+    // completes with the reply to the request: a handler waiting for something (e.g., a duplicate request waiting for the first one to
+    // end) returns a future completed later, rather than holding up the transport's thread
+    @FunctionalInterface
+    public interface RequestHandler {
+        CompletableFuture<SagaContext> handle(String sagaTransactionName, String requestId, SagaContext sagaContext) throws Exception;
+    }
+
+    // called once, before any other method, with whether the session belongs to the saga coordinator (or to a participant)
+    public void start(boolean coordinator) throws SagaException {
+    }
+
+    // participant side: serves the requests for the saga transactions (i.e., makes them known to the coordinator)
+    public abstract void serve(Collection<String> sagaTransactionNames, RequestHandler handler) throws SagaException;
+
+    // coordinator side: sends the request to the participant serving the saga transaction, completes with its reply
+    // (the request id identifies the dispatch, a request sent again with the same id is a duplicate, see IdempotencyStore)
+    public abstract CompletableFuture<SagaContext> request(String sagaTransactionName, String requestId, SagaContext sagaContext);
+
+    @Override
+    public void close() throws SagaException {
+    }
 }
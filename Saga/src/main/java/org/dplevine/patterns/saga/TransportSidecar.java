@@ -1,6 +1,9 @@
 package org.dplevine.patterns.saga;
 
-final class TransportSidecar {
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+final class TransportSidecar implements AutoCloseable {
     private final TransportFactory transportFactory;
     private final TransportSession transportSession;
     private SagaParticipant sagaParticipant;
@@ -9,9 +12,21 @@ final class TransportSidecar {
         this.sagaParticipant = sagaParticipant;
         transportFactory = new TransportFactory();
         transportSession = transportFactory.createSession();
+        transportSession.start(sagaParticipant instanceof SagaCoordinator);
     }
 
     // method to register saga transactions
+    void registerSagaTransactions(Collection<String> sagaTransactionNames) throws SagaException {
+        transportSession.serve(sagaTransactionNames, sagaParticipant::dispatchRequest);
+    }
 
-    // method to forward saga transaction dispatch calls to the saga participant
+    // method to forward saga transaction dispatch calls to the saga participant (serving the saga transaction)
+    CompletableFuture<SagaContext> dispatchSagaTransaction(String sagaTransactionName, String requestId, SagaContext sagaContext) {
+        return transportSession.request(sagaTransactionName, requestId, sagaContext);
+    }
+
+    @Override
+    public void close() throws SagaException {
+        transportSession.close();
+    }
 }
@@ -0,0 +1,174 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BinarySagaContextCodecTest {
+    private static class Gadget implements Serializable {  // e.g., a class that does something when it is deserialized
+    }
+
+    private SagaContextSchema schema;
+    private BinarySagaContextCodec codec;
+    private SagaContext sagaContext;
+
+    @Before
+    public void setUp() {
+        schema = new SagaContextSchema(1)
+                .field(1, "name", SagaContextSchema.Type.STRING)
+                .field(2, "count", SagaContextSchema.Type.INTEGER)
+                .field(3, "items", SagaContextSchema.Type.SERIALIZABLE);
+        codec = new BinarySagaContextCodec(schema);
+
+        sagaContext = new SagaContext();
+        sagaContext.setSagaId("saga");
+        sagaContext.addObject("name", "order");
+        sagaContext.addObject("count", 3);
+        sagaContext.addObject("items", new ArrayList<>(List.of("a", "b")));
+        sagaContext.addObject("total", 12L);  // not declared in the schema
+        sagaContext.addObject("price", 4.0);
+        sagaContext.addObject("paid", true);
+        sagaContext.addObject("receipt", new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SagaContext copy = codec.decode(codec.encode(sagaContext));
+        assertEquals("saga", copy.getSagaId());
+        assertEquals("order", copy.getObject("name"));
+        assertEquals(3, copy.getObject("count"));
+        assertEquals(List.of("a", "b"), copy.getObject("items"));
+        assertEquals(12L, copy.getObject("total"));
+        assertEquals(4.0, copy.getObject("price"));
+        assertEquals(true, copy.getObject("paid"));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) copy.getObject("receipt"));
+        assertEquals(sagaContext.getObjects().size(), copy.getObjects().size());
+    }
+
+    @Test
+    public void testDeltaCarriesOnlyTheChanges() throws Exception {
+        SagaContext participantContext = codec.decode(codec.encode(sagaContext));
+        byte[] unchanged = codec.encodeDelta(participantContext);
+
+        participantContext.addObject("count", 4);
+        participantContext.addObject("shipped", "today");
+        participantContext.removeObject("paid");
+        byte[] delta = codec.encodeDelta(participantContext);
+        assertTrue(delta.length < codec.encode(participantContext).length);
+        assertTrue(unchanged.length < delta.length);
+
+        codec.applyDelta(sagaContext, delta);
+        assertEquals(4, sagaContext.getObject("count"));
+        assertEquals("today", sagaContext.getObject("shipped"));
+        assertNull(sagaContext.getObject("paid"));
+        assertEquals("order", sagaContext.getObject("name"));  // untouched
+        assertEquals(12L, sagaContext.getObject("total"));
+    }
+
+    @Test
+    public void testDeltaOfContextNotDecodedReplacesTheObjects() throws Exception {
+        SagaContext replacement = new SagaContext();
+        replacement.addObject("name", "replaced");
+
+        codec.applyDelta(sagaContext, codec.encodeDelta(replacement));
+        assertEquals(1, sagaContext.getObjects().size());
+        assertEquals("replaced", sagaContext.getObject("name"));
+    }
+
+    @Test
+    public void testUnknownFieldsAreSkipped() throws Exception {
+        SagaContextSchema earlier = new SagaContextSchema(0)
+                .field(1, "name", SagaContextSchema.Type.STRING)
+                .readsUpTo(1);
+        assertTrue(earlier.isCompatibleWith(schema));
+
+        SagaContext copy = new BinarySagaContextCodec(earlier).decode(codec.encode(sagaContext));
+        assertEquals("order", copy.getObject("name"));
+        assertNull(copy.getObject("count"));  // field 2 is not in the earlier schema
+        assertEquals(12L, copy.getObject("total"));  // written by key
+    }
+
+    @Test
+    public void testUnknownSchemaVersionIsRejected() throws Exception {
+        SagaContextSchema earlier = new SagaContextSchema(0)
+                .field(1, "name", SagaContextSchema.Type.STRING);
+        try {
+            new BinarySagaContextCodec(earlier).decode(codec.encode(sagaContext));
+            fail();
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().startsWith("Saga context written with an unknown schema version: 1"));
+        }
+        assertEquals("order", codec.decode(new BinarySagaContextCodec(earlier).encode(sagaContext)).getObject("name"));  // an earlier version
+    }
+
+    @Test(expected = SagaException.class)
+    public void testInvalidObjectLengthIsRejected() throws Exception {
+        SagaContext name = new SagaContext();
+        name.addObject("name", "order");
+        byte[] encoded = codec.encode(name);  // header | saga id | count | field id | type | length | "order"
+        ByteBuffer.wrap(encoded).putInt(encoded.length - 5 - 4, Integer.MAX_VALUE);
+        codec.decode(encoded);
+    }
+
+    @Test
+    public void testIncompatibleSchemas() throws Exception {
+        SagaContextSchema changedType = new SagaContextSchema(2)
+                .field(1, "name", SagaContextSchema.Type.STRING)
+                .field(2, "count", SagaContextSchema.Type.LONG);
+        SagaContextSchema changedKey = new SagaContextSchema(2)
+                .field(1, "title", SagaContextSchema.Type.STRING);
+        SagaContextSchema changedId = new SagaContextSchema(2)
+                .field(4, "name", SagaContextSchema.Type.STRING);
+
+        assertEquals(1, changedType.checkCompatibility(schema).size());
+        assertEquals(1, changedKey.checkCompatibility(schema).size());
+        assertEquals(1, changedId.checkCompatibility(schema).size());
+        try {
+            new BinarySagaContextCodec(changedType).decode(codec.encode(sagaContext));
+            fail();
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible saga context schema"));
+        }
+    }
+
+    @Test(expected = SagaException.class)
+    public void testObjectMustHaveItsDeclaredType() throws Exception {
+        sagaContext.addObject("count", "three");
+        codec.encode(sagaContext);
+    }
+
+    @Test(expected = SagaException.class)
+    public void testDeltaIsNotContext() throws Exception {
+        codec.decode(codec.encodeDelta(sagaContext));
+    }
+
+    @Test
+    public void testOnlyAllowedClassesAreDeserialized() throws Exception {
+        sagaContext.addObject("items", new Gadget());
+        byte[] encoded = codec.encode(sagaContext);
+        try {
+            codec.decode(encoded);
+            fail();
+        } catch (SagaException e) {
+            assertTrue(e.getException() instanceof InvalidClassException);
+        }
+    }
+
+    @Test
+    public void testLargeContextDoesNotKeepScratchBuffers() throws Exception {
+        sagaContext.addObject("receipt", new byte[4 * BinarySagaContextCodec.MAX_SCRATCH_SIZE]);
+        SagaContext copy = codec.decode(codec.encode(sagaContext));
+        assertEquals(4 * BinarySagaContextCodec.MAX_SCRATCH_SIZE, ((byte[]) copy.getObject("receipt")).length);
+        codec.encodeDelta(copy);
+
+        for (int size : BinarySagaContextCodec.scratchBufferSizes()) {
+            assertTrue(size <= BinarySagaContextCodec.MAX_SCRATCH_SIZE);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class FilePersistenceSessionTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("saga-log");
+    }
+
+    private static SagaLogRecord record(String sagaId, Saga.Status status, int nextGroup) {
+        BitSet completedSteps = new BitSet();
+        completedSteps.set(0, nextGroup);
+        return new SagaLogRecord(sagaId, "definition", status, nextGroup, completedSteps, 0, null, new byte[]{1, 2, 3});
+    }
+
+    private static Map<String, SagaLogRecord> bySagaId(Collection<SagaLogRecord> records) {
+        Map<String, SagaLogRecord> map = new HashMap<>();
+        records.forEach(record -> map.put(record.getSagaId(), record));
+        return map;
+    }
+
+    private static void append(FilePersistenceSession session, SagaLogRecord... records) throws Exception {
+        CompletableFuture<?>[] durable = new CompletableFuture<?>[records.length];
+        for (int i = 0; i < records.length; i++) {
+            durable[i] = session.append(records[i]);
+        }
+        CompletableFuture.allOf(durable).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            append(session, record("a", Saga.Status.RUNNING, 0), record("b", Saga.Status.RUNNING, 0));
+            append(session, record("a", Saga.Status.RUNNING, 2), record("b", Saga.Status.COMPLETED, 1));
+            append(session, record("c", Saga.Status.COMPENSATING, 1));
+        }
+
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            Map<String, SagaLogRecord> recovered = bySagaId(session.recover());
+            assertEquals(2, recovered.size());  // the sagas that ended are forgotten
+            assertEquals(2, recovered.get("a").getNextGroup());  // the last record of every saga
+            assertEquals(2, recovered.get("a").getCompletedSteps().cardinality());
+            assertEquals(Saga.Status.COMPENSATING, recovered.get("c").getStatus());
+        }
+    }
+
+    @Test
+    public void testTornTailEndsTheLog() throws Exception {
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            append(session, record("a", Saga.Status.RUNNING, 1));
+            append(session, record("b", Saga.Status.RUNNING, 1));
+        }
+        Path log = directory.resolve("saga.log");
+        long size = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);  // the last record is torn
+        }
+
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            assertEquals(1, session.recover().size());
+            assertEquals("a", session.recover().iterator().next().getSagaId());
+            append(session, record("c", Saga.Status.RUNNING, 1));  // written where the torn record was
+        }
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            assertEquals(2, bySagaId(session.recover()).size());
+            assertTrue(bySagaId(session.recover()).containsKey("c"));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordEndsTheLog() throws Exception {
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            append(session, record("a", Saga.Status.RUNNING, 1));
+            append(session, record("b", Saga.Status.RUNNING, 1));
+        }
+        Path log = directory.resolve("saga.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xff}), Files.size(log) - 1);  // the checksum of the last record fails
+        }
+
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            assertEquals(1, session.recover().size());
+            assertEquals("a", session.recover().iterator().next().getSagaId());
+        }
+    }
+
+    @Test
+    public void testSnapshotCompactsTheLog() throws Exception {
+        long threshold = 1024;
+        try (FilePersistenceSession session = new FilePersistenceSession(directory, threshold)) {
+            for (int i = 0; i < 100; i++) {
+                append(session, record("saga " + i, Saga.Status.RUNNING, 0));
+                if (i % 2 == 0) {
+                    append(session, record("saga " + i, Saga.Status.COMPLETED, 1));
+                }
+            }
+            assertTrue(Files.exists(directory.resolve("saga.snapshot")));
+            assertTrue(Files.size(directory.resolve("saga.log")) <= threshold);
+        }
+
+        try (FilePersistenceSession session = new FilePersistenceSession(directory, threshold)) {
+            Map<String, SagaLogRecord> recovered = bySagaId(session.recover());
+            assertEquals(50, recovered.size());  // from the snapshot and the log written since
+            for (int i = 1; i < 100; i += 2) {
+                assertTrue(recovered.containsKey("saga " + i));
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());  // the log and the snapshot, no temporary snapshot left behind
+        }
+    }
+
+    @Test
+    public void testClosedSessionRejectsAppends() throws Exception {
+        FilePersistenceSession session = new FilePersistenceSession(directory);
+        session.close();
+        assertTrue(session.append(record("a", Saga.Status.RUNNING, 0)).isCompletedExceptionally());
+        session.close();
+    }
+
+    @Test
+    public void testFailedRecordDoesNotStopTheWriter() throws Exception {
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            CompletableFuture<Void> failed = session.append(record(null, Saga.Status.RUNNING, 0));  // can not be encoded
+            append(session, record("a", Saga.Status.RUNNING, 1));
+            assertTrue(failed.isCompletedExceptionally());
+        }
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            assertEquals(1, session.recover().size());
+        }
+    }
+
+    @Test
+    public void testUnsupportedVersionIsNotTruncated() throws Exception {
+        try (FilePersistenceSession session = new FilePersistenceSession(directory)) {
+            append(session, record("a", Saga.Status.RUNNING, 1));
+        }
+        Path log = directory.resolve("saga.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 99), 4);  // the version
+        }
+        long size = Files.size(log);
+        assertThrows(IOException.class, () -> new FilePersistenceSession(directory));
+        assertEquals(size, Files.size(log));
+    }
+
+    @Test
+    public void testInvalidContextLengthIsRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        record("saga", Saga.Status.RUNNING, 0).write(new DataOutputStream(bytes));
+        ByteBuffer encoded = ByteBuffer.wrap(bytes.toByteArray());
+        encoded.putInt(encoded.capacity() - 3 - 4, Integer.MAX_VALUE);  // the length of the (3 bytes) context
+
+        assertThrows(IOException.class, () -> SagaLogRecord.read(new DataInputStream(new ByteArrayInputStream(encoded.array()))));
+    }
+}
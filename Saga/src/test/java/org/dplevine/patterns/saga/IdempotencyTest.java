@@ -0,0 +1,140 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotencyTest {
+    private static final AtomicInteger runs = new AtomicInteger();
+    private static volatile CountDownLatch started = new CountDownLatch(1);
+    private static volatile CountDownLatch release = new CountDownLatch(0);
+    private static Participant participant;
+
+    public static class Participant extends SagaParticipant {
+        Participant() throws Exception {
+        }
+
+        @SagaTransactionDefinition(name = "idempotentReserve")
+        public SagaContext reserve(SagaContext sagaContext) throws Exception {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            sagaContext.addObject("reservation", runs.incrementAndGet());
+            return sagaContext;
+        }
+
+        @SagaTransactionDefinition(name = "idempotentFail")
+        public SagaContext fail(SagaContext sagaContext) throws Exception {
+            release.await(10, TimeUnit.SECONDS);
+            runs.incrementAndGet();
+            throw new Exception("failed");
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        participant = new Participant();
+        participant.start();
+    }
+
+    @Before
+    public void setUp() {
+        IdempotencyStore.setIdempotencyStore(new InMemoryIdempotencyStore());
+        runs.set(0);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(0);
+    }
+
+    @Test
+    public void testDuplicateIsAnsweredFromTheStore() throws Exception {
+        SagaContext first = participant.dispatchRequest("idempotentReserve", "request 1", new SagaContext()).get();
+        SagaContext duplicate = participant.dispatchRequest("idempotentReserve", "request 1", new SagaContext()).get();
+        SagaContext other = participant.dispatchRequest("idempotentReserve", "request 2", new SagaContext()).get();
+
+        assertEquals(2, runs.get());
+        assertEquals(1, first.getObject("reservation"));
+        assertEquals(1, duplicate.getObject("reservation"));
+        assertEquals(2, other.getObject("reservation"));
+    }
+
+    @Test
+    public void testDuplicateOfRunningRequestDoesNotBlock() throws Exception {
+        release = new CountDownLatch(1);
+        CompletableFuture<SagaContext> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return participant.dispatchRequest("idempotentReserve", "request", new SagaContext()).join();
+            } catch (SagaException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<SagaContext> duplicate = participant.dispatchRequest("idempotentReserve", "request", new SagaContext());
+        assertFalse(duplicate.isDone());  // returned at once, answered once the first one ends
+        release.countDown();
+
+        assertEquals(1, first.get(10, TimeUnit.SECONDS).getObject("reservation"));
+        assertEquals(1, duplicate.get(10, TimeUnit.SECONDS).getObject("reservation"));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testFailedRequestIsNotRecorded() throws Exception {
+        for (int i = 1; i <= 2; i++) {
+            try {
+                participant.dispatchRequest("idempotentFail", "request", new SagaContext());
+                fail();
+            } catch (SagaException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            assertEquals(i, runs.get());  // run again
+        }
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        List<String> evicted = new Vector<>();
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(100, 50, evicted::add);
+        store.put("request", new byte[]{1});
+        assertArrayEquals(new byte[]{1}, store.get("request"));
+
+        Thread.sleep(100);
+        assertNull(store.get("request"));
+        assertEquals(List.of("request"), evicted);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testOldestEntriesAreEvicted() {
+        List<String> evicted = new Vector<>();
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(3, 60_000, evicted::add);
+        for (int i = 1; i <= 5; i++) {
+            store.put("request " + i, new byte[]{(byte) i});
+        }
+
+        assertEquals(3, store.size());
+        assertEquals(List.of("request 1", "request 2"), evicted);
+        assertNull(store.get("request 1"));
+        assertArrayEquals(new byte[]{5}, store.get("request 5"));
+    }
+
+    @Test
+    public void testRecordedAgainIsNotEvictedByItsOldEntry() {
+        List<String> evicted = new Vector<>();
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(2, 60_000, evicted::add);
+        store.put("request 1", new byte[]{1});
+        store.put("request 2", new byte[]{2});
+        store.put("request 1", new byte[]{3});  // recorded again, its first entry is stale
+        store.put("request 3", new byte[]{4});
+
+        assertEquals(List.of("request 2"), evicted);
+        assertArrayEquals(new byte[]{3}, store.get("request 1"));
+    }
+}
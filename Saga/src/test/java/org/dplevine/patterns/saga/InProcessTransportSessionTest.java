@@ -0,0 +1,59 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class InProcessTransportSessionTest {
+    private InProcessTransportSession participant;
+    private InProcessTransportSession coordinator;
+
+    @Before
+    public void setUp() {
+        participant = new InProcessTransportSession();
+        participant.serve(List.of("inProcessUpdate"), (sagaTransactionName, requestId, sagaContext) -> {
+            sagaContext.addObject("added", "added");
+            sagaContext.removeObject("removed");
+            return CompletableFuture.completedFuture(sagaContext);
+        });
+        coordinator = new InProcessTransportSession();
+    }
+
+    @After
+    public void tearDown() {
+        participant.close();
+        coordinator.close();
+    }
+
+    @Test
+    public void testParticipantGetsCopy() throws Exception {
+        SagaContext sagaContext = new SagaContext();
+        sagaContext.addObject("removed", "removed");
+
+        SagaContext reply = coordinator.request("inProcessUpdate", null, sagaContext).get(10, TimeUnit.SECONDS);
+        assertNotSame(sagaContext, reply);
+        assertEquals("added", reply.getObject("added"));
+        assertNull(reply.getObject("removed"));
+        assertNull(sagaContext.getObject("added"));  // the saga's context is only updated from the reply, by the coordinator
+        assertEquals("removed", sagaContext.getObject("removed"));
+    }
+
+    @Test
+    public void testIdleWorkersAreWokenUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(50);  // the workers park
+            assertEquals("added", coordinator.request("inProcessUpdate", null, new SagaContext()).get(10, TimeUnit.SECONDS).getObject("added"));
+        }
+    }
+
+    @Test
+    public void testClosedParticipantIsNotServed() {
+        participant.close();
+        assertTrue(coordinator.request("inProcessUpdate", null, new SagaContext()).isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,85 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePowerOfTwo() {
+        new RingBuffer<>(12);
+    }
+
+    @Test
+    public void testFirstInFirstOut() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+        for (int round = 0; round < 3; round++) {  // wraps around
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(i));
+            }
+            assertFalse(ring.offer(4));  // full
+            assertFalse(ring.isEmpty());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), ring.poll());
+            }
+            assertNull(ring.poll());
+            assertTrue(ring.isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        int producers = 4;
+        int consumers = 4;
+        int elementsPerProducer = 100_000;
+        RingBuffer<Integer> ring = new RingBuffer<>(64);  // small, so producers and consumers contend for slots
+        ConcurrentHashMap<Integer, Boolean> consumed = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(producers * elementsPerProducer);
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int first = p * elementsPerProducer;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < first + elementsPerProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                while (remaining.get() > 0) {
+                    Integer element = ring.poll();
+                    if (element == null) {
+                        Thread.yield();
+                    } else {
+                        if (consumed.put(element, Boolean.TRUE) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                        remaining.decrementAndGet();
+                    }
+                }
+                done.countDown();
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * elementsPerProducer, consumed.size());
+        assertTrue(ring.isEmpty());
+    }
+}
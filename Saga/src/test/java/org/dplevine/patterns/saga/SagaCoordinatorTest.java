@@ -0,0 +1,232 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SagaCoordinatorTest {
+    private static final List<String> calls = new Vector<>();
+    private static final AtomicInteger refundFailures = new AtomicInteger();  // the next calls of flakyRefund that fail
+    private static SagaCoordinator coordinator;
+
+    public static class Participant extends SagaParticipant {
+        Participant() throws Exception {
+        }
+
+        @SagaTransactionDefinition(name = "order")
+        public void order(SagaContext sagaContext) {
+            calls.add("order");
+        }
+
+        @SagaTransactionDefinition(name = "cancelOrder")
+        public void cancelOrder(SagaContext sagaContext) {
+            calls.add("cancelOrder");
+        }
+
+        @SagaTransactionDefinition(name = "reserve")
+        public SagaContext reserve(SagaContext sagaContext) throws Exception {
+            Thread.sleep(50);  // the other steps of its group fail meanwhile
+            sagaContext.addObject("reserved", 1);
+            calls.add("reserve");
+            return sagaContext;
+        }
+
+        @SagaTransactionDefinition(name = "release")
+        public void release(SagaContext sagaContext) {
+            calls.add("release");
+        }
+
+        @SagaTransactionDefinition(name = "charge")
+        public SagaContext charge(SagaContext sagaContext) {
+            sagaContext.addObject("charged", 2);
+            calls.add("charge");
+            return sagaContext;
+        }
+
+        @SagaTransactionDefinition(name = "decline")
+        public SagaContext decline(SagaContext sagaContext) throws Exception {
+            calls.add("decline");
+            throw new Exception("declined");
+        }
+
+        @SagaTransactionDefinition(name = "refund")
+        public void refund(SagaContext sagaContext) {
+            calls.add("refund");
+        }
+
+        @SagaTransactionDefinition(name = "flakyRefund")
+        public void flakyRefund(SagaContext sagaContext) throws Exception {
+            calls.add("flakyRefund");
+            if (refundFailures.getAndDecrement() > 0) {
+                throw new Exception("refund unavailable");
+            }
+        }
+
+        @SagaTransactionDefinition(name = "ship")
+        public void ship(SagaContext sagaContext) {
+            calls.add("ship");
+        }
+
+        @SagaTransactionDefinition(name = "unship")
+        public void unship(SagaContext sagaContext) {
+            calls.add("unship");
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        coordinator = SagaCoordinator.getSagaCoordinator();
+        new Participant().start();
+    }
+
+    @Before
+    public void setUp() {
+        calls.clear();
+    }
+
+    private static Saga run(SagaDefinition sagaDefinition) throws Exception {
+        return coordinator.startSaga(sagaDefinition, new SagaContext()).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCompletedSaga() throws Exception {
+        Saga saga = run(new SagaDefinition("completed")
+                .addStep("order", "order", "cancelOrder")
+                .addParallelSteps(SagaDefinition.step("reserve", "reserve", "release"), SagaDefinition.step("charge", "charge", "refund"))
+                .addStep("ship", "ship", "unship"));
+
+        assertEquals(Saga.Status.COMPLETED, saga.getStatus());
+        assertNull(saga.getFailure());
+        assertEquals(List.of("order", "reserve", "charge", "ship"), saga.getCompletedStepIds());
+        assertEquals(1, saga.getSagaContext().getObject("reserved"));  // both results of the parallel group are merged
+        assertEquals(2, saga.getSagaContext().getObject("charged"));
+        assertEquals("order", calls.get(0));
+        assertEquals("ship", calls.get(3));
+    }
+
+    @Test
+    public void testCompensationOrder() throws Exception {
+        Saga saga = run(new SagaDefinition("compensated")
+                .addStep("order", "order", "cancelOrder")
+                .addStep("charge", "charge", "refund")
+                .addStep("ship", "decline", "unship"));
+
+        assertEquals(Saga.Status.COMPENSATED, saga.getStatus());
+        assertEquals("declined", saga.getFailure().getMessage());
+        assertEquals(List.of("order", "charge", "decline", "refund", "cancelOrder"), calls);  // the failed step is not compensated
+    }
+
+    @Test
+    public void testPartialCompensationOfParallelGroup() throws Exception {
+        Saga saga = run(new SagaDefinition("partial")
+                .addStep("order", "order", "cancelOrder")
+                .addParallelSteps(SagaDefinition.step("reserve", "reserve", "release"), SagaDefinition.step("charge", "decline", "refund"))
+                .addStep("ship", "ship", "unship"));
+
+        assertEquals(Saga.Status.COMPENSATED, saga.getStatus());
+        assertFalse(calls.contains("ship"));  // the next group is not dispatched
+        assertFalse(calls.contains("refund"));  // only the steps of the group that succeeded are compensated
+        assertFalse(calls.contains("unship"));
+        assertTrue(calls.indexOf("release") > calls.indexOf("reserve"));  // once the whole group completed
+        assertEquals("cancelOrder", calls.get(calls.size() - 1));  // then the previous groups, in reverse order
+        assertEquals(calls.size() - 2, calls.indexOf("release"));
+    }
+
+    @Test
+    public void testFailuresOfGroupAreReported() throws Exception {
+        Saga saga = run(new SagaDefinition("failures")
+                .addParallelSteps(SagaDefinition.step("first", "decline", "refund"), SagaDefinition.step("second", "decline", "refund")));
+
+        assertEquals(Saga.Status.COMPENSATED, saga.getStatus());
+        assertEquals(1, saga.getFailure().getSuppressed().length);
+        assertFalse(calls.contains("refund"));
+    }
+
+    @Test
+    public void testFailedCompensationIsRetriedUntilItSucceeds() throws Exception {
+        refundFailures.set(2);
+        Saga saga = run(new SagaDefinition("retried")
+                .addStep("order", "order", "cancelOrder")
+                .addStep("charge", "charge", "flakyRefund")
+                .addStep("ship", "decline", "unship"));
+
+        assertEquals(Saga.Status.COMPENSATED, saga.getStatus());
+        assertEquals("declined", saga.getFailure().getMessage());
+        assertEquals(List.of("order", "charge", "decline", "flakyRefund", "flakyRefund", "flakyRefund", "cancelOrder"), calls);
+        assertNotNull(IdempotencyStore.getIdempotencyStore().get(saga.getSagaId() + "/charge/flakyRefund"));  // one request id for every attempt
+    }
+
+    @Test
+    public void testFailingCompensationLeavesTheSagaCompensating() throws Exception {
+        refundFailures.set(Integer.MAX_VALUE);
+        SagaDefinition sagaDefinition = new SagaDefinition("failing")
+                .addStep("charge", "charge", "flakyRefund")
+                .addStep("ship", "decline", "unship");
+        CompletableFuture<Saga> completion = coordinator.startSaga(sagaDefinition, new SagaContext());
+        try {
+            for (int i = 0; i < 500 && calls.stream().filter("flakyRefund"::equals).count() < 4; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(calls.stream().filter("flakyRefund"::equals).count() >= 4);  // still retried past the attempts it used to give up after
+            assertFalse(completion.isDone());
+            assertEquals(1, coordinator.getActiveSagaCount());
+        } finally {
+            refundFailures.set(0);  // lets the saga end
+        }
+        assertEquals(Saga.Status.COMPENSATED, completion.get(10, TimeUnit.SECONDS).getStatus());
+    }
+
+    @Test
+    public void testSagaSpecificationFile() throws Exception {
+        Path spec = Files.createTempFile("saga", ".json");
+        Files.writeString(spec, "{\"id\":\"specified\",\"stages\":[{\"id\":\"order\",\"className\":\"saga transaction\",\"compensation\":\"cancelOrder\"}," +
+                "{\"id\":\"ship\",\"className\":\"saga transaction\",\"compensation\":\"unship\"}],\"steps\":[\"order\",\"ship\"]}");
+        SagaDefinition sagaDefinition = coordinator.registerSagaDefinition(spec);
+        assertSame(sagaDefinition, coordinator.registerSagaDefinition(spec));  // read once
+
+        assertEquals(Saga.Status.COMPLETED, run(sagaDefinition).getStatus());
+        assertEquals(List.of("order", "ship"), calls);
+    }
+
+    @Test
+    public void testMalformedSpecificationIsRejected() throws Exception {
+        Path spec = Files.createTempFile("saga", ".yaml");
+        Files.writeString(spec, "id: malformed\nstages:\n  - id: order\n    className: saga transaction\n  - id: order\n    className: saga transaction\nsteps:\n  - order\n");
+        try {
+            coordinator.registerSagaDefinition(spec);
+            fail();
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().startsWith("Saga specification (malformed) is malformed"));  // the duplicated stage id
+        }
+        assertNull(coordinator.getSagaDefinition("malformed"));
+    }
+
+    @Test
+    public void testSagaForwardedAgainIsNotRunAgain() throws Exception {
+        coordinator.registerSagaDefinition(new SagaDefinition("forwarded")
+                .addStep("order", "order", "cancelOrder"));
+        String requestId = UUID.randomUUID() + "/forwarded";
+
+        SagaContext answer = coordinator.runForwardedSaga("forward", requestId, new SagaContext()).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("order"), calls);
+        SagaContext again = coordinator.runForwardedSaga("forward", requestId, new SagaContext()).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("order"), calls);  // answered with the outcome of the first run
+        assertEquals(Saga.Status.COMPLETED, again.getObject("<saga status>"));
+        assertEquals(answer.getObjects().keySet(), again.getObjects().keySet());
+    }
+
+    @Test(expected = SagaException.class)
+    public void testUnknownDefinitionIsRejected() throws Exception {
+        coordinator.startSaga("no such saga", new SagaContext());
+    }
+}
@@ -0,0 +1,92 @@
+package org.dplevine.patterns.saga;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a coordinator process of ShardedCoordinatorTest (configured by the system properties it is started with)
+public class SagaProcess {
+    static final String DEFINITION = "sharded";
+    private static final AtomicInteger firstSteps = new AtomicInteger();
+    private static final AtomicInteger secondSteps = new AtomicInteger();
+
+    public static class Participant extends SagaParticipant {
+        Participant() throws Exception {
+        }
+
+        @SagaTransactionDefinition(name = "shardedFirst")
+        public void first(SagaContext sagaContext) {
+            firstSteps.incrementAndGet();
+        }
+
+        @SagaTransactionDefinition(name = "shardedSecond")
+        public void second(SagaContext sagaContext) {
+            secondSteps.incrementAndGet();
+            sagaContext.addObject("second", "done");
+        }
+
+        @SagaTransactionDefinition(name = "shardedUndo")
+        public void undo(SagaContext sagaContext) {
+        }
+    }
+
+    static SagaDefinition definition() {
+        return new SagaDefinition(DEFINITION)
+                .addStep("first", "shardedFirst", "shardedUndo")
+                .addStep("second", "shardedSecond", "shardedUndo");
+    }
+
+    public static void main(String[] args) throws Exception {
+        SagaCoordinator coordinator = SagaCoordinator.getSagaCoordinator();
+        new Participant().start();
+        switch (args[0]) {
+            case "recover":  // resumes the sagas of the saga log
+                coordinator.registerSagaDefinition(definition());
+                for (int i = 0; i < 2000 && coordinator.getActiveSagaCount() > 0; i++) {
+                    Thread.sleep(10);
+                }
+                break;
+            case "serve":  // runs the sagas forwarded to it until its input is closed
+                coordinator.registerSagaDefinition(definition());
+                System.out.println("ready");
+                while (System.in.read() >= 0) {
+                    // until closed
+                }
+                break;
+            case "start":  // starts sagas, forwarding those of the other process's shards
+                coordinator.registerSagaDefinition(definition());
+                List<CompletableFuture<Saga>> sagas = new ArrayList<>();
+                for (int i = 0; i < Integer.parseInt(args[1]); i++) {
+                    sagas.add(start(coordinator));
+                }
+                int completed = 0;
+                for (CompletableFuture<Saga> saga : sagas) {
+                    Saga ended = saga.get(20, TimeUnit.SECONDS);
+                    if (ended.getStatus() == Saga.Status.COMPLETED && "done".equals(ended.getSagaContext().getObject("second"))) {
+                        completed++;
+                    }
+                }
+                System.out.println("completed=" + completed);
+                break;
+            default:
+                throw new IllegalArgumentException(args[0]);
+        }
+        System.out.println("shards=" + coordinator.getShardCount());
+        System.out.println("active=" + coordinator.getActiveSagaCount());
+        System.out.println("first=" + firstSteps.get());
+        System.out.println("second=" + secondSteps.get());
+        System.exit(0);
+    }
+
+    // the other process may not serve its shards yet: a saga that could not be forwarded is started again
+    private static CompletableFuture<Saga> start(SagaCoordinator coordinator) throws Exception {
+        CompletableFuture<Saga> saga = coordinator.startSaga(DEFINITION, new SagaContext());
+        for (int attempt = 0; attempt < 100 && saga.isCompletedExceptionally(); attempt++) {
+            Thread.sleep(100);
+            saga = coordinator.startSaga(DEFINITION, new SagaContext());
+        }
+        return saga;
+    }
+}
@@ -0,0 +1,151 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+public class SagaTransactionTest {
+    private static Participant participant;
+
+    public static class Participant extends SagaParticipant {
+        Participant() throws Exception {
+        }
+
+        public SagaContext publicMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "publicMethod");
+            return sagaContext;
+        }
+
+        public void voidMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "voidMethod");
+        }
+
+        private SagaContext privateMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "privateMethod");
+            return sagaContext;
+        }
+
+        void packageVoidMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "packageVoidMethod");
+        }
+
+        public static SagaContext staticMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "staticMethod");
+            return sagaContext;
+        }
+
+        private static void privateStaticMethod(SagaContext sagaContext) {
+            sagaContext.addObject("called", "privateStaticMethod");
+        }
+
+        public SagaContext nullMethod(SagaContext sagaContext) {
+            return null;
+        }
+
+        public SagaContext newContextMethod(SagaContext sagaContext) {
+            SagaContext result = new SagaContext();
+            result.addObject("called", "newContextMethod");
+            return result;
+        }
+
+        public SagaContext failingMethod(SagaContext sagaContext) throws IOException {
+            throw new IOException("failed");
+        }
+
+        public void failingVoidMethod(SagaContext sagaContext) throws SagaException {
+            throw new SagaException("failed");
+        }
+
+        public String wrongReturnType(SagaContext sagaContext) {
+            return "";
+        }
+
+        public SagaContext wrongParameters(SagaContext sagaContext, int extra) {
+            return sagaContext;
+        }
+    }
+
+    public static class Other {
+        public SagaContext otherMethod(SagaContext sagaContext) {
+            return sagaContext;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        participant = new Participant();
+    }
+
+    private static SagaTransaction transaction(String methodName) throws Exception {
+        return new SagaTransaction(methodName, participant, Participant.class.getDeclaredMethod(methodName, SagaContext.class));
+    }
+
+    private static void assertCalled(String methodName) throws Exception {
+        SagaContext sagaContext = new SagaContext();
+        SagaContext result = transaction(methodName).dispatchSagaTransaction(sagaContext);
+        assertSame(sagaContext, result);
+        assertEquals(methodName, result.getObject("called"));
+    }
+
+    @Test
+    public void testPublicMethod() throws Exception {
+        assertCalled("publicMethod");
+    }
+
+    @Test
+    public void testVoidMethodReturnsTheContextPassedIn() throws Exception {
+        assertCalled("voidMethod");
+        assertCalled("packageVoidMethod");
+    }
+
+    @Test
+    public void testNonPublicMethod() throws Exception {
+        assertCalled("privateMethod");
+    }
+
+    @Test
+    public void testStaticMethods() throws Exception {
+        assertCalled("staticMethod");
+        assertCalled("privateStaticMethod");
+    }
+
+    @Test
+    public void testReturnedContext() throws Exception {
+        SagaContext sagaContext = new SagaContext();
+        assertSame(sagaContext, transaction("nullMethod").dispatchSagaTransaction(sagaContext));
+        assertEquals("newContextMethod", transaction("newContextMethod").dispatchSagaTransaction(sagaContext).getObject("called"));
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception {
+        try {
+            transaction("failingMethod").dispatchSagaTransaction(new SagaContext());
+            fail();
+        } catch (SagaException e) {
+            assertTrue(e.getException() instanceof IOException);
+        }
+        try {
+            transaction("failingVoidMethod").dispatchSagaTransaction(new SagaContext());
+            fail();
+        } catch (SagaException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    @Test(expected = SagaException.class)
+    public void testWrongReturnTypeIsRejected() throws Exception {
+        transaction("wrongReturnType");
+    }
+
+    @Test(expected = SagaException.class)
+    public void testWrongParametersAreRejected() throws Exception {
+        new SagaTransaction("wrongParameters", participant, Participant.class.getDeclaredMethod("wrongParameters", SagaContext.class, int.class));
+    }
+
+    @Test(expected = SagaException.class)
+    public void testMethodOfAnotherClassIsRejected() throws Exception {
+        new SagaTransaction("otherMethod", participant, Other.class.getDeclaredMethod("otherMethod", SagaContext.class));
+    }
+}
@@ -0,0 +1,143 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// every coordinator runs in a process of its own (see SagaProcess), as the saga coordinator is configured once per process
+public class ShardedCoordinatorTest {
+
+    private static final class CoordinatorProcess {
+        private final Process process;
+        private final List<String> output = Collections.synchronizedList(new ArrayList<>());
+        private final Thread reader;
+
+        CoordinatorProcess(Map<String, String> properties, String... args) throws Exception {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            properties.forEach((key, value) -> command.add("-D" + key + "=" + value));
+            command.add(SagaProcess.class.getName());
+            command.addAll(Arrays.asList(args));
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        output.add(line);
+                    }
+                } catch (Exception e) {
+                    // the process ended
+                }
+            });
+            reader.start();
+        }
+
+        void awaitLine(String line) throws Exception {
+            for (int i = 0; i < 2000 && !output.contains(line); i++) {
+                assertTrue("the coordinator process ended: " + output, process.isAlive());
+                Thread.sleep(10);
+            }
+            assertTrue(output.contains(line));
+        }
+
+        // the key=value lines the process printed before exiting
+        Map<String, String> results() throws Exception {
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            reader.join();
+            assertEquals("the coordinator process failed: " + output, 0, process.exitValue());
+            Map<String, String> results = new HashMap<>();
+            synchronized (output) {
+                for (String line : output) {
+                    int separator = line.indexOf('=');
+                    if (separator > 0 && !line.contains(" ")) {
+                        results.put(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            }
+            return results;
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path segment(Path directory, int segment) {
+        return (segment == 0) ? directory : Paths.get(directory + "-" + segment);
+    }
+
+    @Test
+    public void testRecoveryWithMoreShards() throws Exception {
+        Path directory = Files.createTempDirectory("sharded").resolve("saga-log");
+        SagaDefinition definition = SagaProcess.definition();
+        definition.validate();
+
+        // the saga log of a coordinator with 2 shards, which stopped once the first step of every saga completed
+        FilePersistenceSession[] segments = {new FilePersistenceSession(segment(directory, 0)), new FilePersistenceSession(segment(directory, 1))};
+        List<CompletableFuture<Void>> durable = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Saga saga = new Saga(UUID.randomUUID().toString(), definition, new SagaContext());
+            saga.stepCompleted(definition.getSteps().get(0));
+            saga.groupCompleted();
+            durable.add(segments[Math.floorMod(saga.getSagaId().hashCode(), 2)].append(SagaLogRecord.of(saga)));
+        }
+        CompletableFuture.allOf(durable.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        for (FilePersistenceSession segment : segments) {
+            assertFalse(segment.recover().isEmpty());
+            segment.close();
+        }
+
+        Map<String, String> results = new CoordinatorProcess(Map.of(
+                PersistenceFactory.PERSISTENCE_SESSION_PROPERTY, FilePersistenceSession.class.getName(),
+                FilePersistenceSession.DIRECTORY_PROPERTY, directory.toString(),
+                SagaCoordinator.SHARDS_PROPERTY, "4"), "recover").results();
+
+        assertEquals("4", results.get("shards"));
+        assertEquals("0", results.get("active"));
+        assertEquals("0", results.get("first"));  // resumed after the first step
+        assertEquals("20", results.get("second"));
+        for (int i = 0; i < 4; i++) {
+            try (FilePersistenceSession segment = new FilePersistenceSession(segment(directory, i))) {
+                assertTrue(segment.recover().isEmpty());  // every saga ended in the segment that logged it
+            }
+        }
+    }
+
+    @Test
+    public void testSagasAreForwardedToTheProcessOfTheirShard() throws Exception {
+        String shardMap = "127.0.0.1:" + freePort() + ",127.0.0.1:" + freePort();
+        CoordinatorProcess serving = new CoordinatorProcess(Map.of(
+                SagaCoordinator.SHARD_MAP_PROPERTY, shardMap,
+                SagaCoordinator.PROCESS_PROPERTY, "1",
+                SagaCoordinator.SHARDS_PROPERTY, "2"), "serve");
+        serving.awaitLine("ready");
+
+        Map<String, String> starting = new CoordinatorProcess(Map.of(
+                SagaCoordinator.SHARD_MAP_PROPERTY, shardMap,
+                SagaCoordinator.PROCESS_PROPERTY, "0",
+                SagaCoordinator.SHARDS_PROPERTY, "2"), "start", "40").results();
+        serving.process.getOutputStream().close();
+        Map<String, String> served = serving.results();
+
+        assertEquals("40", starting.get("completed"));
+        int local = Integer.parseInt(starting.get("first"));
+        int forwarded = Integer.parseInt(served.get("first"));
+        assertEquals(40, local + forwarded);  // every saga ran in one process, the one owning its shard
+        assertTrue(local > 0);
+        assertTrue(forwarded > 0);
+        assertEquals(String.valueOf(forwarded), served.get("second"));
+        assertEquals("0", served.get("active"));
+    }
+}
@@ -0,0 +1,132 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class TcpTransportSessionTest {
+    private TcpTransportSession coordinator;
+    private TcpTransportSession participant;
+
+    @Before
+    public void setUp() throws Exception {
+        InetSocketAddress address;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            address = new InetSocketAddress("127.0.0.1", socket.getLocalPort());
+        }
+        coordinator = new TcpTransportSession(address);
+        coordinator.start(true);
+        participant = new TcpTransportSession(address);
+        participant.start(false);
+        participant.serve(List.of("double"), (sagaTransactionName, requestId, sagaContext) -> {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));  // replies come back in any order
+            sagaContext.addObject("doubled", 2 * (Integer) sagaContext.getObject("n"));
+            sagaContext.removeObject("removed");
+            return CompletableFuture.completedFuture(sagaContext);
+        });
+        participant.serve(List.of("hang"), (sagaTransactionName, requestId, sagaContext) -> {
+            return new CompletableFuture<>();  // never replies
+        });  // registered before "fail", so it is registered once "fail" is
+        participant.serve(List.of("fail"), (sagaTransactionName, requestId, sagaContext) -> {
+            return CompletableFuture.failedFuture(new SagaException("failed: " + requestId));
+        });
+        awaitRegistration("double");
+        awaitRegistration("fail");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        participant.close();
+        coordinator.close();
+    }
+
+    // the participant registers its saga transactions asynchronously
+    private void awaitRegistration(String sagaTransactionName) throws Exception {
+        for (int attempt = 0; attempt < 500; attempt++) {
+            CompletableFuture<SagaContext> reply = coordinator.request(sagaTransactionName, null, context(0));
+            try {
+                reply.get(10, TimeUnit.SECONDS);
+                return;
+            } catch (ExecutionException e) {
+                if (!e.getCause().getMessage().startsWith("No saga participant")) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail(sagaTransactionName + " was not registered");
+    }
+
+    private static SagaContext context(int n) {
+        SagaContext sagaContext = new SagaContext();
+        sagaContext.addObject("n", n);
+        sagaContext.addObject("removed", "removed");
+        return sagaContext;
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        List<SagaContext> sagaContexts = new ArrayList<>();
+        List<CompletableFuture<SagaContext>> replies = new ArrayList<>();
+        for (int n = 0; n < 1000; n++) {  // all in flight at once, on one connection
+            SagaContext sagaContext = context(n);
+            sagaContexts.add(sagaContext);
+            replies.add(coordinator.request("double", "request " + n, sagaContext));
+        }
+        for (int n = 0; n < 1000; n++) {
+            SagaContext reply = replies.get(n).get(10, TimeUnit.SECONDS);
+            assertNotSame(sagaContexts.get(n), reply);  // the reply is applied to a copy of the context of its own request
+            assertNull(sagaContexts.get(n).getObject("doubled"));
+            assertEquals(2 * n, reply.getObject("doubled"));
+            assertEquals(n, reply.getObject("n"));
+            assertNull(reply.getObject("removed"));
+        }
+    }
+
+    @Test
+    public void testFramesLargerThanReadBuffer() throws Exception {
+        byte[] payload = new byte[512 * 1024];
+        ThreadLocalRandom.current().nextBytes(payload);
+        SagaContext sagaContext = context(21);
+        sagaContext.addObject("payload", payload);
+
+        SagaContext reply = coordinator.request("double", null, sagaContext).get(10, TimeUnit.SECONDS);
+        assertEquals(42, reply.getObject("doubled"));
+        assertArrayEquals(payload, (byte[]) reply.getObject("payload"));
+    }
+
+    @Test
+    public void testErrorsAreReplied() throws Exception {
+        try {
+            coordinator.request("fail", "request", context(0)).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SagaException);
+            assertEquals("failed: request", e.getCause().getMessage());
+        }
+        assertEquals(4, coordinator.request("double", null, context(2)).get(10, TimeUnit.SECONDS).getObject("doubled"));
+    }
+
+    @Test
+    public void testCancelledRequestIsForgotten() throws Exception {
+        CompletableFuture<SagaContext> reply = coordinator.request("hang", "request", context(0));
+        assertEquals(1, coordinator.getPendingRequestCount());
+        reply.cancel(false);
+        assertEquals(0, coordinator.getPendingRequestCount());
+    }
+
+    @Test
+    public void testUnknownTransactionFails() {
+        assertTrue(coordinator.request("unknown", null, context(0)).isCompletedExceptionally());
+    }
+}
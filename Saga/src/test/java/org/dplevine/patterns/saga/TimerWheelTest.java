@@ -0,0 +1,111 @@
+package org.dplevine.patterns.saga;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest {
+    private static final long TICK_MILLIS = 1;
+    private TimerWheel timerWheel;
+
+    @Before
+    public void setUp() {
+        timerWheel = new TimerWheel(Runnable::run, TICK_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        timerWheel.close();
+    }
+
+    // schedules a timeout recording when it expired (in nanos since it was scheduled)
+    private TimerWheel.Timeout schedule(long delayMillis, Map<Long, Long> expired, CountDownLatch done) {
+        long scheduled = System.nanoTime();
+        return timerWheel.schedule(delayMillis, () -> {
+            expired.put(delayMillis, System.nanoTime() - scheduled);
+            done.countDown();
+        });
+    }
+
+    @Test
+    public void testTimeoutsExpireInOrder() throws Exception {
+        Map<Long, Long> expired = new ConcurrentHashMap<>();
+        long[] delays = {0, 5, 63, 64, 65, 130, 300, 700};  // level 0, and cascading down from level 1 (64 ticks and more)
+        CountDownLatch done = new CountDownLatch(delays.length);
+        for (long delay : delays) {
+            schedule(delay, expired, done);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (long delay : delays) {
+            assertTrue("expired early: " + delay, expired.get(delay) >= TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+        assertEquals(0, timerWheel.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() throws Exception {
+        Map<Long, Long> expired = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(1);
+        TimerWheel.Timeout cancelledNow = schedule(20, expired, new CountDownLatch(1));
+        TimerWheel.Timeout cancelledAfterCascade = schedule(150, expired, new CountDownLatch(1));
+        schedule(200, expired, done);
+
+        assertTrue(cancelledNow.cancel());
+        Thread.sleep(100);  // the later timeout cascaded from level 1
+        assertTrue(cancelledAfterCascade.cancel());
+        assertFalse(cancelledAfterCascade.cancel());
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(200L), new ArrayList<>(expired.keySet()));
+        assertTrue(cancelledNow.isCancelled());
+        assertEquals(0, timerWheel.getPendingCount());
+    }
+
+    @Test
+    public void testExpiredTimeoutCanNotBeCancelled() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        TimerWheel.Timeout timeout = timerWheel.schedule(1, done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        int count = 20_000;
+        Map<Integer, Boolean> expired = new ConcurrentHashMap<>();
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(count / 2);
+        for (int i = 0; i < count; i++) {
+            int id = i;
+            timeouts.add(timerWheel.schedule(ThreadLocalRandom.current().nextInt(300), () -> {
+                expired.put(id, Boolean.TRUE);
+                done.countDown();
+            }));
+        }
+        int cancelled = 0;
+        for (int i = 1; i < count; i += 2) {  // the odd ones, unless they expired already
+            if (timeouts.get(i).cancel()) {
+                cancelled++;
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));  // the even ones
+        Thread.sleep(400);  // the odd ones that could not be cancelled
+        assertEquals(count - cancelled, expired.size());
+        for (int i = 1; i < count; i += 2) {
+            assertEquals(timeouts.get(i).isCancelled(), !expired.containsKey(i));
+        }
+        assertEquals(0, timerWheel.getPendingCount());
+    }
+}